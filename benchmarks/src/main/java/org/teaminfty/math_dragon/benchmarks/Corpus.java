@@ -0,0 +1,133 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.teaminfty.math_dragon.exceptions.ParseException;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.ExpressionXMLReader;
+import org.w3c.dom.Document;
+
+/**
+ * A fixed corpus of formulas, stored as XML (in the same format as the database uses) in the <tt>corpus</tt> resource directory.
+ * <p>
+ * The formulas are generated by a {@link RandomExpressionGenerator} with a fixed seed, so they can always be regenerated
+ * by running this class (<tt>./gradlew :benchmarks:generateCorpus</tt>). They're stored anyway, so the inputs of the
+ * benchmarks stay the same when the generator changes.
+ */
+public final class Corpus
+{
+    private Corpus()
+    {}
+
+    /** The number of nodes of the formulas in the corpus */
+    public static final int[] SIZES = new int[] {10, 30, 100, 300, 1000, 3000, 10000};
+
+    /** The seed the corpus is generated with */
+    private static final long SEED = 0x6d617468L;
+
+    /** Returns the name of the resource of the formula with the given number of nodes
+     * @param nodes The number of nodes
+     * @return The name of the resource */
+    private static String getFileName(int nodes)
+    { return "formula-" + nodes + ".xml"; }
+
+    /** Generates the formula with the given number of nodes
+     * @param nodes The number of nodes
+     * @return The formula */
+    public static Expression generate(int nodes)
+    { return new RandomExpressionGenerator(SEED + nodes).generate(nodes); }
+
+    /** Reads the XML of the formula with the given number of nodes from the corpus
+     * @param nodes The number of nodes, one of the {@link #SIZES}
+     * @return The XML
+     * @throws IOException Thrown if the formula couldn't be read */
+    public static byte[] readXML(int nodes) throws IOException
+    {
+        InputStream in = Corpus.class.getResourceAsStream("/corpus/" + getFileName(nodes));
+        if(in == null)
+            throw new IOException("The corpus has no formula of " + nodes + " nodes");
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while((n = in.read(buffer)) != -1)
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /** Loads the formula with the given number of nodes from the corpus
+     * @param nodes The number of nodes, one of the {@link #SIZES}
+     * @return The formula
+     * @throws IOException Thrown if the formula couldn't be read
+     * @throws ParseException Thrown if the formula couldn't be parsed */
+    public static Expression load(int nodes) throws IOException, ParseException
+    { return ExpressionXMLReader.fromXML(readXML(nodes)); }
+
+    /** Writes the given formula as XML, the same way the database does
+     * @param expr The formula
+     * @return The XML */
+    public static byte[] toXML(Expression expr)
+    {
+        try
+        {
+            Document doc = Expression.createXMLDocument();
+            expr.writeToXML(doc, doc.getDocumentElement());
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            transformer.transform(new DOMSource(doc), new StreamResult(byteStream));
+            return byteStream.toByteArray();
+        }
+        catch(ParserConfigurationException e)
+        { throw new IllegalStateException(e); }
+        catch(TransformerException e)
+        { throw new IllegalStateException(e); }
+    }
+
+    /** Regenerates the corpus
+     * @param args The directory to write the corpus to
+     * @throws IOException Thrown if the corpus couldn't be written */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length != 1)
+        {
+            System.err.println("Usage: Corpus <directory>");
+            System.exit(1);
+        }
+
+        File dir = new File(args[0]);
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Couldn't create " + dir);
+        for(int nodes : SIZES)
+        {
+            File file = new File(dir, getFileName(nodes));
+            OutputStream out = new FileOutputStream(file);
+            try
+            {
+                out.write(toXML(generate(nodes)));
+            }
+            finally
+            {
+                out.close();
+            }
+            System.out.println("Wrote " + file);
+        }
+    }
+}
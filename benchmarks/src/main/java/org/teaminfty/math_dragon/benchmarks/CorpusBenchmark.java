@@ -0,0 +1,61 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.teaminfty.math_dragon.exceptions.ParseException;
+import org.teaminfty.math_dragon.model.ParenthesesHelper;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.ExpressionDuplicator;
+import org.teaminfty.math_dragon.view.math.ExpressionXMLReader;
+
+/** Benchmarks the serialization of the formulas of the {@link Corpus}, which contain every kind of operation */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorpusBenchmark
+{
+    /** The number of nodes of the formula */
+    @Param({"10", "30", "100", "300", "1000", "3000", "10000"})
+    public int nodes;
+
+    /** The XML of the formula */
+    private byte[] xml;
+
+    /** The formula */
+    private Expression formula;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        xml = Corpus.readXML(nodes);
+        formula = Corpus.load(nodes);
+    }
+
+    @Benchmark
+    public Expression fromXML() throws ParseException
+    { return ExpressionXMLReader.fromXML(xml); }
+
+    @Benchmark
+    public byte[] toXML()
+    { return Corpus.toXML(formula); }
+
+    /** Sets the parentheses of a copy of the formula (see {@link ParenthesesHelperBenchmark}) */
+    @Benchmark
+    public Expression setParentheses()
+    { return ParenthesesHelper.setParentheses(ExpressionDuplicator.deepCopy(formula)); }
+}
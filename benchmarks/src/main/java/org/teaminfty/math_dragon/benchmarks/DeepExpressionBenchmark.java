@@ -0,0 +1,167 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.matheclipse.core.interfaces.IExpr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.teaminfty.math_dragon.exceptions.MathException;
+import org.teaminfty.math_dragon.exceptions.ParseException;
+import org.teaminfty.math_dragon.model.EvalHelper;
+import org.teaminfty.math_dragon.model.ExpressionBeautifier;
+import org.teaminfty.math_dragon.model.ModelHelper;
+import org.teaminfty.math_dragon.model.ParenthesesHelper;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.Symbol;
+import org.teaminfty.math_dragon.view.math.operation.Binary;
+import org.teaminfty.math_dragon.view.math.operation.binary.Add;
+import org.teaminfty.math_dragon.view.math.operation.binary.Divide;
+import org.teaminfty.math_dragon.view.math.operation.binary.Power;
+
+/**
+ * Benchmarks the conversions of {@link EvalHelper}, {@link ModelHelper}, {@link ExpressionBeautifier} and {@link ParenthesesHelper}
+ * on long chains of operations, like the results Symja gives for series expansions.
+ * <p>
+ * This only uses the public methods of the conversions, so it can be compared to the recursive conversions by running it
+ * on the commit before they were made iterative. The recursive conversions need a stack frame (or several) per operation
+ * in the chain, so those runs throw a {@link StackOverflowError} for the longest chains. The JVM has a larger stack than
+ * the worker threads on Android, so on a device they already fail for shorter chains.
+ * <p>
+ * Beautifying and setting the parentheses change the tree, so those benchmarks get a fresh tree for every invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeepExpressionBenchmark
+{
+    /** The minimum total number of nodes of the trees in {@link #ring}, so that cycling through it never hits the conversion cache */
+    private static final int RING_NODES = 4096;
+
+    /** The kinds of chains */
+    public enum Chain
+    {
+        /** A sum of terms <tt>c x^k</tt>, nested to the right like {@link ModelHelper} builds them (like a Taylor series) */
+        SUM,
+        /** A tower of powers <tt>a^(b^(c^...))</tt> */
+        POWER,
+        /** A chain of divisions <tt>a/(b/(c/...))</tt> */
+        DIVIDE
+    }
+
+    /** The kind of chain */
+    @Param({"SUM", "POWER", "DIVIDE"})
+    public Chain chain;
+
+    /** The number of operations in the chain */
+    @Param({"100", "1000", "10000"})
+    public int length;
+
+    /** Chains that have no subtree in common, so converting them never hits the conversion cache */
+    private Expression[] ring;
+
+    /** The index of the next chain in {@link #ring} */
+    private int next = 0;
+
+    /** The Symja expression of the chain */
+    private IExpr converted;
+
+    /** A fresh chain for the benchmarks that change the tree */
+    private Expression fresh;
+
+    @Setup(Level.Trial)
+    public void setUp() throws MathException
+    {
+        final int nodes = 2 * length + 1;
+        ring = new Expression[Math.max(2, (RING_NODES + nodes - 1) / nodes)];
+        for(int i = 0; i < ring.length; ++i)
+            ring[i] = create(chain, length, 1 + i * (length + 1));
+        converted = EvalHelper.eval(ring[0]);
+    }
+
+    @Setup(Level.Invocation)
+    public void createFresh()
+    { fresh = create(chain, length, 1); }
+
+    @Benchmark
+    public IExpr eval() throws MathException
+    {
+        Expression tree = ring[next];
+        next = (next + 1) % ring.length;
+        return EvalHelper.eval(tree);
+    }
+
+    @Benchmark
+    public Expression toExpression() throws ParseException
+    { return ModelHelper.toExpression(converted); }
+
+    @Benchmark
+    public Expression parse()
+    { return ExpressionBeautifier.parse(fresh); }
+
+    @Benchmark
+    public Expression setParentheses()
+    { return ParenthesesHelper.setParentheses(fresh); }
+
+    /** Creates a chain. It's built from the root down, so that attaching an operation doesn't refresh the whole chain below it.
+     * @param chain The kind of chain
+     * @param length The number of operations in the chain (at least <tt>1</tt>)
+     * @param firstLeaf The number of the first leaf, the leaves are numbered consecutively from this number
+     * @return The chain, it has <tt>2 * length + 1</tt> nodes */
+    static Expression create(Chain chain, int length, int firstLeaf)
+    {
+        Binary root = null;
+        Binary last = null;
+        for(int k = 0; k < length; ++k)
+        {
+            Binary op;
+            switch(chain)
+            {
+                case SUM:       op = new Add(term(firstLeaf + k, k), null);     break;
+                case POWER:     op = new Power(leaf(firstLeaf + k), null);      break;
+                default:        op = new Divide(leaf(firstLeaf + k), null);     break;
+            }
+            if(last == null)
+                root = op;
+            else
+                last.setRight(op);
+            last = op;
+        }
+        last.setRight(chain == Chain.SUM ? term(firstLeaf + length, length) : leaf(firstLeaf + length));
+        return root;
+    }
+
+    /** Creates a term of a sum
+     * @param factor The factor of the term
+     * @param pow The power of <tt>x</tt> in the term
+     * @return The term <tt>factor * x^pow</tt> */
+    private static Symbol term(int factor, int pow)
+    {
+        Symbol out = new Symbol(factor);
+        out.setVarPow('x', pow);
+        return out;
+    }
+
+    /** Creates a leaf
+     * @param n The number of the leaf
+     * @return The leaf (alternately a constant and a multiple of <tt>x</tt>) */
+    private static Symbol leaf(int n)
+    {
+        Symbol out = new Symbol(n);
+        if(n % 2 == 0)
+            out.setVarPow('x', 1);
+        return out;
+    }
+}
@@ -0,0 +1,20 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import org.matheclipse.core.interfaces.IExpr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.teaminfty.math_dragon.exceptions.MathException;
+import org.teaminfty.math_dragon.model.EvalHelper;
+
+/** Benchmarks the conversion of {@link org.teaminfty.math_dragon.view.math.Expression Expression}s to Symja expressions by {@link EvalHelper#eval(org.teaminfty.math_dragon.view.math.Expression)} */
+public class EvalHelperBenchmark extends TreeBenchmark
+{
+    /** Converts trees that haven't been converted recently, so none of their subtrees is in the conversion cache */
+    @Benchmark
+    public IExpr eval() throws MathException
+    { return EvalHelper.eval(nextTree()); }
+
+    /** Converts the same tree over and over again, so its conversion is in the conversion cache */
+    @Benchmark
+    public IExpr evalCached() throws MathException
+    { return EvalHelper.eval(tree); }
+}
@@ -0,0 +1,22 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.teaminfty.math_dragon.model.ExpressionBeautifier;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.ExpressionDuplicator;
+
+/**
+ * Benchmarks {@link ExpressionBeautifier#parse(Expression)}.
+ * The beautifier changes the tree it's given, so every run beautifies a copy of the tree;
+ * {@link #copy()} measures the time of making that copy.
+ */
+public class ExpressionBeautifierBenchmark extends TreeBenchmark
+{
+    @Benchmark
+    public Expression parse()
+    { return ExpressionBeautifier.parse(ExpressionDuplicator.deepCopy(tree)); }
+
+    @Benchmark
+    public Expression copy()
+    { return ExpressionDuplicator.deepCopy(tree); }
+}
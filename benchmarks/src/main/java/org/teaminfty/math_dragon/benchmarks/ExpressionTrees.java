@@ -0,0 +1,82 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.Symbol;
+import org.teaminfty.math_dragon.view.math.operation.binary.Add;
+import org.teaminfty.math_dragon.view.math.operation.binary.Divide;
+import org.teaminfty.math_dragon.view.math.operation.binary.Multiply;
+import org.teaminfty.math_dragon.view.math.operation.binary.Power;
+import org.teaminfty.math_dragon.view.math.operation.binary.Subtract;
+
+/**
+ * Generates {@link Expression} trees of a given size and shape for the benchmarks.
+ * <p>
+ * The operations of a tree cycle through addition, multiplication, subtraction, division and power (by their depth),
+ * and the leaves are numbered symbols (alternately constants and multiples of <tt>x</tt>).
+ * Trees that are generated with a different first leaf have no subtree in common,
+ * so they can be used to defeat the conversion cache of {@link org.teaminfty.math_dragon.model.EvalHelper EvalHelper}.
+ */
+public final class ExpressionTrees
+{
+    private ExpressionTrees()
+    {}
+
+    /** The shapes of the generated trees */
+    public enum Shape
+    {
+        /** A balanced tree, its depth grows with the logarithm of its size */
+        BALANCED,
+        /** A tree where every right child is a leaf (like <tt>1 + 2 + 3 + ...</tt>), its depth grows with its size */
+        LEFT_DEEP
+    }
+
+    /** The number of different operations the operations of a tree cycle through */
+    private static final int OPERATION_COUNT = 5;
+
+    /** Generates a tree
+     * @param shape The shape of the tree
+     * @param leaves The number of leaves of the tree (at least <tt>1</tt>)
+     * @param firstLeaf The number of the first leaf, the leaves are numbered consecutively from this number
+     * @return The generated tree, it has <tt>2 * leaves - 1</tt> nodes */
+    public static Expression create(Shape shape, int leaves, int firstLeaf)
+    {
+        if(leaves < 1)
+            throw new IllegalArgumentException("A tree has at least one leaf");
+        return create(shape, leaves, firstLeaf, 0);
+    }
+
+    /** Generates a (sub)tree
+     * @param shape The shape of the tree
+     * @param leaves The number of leaves of the tree
+     * @param firstLeaf The number of the first leaf
+     * @param depth The depth of the root of the tree in the whole tree
+     * @return The generated tree */
+    private static Expression create(Shape shape, int leaves, int firstLeaf, int depth)
+    {
+        if(leaves == 1)
+            return leaf(firstLeaf);
+
+        final int leftLeaves = shape == Shape.BALANCED ? leaves / 2 : leaves - 1;
+        Expression left = create(shape, leftLeaves, firstLeaf, depth + 1);
+        Expression right = create(shape, leaves - leftLeaves, firstLeaf + leftLeaves, depth + 1);
+        switch(depth % OPERATION_COUNT)
+        {
+            case 0:     return new Add(left, right);
+            case 1:     return new Multiply(left, right);
+            case 2:     return new Subtract(left, right);
+            case 3:     return new Divide(left, right);
+            default:    return new Power(left, right);
+        }
+    }
+
+    /** Creates a leaf
+     * @param n The number of the leaf
+     * @return The leaf */
+    private static Symbol leaf(int n)
+    {
+        Symbol out = new Symbol(n);
+        if(n % 2 == 0)
+            out.setVarPow('x', 1);
+        return out;
+    }
+}
@@ -0,0 +1,31 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.teaminfty.math_dragon.exceptions.ParseException;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.ExpressionXMLReader;
+
+/** Benchmarks reading {@link Expression}s from XML with {@link ExpressionXMLReader} (from a string, and from bytes like the database does) */
+public class ExpressionXMLReaderBenchmark extends TreeBenchmark
+{
+    /** The XML of the tree */
+    private byte[] xml;
+
+    /** The XML of the tree as a string */
+    private String xmlString;
+
+    @Override
+    protected void prepare() throws Exception
+    {
+        xml = Corpus.toXML(tree);
+        xmlString = new String(xml, "UTF-8");
+    }
+
+    @Benchmark
+    public Expression fromXMLBytes() throws ParseException
+    { return ExpressionXMLReader.fromXML(xml); }
+
+    @Benchmark
+    public Expression fromXMLString() throws ParseException
+    { return ExpressionXMLReader.fromXML(xmlString); }
+}
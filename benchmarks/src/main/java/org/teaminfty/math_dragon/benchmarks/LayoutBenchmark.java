@@ -0,0 +1,189 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.teaminfty.math_dragon.benchmarks.RandomExpressionGenerator.Kind;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.LayoutAccess;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * Benchmarks the layout and drawing of {@link Expression}s per kind of operation, the way {@link org.teaminfty.math_dragon.view.MathView MathView} does it.
+ * <p>
+ * Every tree is generated by a {@link RandomExpressionGenerator} where most operations are of the benchmarked {@link Kind}
+ * (the others are additions, multiplications and negations, which are needed to get the exact number of nodes).
+ * The text is measured by the stubbed {@link android.graphics.Paint Paint} and nothing is actually drawn, so the results
+ * contain the cost of our layout and draw code but not that of the Android graphics library.
+ * <p>
+ * Every benchmark method is a single frame, the results are sampled so they show the percentiles of the frame time.
+ * Run {@link #main(String[])} (<tt>./gradlew :benchmarks:jmhLayout</tt>) to also report the number of bytes allocated per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class LayoutBenchmark
+{
+    /** The default height of the expressions, like a {@link org.teaminfty.math_dragon.view.MathView MathView} on a phone */
+    private static final int DEFAULT_HEIGHT = 90;
+
+    /** The weight of the benchmarked kind of operation (the other operations have a weight of <tt>1</tt>) */
+    private static final int KIND_WEIGHT = 12;
+
+    /** The kind of operation most operations of the tree are */
+    @Param({"ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "POWER", "ROOT", "LOG", "DERIVATIVE", "FUNCTION", "NEGATE", "PARENTHESES", "LIMIT", "INTEGRAL"})
+    public Kind kind;
+
+    /** The number of nodes of the tree */
+    @Param({"10", "100", "1000"})
+    public int nodes;
+
+    /** The tree */
+    private Expression tree;
+
+    /** All nodes of the tree that have children */
+    private final List<Expression> operations = new ArrayList<Expression>();
+
+    /** All leaves of the tree */
+    private final List<Expression> leaves = new ArrayList<Expression>();
+
+    /** The index of the next leaf that is edited by {@link #editFrame()} */
+    private int nextLeaf = 0;
+
+    /** The level the next call to {@link #setLevel()} sets */
+    private int nextLevel = 1;
+
+    /** The canvas that is drawn on */
+    private Canvas canvas;
+
+    /** The {@link Rect} the bounding box is copied into */
+    private final Rect boundingBox = new Rect();
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        RandomExpressionGenerator generator = new RandomExpressionGenerator(nodes);
+        for(Kind k : Kind.values())
+            generator.setWeight(k, 0);
+        generator.setWeight(Kind.ADD, 1);
+        generator.setWeight(Kind.MULTIPLY, 1);
+        generator.setWeight(Kind.NEGATE, 1);
+        generator.setWeight(kind, KIND_WEIGHT);
+        tree = generator.generate(nodes);
+        collect(tree);
+
+        // Prepare the tree like MathView does
+        tree.setDefaultHeight(DEFAULT_HEIGHT);
+        tree.setLevel(0);
+        tree.layout();
+        tree.getBoundingBox(boundingBox);
+        canvas = new Canvas(Bitmap.createBitmap(Math.max(1, boundingBox.width()), Math.max(1, boundingBox.height()), Bitmap.Config.ARGB_8888));
+    }
+
+    /** Adds the given expression and all of its descendants to {@link #operations} or {@link #leaves}
+     * @param expr The expression */
+    private void collect(Expression expr)
+    {
+        if(expr.getChildCount() == 0)
+            leaves.add(expr);
+        else
+            operations.add(expr);
+        for(int i = 0; i < expr.getChildCount(); ++i)
+            collect(expr.getChild(i));
+    }
+
+    /** A frame after a change that invalidates the whole tree (e.g. zooming): lays out everything and draws the tree */
+    @Benchmark
+    public Canvas fullFrame()
+    {
+        tree.invalidateBoundingBoxCache();
+        tree.layout();
+        tree.draw(canvas);
+        return canvas;
+    }
+
+    /** A frame after editing a single leaf: lays out the path to the leaf and draws the tree */
+    @Benchmark
+    public Canvas editFrame()
+    {
+        leaves.get(nextLeaf).invalidateBoundingBoxCacheForSelf();
+        nextLeaf = (nextLeaf + 1) % leaves.size();
+        tree.layout();
+        tree.draw(canvas);
+        return canvas;
+    }
+
+    /** Draws the tree, all bounding boxes are valid */
+    @Benchmark
+    public Canvas draw()
+    {
+        tree.draw(canvas);
+        return canvas;
+    }
+
+    /** Calculates the bounding box of the whole tree from scratch, through the lazy getters */
+    @Benchmark
+    public Rect getBoundingBox()
+    {
+        tree.invalidateBoundingBoxCache();
+        tree.getBoundingBox(boundingBox);
+        return boundingBox;
+    }
+
+    /** Recalculates the bounding boxes of the children of every operation in the tree (all other bounding boxes are valid) */
+    @Benchmark
+    public Expression calculateAllChildBoundingBox()
+    {
+        for(Expression op : operations)
+            LayoutAccess.recalculateChildBoundingBoxes(op);
+        return tree;
+    }
+
+    /** Changes the level of the whole tree (without laying it out) */
+    @Benchmark
+    public Expression setLevel()
+    {
+        tree.setLevel(nextLevel);
+        nextLevel ^= 1;
+        return tree;
+    }
+
+    /**
+     * Runs the layout benchmarks with the GC profiler, which reports the number of bytes allocated per frame (<tt>gc.alloc.rate.norm</tt>).
+     *
+     * @param args Ignored
+     * @throws RunnerException Thrown if the benchmarks couldn't be run
+     */
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include(LayoutBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,23 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import org.matheclipse.core.interfaces.IExpr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.teaminfty.math_dragon.exceptions.ParseException;
+import org.teaminfty.math_dragon.model.EvalHelper;
+import org.teaminfty.math_dragon.model.ModelHelper;
+import org.teaminfty.math_dragon.view.math.Expression;
+
+/** Benchmarks the conversion of Symja expressions to {@link Expression}s by {@link ModelHelper#toExpression(IExpr)} */
+public class ModelHelperBenchmark extends TreeBenchmark
+{
+    /** The Symja expression of the tree */
+    private IExpr converted;
+
+    @Override
+    protected void prepare() throws Exception
+    { converted = EvalHelper.eval(tree); }
+
+    @Benchmark
+    public Expression toExpression() throws ParseException
+    { return ModelHelper.toExpression(converted); }
+}
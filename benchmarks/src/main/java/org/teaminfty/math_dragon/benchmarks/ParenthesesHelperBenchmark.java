@@ -0,0 +1,22 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.teaminfty.math_dragon.model.ParenthesesHelper;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.ExpressionDuplicator;
+
+/**
+ * Benchmarks {@link ParenthesesHelper#setParentheses(Expression)}.
+ * Setting the parentheses changes the tree, so every run sets the parentheses of a copy of the tree (which has no parentheses yet);
+ * {@link #copy()} measures the time of making that copy.
+ */
+public class ParenthesesHelperBenchmark extends TreeBenchmark
+{
+    @Benchmark
+    public Expression setParentheses()
+    { return ParenthesesHelper.setParentheses(ExpressionDuplicator.deepCopy(tree)); }
+
+    @Benchmark
+    public Expression copy()
+    { return ExpressionDuplicator.deepCopy(tree); }
+}
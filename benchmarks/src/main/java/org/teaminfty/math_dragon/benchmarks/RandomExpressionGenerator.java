@@ -0,0 +1,295 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.teaminfty.math_dragon.view.math.Empty;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.Function;
+import org.teaminfty.math_dragon.view.math.Parentheses;
+import org.teaminfty.math_dragon.view.math.Symbol;
+import org.teaminfty.math_dragon.view.math.operation.Integral;
+import org.teaminfty.math_dragon.view.math.operation.Limit;
+import org.teaminfty.math_dragon.view.math.operation.Negate;
+import org.teaminfty.math_dragon.view.math.operation.binary.Add;
+import org.teaminfty.math_dragon.view.math.operation.binary.Derivative;
+import org.teaminfty.math_dragon.view.math.operation.binary.Divide;
+import org.teaminfty.math_dragon.view.math.operation.binary.Log;
+import org.teaminfty.math_dragon.view.math.operation.binary.Multiply;
+import org.teaminfty.math_dragon.view.math.operation.binary.Power;
+import org.teaminfty.math_dragon.view.math.operation.binary.Root;
+import org.teaminfty.math_dragon.view.math.operation.binary.Subtract;
+
+/**
+ * Generates random, valid {@link Expression} trees with an exact number of nodes.
+ * <p>
+ * The generated trees contain no empty children (other than the bounds of indefinite integrals),
+ * derivatives, limits and integrals are taken with respect to a variable, and the leaves are {@link Symbol}s with
+ * random factors and random powers of <i>e</i>, <i>&pi;</i>, <i>i</i> and the variables. So the trees can be laid out,
+ * written to and read from XML and converted by {@link org.teaminfty.math_dragon.model.EvalHelper EvalHelper}.
+ * <p>
+ * Which operations occur is controlled by a weight per {@link Kind} (see {@link #setWeight(Kind, int)}),
+ * and the height of the trees can be limited with {@link #setMaxDepth(int)}.
+ * The generator only uses {@link Random}, so the same seed and settings always produce the same trees.
+ */
+public class RandomExpressionGenerator
+{
+    /** The kinds of operations the generator can produce */
+    public enum Kind
+    {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, POWER, ROOT, LOG, DERIVATIVE, FUNCTION, NEGATE, PARENTHESES, LIMIT, INTEGRAL
+    }
+
+    /** The function types {@link org.teaminfty.math_dragon.model.EvalHelper EvalHelper} can convert */
+    public static final Function.FunctionType[] EVALUABLE_FUNCTION_TYPES = new Function.FunctionType[] {
+            Function.FunctionType.SIN, Function.FunctionType.COS, Function.FunctionType.TAN,
+            Function.FunctionType.SINH, Function.FunctionType.COSH,
+            Function.FunctionType.ARCSIN, Function.FunctionType.ARCCOS, Function.FunctionType.ARCTAN,
+            Function.FunctionType.LN };
+
+    /** The variables that are used in the generated trees */
+    private static final String VARIABLES = "xyz";
+
+    /** The random number generator */
+    private final Random random;
+
+    /** The weight of every kind of operation */
+    private final Map<Kind, Integer> weights = new EnumMap<Kind, Integer>(Kind.class);
+
+    /** The maximum height of the generated trees (a single leaf has a height of <tt>1</tt>) */
+    private int maxDepth = Integer.MAX_VALUE;
+
+    /** The function types that can be generated */
+    private Function.FunctionType[] functionTypes = EVALUABLE_FUNCTION_TYPES;
+
+    /** Constructor, uses the default weights (arithmetic is the most common, like in the formulas of our users)
+     * @param seed The seed of the random number generator */
+    public RandomExpressionGenerator(long seed)
+    {
+        random = new Random(seed);
+
+        weights.put(Kind.ADD, 6);
+        weights.put(Kind.SUBTRACT, 4);
+        weights.put(Kind.MULTIPLY, 6);
+        weights.put(Kind.DIVIDE, 3);
+        weights.put(Kind.POWER, 3);
+        weights.put(Kind.ROOT, 1);
+        weights.put(Kind.LOG, 1);
+        weights.put(Kind.DERIVATIVE, 1);
+        weights.put(Kind.FUNCTION, 3);
+        weights.put(Kind.NEGATE, 1);
+        weights.put(Kind.PARENTHESES, 1);
+        weights.put(Kind.LIMIT, 1);
+        weights.put(Kind.INTEGRAL, 1);
+    }
+
+    /** Sets the weight of a kind of operation, the chance that an operation is of that kind is proportional to its weight
+     * @param kind The kind of operation
+     * @param weight The weight, <tt>0</tt> if operations of this kind should never be generated */
+    public void setWeight(Kind kind, int weight)
+    {
+        if(weight < 0)
+            throw new IllegalArgumentException("The weight may not be negative");
+        weights.put(kind, weight);
+    }
+
+    /** Returns the weight of a kind of operation
+     * @param kind The kind of operation
+     * @return The weight */
+    public int getWeight(Kind kind)
+    { return weights.get(kind); }
+
+    /** Limits the height of the generated trees
+     * @param maxDepth The maximum number of nodes on a path from the root to a leaf (at least <tt>1</tt>) */
+    public void setMaxDepth(int maxDepth)
+    {
+        if(maxDepth < 1)
+            throw new IllegalArgumentException("The maximum depth should be at least 1");
+        this.maxDepth = maxDepth;
+    }
+
+    /** Returns the maximum height of the generated trees
+     * @return The maximum number of nodes on a path from the root to a leaf */
+    public int getMaxDepth()
+    { return maxDepth; }
+
+    /** Sets the function types that can be generated (by default only the {@link #EVALUABLE_FUNCTION_TYPES})
+     * @param types The function types */
+    public void setFunctionTypes(Function.FunctionType... types)
+    {
+        if(types.length == 0)
+            throw new IllegalArgumentException("At least one function type is needed");
+        functionTypes = types.clone();
+    }
+
+    /** Generates a tree
+     * @param nodes The number of nodes of the tree (at least <tt>1</tt>)
+     * @return The generated tree
+     * @throws IllegalArgumentException Thrown if no tree with the given number of nodes fits in the maximum depth */
+    public Expression generate(int nodes)
+    {
+        if(nodes < 1 || nodes > capacity(maxDepth))
+            throw new IllegalArgumentException("No tree of " + nodes + " nodes fits in a depth of " + maxDepth);
+        return generate(nodes, maxDepth);
+    }
+
+    /** Returns the maximum number of nodes of a binary tree with the given height
+     * @param depth The height
+     * @return The maximum number of nodes */
+    private static long capacity(int depth)
+    { return depth >= 62 ? Long.MAX_VALUE / 4 : (1L << depth) - 1; }
+
+    /** Generates a (sub)tree
+     * @param nodes The number of nodes of the tree, at most <tt>capacity(depth)</tt>
+     * @param depth The maximum height of the tree
+     * @return The generated tree */
+    private Expression generate(int nodes, int depth)
+    {
+        if(nodes == 1)
+            return leaf();
+
+        // Choose the kind of the operation from the kinds that fit
+        final long cap = capacity(depth - 1);
+        List<Kind> kinds = new ArrayList<Kind>();
+        int totalWeight = 0;
+        for(Kind kind : Kind.values())
+        {
+            if(weights.get(kind) > 0 && fits(kind, nodes, cap))
+            {
+                kinds.add(kind);
+                totalWeight += weights.get(kind);
+            }
+        }
+        if(totalWeight == 0)
+            throw new IllegalArgumentException("No operation fits " + nodes + " nodes in a depth of " + depth);
+        int choice = random.nextInt(totalWeight);
+        Kind kind = null;
+        for(Kind k : kinds)
+        {
+            kind = k;
+            choice -= weights.get(k);
+            if(choice < 0)
+                break;
+        }
+
+        // Create the operation
+        switch(kind)
+        {
+            case FUNCTION:
+                return new Function(functionTypes[random.nextInt(functionTypes.length)], generate(nodes - 1, depth - 1));
+            case NEGATE:
+                return new Negate(generate(nodes - 1, depth - 1));
+            case PARENTHESES:
+                return new Parentheses(generate(nodes - 1, depth - 1));
+            case DERIVATIVE:
+                return new Derivative(generate(nodes - 2, depth - 1), variable());
+            case LIMIT:
+            {
+                int[] sizes = split(nodes - 2, 2, cap);
+                return new Limit(variable(), generate(sizes[0], depth - 1), generate(sizes[1], depth - 1));
+            }
+            case INTEGRAL:
+            {
+                // Half of the integrals are indefinite (if both an indefinite and a definite integral fit)
+                final boolean indefinite = nodes - 4 >= 1 && nodes - 4 <= cap && (nodes - 2 < 3 || nodes - 2 > 3 * cap || random.nextBoolean());
+                if(indefinite)
+                    return new Integral(generate(nodes - 4, depth - 1), variable(), new Empty(), new Empty());
+                int[] sizes = split(nodes - 2, 3, cap);
+                return new Integral(generate(sizes[0], depth - 1), variable(), generate(sizes[1], depth - 1), generate(sizes[2], depth - 1));
+            }
+            default:
+            {
+                int[] sizes = split(nodes - 1, 2, cap);
+                Expression left = generate(sizes[0], depth - 1);
+                Expression right = generate(sizes[1], depth - 1);
+                switch(kind)
+                {
+                    case ADD:       return new Add(left, right);
+                    case SUBTRACT:  return new Subtract(left, right);
+                    case MULTIPLY:  return new Multiply(left, right);
+                    case DIVIDE:    return new Divide(left, right);
+                    case POWER:     return new Power(left, right);
+                    case ROOT:      return new Root(left, right);
+                    default:        return new Log(left, right);
+                }
+            }
+        }
+    }
+
+    /** Checks whether an operation of the given kind with the given number of nodes fits
+     * @param kind The kind of operation
+     * @param nodes The number of nodes of the operation (including the operation itself)
+     * @param cap The maximum number of nodes of a child
+     * @return <tt>true</tt> if it fits, <tt>false</tt> otherwise */
+    private static boolean fits(Kind kind, int nodes, long cap)
+    {
+        switch(kind)
+        {
+            case FUNCTION:
+            case NEGATE:
+            case PARENTHESES:
+                return nodes - 1 <= cap;
+            case DERIVATIVE:
+                return nodes - 2 >= 1 && nodes - 2 <= cap;
+            case LIMIT:
+                return nodes - 2 >= 2 && nodes - 2 <= 2 * cap;
+            case INTEGRAL:
+                return (nodes - 4 >= 1 && nodes - 4 <= cap) || (nodes - 2 >= 3 && nodes - 2 <= 3 * cap);
+            default:
+                return nodes - 1 >= 2 && nodes - 1 <= 2 * cap;
+        }
+    }
+
+    /** Randomly splits a number of nodes over a number of children
+     * @param nodes The number of nodes
+     * @param count The number of children
+     * @param cap The maximum number of nodes of a child
+     * @return The number of nodes of every child (each at least <tt>1</tt> and at most <tt>cap</tt>) */
+    private int[] split(int nodes, int count, long cap)
+    {
+        int[] sizes = new int[count];
+        int left = nodes;
+        for(int i = 0; i < count; ++i)
+        {
+            final int after = count - i - 1;
+            final int min = (int) Math.max(1, left - after * cap);
+            final int max = (int) Math.min(cap, left - after);
+            sizes[i] = min + random.nextInt(max - min + 1);
+            left -= sizes[i];
+        }
+        return sizes;
+    }
+
+    /** Generates a random leaf
+     * @return The leaf */
+    private Symbol leaf()
+    {
+        // Mostly small whole numbers, sometimes a decimal one
+        double factor = 1 + random.nextInt(9);
+        if(random.nextInt(5) == 0)
+            factor += random.nextInt(10) / 10.0;
+        Symbol out = new Symbol(factor);
+
+        // Sometimes add a constant
+        if(random.nextInt(8) == 0)
+            out.setEPow(1 + random.nextInt(2));
+        if(random.nextInt(8) == 0)
+            out.setPiPow(1 + random.nextInt(2));
+        if(random.nextInt(8) == 0)
+            out.setIPow(1 + random.nextInt(2));
+
+        // Often add a variable
+        if(random.nextBoolean())
+            out.setVarPow(VARIABLES.charAt(random.nextInt(VARIABLES.length())), 1 + random.nextInt(2));
+
+        return out;
+    }
+
+    /** Generates a random variable (as used by derivatives, limits and integrals)
+     * @return The variable */
+    private Symbol variable()
+    { return Symbol.createVarSymbol(VARIABLES.charAt(random.nextInt(VARIABLES.length()))); }
+}
@@ -0,0 +1,79 @@
+package org.teaminfty.math_dragon.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.teaminfty.math_dragon.view.math.Expression;
+
+/**
+ * Base class of the benchmarks that run over {@link ExpressionTrees generated} expression trees.
+ * <p>
+ * Every benchmark runs for all combinations of the {@link #shape} and {@link #leaves} parameters,
+ * so the results show how the benchmarked method scales with both the size and the depth of a tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class TreeBenchmark
+{
+    /** The minimum total number of nodes of the trees in {@link #ring} */
+    private static final int RING_NODES = 4096;
+
+    /** The shape of the trees */
+    @Param({"BALANCED", "LEFT_DEEP"})
+    public ExpressionTrees.Shape shape;
+
+    /** The number of leaves of the trees */
+    @Param({"16", "128", "1024"})
+    public int leaves;
+
+    /** The tree the benchmark runs over */
+    protected Expression tree;
+
+    /** Trees of the same size and shape as {@link #tree} that have no subtree in common, see {@link #nextTree()} */
+    private Expression[] ring;
+
+    /** The index of the next tree in {@link #ring} */
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public final void setUp() throws Exception
+    {
+        tree = ExpressionTrees.create(shape, leaves, 1);
+
+        // The ring contains so many nodes that cycling through it never hits a cache
+        final int nodes = 2 * leaves - 1;
+        ring = new Expression[(RING_NODES + nodes - 1) / nodes];
+        for(int i = 0; i < ring.length; ++i)
+            ring[i] = ExpressionTrees.create(shape, leaves, 1 + (i + 1) * leaves);
+
+        prepare();
+    }
+
+    /** Called after the trees have been generated, should prepare the input of the benchmark
+     * @throws Exception Thrown if the input couldn't be prepared */
+    protected void prepare() throws Exception
+    {}
+
+    /** Returns the next tree of a ring of trees that have no subtree in common with each other (or with {@link #tree})
+     * @return The tree */
+    protected Expression nextTree()
+    {
+        Expression out = ring[next];
+        next = (next + 1) % ring.length;
+        return out;
+    }
+}
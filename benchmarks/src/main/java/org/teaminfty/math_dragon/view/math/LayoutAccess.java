@@ -0,0 +1,18 @@
+package org.teaminfty.math_dragon.view.math;
+
+/** Gives the benchmarks access to the parts of the layout of an {@link Expression} that are only visible within this package */
+public final class LayoutAccess
+{
+    private LayoutAccess()
+    {}
+
+    /** Recalculates the bounding boxes of the children of the given {@link Expression} with
+     * {@link Expression#calculateAllChildBoundingBox()}, the same way the {@link Expression} does it when its cache is invalid
+     * (the bounding boxes of the children themselves should be valid, otherwise they're calculated as well)
+     * @param expr The {@link Expression} */
+    public static void recalculateChildBoundingBoxes(Expression expr)
+    {
+        expr.childrenBoundingBoxes.clear();
+        expr.calculateAllChildBoundingBox();
+    }
+}
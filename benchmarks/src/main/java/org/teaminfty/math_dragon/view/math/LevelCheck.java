@@ -0,0 +1,150 @@
+package org.teaminfty.math_dragon.view.math;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.teaminfty.math_dragon.benchmarks.RandomExpressionGenerator;
+import org.teaminfty.math_dragon.benchmarks.RandomExpressionGenerator.Kind;
+import org.teaminfty.math_dragon.exceptions.MathException;
+import org.teaminfty.math_dragon.exceptions.ParseException;
+import org.teaminfty.math_dragon.model.EvalHelper;
+import org.teaminfty.math_dragon.model.ExpressionBeautifier;
+import org.teaminfty.math_dragon.model.ModelHelper;
+import org.teaminfty.math_dragon.model.ParenthesesHelper;
+import org.w3c.dom.Document;
+
+/**
+ * Checks that trees that are built from the bottom up get the same levels as {@link Expression#setLevel(int)} gives them,
+ * and that every node in them points to its real parent.
+ * {@link Expression#setAll(int, int, boolean)} doesn't visit subtrees that already have the right level,
+ * so a node whose children got the wrong level while it was built would keep them.
+ * And the incremental layout and the cached snapshots are invalidated along the parents, so a wrong parent leaves stale caches.
+ * <p>
+ * The trees are generated by a {@link RandomExpressionGenerator} (which uses the constructors), read from XML and from the binary format,
+ * converted back from Symja, given parentheses and beautified. Run it with <tt>./gradlew :benchmarks:checkLevels</tt>.
+ */
+public final class LevelCheck
+{
+    /** The number of trees that are generated per kind of operation */
+    private static final int TREES_PER_KIND = 20;
+
+    /** The number of nodes of the generated trees */
+    private static final int NODES = 200;
+
+    /** The weight of the kind of operation most operations of a tree are (the others have a weight of <tt>1</tt>) */
+    private static final int KIND_WEIGHT = 12;
+
+    /** The maximum height of the generated trees, {@link Expression#setLevel(int)} recurses over the tree */
+    private static final int MAX_DEPTH = 40;
+
+    private LevelCheck()
+    {}
+
+    public static void main(String[] args) throws ParseException, ParserConfigurationException
+    {
+        int checked = 0;
+        long seed = 0;
+        for(Kind kind : Kind.values())
+        {
+            for(int i = 0; i < TREES_PER_KIND; ++i)
+            {
+                RandomExpressionGenerator generator = new RandomExpressionGenerator(seed++);
+                for(Kind k : Kind.values())
+                    generator.setWeight(k, k == kind ? KIND_WEIGHT : 1);
+                generator.setMaxDepth(MAX_DEPTH);
+                Expression tree = generator.generate(NODES);
+
+                // The beautified tree with parentheses, like the result of an evaluation
+                // This is done first, since checking a tree fixes its levels (and the copy would copy them)
+                check("beautifier", kind, ParenthesesHelper.setParentheses(ExpressionBeautifier.parse(ExpressionDuplicator.deepCopy(tree))));
+
+                // The tree with parentheses set, which reuses the children that are already in place
+                check("parentheses", kind, ParenthesesHelper.setParentheses(ExpressionDuplicator.deepCopy(tree)));
+
+                // The tree read from XML
+                Document doc = Expression.createXMLDocument();
+                tree.writeToXML(doc, doc.getDocumentElement());
+                check("XML", kind, ExpressionXMLReader.fromXML(doc));
+
+                // The tree read from the binary format
+                check("binary", kind, ExpressionBinaryReader.fromBytes(ExpressionBinaryWriter.toBytes(tree)));
+
+                // The tree converted to Symja and back (not every operation can be converted)
+                try
+                {
+                    check("Symja", kind, ModelHelper.toExpression(EvalHelper.eval(tree)));
+                    ++checked;
+                }
+                catch(MathException e)
+                {
+                    // Skip this conversion
+                }
+
+                // The tree as the constructors built it
+                check("constructors", kind, tree);
+                checked += 5;
+            }
+        }
+        System.out.println("The levels and parents of " + checked + " trees are correct");
+    }
+
+    /** Checks the levels and the parents of the given tree
+     * @param source Where the tree came from
+     * @param kind The kind of operation most operations of the tree are
+     * @param tree The tree
+     * @throws IllegalStateException Thrown if a node of the tree doesn't point to its parent,
+     *         or if it has a different level than {@link Expression#setLevel(int)} gives it */
+    private static void check(String source, Kind kind, Expression tree)
+    {
+        List<Expression> nodes = nodes(tree);
+        for(Expression node : nodes)
+        {
+            for(int i = 0; i < node.getChildCount(); ++i)
+            {
+                Expression child = node.getChild(i);
+                if(child.getParent() != node)
+                {
+                    throw new IllegalStateException("A " + child.getClass().getSimpleName() + " built by the " + source + " (mostly " + kind + ") has a " +
+                                                    (child.getParent() == null ? "null" : child.getParent().getClass().getSimpleName()) +
+                                                    " as parent instead of its " + node.getClass().getSimpleName() + " in " + tree);
+                }
+            }
+        }
+
+        int[] levels = new int[nodes.size()];
+        for(int i = 0; i < levels.length; ++i)
+            levels[i] = nodes.get(i).level;
+
+        tree.setLevel(0);
+        for(int i = 0; i < levels.length; ++i)
+        {
+            Expression node = nodes.get(i);
+            if(node.level != levels[i])
+            {
+                throw new IllegalStateException("A " + node.getClass().getSimpleName() + " built by the " + source + " (mostly " + kind + ") has level " +
+                                                levels[i] + " instead of " + node.level + " in " + tree);
+            }
+        }
+    }
+
+    /** Lists the nodes of a tree
+     * @param tree The tree
+     * @return All nodes of the tree, in pre-order */
+    private static List<Expression> nodes(Expression tree)
+    {
+        List<Expression> out = new ArrayList<Expression>();
+        ArrayDeque<Expression> stack = new ArrayDeque<Expression>();
+        stack.push(tree);
+        while(!stack.isEmpty())
+        {
+            Expression expr = stack.pop();
+            out.add(expr);
+            for(int i = expr.getChildCount() - 1; i >= 0; --i)
+                stack.push(expr.getChild(i));
+        }
+        return out;
+    }
+}
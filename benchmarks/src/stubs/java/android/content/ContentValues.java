@@ -0,0 +1,25 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Plain JVM implementation of the Android class */
+public final class ContentValues
+{
+    private final Map<String, Object> values = new HashMap<String, Object>();
+
+    public void put(String key, String value)
+    { values.put(key, value); }
+
+    public void put(String key, Integer value)
+    { values.put(key, value); }
+
+    public void put(String key, Long value)
+    { values.put(key, value); }
+
+    public void put(String key, byte[] value)
+    { values.put(key, value); }
+
+    public Object get(String key)
+    { return values.get(key); }
+}
@@ -0,0 +1,11 @@
+package android.content;
+
+import android.content.res.AssetManager;
+
+/** Plain JVM stub of the Android class */
+public abstract class Context
+{
+    public abstract Context getApplicationContext();
+
+    public abstract AssetManager getAssets();
+}
@@ -0,0 +1,8 @@
+package android.content.res;
+
+/** Plain JVM stub of the Android class, there are no assets on a plain JVM */
+public final class AssetManager
+{
+    private AssetManager()
+    {}
+}
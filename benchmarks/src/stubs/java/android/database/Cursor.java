@@ -0,0 +1,25 @@
+package android.database;
+
+import java.io.Closeable;
+
+/** Plain JVM stub of the Android interface */
+public interface Cursor extends Closeable
+{
+    int getCount();
+
+    boolean moveToFirst();
+
+    boolean moveToNext();
+
+    int getInt(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    String getString(int columnIndex);
+
+    byte[] getBlob(int columnIndex);
+
+    boolean isNull(int columnIndex);
+
+    void close();
+}
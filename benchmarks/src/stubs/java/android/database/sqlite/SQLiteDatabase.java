@@ -0,0 +1,37 @@
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+/** Plain JVM stub of the Android class, there is no database on a plain JVM */
+public final class SQLiteDatabase
+{
+    private SQLiteDatabase()
+    {}
+
+    public void execSQL(String sql)
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy)
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit)
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public SQLiteStatement compileStatement(String sql)
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void beginTransaction()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void setTransactionSuccessful()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void endTransaction()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public boolean enableWriteAheadLogging()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void close()
+    {}
+}
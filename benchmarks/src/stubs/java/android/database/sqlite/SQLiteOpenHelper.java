@@ -0,0 +1,29 @@
+package android.database.sqlite;
+
+import android.content.Context;
+
+/** Plain JVM stub of the Android class, there is no database on a plain JVM */
+public abstract class SQLiteOpenHelper
+{
+    public SQLiteOpenHelper(Context context, String name, Object factory, int version)
+    {}
+
+    public SQLiteDatabase getWritableDatabase()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public SQLiteDatabase getReadableDatabase()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void close()
+    {}
+
+    public void onConfigure(SQLiteDatabase db)
+    {}
+
+    public abstract void onCreate(SQLiteDatabase db);
+
+    public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+
+    public void onOpen(SQLiteDatabase db)
+    {}
+}
@@ -0,0 +1,38 @@
+package android.database.sqlite;
+
+/** Plain JVM stub of the Android class, there is no database on a plain JVM */
+public final class SQLiteStatement
+{
+    private SQLiteStatement()
+    {}
+
+    public void bindNull(int index)
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void bindLong(int index, long value)
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void bindString(int index, String value)
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void bindBlob(int index, byte[] value)
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void clearBindings()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void execute()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public long executeInsert()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public int executeUpdateDelete()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public long simpleQueryForLong()
+    { throw new UnsupportedOperationException("There is no database on a plain JVM"); }
+
+    public void close()
+    {}
+}
@@ -0,0 +1,35 @@
+package android.graphics;
+
+/** Plain JVM stub of the Android class, it only knows its size */
+public final class Bitmap
+{
+    public enum Config
+    {
+        ALPHA_8, RGB_565, ARGB_4444, ARGB_8888
+    }
+
+    private final int width;
+    private final int height;
+
+    private Bitmap(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config)
+    {
+        if(width <= 0 || height <= 0)
+            throw new IllegalArgumentException("width and height must be > 0");
+        return new Bitmap(width, height);
+    }
+
+    public int getWidth()
+    { return width; }
+
+    public int getHeight()
+    { return height; }
+
+    public void recycle()
+    {}
+}
@@ -0,0 +1,8 @@
+package android.graphics;
+
+/** Plain JVM stub of the Android class, it can't decode any image */
+public class BitmapFactory
+{
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length)
+    { return null; }
+}
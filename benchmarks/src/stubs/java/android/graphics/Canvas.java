@@ -0,0 +1,106 @@
+package android.graphics;
+
+/** Plain JVM stub of the Android class, it only keeps track of the save count (nothing is actually drawn) */
+public class Canvas
+{
+    private int width = 0;
+    private int height = 0;
+    private int saveCount = 1;
+
+    public Canvas()
+    {}
+
+    public Canvas(Bitmap bitmap)
+    {
+        width = bitmap.getWidth();
+        height = bitmap.getHeight();
+    }
+
+    public int getWidth()
+    { return width; }
+
+    public int getHeight()
+    { return height; }
+
+    public int save()
+    { return saveCount++; }
+
+    public void restore()
+    {
+        if(saveCount <= 1)
+            throw new IllegalStateException("Underflow in restore");
+        --saveCount;
+    }
+
+    public int getSaveCount()
+    { return saveCount; }
+
+    public void restoreToCount(int count)
+    { saveCount = count; }
+
+    public void translate(float dx, float dy)
+    {}
+
+    public void scale(float sx, float sy)
+    {}
+
+    public boolean clipRect(Rect rect)
+    { return true; }
+
+    public boolean clipRect(Rect rect, Region.Op op)
+    { return true; }
+
+    public boolean clipRect(RectF rect, Region.Op op)
+    { return true; }
+
+    public boolean clipRect(int left, int top, int right, int bottom)
+    { return true; }
+
+    public boolean clipRect(float left, float top, float right, float bottom)
+    { return true; }
+
+    public boolean getClipBounds(Rect bounds)
+    {
+        bounds.set(0, 0, width, height);
+        return width > 0 && height > 0;
+    }
+
+    public void drawColor(int color)
+    {}
+
+    public void drawText(String text, float x, float y, Paint paint)
+    {}
+
+    public void drawText(String text, int start, int end, float x, float y, Paint paint)
+    {}
+
+    public void drawText(char[] text, int index, int count, float x, float y, Paint paint)
+    {}
+
+    public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint)
+    {}
+
+    public void drawRect(Rect rect, Paint paint)
+    {}
+
+    public void drawRect(RectF rect, Paint paint)
+    {}
+
+    public void drawRect(float left, float top, float right, float bottom, Paint paint)
+    {}
+
+    public void drawCircle(float cx, float cy, float radius, Paint paint)
+    {}
+
+    public void drawArc(RectF oval, float startAngle, float sweepAngle, boolean useCenter, Paint paint)
+    {}
+
+    public void drawPath(Path path, Paint paint)
+    {}
+
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint)
+    {}
+
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint)
+    {}
+}
@@ -0,0 +1,33 @@
+package android.graphics;
+
+/** Plain JVM implementation of the Android class */
+public class Color
+{
+    public static final int BLACK = 0xff000000;
+    public static final int DKGRAY = 0xff444444;
+    public static final int GRAY = 0xff888888;
+    public static final int LTGRAY = 0xffcccccc;
+    public static final int WHITE = 0xffffffff;
+    public static final int RED = 0xffff0000;
+    public static final int GREEN = 0xff00ff00;
+    public static final int BLUE = 0xff0000ff;
+    public static final int TRANSPARENT = 0;
+
+    public static int alpha(int color)
+    { return color >>> 24; }
+
+    public static int red(int color)
+    { return (color >> 16) & 0xff; }
+
+    public static int green(int color)
+    { return (color >> 8) & 0xff; }
+
+    public static int blue(int color)
+    { return color & 0xff; }
+
+    public static int rgb(int red, int green, int blue)
+    { return argb(0xff, red, green, blue); }
+
+    public static int argb(int alpha, int red, int green, int blue)
+    { return (alpha << 24) | (red << 16) | (green << 8) | blue; }
+}
@@ -0,0 +1,8 @@
+package android.graphics;
+
+/** Plain JVM stub of the Android class */
+public class DashPathEffect extends PathEffect
+{
+    public DashPathEffect(float[] intervals, float phase)
+    {}
+}
@@ -0,0 +1,129 @@
+package android.graphics;
+
+/**
+ * Plain JVM stub of the Android class.
+ * <p>
+ * There are no fonts, instead every character is measured as a box of 0.6 times the text size wide,
+ * that reaches from the text size above the baseline to 0.2 times the text size below it.
+ * That's close enough to a real font for the layout code to do the same work it does on a device.
+ */
+public class Paint
+{
+    public static final int ANTI_ALIAS_FLAG = 1;
+
+    public enum Style
+    {
+        FILL, STROKE, FILL_AND_STROKE
+    }
+
+    public enum Align
+    {
+        LEFT, CENTER, RIGHT
+    }
+
+    public enum Cap
+    {
+        BUTT, ROUND, SQUARE
+    }
+
+    /** The width of a character relative to the text size */
+    private static final float CHAR_WIDTH = 0.6f;
+
+    /** The descent relative to the text size */
+    private static final float DESCENT = 0.2f;
+
+    private float textSize = 12.0f;
+    private float strokeWidth = 0.0f;
+    private int color = Color.BLACK;
+    private Style style = Style.FILL;
+    private Typeface typeface = null;
+    private PathEffect pathEffect = null;
+
+    public Paint()
+    {}
+
+    public Paint(int flags)
+    {}
+
+    public Paint(Paint paint)
+    { set(paint); }
+
+    public void set(Paint src)
+    {
+        textSize = src.textSize;
+        strokeWidth = src.strokeWidth;
+        color = src.color;
+        style = src.style;
+        typeface = src.typeface;
+        pathEffect = src.pathEffect;
+    }
+
+    public void setAntiAlias(boolean aa)
+    {}
+
+    public void setTextAlign(Align align)
+    {}
+
+    public void setStrokeCap(Cap cap)
+    {}
+
+    public float getTextSize()
+    { return textSize; }
+
+    public void setTextSize(float textSize)
+    { this.textSize = textSize; }
+
+    public float getStrokeWidth()
+    { return strokeWidth; }
+
+    public void setStrokeWidth(float width)
+    { strokeWidth = width; }
+
+    public int getColor()
+    { return color; }
+
+    public void setColor(int color)
+    { this.color = color; }
+
+    public void setAlpha(int a)
+    { color = (color & 0x00ffffff) | (a << 24); }
+
+    public Style getStyle()
+    { return style; }
+
+    public void setStyle(Style style)
+    { this.style = style; }
+
+    public Typeface getTypeface()
+    { return typeface; }
+
+    public Typeface setTypeface(Typeface typeface)
+    { return this.typeface = typeface; }
+
+    public PathEffect getPathEffect()
+    { return pathEffect; }
+
+    public PathEffect setPathEffect(PathEffect effect)
+    { return pathEffect = effect; }
+
+    public float ascent()
+    { return -textSize; }
+
+    public float descent()
+    { return textSize * DESCENT; }
+
+    public float measureText(String text)
+    { return measureText(text, 0, text.length()); }
+
+    public float measureText(String text, int start, int end)
+    { return textSize * CHAR_WIDTH * (end - start); }
+
+    public float measureText(char[] text, int index, int count)
+    { return textSize * CHAR_WIDTH * count; }
+
+    public void getTextBounds(String text, int start, int end, Rect bounds)
+    { bounds.set(0, (int) -textSize, (int) Math.ceil(measureText(text, start, end)), (int) Math.ceil(descent())); }
+
+    public void getTextBounds(char[] text, int index, int count, Rect bounds)
+    { bounds.set(0, (int) -textSize, (int) Math.ceil(measureText(text, index, count)), (int) Math.ceil(descent())); }
+}
@@ -0,0 +1,23 @@
+package android.graphics;
+
+/** Plain JVM stub of the Android class */
+public class Path
+{
+    public void reset()
+    {}
+
+    public void moveTo(float x, float y)
+    {}
+
+    public void lineTo(float x, float y)
+    {}
+
+    public void quadTo(float x1, float y1, float x2, float y2)
+    {}
+
+    public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3)
+    {}
+
+    public void close()
+    {}
+}
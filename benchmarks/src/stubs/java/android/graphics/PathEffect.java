@@ -0,0 +1,6 @@
+package android.graphics;
+
+/** Plain JVM stub of the Android class */
+public class PathEffect
+{
+}
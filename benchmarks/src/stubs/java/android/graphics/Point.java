@@ -0,0 +1,40 @@
+package android.graphics;
+
+/** Plain JVM implementation of the Android class, with the same semantics as the original */
+public class Point
+{
+    public int x;
+    public int y;
+
+    public Point()
+    {}
+
+    public Point(int x, int y)
+    { set(x, y); }
+
+    public Point(Point src)
+    { set(src.x, src.y); }
+
+    public void set(int x, int y)
+    {
+        this.x = x;
+        this.y = y;
+    }
+
+    public void offset(int dx, int dy)
+    {
+        x += dx;
+        y += dy;
+    }
+
+    public final boolean equals(int x, int y)
+    { return this.x == x && this.y == y; }
+
+    @Override
+    public boolean equals(Object o)
+    { return o instanceof Point && equals(((Point) o).x, ((Point) o).y); }
+
+    @Override
+    public int hashCode()
+    { return 31 * x + y; }
+}
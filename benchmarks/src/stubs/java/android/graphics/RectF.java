@@ -0,0 +1,49 @@
+package android.graphics;
+
+/** Plain JVM implementation of the Android class, with the same semantics as the original */
+public class RectF
+{
+    public float left;
+    public float top;
+    public float right;
+    public float bottom;
+
+    public RectF()
+    {}
+
+    public RectF(float left, float top, float right, float bottom)
+    { set(left, top, right, bottom); }
+
+    public RectF(Rect r)
+    { set(r.left, r.top, r.right, r.bottom); }
+
+    public float width()
+    { return right - left; }
+
+    public float height()
+    { return bottom - top; }
+
+    public void set(float left, float top, float right, float bottom)
+    {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public void offset(float dx, float dy)
+    {
+        left += dx;
+        top += dy;
+        right += dx;
+        bottom += dy;
+    }
+
+    public void inset(float dx, float dy)
+    {
+        left += dx;
+        top += dy;
+        right -= dx;
+        bottom -= dy;
+    }
+}
@@ -0,0 +1,10 @@
+package android.graphics;
+
+/** Plain JVM stub of the Android class */
+public class Region
+{
+    public enum Op
+    {
+        DIFFERENCE, INTERSECT, UNION, XOR, REVERSE_DIFFERENCE, REPLACE
+    }
+}
@@ -0,0 +1,19 @@
+package android.graphics;
+
+import android.content.res.AssetManager;
+
+/** Plain JVM stub of the Android class, there are no fonts so all typefaces are alike */
+public class Typeface
+{
+    public static final int NORMAL = 0;
+    public static final int BOLD = 1;
+    public static final int ITALIC = 2;
+
+    public static final Typeface DEFAULT = new Typeface();
+
+    private Typeface()
+    {}
+
+    public static Typeface createFromAsset(AssetManager mgr, String path)
+    { return new Typeface(); }
+}
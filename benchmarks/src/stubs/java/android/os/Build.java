@@ -0,0 +1,23 @@
+package android.os;
+
+/** Plain JVM stub of the Android class, the plain JVM pretends to be the oldest supported version of Android */
+public class Build
+{
+    public static class VERSION
+    {
+        public static final int SDK_INT = VERSION_CODES.HONEYCOMB;
+    }
+
+    public static class VERSION_CODES
+    {
+        public static final int HONEYCOMB = 11;
+        public static final int HONEYCOMB_MR1 = 12;
+        public static final int HONEYCOMB_MR2 = 13;
+        public static final int ICE_CREAM_SANDWICH = 14;
+        public static final int ICE_CREAM_SANDWICH_MR1 = 15;
+        public static final int JELLY_BEAN = 16;
+        public static final int JELLY_BEAN_MR1 = 17;
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int KITKAT = 19;
+    }
+}
@@ -0,0 +1,17 @@
+package android.os;
+
+/** Plain JVM stub of the Android class, there is no message loop so posted runnables are run right away */
+public class Handler
+{
+    public Handler()
+    {}
+
+    public Handler(Looper looper)
+    {}
+
+    public final boolean post(Runnable r)
+    {
+        r.run();
+        return true;
+    }
+}
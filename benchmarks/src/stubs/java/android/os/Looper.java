@@ -0,0 +1,13 @@
+package android.os;
+
+/** Plain JVM stub of the Android class */
+public final class Looper
+{
+    private static final Looper mainLooper = new Looper();
+
+    private Looper()
+    {}
+
+    public static Looper getMainLooper()
+    { return mainLooper; }
+}
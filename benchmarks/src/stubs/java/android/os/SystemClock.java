@@ -0,0 +1,14 @@
+package android.os;
+
+/** Plain JVM implementation of the Android class */
+public final class SystemClock
+{
+    private SystemClock()
+    {}
+
+    public static long elapsedRealtime()
+    { return System.nanoTime() / 1000000; }
+
+    public static long uptimeMillis()
+    { return System.nanoTime() / 1000000; }
+}
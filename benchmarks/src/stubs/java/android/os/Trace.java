@@ -0,0 +1,14 @@
+package android.os;
+
+/** Plain JVM stub of the Android class, there is no systrace on a plain JVM */
+public final class Trace
+{
+    private Trace()
+    {}
+
+    public static void beginSection(String sectionName)
+    {}
+
+    public static void endSection()
+    {}
+}
@@ -0,0 +1,29 @@
+package android.util;
+
+/** Plain JVM implementation of the Android class, warnings and errors are written to the standard error stream */
+public final class Log
+{
+    private Log()
+    {}
+
+    public static int v(String tag, String msg)
+    { return 0; }
+
+    public static int d(String tag, String msg)
+    { return 0; }
+
+    public static int i(String tag, String msg)
+    { return 0; }
+
+    public static int w(String tag, String msg)
+    { return println("W", tag, msg); }
+
+    public static int e(String tag, String msg)
+    { return println("E", tag, msg); }
+
+    private static int println(String priority, String tag, String msg)
+    {
+        System.err.println(priority + "/" + tag + ": " + msg);
+        return msg.length();
+    }
+}
@@ -1,9 +1,8 @@
 package org.teaminfty.math_dragon;
 
-import org.matheclipse.core.eval.EvalEngine;
-import org.matheclipse.core.expression.F;
 import org.teaminfty.math_dragon.model.Database;
-import org.teaminfty.math_dragon.model.EvalHelper;
+import org.teaminfty.math_dragon.model.EvaluationContext;
+import org.teaminfty.math_dragon.model.SymjaWarmUp;
 import org.teaminfty.math_dragon.view.TypefaceHolder;
 import org.teaminfty.math_dragon.view.fragments.FragmentEvaluation;
 import org.teaminfty.math_dragon.view.fragments.FragmentMainScreen;
@@ -13,13 +12,13 @@ import org.teaminfty.math_dragon.view.math.Expression;
 
 import android.app.Activity;
 import android.content.res.Configuration;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.ActionBarDrawerToggle;
 import android.support.v4.widget.DrawerLayout;
 import android.view.Gravity;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 
 public class MainActivity extends Activity implements FragmentOperationsSource.CloseMeListener
 {
@@ -28,43 +27,28 @@ public class MainActivity extends Activity implements FragmentOperationsSource.C
     /** The ActionBarDrawerToggle that is used to toggle the drawer using the action bar */
     ActionBarDrawerToggle actionBarDrawerToggle = null;
 
-    /** Class that loads the Symja library in a separate thread */
-    private class SymjaLoader extends AsyncTask<Void, Void, Void>
-    {
-        @Override
-        protected Void doInBackground(Void... args)
-        {
-            // Simply do a simple (yet beautiful :D) calculation to make the system load Symja
-            EvalEngine.eval(F.Plus(F.ZZ(1), F.Power(F.E, F.Times(F.Pi, F.I))));
-            
-            // Solve an integral to load that module
-            EvalEngine.eval(F.Integrate(F.x, F.x));
-            
-            // Return null (return value won't be used)
-            return null;
-        }
-    }
-
 
 	@Override
     protected void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
+        StartupTrace.start();
         
         // Load the typefaces
+        long phase = StartupTrace.beginPhase("load typefaces");
         TypefaceHolder.loadFromAssets(getAssets());
+        StartupTrace.endPhase("load typefaces", phase);
 
         // Set the default size in the Expression class
         Expression.lineWidth = getResources().getDimensionPixelSize(R.dimen.math_object_line_width);
         
-        // Set the default size for formula thumbnails in the save load dialog
-        Database.TABLE_FORMULAS.IMAGE_SIZE = getResources().getDimensionPixelSize(R.dimen.formula_thumb_size);
-        
-        // Load the layout
+        // Load the layout (this inflates the fragments)
+        phase = StartupTrace.beginPhase("inflate layout");
         setContentView(R.layout.main);
+        StartupTrace.endPhase("inflate layout", phase);
         
-        // Load Symja
-        new SymjaLoader().execute();
+        // Everything that isn't needed for the first frame is done after the first frame is drawn
+        getWindow().getDecorView().getViewTreeObserver().addOnPreDrawListener(new FirstFrameListener());
 
         DrawerLayout drawerLayout;
         // DrawLayout specific code
@@ -96,6 +80,25 @@ public class MainActivity extends Activity implements FragmentOperationsSource.C
         }
     }
 
+    /** Listener that starts loading Symja and opening the database in the background once the first frame is drawn */
+    private class FirstFrameListener implements ViewTreeObserver.OnPreDrawListener
+    {
+        @Override
+        public boolean onPreDraw()
+        {
+            // We only want to know about the first frame
+            getWindow().getDecorView().getViewTreeObserver().removeOnPreDrawListener(this);
+            StartupTrace.firstFrame();
+            
+            // Load Symja and open the database
+            SymjaWarmUp.getInstance().start();
+            Database.getInstance(MainActivity.this).openInBackground();
+            
+            // Draw the frame
+            return true;
+        }
+    }
+
     @Override
     protected void onPostCreate(Bundle savedInstanceState)
     {
@@ -152,14 +155,13 @@ public class MainActivity extends Activity implements FragmentOperationsSource.C
         if(!expr.isCompleted()) return;
         
         // Load the substitutions
-        Database db = new Database(this);
-        EvalHelper.substitutions = db.getAllSubstitutions();
-        db.close();
+        Database db = Database.getInstance(this);
+        EvaluationContext evalContext = EvaluationContext.of(db.getAllSubstitutions());
 
         // Create an evaluation fragment and show the result
         FragmentEvaluation fragmentEvaluation = new FragmentEvaluation();
         fragmentEvaluation.setEvalType(true);
-        fragmentEvaluation.evaluate(expr);
+        fragmentEvaluation.evaluate(this, expr, evalContext);
         fragmentEvaluation.show(getFragmentManager(), EVALUATION_TAG);
     }
 
@@ -177,14 +179,13 @@ public class MainActivity extends Activity implements FragmentOperationsSource.C
         if(!expr.isCompleted()) return;
         
         // Load the substitutions
-        Database db = new Database(this);
-        EvalHelper.substitutions = db.getAllSubstitutions();
-        db.close();
+        Database db = Database.getInstance(this);
+        EvaluationContext evalContext = EvaluationContext.of(db.getAllSubstitutions());
 
         // Create an evaluation fragment and show the result
         FragmentEvaluation fragmentEvaluation = new FragmentEvaluation();
         fragmentEvaluation.setEvalType(false);
-        fragmentEvaluation.evaluate(expr);
+        fragmentEvaluation.evaluate(this, expr, evalContext);
         fragmentEvaluation.show(getFragmentManager(), EVALUATION_TAG);
     }
 
@@ -0,0 +1,270 @@
+package org.teaminfty.math_dragon;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A lightweight registry of the metrics of the hot paths of the application (evaluation, layout and persistence).
+ * <p>
+ * There are three kinds of metrics: {@link Counter}s, {@link Histogram}s and {@link Timer}s. A metric is created the first time
+ * it's requested by its name, the call sites are supposed to keep the metric in a static field so that recording a value is cheap.
+ * All metrics are kept in memory only, they can be dumped as JSON with {@link #toJSON()} (which also includes the startup phases of the {@link StartupTrace}).
+ */
+public final class Metrics
+{
+    private Metrics()
+    {}
+
+    /** A counter, which counts the number of times something happened */
+    public static final class Counter
+    {
+        /** The value of the counter */
+        private final AtomicLong value = new AtomicLong();
+
+        /** Increases the counter by one */
+        public void inc()
+        { value.incrementAndGet(); }
+
+        /** Increases the counter by the given amount
+         * @param n The amount to increase the counter by */
+        public void add(long n)
+        { value.addAndGet(n); }
+
+        /** Returns the value of the counter
+         * @return The value */
+        public long get()
+        { return value.get(); }
+
+        /** Sets the counter back to zero */
+        void reset()
+        { value.set(0); }
+    }
+
+    /** A histogram of non-negative values, the values are counted in buckets of which the upper bounds are powers of two */
+    public static class Histogram
+    {
+        /** The number of buckets, bucket <tt>i</tt> contains the values in the range <tt>[2^(i-1), 2^i)</tt> (bucket 0 only contains 0) */
+        private static final int BUCKETS = 64;
+
+        /** The number of values in every bucket */
+        private final long[] buckets = new long[BUCKETS];
+
+        /** The number of recorded values */
+        private long count = 0;
+
+        /** The sum of the recorded values */
+        private long sum = 0;
+
+        /** The smallest recorded value */
+        private long min = Long.MAX_VALUE;
+
+        /** The largest recorded value */
+        private long max = 0;
+
+        /** Records the given value
+         * @param value The value (negative values are recorded as 0) */
+        public synchronized void record(long value)
+        {
+            if(value < 0)
+                value = 0;
+            ++buckets[BUCKETS - Long.numberOfLeadingZeros(value)];
+            ++count;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        /** Returns the number of recorded values
+         * @return The number of values */
+        public synchronized long getCount()
+        { return count; }
+
+        /** Returns the sum of the recorded values
+         * @return The sum */
+        public synchronized long getSum()
+        { return sum; }
+
+        /** Returns the smallest recorded value
+         * @return The smallest value, or <tt>0</tt> if no values have been recorded */
+        public synchronized long getMin()
+        { return count == 0 ? 0 : min; }
+
+        /** Returns the largest recorded value
+         * @return The largest value, or <tt>0</tt> if no values have been recorded */
+        public synchronized long getMax()
+        { return max; }
+
+        /** Returns the mean of the recorded values
+         * @return The mean, or <tt>0</tt> if no values have been recorded */
+        public synchronized double getMean()
+        { return count == 0 ? 0 : (double) sum / count; }
+
+        /** Estimates the given percentile of the recorded values.
+         * The estimate is the upper bound of the bucket the percentile is in, so it's at most twice the real value (and never more than the largest value).
+         * @param p The percentile (between 0 and 100)
+         * @return The estimate, or <tt>0</tt> if no values have been recorded */
+        public synchronized long getPercentile(double p)
+        {
+            if(count == 0)
+                return 0;
+            final long rank = Math.max(1, (long) Math.ceil(count * p / 100));
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; ++i)
+            {
+                seen += buckets[i];
+                if(seen >= rank)
+                    return i == 0 ? 0 : Math.min(max, (1L << i) - 1);
+            }
+            return max;
+        }
+
+        /** Removes all recorded values */
+        synchronized void reset()
+        {
+            for(int i = 0; i < BUCKETS; ++i)
+                buckets[i] = 0;
+            count = 0;
+            sum = 0;
+            min = Long.MAX_VALUE;
+            max = 0;
+        }
+
+        /** Writes the summary of this histogram to a JSON object
+         * @return The JSON object
+         * @throws JSONException Never thrown, all values are valid JSON values */
+        synchronized JSONObject toJSON() throws JSONException
+        {
+            JSONObject out = new JSONObject();
+            out.put("count", count);
+            out.put("sum", sum);
+            out.put("min", getMin());
+            out.put("max", max);
+            out.put("mean", getMean());
+            out.put("p50", getPercentile(50));
+            out.put("p90", getPercentile(90));
+            out.put("p99", getPercentile(99));
+            return out;
+        }
+    }
+
+    /**
+     * A timer, which is a {@link Histogram} of durations in microseconds.
+     * A duration is recorded by calling {@link #begin()} and {@link #end(long)} around the timed code:
+     * <pre>
+     * final long begin = timer.begin();
+     * try
+     * { ... }
+     * finally
+     * { timer.end(begin); }
+     * </pre>
+     */
+    public static final class Timer extends Histogram
+    {
+        /** Begins timing
+         * @return The time at which timing began, which should be passed to {@link #end(long)} */
+        public long begin()
+        { return System.nanoTime(); }
+
+        /** Ends timing and records the duration
+         * @param begin The time at which timing began, as returned by {@link #begin()}
+         * @return The duration in microseconds */
+        public long end(long begin)
+        {
+            final long duration = (System.nanoTime() - begin) / 1000;
+            record(duration);
+            return duration;
+        }
+    }
+
+    /** All counters by name */
+    private static final Map<String, Counter> counters = new TreeMap<String, Counter>();
+
+    /** All histograms (except for the timers) by name */
+    private static final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+
+    /** All timers by name */
+    private static final Map<String, Timer> timers = new TreeMap<String, Timer>();
+
+    /** Returns the counter with the given name, creating it if it doesn't exist yet
+     * @param name The name of the counter
+     * @return The counter */
+    public static synchronized Counter counter(String name)
+    {
+        Counter out = counters.get(name);
+        if(out == null)
+            counters.put(name, out = new Counter());
+        return out;
+    }
+
+    /** Returns the histogram with the given name, creating it if it doesn't exist yet
+     * @param name The name of the histogram
+     * @return The histogram */
+    public static synchronized Histogram histogram(String name)
+    {
+        Histogram out = histograms.get(name);
+        if(out == null)
+            histograms.put(name, out = new Histogram());
+        return out;
+    }
+
+    /** Returns the timer with the given name, creating it if it doesn't exist yet
+     * @param name The name of the timer
+     * @return The timer */
+    public static synchronized Timer timer(String name)
+    {
+        Timer out = timers.get(name);
+        if(out == null)
+            timers.put(name, out = new Timer());
+        return out;
+    }
+
+    /** Resets all metrics (the metrics themselves remain registered) */
+    public static synchronized void reset()
+    {
+        for(Counter counter : counters.values())
+            counter.reset();
+        for(Histogram histogram : histograms.values())
+            histogram.reset();
+        for(Timer timer : timers.values())
+            timer.reset();
+    }
+
+    /** Dumps all metrics as JSON.
+     * The JSON object contains the counters, histograms and timers (in microseconds) by name,
+     * and the durations of the startup phases (in milliseconds) as recorded by the {@link StartupTrace}.
+     * @return The JSON object */
+    public static synchronized JSONObject toJSON()
+    {
+        try
+        {
+            JSONObject jsonCounters = new JSONObject();
+            for(Map.Entry<String, Counter> entry : counters.entrySet())
+                jsonCounters.put(entry.getKey(), entry.getValue().get());
+            JSONObject jsonHistograms = new JSONObject();
+            for(Map.Entry<String, Histogram> entry : histograms.entrySet())
+                jsonHistograms.put(entry.getKey(), entry.getValue().toJSON());
+            JSONObject jsonTimers = new JSONObject();
+            for(Map.Entry<String, Timer> entry : timers.entrySet())
+                jsonTimers.put(entry.getKey(), entry.getValue().toJSON());
+            JSONObject jsonStartup = new JSONObject();
+            for(Map.Entry<String, Long> entry : StartupTrace.getPhases().entrySet())
+                jsonStartup.put(entry.getKey(), entry.getValue().longValue());
+
+            JSONObject out = new JSONObject();
+            out.put("counters", jsonCounters);
+            out.put("histograms", jsonHistograms);
+            out.put("timers", jsonTimers);
+            out.put("startup", jsonStartup);
+            return out;
+        }
+        catch(JSONException e)
+        {
+            // Can't happen, all names are strings and all values are finite numbers
+            throw new IllegalStateException(e);
+        }
+    }
+}
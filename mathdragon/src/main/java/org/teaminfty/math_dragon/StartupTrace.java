@@ -0,0 +1,102 @@
+package org.teaminfty.math_dragon;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * Records how long the phases of the start of the application take.
+ * <p>
+ * A phase is traced by calling {@link #beginPhase(String)} and {@link #endPhase(String, long)} around it.
+ * The durations are written to the log (with the tag {@value #TAG}) and, on Android 4.3 and higher,
+ * the phases also show up as sections in systrace. When the first frame is drawn {@link #firstFrame()}
+ * should be called, which logs the total startup time. Phases that run in the background may end after the first frame.
+ */
+public final class StartupTrace
+{
+    private StartupTrace()
+    {}
+
+    /** The tag that is used for the log */
+    public static final String TAG = "startup";
+
+    /** The time at which the application started (as returned by {@link SystemClock#elapsedRealtime()}), <tt>0</tt> if tracing hasn't started yet */
+    private static long startTime = 0;
+
+    /** Whether or not the first frame has been drawn */
+    private static boolean finished = false;
+
+    /** The duration of every phase in milliseconds, in the order in which they finished */
+    private static final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+    /** Starts tracing, should be called as early as possible (calls after the first call are ignored) */
+    public static synchronized void start()
+    {
+        if(startTime == 0)
+            startTime = SystemClock.elapsedRealtime();
+    }
+
+    /** Begins a phase
+     * @param name The name of the phase
+     * @return The time at which the phase began, which should be passed to {@link #endPhase(String, long)} */
+    public static long beginPhase(String name)
+    {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+            beginSection(name);
+        return SystemClock.elapsedRealtime();
+    }
+
+    /** Ends a phase
+     * @param name The name of the phase
+     * @param begin The time at which the phase began, as returned by {@link #beginPhase(String)} */
+    public static void endPhase(String name, long begin)
+    {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+            endSection();
+
+        final long duration = SystemClock.elapsedRealtime() - begin;
+        synchronized(StartupTrace.class)
+        {
+            phases.put(name, duration);
+        }
+        Log.i(TAG, name + ": " + duration + " ms");
+    }
+
+    /** Should be called when the first frame is drawn, logs the total startup time (calls after the first call are ignored) */
+    public static void firstFrame()
+    {
+        final long total;
+        synchronized(StartupTrace.class)
+        {
+            if(finished || startTime == 0)
+                return;
+            finished = true;
+            total = SystemClock.elapsedRealtime() - startTime;
+            phases.put("first frame", total);
+        }
+        Log.i(TAG, "first frame: " + total + " ms");
+    }
+
+    /** Returns whether or not the first frame has been drawn
+     * @return <tt>true</tt> if the first frame has been drawn, <tt>false</tt> otherwise */
+    public static synchronized boolean isFinished()
+    { return finished; }
+
+    /** Returns the durations of the phases that have been traced
+     * @return A copy of the durations (in milliseconds) by phase name, in the order in which the phases finished */
+    public static synchronized Map<String, Long> getPhases()
+    { return new LinkedHashMap<String, Long>(phases); }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSection(String name)
+    { Trace.beginSection(name); }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endSection()
+    { Trace.endSection(); }
+}
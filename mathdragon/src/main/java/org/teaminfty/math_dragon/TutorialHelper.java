@@ -22,7 +22,6 @@ public class TutorialHelper
         {
             state.tutInProg = false;
             db.saveTutorialState(state);
-            db.close();
         }
         
     }
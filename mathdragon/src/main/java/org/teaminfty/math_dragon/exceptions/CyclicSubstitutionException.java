@@ -0,0 +1,27 @@
+package org.teaminfty.math_dragon.exceptions;
+
+/**
+ * An exception that is thrown when the substitution of a variable (indirectly)
+ * depends on the variable itself (e.g. <tt>a = b</tt> and <tt>b = a + 1</tt>)
+ */
+public class CyclicSubstitutionException extends MathException
+{
+    private static final long serialVersionUID = 4437702958011528714L;
+
+    /** Default constructor, constructs a default message */
+    public CyclicSubstitutionException()
+    {
+        super("The substitutions contain a cycle.");
+    }
+
+    /**
+     * Constructor, constructs a message for the given variable
+     *
+     * @param varName
+     *        The variable whose substitution depends on itself
+     */
+    public CyclicSubstitutionException(char varName)
+    {
+        super("The substitution of " + varName + " depends on " + varName + " itself.");
+    }
+}
@@ -0,0 +1,18 @@
+package org.teaminfty.math_dragon.exceptions;
+
+/** An exception that is thrown when an evaluation is stopped, either because it
+ * exceeded its time budget or because it was stopped manually
+ */
+public class EvaluationStoppedException extends MathException
+{
+    private static final long serialVersionUID = 6180364573025830419L;
+
+    /** Default constructor, constructs a default message */
+    public EvaluationStoppedException()
+    { super("The evaluation was stopped."); }
+
+    /** Constructor, constructs an exception with the given cause
+     * @param cause The exception that stopped the evaluation */
+    public EvaluationStoppedException(Throwable cause)
+    { super(cause); }
+}
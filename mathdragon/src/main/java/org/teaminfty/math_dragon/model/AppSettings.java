@@ -13,6 +13,13 @@ public abstract class AppSettings
     /** A boolean settings that indicates whether or not to vibrate on certain input events (true by default). */
     public static final String VIBRATION_ON = "vibration_on";
 
+    /** A long setting that contains the time budget (in milliseconds) for evaluating a simple expression (5000 by default).
+     * There's no screen to change it yet, so it can only be changed from code (e.g. for testing). */
+    public static final String EVALUATION_TIME_BUDGET = "evaluation_time_budget";
+
+    /** The default value of the {@link AppSettings#EVALUATION_TIME_BUDGET} setting. */
+    public static final long DEFAULT_EVALUATION_TIME_BUDGET = 5000;
+
     /**
      * Returns whether or not to vibrate on certain input events.
      * @param context The context that is used to access the settings.
@@ -40,4 +47,32 @@ public abstract class AppSettings
         // Commit the changes
         settingsEditor.commit();
     }
+
+    /**
+     * Returns the time budget for evaluating a simple expression (more complex expressions get a larger budget).
+     * @param context The context that is used to access the settings.
+     * @return The time budget in milliseconds.
+     */
+    public static long getEvaluationTimeBudget(Context context)
+    {
+        return context.getSharedPreferences(SHARED_PREFS_NAME, Activity.MODE_PRIVATE).getLong(EVALUATION_TIME_BUDGET, DEFAULT_EVALUATION_TIME_BUDGET);
+    }
+
+    /**
+     * Sets the time budget for evaluating a simple expression.
+     * @param context The context that is used to access the settings.
+     * @param timeBudget The time budget in milliseconds.
+     */
+    public static void setEvaluationTimeBudget(Context context, long timeBudget)
+    {
+        // Get an editor for the settings
+        SharedPreferences settings = context.getSharedPreferences(SHARED_PREFS_NAME, Activity.MODE_PRIVATE);
+        SharedPreferences.Editor settingsEditor = settings.edit();
+
+        // Set the new time budget
+        settingsEditor.putLong(EVALUATION_TIME_BUDGET, timeBudget);
+
+        // Commit the changes
+        settingsEditor.commit();
+    }
 }
@@ -0,0 +1,199 @@
+package org.teaminfty.math_dragon.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.matheclipse.core.eval.EvalEngine;
+import org.matheclipse.core.interfaces.IExpr;
+import org.teaminfty.math_dragon.exceptions.EvaluationStoppedException;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.operation.Integral;
+import org.teaminfty.math_dragon.view.math.operation.Limit;
+import org.teaminfty.math_dragon.view.math.operation.binary.Derivative;
+
+/**
+ * Evaluates Symja expressions within a time budget.
+ * <p>
+ * Symja ignores thread interrupts, so instead the evaluation runs on the {@link EvalEngine}s of the evaluating threads
+ * with a recursion and iteration limit, and {@link #stop()} requests those engines to stop.
+ * Between the steps of an evaluation {@link #checkpoint()} should be called, which stops the evaluation once the budget is used up.
+ * <p>
+ * An evaluation should be started with {@link #start()} on every thread that evaluates a part of it and finished with {@link #finish()}
+ * when that thread is done (threads may be reused for other evaluations); it can be stopped from any thread.
+ */
+public class BudgetedEvaluation
+{
+    /** The maximum recursion depth of Symja */
+    public static final int RECURSION_LIMIT = 256;
+
+    /** The maximum number of iterations of a single Symja evaluation */
+    public static final int ITERATION_LIMIT = 10000;
+
+    /** The extra time (in milliseconds) that is added to the budget for every (sub)expression */
+    private static final long TIME_PER_EXPRESSION = 20;
+
+    /** The maximum factor by which the time budget is increased for complex expressions */
+    private static final int MAX_BUDGET_FACTOR = 4;
+
+    /** The time budget in milliseconds */
+    private final long timeBudget;
+
+    /** The time at which the evaluation was started (as returned by {@link System#currentTimeMillis()}), or <tt>0</tt> if it hasn't started yet */
+    private volatile long startTime = 0;
+
+    /** Whether or not the evaluation has been stopped */
+    private volatile boolean stopped = false;
+
+    /** The engines of the threads that evaluate */
+    private final List<EvalEngine> engines = new ArrayList<EvalEngine>();
+
+    /** Constructor
+     * @param timeBudget The time budget in milliseconds */
+    public BudgetedEvaluation(long timeBudget)
+    { this.timeBudget = timeBudget; }
+
+    /**
+     * Calculates the time budget for evaluating the given expression.
+     * Complex expressions (i.e. large expressions, or expressions containing integrals, limits or derivatives)
+     * get a larger budget, up to {@link BudgetedEvaluation#MAX_BUDGET_FACTOR} times the base budget.
+     *
+     * @param baseBudget
+     *        The time budget for simple expressions (in milliseconds)
+     * @param expr
+     *        The expression that is to be evaluated
+     * @return The time budget in milliseconds
+     */
+    public static long getTimeBudget(long baseBudget, Expression expr)
+    {
+        long budget = baseBudget + complexity(expr, baseBudget);
+        return Math.min(budget, baseBudget * MAX_BUDGET_FACTOR);
+    }
+
+    /** Calculates the extra time (in milliseconds) that is needed to evaluate the given expression
+     * @param expr The expression
+     * @param baseBudget The time budget for simple expressions (in milliseconds)
+     * @return The extra time in milliseconds */
+    private static long complexity(Expression expr, long baseBudget)
+    {
+        // We use an explicit stack, so deep expressions can't overflow the call stack
+        long result = 0;
+        ArrayDeque<Expression> stack = new ArrayDeque<Expression>();
+        stack.push(expr);
+        while(!stack.isEmpty())
+        {
+            Expression current = stack.pop();
+            result += TIME_PER_EXPRESSION;
+            if(current instanceof Integral || current instanceof Limit)
+                result += baseBudget;
+            else if(current instanceof Derivative)
+                result += baseBudget / 2;
+            for(int i = 0; i < current.getChildCount(); ++i)
+                stack.push(current.getChild(i));
+        }
+        return result;
+    }
+
+    /** Returns the time budget
+     * @return The time budget in milliseconds */
+    public long getTimeBudget()
+    { return timeBudget; }
+
+    /** Starts the evaluation on the current thread, should be called on every thread that evaluates (a part of) the evaluation.
+     * The time budget starts when this method is called for the first time. */
+    public void start()
+    {
+        // Prepare the engine of this thread (it may have been used before by an evaluation that was stopped)
+        EvalEngine engine = EvalEngine.get();
+        engine.setRecursionLimit(RECURSION_LIMIT);
+        engine.setIterationLimit(ITERATION_LIMIT);
+        engine.setStopRequested(false);
+        
+        synchronized(engines)
+        {
+            if(startTime == 0)
+                startTime = System.currentTimeMillis();
+            engines.add(engine);
+            
+            // We may have been stopped before the engine was added
+            if(stopped)
+                engine.setStopRequested(true);
+        }
+    }
+
+    /** Finishes the evaluation on the current thread, after this the evaluation can no longer stop the engine of this thread */
+    public void finish()
+    {
+        synchronized(engines)
+        {
+            engines.remove(EvalEngine.get());
+        }
+    }
+
+    /** Stops the evaluation on all threads (may be called from any thread) */
+    public void stop()
+    {
+        synchronized(engines)
+        {
+            stopped = true;
+            for(EvalEngine engine : engines)
+                engine.setStopRequested(true);
+        }
+    }
+
+    /** Returns whether or not the evaluation has been stopped or has used up its time budget
+     * @return <tt>true</tt> if the evaluation should stop, <tt>false</tt> otherwise */
+    public boolean isStopped()
+    { return stopped || (startTime != 0 && System.currentTimeMillis() - startTime > timeBudget); }
+
+    /** Checks whether the evaluation should stop, should be called between the steps of the evaluation
+     * @throws EvaluationStoppedException Thrown if the evaluation has been stopped or has used up its time budget */
+    public void checkpoint() throws EvaluationStoppedException
+    {
+        if(isStopped())
+        {
+            stop();
+            throw new EvaluationStoppedException();
+        }
+    }
+
+    /** Evaluates the given expression exactly
+     * @param expr The expression to evaluate
+     * @return The result
+     * @throws EvaluationStoppedException Thrown if the evaluation has been stopped or has used up its time budget */
+    public IExpr eval(IExpr expr) throws EvaluationStoppedException
+    {
+        checkpoint();
+        try
+        {
+            return EvalEngine.get().evaluate(expr);
+        }
+        catch(RuntimeException e)
+        {
+            // Symja throws an exception when it's requested to stop
+            if(isStopped())
+                throw new EvaluationStoppedException(e);
+            throw e;
+        }
+    }
+
+    /** Approximates the given expression
+     * @param expr The expression to approximate
+     * @return The result
+     * @throws EvaluationStoppedException Thrown if the evaluation has been stopped or has used up its time budget */
+    public IExpr evaln(IExpr expr) throws EvaluationStoppedException
+    {
+        checkpoint();
+        try
+        {
+            return EvalEngine.get().evalN(expr);
+        }
+        catch(RuntimeException e)
+        {
+            // Symja throws an exception when it's requested to stop
+            if(isStopped())
+                throw new EvaluationStoppedException(e);
+            throw e;
+        }
+    }
+}
@@ -4,7 +4,10 @@ import java.io.ByteArrayOutputStream;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
@@ -15,8 +18,11 @@ import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.teaminfty.math_dragon.Metrics;
+import org.teaminfty.math_dragon.StartupTrace;
 import org.teaminfty.math_dragon.exceptions.ParseException;
 import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.ExpressionDuplicator;
 import org.teaminfty.math_dragon.view.math.ExpressionXMLReader;
 import org.w3c.dom.Document;
 
@@ -25,17 +31,20 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
 
 public class Database extends SQLiteOpenHelper
 {
     /** The database name */
     private static final String DATABASE_NAME = "formula_database";
     /** The database version */
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 6;
     
     /** The information about the formulas table */
     public static final class TABLE_FORMULAS
@@ -49,13 +58,11 @@ public class Database extends SQLiteOpenHelper
         public static final String FORMULA_NAME = "name";
         /** The date when formula was last changed */
         public static final String LAST_CHANGE = "last_change";
-        /** An image of the formula (PNG format) */
+        /** The image of the formula, which isn't used anymore and is always <tt>NULL</tt> (SQLite can't drop columns).
+         * Thumbnails are drawn from the {@link TABLE_FORMULAS#MATH_OBJECT MATH_OBJECT}, see {@link Database#getFormulaThumbnail(int, int) getFormulaThumbnail()}. */
         public static final String IMAGE = "img";
         /** The actual {@link Expression} stored as a XML string */
         public static final String MATH_OBJECT = "math_object";
-        
-        /** The size of the formula image (in pixels) */
-        public static int IMAGE_SIZE = 64;
     }
     
     /** Represents a single row in the formulas table */
@@ -75,7 +82,7 @@ public class Database extends SQLiteOpenHelper
          * @param id The ID
          * @param name The name of the formula
          * @param datetime The last time the formula was changed as a string (format: yyyy-mm-dd hh:mm:ss)
-         * @param bmp The bitmap as a byte array (PNG format)
+         * @param bmp The bitmap as a byte array (PNG or WebP format)
          * @param xml The {@link Expression} as a XML string */
         public Formula(int id, String name, String datetime, byte[] bmp, byte[] xml)
         {
@@ -222,11 +229,213 @@ public class Database extends SQLiteOpenHelper
         public boolean showTutDlg = true;
     }
     
-    /** Constructor */
-    public Database(Context ctx)
+    /** The information about the results table */
+    public static final class TABLE_RESULTS
+    {
+        /** The name of the table */
+        public static final String NAME = "results";
+
+        /** The canonical (Symja) form of the evaluated input */
+        public static final String INPUT = "input";
+        /** The exact result, stored as a XML string (can be <tt>null</tt>) */
+        public static final String EXACT = "exact";
+        /** The approximated result, stored as a XML string (can be <tt>null</tt>) */
+        public static final String APPROXIMATE = "approximate";
+        /** Whether or not variables were substituted to get the results */
+        public static final String SUBSTITUTED = "substituted";
+        /** The last time the results were used, in milliseconds since 1970-01-01 GMT */
+        public static final String LAST_USED = "last_used";
+        
+        /** The maximum number of results that is kept, the least recently used results are removed first */
+        public static final int MAX_RESULTS = 256;
+    }
+    
+    /** Represents a single row in the results table */
+    public static final class Result
+    {
+        /** Constructor for construction from raw data
+         * @param exact The exact result as a XML string (can be <tt>null</tt>)
+         * @param approximate The approximated result as a XML string (can be <tt>null</tt>)
+         * @param substituted Whether or not variables were substituted to get the results */
+        public Result(byte[] exact, byte[] approximate, boolean substituted)
+        {
+            this.exact = fromXML(exact);
+            this.approximate = fromXML(approximate);
+            this.substituted = substituted;
+        }
+        
+        /** Reads an {@link Expression} from the given XML string
+         * @param xml The XML string (can be <tt>null</tt>)
+         * @return The {@link Expression}, or <tt>null</tt> if it couldn't be read */
+        private static Expression fromXML(byte[] xml)
+        {
+            if(xml == null)
+                return null;
+            try
+            {
+                return ExpressionXMLReader.fromXML(xml);
+            }
+            catch(ParseException e)
+            {
+                // The result will simply be evaluated again
+                return null;
+            }
+        }
+        
+        /** The exact result (can be <tt>null</tt>) */
+        public Expression exact = null;
+        /** The approximated result (can be <tt>null</tt>) */
+        public Expression approximate = null;
+        /** Whether or not variables were substituted to get the results */
+        public boolean substituted = false;
+    }
+    
+    /** The only instance of this class */
+    private static Database instance = null;
+    
+    /** The connection to the database (<tt>null</tt> if it hasn't been opened yet) */
+    private SQLiteDatabase db = null;
+    
+    /** Inserts a formula (name, last change, image, expression) */
+    private SQLiteStatement insertFormula = null;
+    /** Updates a formula (name, last change, image, expression, ID) */
+    private SQLiteStatement updateFormula = null;
+    /** Updates a formula without changing its name (last change, image, expression, ID) */
+    private SQLiteStatement updateFormulaKeepName = null;
+    /** Deletes a formula (ID) */
+    private SQLiteStatement deleteFormula = null;
+    /** Counts the substitutions for a variable (variable name) */
+    private SQLiteStatement countSubstitution = null;
+    /** Inserts or replaces a substitution (variable name, value) */
+    private SQLiteStatement replaceSubstitution = null;
+    /** Deletes a substitution (variable name) */
+    private SQLiteStatement deleteSubstitution = null;
+    /** Inserts or replaces a tutorial state (ID, tutorial in progress, show tutorial dialog) */
+    private SQLiteStatement replaceTutorialState = null;
+    /** Marks a result as recently used (last used, input) */
+    private SQLiteStatement touchResult = null;
+    /** Updates the exact result (exact, substituted, last used, input) */
+    private SQLiteStatement updateExactResult = null;
+    /** Updates the approximate result (approximate, substituted, last used, input) */
+    private SQLiteStatement updateApproximateResult = null;
+    /** Inserts an exact result (exact, substituted, last used, input) */
+    private SQLiteStatement insertExactResult = null;
+    /** Inserts an approximate result (approximate, substituted, last used, input) */
+    private SQLiteStatement insertApproximateResult = null;
+    /** Removes the least recently used results */
+    private SQLiteStatement trimResults = null;
+    
+    /** Saves formulas in the background, one at a time (so they're written in the order they're saved in) */
+    private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor();
+    
+    /** The formulas that are waiting to be overwritten in the background, mapped on their ID */
+    private final HashMap<Integer, PendingSave> pendingSaves = new HashMap<Integer, PendingSave>();
+    
+    /** Used to notify the {@link OnFormulaSavedListener}s on the UI thread */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    /** The time it takes to query the formulas table, including reading the cursor (in microseconds) */
+    private static final Metrics.Timer formulaQueryTimer = Metrics.timer("database.query.formulas");
+    /** The time it takes to query the substitutions table, including reading the cursor (in microseconds) */
+    private static final Metrics.Timer substitutionQueryTimer = Metrics.timer("database.query.substitutions");
+    /** The time it takes to query the tutorials table, including reading the cursor (in microseconds) */
+    private static final Metrics.Timer tutorialQueryTimer = Metrics.timer("database.query.tutorials");
+    /** The time it takes to query the results table, including reading the cursor (in microseconds) */
+    private static final Metrics.Timer resultQueryTimer = Metrics.timer("database.query.results");
+    /** The sizes of the expressions of the formulas that are written (in bytes) */
+    private static final Metrics.Histogram formulaSizes = Metrics.histogram("database.formula_bytes");
+    /** The sizes of the results that are written (in bytes) */
+    private static final Metrics.Histogram resultSizes = Metrics.histogram("database.result_bytes");
+    
+    /** Constructor
+     * @param ctx The application context */
+    private Database(Context ctx)
     {
         super(ctx, DATABASE_NAME, null, DATABASE_VERSION);
     }
+    
+    /** Returns the database.
+     * There's only one instance for the whole process, which keeps its connection to the database open.
+     * So the database should <b>not</b> be closed after it's used.
+     * @param ctx A context, only used to create the instance the first time this method is called
+     * @return The database */
+    public static synchronized Database getInstance(Context ctx)
+    {
+        if(instance == null)
+            instance = new Database(ctx.getApplicationContext());
+        return instance;
+    }
+    
+    /** Returns the connection to the database, opening it and compiling the statements if that hasn't been done yet
+     * @return The connection to the database */
+    private synchronized SQLiteDatabase open()
+    {
+        // Check if the database has been opened already
+        if(db != null)
+            return db;
+        
+        // Open the database, write-ahead logging allows us to read while we're writing
+        final long phase = StartupTrace.beginPhase("open database");
+        db = getWritableDatabase();
+        db.enableWriteAheadLogging();
+        
+        // Compile the statements
+        insertFormula = db.compileStatement("INSERT INTO " + TABLE_FORMULAS.NAME + " (" + TABLE_FORMULAS.FORMULA_NAME + ", " + TABLE_FORMULAS.LAST_CHANGE + ", " +
+                TABLE_FORMULAS.IMAGE + ", " + TABLE_FORMULAS.MATH_OBJECT + ") VALUES (?, ?, NULL, ?)");
+        updateFormula = db.compileStatement("UPDATE " + TABLE_FORMULAS.NAME + " SET " + TABLE_FORMULAS.FORMULA_NAME + " = ?, " + TABLE_FORMULAS.LAST_CHANGE + " = ?, " +
+                TABLE_FORMULAS.IMAGE + " = NULL, " + TABLE_FORMULAS.MATH_OBJECT + " = ? WHERE " + TABLE_FORMULAS.ID + " = ?");
+        updateFormulaKeepName = db.compileStatement("UPDATE " + TABLE_FORMULAS.NAME + " SET " + TABLE_FORMULAS.LAST_CHANGE + " = ?, " +
+                TABLE_FORMULAS.IMAGE + " = NULL, " + TABLE_FORMULAS.MATH_OBJECT + " = ? WHERE " + TABLE_FORMULAS.ID + " = ?");
+        deleteFormula = db.compileStatement("DELETE FROM " + TABLE_FORMULAS.NAME + " WHERE " + TABLE_FORMULAS.ID + " = ?");
+        countSubstitution = db.compileStatement("SELECT COUNT(*) FROM " + TABLE_SUBSTITUTIONS.NAME + " WHERE " + TABLE_SUBSTITUTIONS.VAR_NAME + " = ?");
+        replaceSubstitution = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_SUBSTITUTIONS.NAME + " (" + TABLE_SUBSTITUTIONS.VAR_NAME + ", " +
+                TABLE_SUBSTITUTIONS.VALUE + ") VALUES (?, ?)");
+        deleteSubstitution = db.compileStatement("DELETE FROM " + TABLE_SUBSTITUTIONS.NAME + " WHERE " + TABLE_SUBSTITUTIONS.VAR_NAME + " = ?");
+        replaceTutorialState = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_TUTORIALS.NAME + " (" + TABLE_TUTORIALS.ID + ", " +
+                TABLE_TUTORIALS.TUTORIAL_IN_PROGRESS + ", " + TABLE_TUTORIALS.SHOW_TUTORIAL_DIALOG + ") VALUES (?, ?, ?)");
+        touchResult = db.compileStatement("UPDATE " + TABLE_RESULTS.NAME + " SET " + TABLE_RESULTS.LAST_USED + " = ? WHERE " + TABLE_RESULTS.INPUT + " = ?");
+        updateExactResult = compileUpdateResult(TABLE_RESULTS.EXACT);
+        updateApproximateResult = compileUpdateResult(TABLE_RESULTS.APPROXIMATE);
+        insertExactResult = compileInsertResult(TABLE_RESULTS.EXACT);
+        insertApproximateResult = compileInsertResult(TABLE_RESULTS.APPROXIMATE);
+        trimResults = db.compileStatement("DELETE FROM " + TABLE_RESULTS.NAME + " WHERE " + TABLE_RESULTS.INPUT + " NOT IN (" +
+                "SELECT " + TABLE_RESULTS.INPUT + " FROM " + TABLE_RESULTS.NAME +
+                " ORDER BY " + TABLE_RESULTS.LAST_USED + " DESC LIMIT " + Integer.toString(TABLE_RESULTS.MAX_RESULTS) + ")");
+        StartupTrace.endPhase("open database", phase);
+        
+        // Return the connection
+        return db;
+    }
+    
+    /** Opens the database in the background (if that hasn't been done yet), so that it's ready when it's used.
+     * Opening the database may take a while, especially when it has to be upgraded. */
+    public void openInBackground()
+    {
+        saveExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            { open(); }
+        });
+    }
+    
+    /** Compiles a statement that updates a result
+     * @param column The column of the result (either {@link TABLE_RESULTS#EXACT EXACT} or {@link TABLE_RESULTS#APPROXIMATE APPROXIMATE})
+     * @return The compiled statement (result, substituted, last used, input) */
+    private SQLiteStatement compileUpdateResult(String column)
+    {
+        return db.compileStatement("UPDATE " + TABLE_RESULTS.NAME + " SET " + column + " = ?, " + TABLE_RESULTS.SUBSTITUTED + " = ?, " +
+                TABLE_RESULTS.LAST_USED + " = ? WHERE " + TABLE_RESULTS.INPUT + " = ?");
+    }
+    
+    /** Compiles a statement that inserts a result
+     * @param column The column of the result (either {@link TABLE_RESULTS#EXACT EXACT} or {@link TABLE_RESULTS#APPROXIMATE APPROXIMATE})
+     * @return The compiled statement (result, substituted, last used, input) */
+    private SQLiteStatement compileInsertResult(String column)
+    {
+        return db.compileStatement("INSERT INTO " + TABLE_RESULTS.NAME + " (" + column + ", " + TABLE_RESULTS.SUBSTITUTED + ", " +
+                TABLE_RESULTS.LAST_USED + ", " + TABLE_RESULTS.INPUT + ") VALUES (?, ?, ?, ?)");
+    }
 
     @Override
     public void onCreate(SQLiteDatabase db)
@@ -236,7 +445,7 @@ public class Database extends SQLiteOpenHelper
                         TABLE_FORMULAS.ID + " INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT," +
                         TABLE_FORMULAS.FORMULA_NAME + " TEXT NOT NULL," +
                         TABLE_FORMULAS.LAST_CHANGE + " TIMESTAMP NOT NULL," +
-                        TABLE_FORMULAS.IMAGE + " BLOB NOT NULL," +
+                        TABLE_FORMULAS.IMAGE + " BLOB," +
                         TABLE_FORMULAS.MATH_OBJECT + " BLOB NOT NULL" +
                    ")");
         
@@ -252,6 +461,15 @@ public class Database extends SQLiteOpenHelper
                         TABLE_TUTORIALS.TUTORIAL_IN_PROGRESS + " INTEGER NOT NULL," +
                         TABLE_TUTORIALS.SHOW_TUTORIAL_DIALOG + " INTEGER NOT NULL" +
                    ")");
+
+        // Create a table for the results
+        db.execSQL("CREATE TABLE " + TABLE_RESULTS.NAME + " (" +
+                        TABLE_RESULTS.INPUT + " TEXT NOT NULL PRIMARY KEY," +
+                        TABLE_RESULTS.EXACT + " BLOB," +
+                        TABLE_RESULTS.APPROXIMATE + " BLOB," +
+                        TABLE_RESULTS.SUBSTITUTED + " INTEGER NOT NULL," +
+                        TABLE_RESULTS.LAST_USED + " INTEGER NOT NULL" +
+                   ")");
     }
 
     @Override
@@ -263,7 +481,10 @@ public class Database extends SQLiteOpenHelper
             upgradeV2toV3(db);
         if(oldVersion <= 3 && newVersion >= 4)
             upgradeV3toV4(db);
-            
+        if(oldVersion <= 4 && newVersion >= 5)
+            upgradeV4toV5(db);
+        if(oldVersion <= 5 && newVersion >= 6)
+            upgradeV5toV6(db);
     }
     
     /** Upgrades the database from version 1 to version 2
@@ -298,6 +519,40 @@ public class Database extends SQLiteOpenHelper
                    ")");
     }
 
+    /** Upgrades the database from version 4 to version 5
+     * @param db The database to upgrade */
+    private void upgradeV4toV5(SQLiteDatabase db)
+    {
+        // Create a table for the results
+        db.execSQL("CREATE TABLE " + TABLE_RESULTS.NAME + " (" +
+                        TABLE_RESULTS.INPUT + " TEXT NOT NULL PRIMARY KEY," +
+                        TABLE_RESULTS.EXACT + " BLOB," +
+                        TABLE_RESULTS.APPROXIMATE + " BLOB," +
+                        TABLE_RESULTS.SUBSTITUTED + " INTEGER NOT NULL," +
+                        TABLE_RESULTS.LAST_USED + " INTEGER NOT NULL" +
+                   ")");
+    }
+
+    /** Upgrades the database from version 5 to version 6
+     * @param db The database to upgrade */
+    private void upgradeV5toV6(SQLiteDatabase db)
+    {
+        // The image of a formula isn't used anymore, since SQLite can't drop the NOT NULL constraint we have to recreate the formulas table
+        // The old images aren't copied (so they're NULL), the thumbnails are drawn from the expressions
+        final String columns = TABLE_FORMULAS.ID + ", " + TABLE_FORMULAS.FORMULA_NAME + ", " + TABLE_FORMULAS.LAST_CHANGE + ", " +
+                               TABLE_FORMULAS.MATH_OBJECT;
+        db.execSQL("ALTER TABLE " + TABLE_FORMULAS.NAME + " RENAME TO " + TABLE_FORMULAS.NAME + "_old");
+        db.execSQL("CREATE TABLE " + TABLE_FORMULAS.NAME + " (" +
+                        TABLE_FORMULAS.ID + " INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT," +
+                        TABLE_FORMULAS.FORMULA_NAME + " TEXT NOT NULL," +
+                        TABLE_FORMULAS.LAST_CHANGE + " TIMESTAMP NOT NULL," +
+                        TABLE_FORMULAS.IMAGE + " BLOB," +
+                        TABLE_FORMULAS.MATH_OBJECT + " BLOB NOT NULL" +
+                   ")");
+        db.execSQL("INSERT INTO " + TABLE_FORMULAS.NAME + " (" + columns + ") SELECT " + columns + " FROM " + TABLE_FORMULAS.NAME + "_old");
+        db.execSQL("DROP TABLE " + TABLE_FORMULAS.NAME + "_old");
+    }
+
     /** Returns a list of all formulas in the database.
      * Each of the formulas have their {@link Expression} set to <tt>null</tt>.
      * @return The list of formulas */
@@ -306,51 +561,254 @@ public class Database extends SQLiteOpenHelper
         // The list we're going to build
         ArrayList<Formula> out = new ArrayList<Formula>();
         
-        // Open a connection to the database
-        SQLiteDatabase db = getReadableDatabase();
-        
         // Get a cursor for all formulas in the database and add all of them to our list
-        Cursor cursor = db.query(TABLE_FORMULAS.NAME,
-                new String[]{ TABLE_FORMULAS.ID, TABLE_FORMULAS.FORMULA_NAME, TABLE_FORMULAS.LAST_CHANGE, TABLE_FORMULAS.IMAGE },
+        final long begin = formulaQueryTimer.begin();
+        Cursor cursor = open().query(TABLE_FORMULAS.NAME,
+                new String[]{ TABLE_FORMULAS.ID, TABLE_FORMULAS.FORMULA_NAME, TABLE_FORMULAS.LAST_CHANGE },
                 null, null, null, null, TABLE_FORMULAS.LAST_CHANGE + " DESC");
         while(cursor.moveToNext())
-            out.add(new Formula(cursor.getInt(0), cursor.getString(1), cursor.getString(2), cursor.getBlob(3), null));
-
-        // Close the database connection
-        db.close();
+            out.add(new Formula(cursor.getInt(0), cursor.getString(1), cursor.getString(2), null, null));
+        cursor.close();
+        formulaQueryTimer.end(begin);
         
         // Return the created list
         return out;
     }
 
+    /** Returns a page of the formulas in the database, the most recently changed formulas come first.
+     * Each of the formulas have their image and their {@link Expression} set to <tt>null</tt>,
+     * use {@link Database#getFormulaThumbnail(int, int) getFormulaThumbnail()} to get a thumbnail.
+     * <p>
+     * The page starts after the given formula instead of at an offset, so formulas that are saved while the pages are loaded
+     * (which moves them to the front) don't make later pages skip a formula or return one twice.
+     * @param after The last formula of the previous page, or <tt>null</tt> for the first page
+     * @param count The maximum number of formulas to return
+     * @return The list of formulas (empty if there are no more formulas) */
+    public ArrayList<Formula> getFormulas(Formula after, int count)
+    {
+        // The list we're going to build
+        ArrayList<Formula> out = new ArrayList<Formula>(count);
+
+        // Only select the formulas that come after the given formula
+        // The ID is used to keep the order stable for formulas with the same last change
+        String selection = null;
+        String[] selectionArgs = null;
+        if(after != null)
+        {
+            final String lastChange = formatDate(after.lastChange);
+            selection = TABLE_FORMULAS.LAST_CHANGE + " < ? OR (" + TABLE_FORMULAS.LAST_CHANGE + " = ? AND " + TABLE_FORMULAS.ID + " < ?)";
+            selectionArgs = new String[]{ lastChange, lastChange, Integer.toString(after.id) };
+        }
+
+        // Get a cursor for the requested page
+        final long begin = formulaQueryTimer.begin();
+        Cursor cursor = open().query(TABLE_FORMULAS.NAME,
+                new String[]{ TABLE_FORMULAS.ID, TABLE_FORMULAS.FORMULA_NAME, TABLE_FORMULAS.LAST_CHANGE },
+                selection, selectionArgs, null, null, TABLE_FORMULAS.LAST_CHANGE + " DESC, " + TABLE_FORMULAS.ID + " DESC",
+                Integer.toString(count));
+        while(cursor.moveToNext())
+            out.add(new Formula(cursor.getInt(0), cursor.getString(1), cursor.getString(2), null, null));
+        cursor.close();
+        formulaQueryTimer.end(begin);
+
+        // Return the created list
+        return out;
+    }
+
+    /** Returns a thumbnail of the formula with the given ID, which is drawn from the stored {@link Expression}.
+     * @param id The ID of the formula
+     * @param size The width and height of the thumbnail (in pixels)
+     * @return The thumbnail, or <tt>null</tt> if the formula doesn't exist */
+    public Bitmap getFormulaThumbnail(int id, int size)
+    {
+        // Get a cursor for the expression of the requested formula
+        final long begin = formulaQueryTimer.begin();
+        Cursor cursor = open().query(TABLE_FORMULAS.NAME, new String[]{ TABLE_FORMULAS.MATH_OBJECT },
+                TABLE_FORMULAS.ID + " = " + Integer.toString(id), null, null, null, null);
+        if(!cursor.moveToFirst())
+        {
+            cursor.close();
+            formulaQueryTimer.end(begin);
+            return null;
+        }
+        final byte[] xml = cursor.getBlob(0);
+        cursor.close();
+        formulaQueryTimer.end(begin);
+        
+        // Draw the expression
+        try
+        {
+            return drawThumbnail(ExpressionXMLReader.fromXML(xml), size);
+        }
+        catch(ParseException e)
+        {
+            return null;
+        }
+    }
+    
+    /** Draws a thumbnail of the given {@link Expression}
+     * @param expr The {@link Expression} to draw (its default height is changed)
+     * @param size The width and height of the thumbnail (in pixels)
+     * @return The thumbnail */
+    public static Bitmap drawThumbnail(Expression expr, int size)
+    {
+        // Draw the expression at the size of the thumbnail
+        expr.setDefaultHeight(size);
+        
+        // Create a bitmap of the right size and create a canvas for it
+        Bitmap bmp = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Rect bounding = expr.getBoundingBox();
+        Canvas canvas = new Canvas(bmp);
+        
+        // Scale and translate the canvas so that the whole MathObject fits in
+        final float scale = Math.min(1.0f, Math.min(((float) size) / bounding.width(), ((float) size) / bounding.height()));
+        canvas.scale(scale, scale);
+        canvas.translate((size - bounding.width() * scale) / (2 * scale), (size - bounding.height() * scale) / (2 * scale));
+        
+        // Draw the MathObject
+        expr.draw(canvas);
+        return bmp;
+    }
+
     /** Returns the formula with the given ID from the database.
      * If no formula with such an ID is found, <tt>null</tt> is returned.
+     * The image of the formula is set to <tt>null</tt>, use {@link Database#getFormulaThumbnail(int, int) getFormulaThumbnail()} to get a thumbnail.
      * @param id The ID of the formula to get.
      * @return The list of formulas */
     public Formula getFormulaByID(int id)
     {
-        // Open a connection to the database
-        SQLiteDatabase db = getReadableDatabase();
-        
         // Get a cursor for the requested formula and check if it exists
-        Cursor cursor = db.query(TABLE_FORMULAS.NAME,
-                new String[]{ TABLE_FORMULAS.ID, TABLE_FORMULAS.FORMULA_NAME, TABLE_FORMULAS.LAST_CHANGE, TABLE_FORMULAS.MATH_OBJECT, TABLE_FORMULAS.IMAGE },
+        final long begin = formulaQueryTimer.begin();
+        Cursor cursor = open().query(TABLE_FORMULAS.NAME,
+                new String[]{ TABLE_FORMULAS.ID, TABLE_FORMULAS.FORMULA_NAME, TABLE_FORMULAS.LAST_CHANGE, TABLE_FORMULAS.MATH_OBJECT },
                 TABLE_FORMULAS.ID + " = " + Integer.toString(id), null, null, null, null);
-        if(cursor.getCount() == 0)
+        if(!cursor.moveToFirst())
+        {
+            cursor.close();
+            formulaQueryTimer.end(begin);
             return null;
-        cursor.moveToFirst();
-        
-        // Close the database connection
-        db.close();
+        }
         
         // Create a formula from the retrieved data and return it
-        return new Formula(cursor.getInt(0), cursor.getString(1), cursor.getString(2), cursor.getBlob(4), cursor.getBlob(3));
+        final byte[] xml = cursor.getBlob(3);
+        final int formulaId = cursor.getInt(0);
+        final String name = cursor.getString(1);
+        final String lastChange = cursor.getString(2);
+        cursor.close();
+        formulaQueryTimer.end(begin);
+        return new Formula(formulaId, name, lastChange, null, xml);
     }
     
     /** The ID that's used for inserting a formula into the database */
     public static final int INSERT_ID = 0;
     
+    /** A listener that can be implemented to listen for formulas that are saved in the background */
+    public interface OnFormulaSavedListener
+    {
+        /** Called (on the UI thread) when the formula has been saved
+         * @param id The ID of the saved formula, or <tt>-1</tt> if the formula couldn't be saved */
+        public void saved(int id);
+    }
+    
+    /** A formula that is waiting to be saved in the background */
+    private static final class PendingSave
+    {
+        /** The ID of the formula to overwrite, or {@link Database#INSERT_ID INSERT_ID} to create a new entry */
+        public int id;
+        /** The name of the formula to save (<tt>null</tt> if it should remain unchanged) */
+        public String name;
+        /** A copy of the {@link Expression} that is to be stored */
+        public Expression expr;
+        /** The listeners that should be notified once the formula has been saved */
+        public ArrayList<OnFormulaSavedListener> listeners = new ArrayList<OnFormulaSavedListener>(1);
+    }
+    
+    /** Saves the {@link Expression} as a formula with the given ID in the background.
+     * This method returns immediately, the formula is converted and written on a background thread.
+     * If the same formula is overwritten again before it has been written, only the last version is written.
+     * @param id The ID of the formula to overwrite, or {@link Database#INSERT_ID INSERT_ID} to create a new entry
+     * @param name The name of the formula to save (<tt>null</tt> if it should remain unchanged)
+     * @param expr The {@link Expression} that is to be stored (a copy is saved, so it can be changed right away)
+     * @param listener The listener that is notified once the formula is saved (can be <tt>null</tt>)
+     */
+    public void saveFormulaAsync(int id, String name, Expression expr, OnFormulaSavedListener listener)
+    {
+        // The expression may be changed while we're saving it, so we save a copy
+        Expression copy = ExpressionDuplicator.deepCopy(expr);
+        
+        synchronized(pendingSaves)
+        {
+            // If the formula is already waiting to be overwritten, we simply replace what is going to be written
+            PendingSave save = id == INSERT_ID ? null : pendingSaves.get(id);
+            if(save != null)
+            {
+                save.expr = copy;
+                if(name != null)
+                    save.name = name;
+                if(listener != null)
+                    save.listeners.add(listener);
+                return;
+            }
+            
+            // Queue the formula
+            save = new PendingSave();
+            save.id = id;
+            save.name = name;
+            save.expr = copy;
+            if(listener != null)
+                save.listeners.add(listener);
+            if(id != INSERT_ID)
+                pendingSaves.put(id, save);
+            saveExecutor.execute(new SaveTask(save));
+        }
+    }
+    
+    /** Saves a {@link PendingSave} and notifies its listeners */
+    private class SaveTask implements Runnable
+    {
+        /** The formula to save */
+        private final PendingSave save;
+        
+        /** Constructor
+         * @param save The formula to save */
+        public SaveTask(PendingSave save)
+        { this.save = save; }
+        
+        @Override
+        public void run()
+        {
+            // Take the formula out of the queue, from now on it can't be replaced anymore
+            final String name;
+            final Expression expr;
+            final ArrayList<OnFormulaSavedListener> listeners;
+            synchronized(pendingSaves)
+            {
+                if(save.id != INSERT_ID)
+                    pendingSaves.remove(save.id);
+                name = save.name;
+                expr = save.expr;
+                listeners = save.listeners;
+            }
+            
+            // Save the formula and notify the listeners
+            final int id = (int) writeFormula(save.id, name, expr);
+            if(!listeners.isEmpty())
+            {
+                mainHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for(OnFormulaSavedListener listener : listeners)
+                            listener.saved(id);
+                    }
+                });
+            }
+        }
+    }
+    
     /** Save the {@link Expression} as a formula with the given ID.
+     * Note that this converts the formula to XML, consider using {@link Database#saveFormulaAsync(int, String, Expression, OnFormulaSavedListener) saveFormulaAsync()} instead.
      * @param id The ID of the formula to overwrite, or {@link Database#INSERT_ID INSERT_ID} to create a new entry
      * @param name The name of the formula to save (<tt>null</tt> if it should remain unchanged)
      * @param expr The {@link Expression} that is to be stored
@@ -358,114 +816,109 @@ public class Database extends SQLiteOpenHelper
      */
     public boolean saveFormula(int id, String name, Expression expr)
     {
-        // Create a ContentValues instance we're going to pass to the database
-        ContentValues values = new ContentValues(4);
-        
-        // Add the name to the ContentValues instance
-        if(name != null)
-            values.put(TABLE_FORMULAS.FORMULA_NAME, name);
-        
-        // Remember the default height of the MathObject and change its default height
-        final int defHeight = expr.getDefaultHeight();
-        expr.setDefaultHeight(TABLE_FORMULAS.IMAGE_SIZE);
-        
-        // Create a bitmap of the right size and create a canvas for it
-        Bitmap bmp = Bitmap.createBitmap(TABLE_FORMULAS.IMAGE_SIZE, TABLE_FORMULAS.IMAGE_SIZE, Bitmap.Config.ARGB_8888);
-        Rect bounding = expr.getBoundingBox();
-        Canvas canvas = new Canvas(bmp);
-        
-        // Scale and translate the canvas so that the whole MathObject fits in
-        final float scale = Math.min(1.0f, Math.min(((float) TABLE_FORMULAS.IMAGE_SIZE) / bounding.width(), ((float) TABLE_FORMULAS.IMAGE_SIZE) / bounding.height()));
-        canvas.scale(scale, scale);
-        canvas.translate((TABLE_FORMULAS.IMAGE_SIZE - bounding.width() * scale) / (2 * scale), (TABLE_FORMULAS.IMAGE_SIZE - bounding.height() * scale) / (2 * scale));
-        
-        // Draw the MathObject and reset its default height
-        expr.draw(canvas);
-        expr.setDefaultHeight(defHeight);
-        
-        // Put the bitmap in the ContentValues instance
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bmp.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        values.put(TABLE_FORMULAS.IMAGE, byteStream.toByteArray());
-        
+        return writeFormula(id, name, expr) != -1;
+    }
+    
+    /** Save the {@link Expression} as a formula with the given ID.
+     * @param id The ID of the formula to overwrite, or {@link Database#INSERT_ID INSERT_ID} to create a new entry
+     * @param name The name of the formula to save (<tt>null</tt> if it should remain unchanged)
+     * @param expr The {@link Expression} that is to be stored
+     * @return The ID of the saved formula, or <tt>-1</tt> if the formula couldn't be saved
+     */
+    private long writeFormula(int id, String name, Expression expr)
+    {
         // Write the MathObject to a XML document
+        final byte[] xml;
         try
         {
             // Convert the MathObject to a XML document
             Document doc = Expression.createXMLDocument();
             expr.writeToXML(doc, doc.getDocumentElement());
             
-            // Convert the XML document to a byte array and add it to the ContentValues instance
+            // Convert the XML document to a byte array
             Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            byteStream = new ByteArrayOutputStream();
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
             transformer.transform(new DOMSource(doc), new StreamResult(byteStream));
-            values.put(TABLE_FORMULAS.MATH_OBJECT, byteStream.toByteArray());
+            xml = byteStream.toByteArray();
         }
         catch(ParserConfigurationException e)
-        { return false; }
+        { return -1; }
         catch(TransformerConfigurationException e)
-        { /* Never thrown, ignore */ }
+        { return -1; }
         catch(TransformerFactoryConfigurationError e)
-        { return false; }
+        { return -1; }
         catch(TransformerException e)
-        { return false; }
-        
-        // Add the current date and time to the ContentValues
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
-        values.put(TABLE_FORMULAS.LAST_CHANGE, dateFormat.format(new Date(System.currentTimeMillis())));
+        { return -1; }
+        formulaSizes.record(xml.length);
         
-        // Open a connection to the database
-        SQLiteDatabase db = getWritableDatabase();
+        // The current date and time
+        final String lastChange = formatDate(System.currentTimeMillis());
         
-        // Determine if we've to insert or update a formula
-        if(id == INSERT_ID)
-        {
-            // Insert the formula
-            final long result = db.insert(TABLE_FORMULAS.NAME, null, values);
-
-            // Close the database connection and return whether we've inserted the formula successfully
-            db.close();
-            return result != -1;
-        }
-        else
+        // Insert or update the formula
+        synchronized(this)
         {
-            // Update the formula
-            final long result = db.update(TABLE_FORMULAS.NAME, values, TABLE_FORMULAS.ID + " = " + Integer.toString(id), null);
-
-            // Close the database connection and return whether we've inserted the formula successfully
-            db.close();
-            return result == 1;
+            open();
+            if(id == INSERT_ID)
+            {
+                // Insert the formula
+                bindFormula(insertFormula, 1, name == null ? "" : name, lastChange, xml);
+                return insertFormula.executeInsert();
+            }
+            else if(name == null)
+            {
+                // Update the formula, but keep its name
+                bindFormula(updateFormulaKeepName, 0, null, lastChange, xml);
+                updateFormulaKeepName.bindLong(3, id);
+                return updateFormulaKeepName.executeUpdateDelete() == 1 ? id : -1;
+            }
+            else
+            {
+                // Update the formula
+                bindFormula(updateFormula, 1, name, lastChange, xml);
+                updateFormula.bindLong(4, id);
+                return updateFormula.executeUpdateDelete() == 1 ? id : -1;
+            }
         }
     }
     
+    /** Binds the values of a formula to the given statement (the image isn't stored, the thumbnail is drawn from the expression)
+     * @param statement The statement
+     * @param first The index of the first value (the name is only bound if this is 1)
+     * @param name The name of the formula
+     * @param lastChange The last time the formula was changed
+     * @param xml The {@link Expression} of the formula as a XML string */
+    private static void bindFormula(SQLiteStatement statement, int first, String name, String lastChange, byte[] xml)
+    {
+        if(first == 1)
+            statement.bindString(1, name);
+        statement.bindString(first + 1, lastChange);
+        statement.bindBlob(first + 2, xml);
+    }
+    
+    /** Formats a date the way it's stored in the {@link TABLE_FORMULAS#LAST_CHANGE LAST_CHANGE} column
+     * @param millis The date in milliseconds since 1970-01-01 GMT
+     * @return The formatted date (format: yyyy-mm-dd hh:mm:ss) */
+    private static String formatDate(long millis)
+    { return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date(millis)); }
+    
     /** Deletes the formula with the given ID
      * @param id The ID of the formula that is to be removed
      * @return <tt>true</tt> if the formula was deleted succesfully, <tt>false</tt> otherwise */
-    public boolean deleteFormula(int id)
+    public synchronized boolean deleteFormula(int id)
     {
-        // Open a connection to the database
-        SQLiteDatabase db = getWritableDatabase();
-        
-        // Check if the formula exists
-        Cursor cursor = db.query(TABLE_FORMULAS.NAME, new String[]{ TABLE_FORMULAS.ID },
-                TABLE_FORMULAS.ID + " = " + Integer.toString(id), null, null, null, null);
-        if(cursor.getCount() == 0)
-            return true;
-        
-        // Delete the formula
-        final int count = db.delete(TABLE_FORMULAS.NAME, TABLE_FORMULAS.ID + " = " + Integer.toString(id), null);
-        db.close();
-        return count != 0;
+        // Delete the formula (if it doesn't exist there's nothing to delete, so we've succeeded as well)
+        open();
+        deleteFormula.bindLong(1, id);
+        deleteFormula.executeUpdateDelete();
+        return true;
     }
     
     /** Returns an array containing all substitutions */
     public Substitution[] getAllSubstitutions()
     {
-        // Open a connection to the database
-        SQLiteDatabase db = getReadableDatabase();
-        
         // Get a cursor for all substitutions in the database
-        Cursor cursor = db.query(TABLE_SUBSTITUTIONS.NAME,
+        final long begin = substitutionQueryTimer.begin();
+        Cursor cursor = open().query(TABLE_SUBSTITUTIONS.NAME,
                 new String[]{ TABLE_SUBSTITUTIONS.VAR_NAME, TABLE_SUBSTITUTIONS.VALUE },
                 null, null, null, null, TABLE_SUBSTITUTIONS.VAR_NAME + " ASC");
         
@@ -475,9 +928,8 @@ public class Database extends SQLiteOpenHelper
         // Add all substitutions to the array
         for(int i = 0; cursor.moveToNext(); ++i)
             out[i] = new Substitution(cursor.getInt(0), cursor.getBlob(1));
-
-        // Close the database connection
-        db.close();
+        cursor.close();
+        substitutionQueryTimer.end(begin);
         
         // Return the created list
         return out;
@@ -488,40 +940,36 @@ public class Database extends SQLiteOpenHelper
      * @return The substitution if it exists, <tt>null</tt> otherwise */
     public Substitution getSubstitution(char varName)
     {
-        // Open a connection to the database
-        SQLiteDatabase db = getReadableDatabase();
-        
         // Get a cursor to check whether the requested substitution exists
         final int varNameInt = varName - 'a';
-        Cursor cursor = db.query(TABLE_SUBSTITUTIONS.NAME, new String[]{ TABLE_SUBSTITUTIONS.VAR_NAME, TABLE_SUBSTITUTIONS.VALUE },
+        final long begin = substitutionQueryTimer.begin();
+        Cursor cursor = open().query(TABLE_SUBSTITUTIONS.NAME, new String[]{ TABLE_SUBSTITUTIONS.VAR_NAME, TABLE_SUBSTITUTIONS.VALUE },
                 TABLE_SUBSTITUTIONS.VAR_NAME + " = " + Integer.toString(varNameInt), null, null, null, null);
         
         // Check if the substitution exists
-        if(!cursor.moveToFirst()) return null;
+        if(!cursor.moveToFirst())
+        {
+            cursor.close();
+            substitutionQueryTimer.end(begin);
+            return null;
+        }
         
         // Construct and return the substitution
-        return new Substitution(cursor.getInt(0), cursor.getBlob(1));
+        final int name = cursor.getInt(0);
+        final byte[] xml = cursor.getBlob(1);
+        cursor.close();
+        substitutionQueryTimer.end(begin);
+        return new Substitution(name, xml);
     }
     
     /** Returns whether a substitution for the given variable exists
      * @param varName The variable to check for
      * @return <tt>true</tt> if a substitution exists, <tt>false</tt> otherwise */
-    public boolean substitutionExists(char varName)
+    public synchronized boolean substitutionExists(char varName)
     {
-        // Open a connection to the database
-        SQLiteDatabase db = getReadableDatabase();
-        
-        // Get a cursor to check whether the requested substitution exists
-        final int varNameInt = varName - 'a';
-        Cursor cursor = db.query(TABLE_SUBSTITUTIONS.NAME, new String[]{ TABLE_SUBSTITUTIONS.VAR_NAME },
-                TABLE_SUBSTITUTIONS.VAR_NAME + " = " + Integer.toString(varNameInt), null, null, null, null);
-        
-        // Determine whether or not the substitution exists
-        final boolean exists = cursor.getCount() != 0;
-        
-        // Close the database connection and return the result
-        db.close();
-        return exists;
+        open();
+        countSubstitution.bindLong(1, varName - 'a');
+        return countSubstitution.simpleQueryForLong() != 0;
     }
     
     /** Saves the given substitution
@@ -529,74 +977,74 @@ public class Database extends SQLiteOpenHelper
      * @return <tt>true</tt> if the substitution was saved successful, <tt>false</tt> otherwise */
     public boolean saveSubstitution(Substitution sub)
     {
-        // Get the variable name as an integer
-        final int varName = sub.name - 'a';
-        
-        // Determine whether or not the substitution already exists
-        final boolean subExists = substitutionExists(sub.name);
-        
-        // Check if we're deleting the substitution
-        if(sub.value == null)
+        return saveSubstitutions(new Substitution[]{ sub });
+    }
+    
+    /** Saves the given substitutions in a single transaction
+     * @param subs The substitutions to save
+     * @return <tt>true</tt> if all substitutions were saved successful, <tt>false</tt> otherwise (in which case none of them are saved) */
+    public boolean saveSubstitutions(Substitution[] subs)
+    {
+        // Convert the values to XML first, so we don't have to do that while we're in the transaction
+        byte[][] values = new byte[subs.length][];
+        for(int i = 0; i < subs.length; ++i)
         {
-            // If the substitution doesn't exist, we don't have anything to do
-            if(!subExists) return true;
+            // A substitution without a value is deleted
+            if(subs[i].value == null)
+                continue;
             
-            // Open a connection to the database
-            SQLiteDatabase db = getWritableDatabase();
-            final int count = db.delete(TABLE_SUBSTITUTIONS.NAME, TABLE_SUBSTITUTIONS.VAR_NAME + " = " + Integer.toString(varName), null);
-            db.close();
-            return count != 0;
+            // Write the value to a XML document
+            try
+            {
+                // Convert the MathObject to a XML document
+                Document doc = Expression.createXMLDocument();
+                subs[i].value.writeToXML(doc, doc.getDocumentElement());
+                
+                // Convert the XML document to a byte array
+                Transformer transformer = TransformerFactory.newInstance().newTransformer();
+                ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+                transformer.transform(new DOMSource(doc), new StreamResult(byteStream));
+                values[i] = byteStream.toByteArray();
+            }
+            catch(ParserConfigurationException e)
+            { return false; }
+            catch(TransformerConfigurationException e)
+            { return false; }
+            catch(TransformerFactoryConfigurationError e)
+            { return false; }
+            catch(TransformerException e)
+            { return false; }
         }
         
-        // Create a ContentValues instance we're going to pass to the database
-        ContentValues values = new ContentValues(2);
-        
-        // Add the name to the ContentValues instance
-        values.put(TABLE_SUBSTITUTIONS.VAR_NAME, varName);
-        
-        // Write the value to a XML document
-        try
+        // Insert, replace or delete the substitutions
+        synchronized(this)
         {
-            // Convert the MathObject to a XML document
-            Document doc = Expression.createXMLDocument();
-            sub.value.writeToXML(doc, doc.getDocumentElement());
-            
-            // Convert the XML document to a byte array and add it to the ContentValues instance
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-            transformer.transform(new DOMSource(doc), new StreamResult(byteStream));
-            values.put(TABLE_SUBSTITUTIONS.VALUE, byteStream.toByteArray());
-        }
-        catch(ParserConfigurationException e)
-        { return false; }
-        catch(TransformerConfigurationException e)
-        { /* Never thrown, ignore */ }
-        catch(TransformerFactoryConfigurationError e)
-        { return false; }
-        catch(TransformerException e)
-        { return false; }
-        
-        // Open a connection to the database
-        SQLiteDatabase db = getWritableDatabase();
-        
-        // Determine if we've to insert or update the substitution
-        if(subExists)
-        {
-            // Update the substitution
-            final long result = db.update(TABLE_SUBSTITUTIONS.NAME, values, TABLE_SUBSTITUTIONS.VAR_NAME + " = " + Integer.toString(varName), null);
-
-            // Close the database connection and return whether we've inserted the substitution successfully
-            db.close();
-            return result == 1;
-        }
-        else
-        {
-            // Insert the substitution
-            final long result = db.insert(TABLE_SUBSTITUTIONS.NAME, null, values);
-
-            // Close the database connection and return whether we've inserted the substitution successfully
-            db.close();
-            return result != -1;
+            open().beginTransaction();
+            try
+            {
+                for(int i = 0; i < subs.length; ++i)
+                {
+                    final int varName = subs[i].name - 'a';
+                    if(values[i] == null)
+                    {
+                        deleteSubstitution.bindLong(1, varName);
+                        deleteSubstitution.executeUpdateDelete();
+                    }
+                    else
+                    {
+                        replaceSubstitution.bindLong(1, varName);
+                        replaceSubstitution.bindBlob(2, values[i]);
+                        if(replaceSubstitution.executeInsert() == -1)
+                            return false;
+                    }
+                }
+                db.setTransactionSuccessful();
+                return true;
+            }
+            finally
+            {
+                db.endTransaction();
+            }
         }
     }
     
@@ -605,18 +1053,24 @@ public class Database extends SQLiteOpenHelper
      * @return The {@link Database.TutorialState TutorialState} */
     public TutorialState getTutorialState(int id)
     {
-        // Open a connection to the database
-        SQLiteDatabase db = getReadableDatabase();
-        
-        // Get a cursor to check whether the requested substitution exists
-        Cursor cursor = db.query(TABLE_TUTORIALS.NAME, new String[]{ TABLE_TUTORIALS.ID, TABLE_TUTORIALS.TUTORIAL_IN_PROGRESS, TABLE_TUTORIALS.SHOW_TUTORIAL_DIALOG },
+        // Get a cursor for the requested tutorial state
+        final long begin = tutorialQueryTimer.begin();
+        Cursor cursor = open().query(TABLE_TUTORIALS.NAME, new String[]{ TABLE_TUTORIALS.ID, TABLE_TUTORIALS.TUTORIAL_IN_PROGRESS, TABLE_TUTORIALS.SHOW_TUTORIAL_DIALOG },
                 TABLE_TUTORIALS.ID + " = " + Integer.toString(id), null, null, null, null);
         
-        // Check if the substitution exists
-        if(!cursor.moveToFirst()) return new TutorialState(id);
+        // Check if the tutorial state exists
+        if(!cursor.moveToFirst())
+        {
+            cursor.close();
+            tutorialQueryTimer.end(begin);
+            return new TutorialState(id);
+        }
         
-        // Construct and return the substitution
-        return new TutorialState(cursor.getInt(0), cursor.getInt(1) == 1, cursor.getInt(2) == 1);
+        // Construct and return the tutorial state
+        TutorialState out = new TutorialState(cursor.getInt(0), cursor.getInt(1) == 1, cursor.getInt(2) == 1);
+        cursor.close();
+        tutorialQueryTimer.end(begin);
+        return out;
     }
     
     /** Saves the given {@link Database.TutorialState TutorialState}
@@ -624,37 +1078,143 @@ public class Database extends SQLiteOpenHelper
      * @return <tt>true</tt> if the {@link Database.TutorialState TutorialState} was saved successful, <tt>false</tt> otherwise */
     public boolean saveTutorialState(TutorialState tutState)
     {
-        // Create a ContentValues instance and set the values
-        ContentValues values = new ContentValues(3);
-        values.put(TABLE_TUTORIALS.ID, tutState.id);
-        values.put(TABLE_TUTORIALS.TUTORIAL_IN_PROGRESS, tutState.tutInProg);
-        values.put(TABLE_TUTORIALS.SHOW_TUTORIAL_DIALOG, tutState.showTutDlg);
+        return saveTutorialStates(new TutorialState[]{ tutState });
+    }
+    
+    /** Saves the given {@link Database.TutorialState TutorialState}s in a single transaction
+     * @param tutStates The {@link Database.TutorialState TutorialState}s to save
+     * @return <tt>true</tt> if all {@link Database.TutorialState TutorialState}s were saved successful, <tt>false</tt> otherwise (in which case none of them are saved) */
+    public synchronized boolean saveTutorialStates(TutorialState[] tutStates)
+    {
+        open().beginTransaction();
+        try
+        {
+            for(TutorialState tutState : tutStates)
+            {
+                replaceTutorialState.bindLong(1, tutState.id);
+                replaceTutorialState.bindLong(2, tutState.tutInProg ? 1 : 0);
+                replaceTutorialState.bindLong(3, tutState.showTutDlg ? 1 : 0);
+                if(replaceTutorialState.executeInsert() == -1)
+                    return false;
+            }
+            db.setTransactionSuccessful();
+            return true;
+        }
+        finally
+        {
+            db.endTransaction();
+        }
+    }
+    
+    /** Returns the stored results for the given input and marks them as recently used
+     * @param input The canonical form of the input
+     * @return The results, or <tt>null</tt> if no results are stored for the input */
+    public Result getResult(String input)
+    {
+        // Get a cursor for the requested results and check if they exist
+        final long begin = resultQueryTimer.begin();
+        Cursor cursor = open().query(TABLE_RESULTS.NAME, new String[]{ TABLE_RESULTS.EXACT, TABLE_RESULTS.APPROXIMATE, TABLE_RESULTS.SUBSTITUTED },
+                TABLE_RESULTS.INPUT + " = ?", new String[]{ input }, null, null, null);
+        if(!cursor.moveToFirst())
+        {
+            cursor.close();
+            resultQueryTimer.end(begin);
+            return null;
+        }
         
-        // Open a connection to the database
-        SQLiteDatabase db = getWritableDatabase();
+        // Create the results from the retrieved data
+        final byte[] exact = cursor.getBlob(0);
+        final byte[] approximate = cursor.getBlob(1);
+        final boolean substituted = cursor.getInt(2) == 1;
+        cursor.close();
+        resultQueryTimer.end(begin);
+        Result result = new Result(exact, approximate, substituted);
         
-        // Determine if the tutorial exists
-        Cursor cursor = db.query(TABLE_TUTORIALS.NAME, new String[]{ TABLE_TUTORIALS.ID }, TABLE_TUTORIALS.ID + " = " + Integer.toString(tutState.id), null, null, null, null);
-        final boolean exists = cursor.getCount() != 0;
+        // Mark the results as recently used
+        synchronized(this)
+        {
+            touchResult.bindLong(1, System.currentTimeMillis());
+            touchResult.bindString(2, input);
+            touchResult.executeUpdateDelete();
+        }
         
-        // Determine if we've to insert or update a formula
-        if(exists)
+        // Return the results
+        return result;
+    }
+    
+    /** Stores the result for the given input, removing the least recently used results if there are too many
+     * @param input The canonical form of the input
+     * @param exact Whether the result is exact (<tt>true</tt>) or an approximation (<tt>false</tt>)
+     * @param result The result
+     * @param substituted Whether or not variables were substituted to get the result
+     * @return <tt>true</tt> if the result was saved successfully, <tt>false</tt> otherwise */
+    public boolean saveResult(String input, boolean exact, Expression result, boolean substituted)
+    {
+        // Write the result to a XML document
+        final byte[] xml;
+        try
         {
-            // Update the substitution
-            final long result = db.update(TABLE_TUTORIALS.NAME, values, TABLE_TUTORIALS.ID + " = " + Integer.toString(tutState.id), null);
-
-            // Close the database connection and return whether we've inserted the formula successfully
-            db.close();
-            return result == 1;
+            // Convert the MathObject to a XML document
+            Document doc = Expression.createXMLDocument();
+            result.writeToXML(doc, doc.getDocumentElement());
+            
+            // Convert the XML document to a byte array
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            transformer.transform(new DOMSource(doc), new StreamResult(byteStream));
+            xml = byteStream.toByteArray();
         }
-        else
+        catch(ParserConfigurationException e)
+        { return false; }
+        catch(TransformerConfigurationException e)
+        { return false; }
+        catch(TransformerFactoryConfigurationError e)
+        { return false; }
+        catch(TransformerException e)
+        { return false; }
+        resultSizes.record(xml.length);
+        
+        // Update or insert the result and remove the least recently used results, all in one transaction
+        synchronized(this)
         {
-            // Insert the substitution
-            final long result = db.insert(TABLE_TUTORIALS.NAME, null, values);
-
-            // Close the database connection and return whether we've inserted the formula successfully
-            db.close();
-            return result != -1;
+            open().beginTransaction();
+            try
+            {
+                // Update the results if they exist, insert them otherwise
+                SQLiteStatement update = exact ? updateExactResult : updateApproximateResult;
+                bindResult(update, xml, substituted, input);
+                boolean success = update.executeUpdateDelete() == 1;
+                if(!success)
+                {
+                    SQLiteStatement insert = exact ? insertExactResult : insertApproximateResult;
+                    bindResult(insert, xml, substituted, input);
+                    success = insert.executeInsert() != -1;
+                }
+                
+                // Remove the least recently used results
+                trimResults.execute();
+                
+                // Commit the transaction and return whether we've saved the result successfully
+                db.setTransactionSuccessful();
+                return success;
+            }
+            finally
+            {
+                db.endTransaction();
+            }
         }
     }
+    
+    /** Binds the values of a result to the given statement
+     * @param statement The statement
+     * @param xml The result as a XML string
+     * @param substituted Whether or not variables were substituted to get the result
+     * @param input The canonical form of the input */
+    private static void bindResult(SQLiteStatement statement, byte[] xml, boolean substituted, String input)
+    {
+        statement.bindBlob(1, xml);
+        statement.bindLong(2, substituted ? 1 : 0);
+        statement.bindLong(3, System.currentTimeMillis());
+        statement.bindString(4, input);
+    }
 }
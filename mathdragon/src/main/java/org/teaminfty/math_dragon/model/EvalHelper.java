@@ -1,9 +1,15 @@
 package org.teaminfty.math_dragon.model;
 
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.matheclipse.core.expression.F;
 import org.matheclipse.core.expression.FractionSym;
 import org.matheclipse.core.interfaces.IExpr;
 import org.matheclipse.core.interfaces.ISymbol;
+import org.teaminfty.math_dragon.exceptions.CyclicSubstitutionException;
 import org.teaminfty.math_dragon.exceptions.EmptyChildException;
 import org.teaminfty.math_dragon.exceptions.MathException;
 import org.teaminfty.math_dragon.exceptions.ParseException;
@@ -28,6 +34,9 @@ import org.teaminfty.math_dragon.view.math.operation.binary.Subtract;
 
 /**
  * Mathematical evaluator for {@link Expression}s into expressions returned by the Symja library.
+ * <p>
+ * The conversion doesn't share any state between calls (other than the caches, which are synchronized),
+ * so several expressions can be converted at the same time on different threads.
  * 
  * @author Folkert van Verseveld
  */
@@ -36,19 +45,48 @@ public class EvalHelper
     private EvalHelper()
     {}
     
-    /** The list of substitutions */
-    public static Database.Substitution[] substitutions = null;
-    
-    /** Whether or not substitutions should be done */
-    public static boolean substitute = true;
+    /** The result of converting an {@link Expression} with {@link EvalHelper#convert(Expression, EvaluationContext)} */
+    public static final class Conversion
+    {
+        /** The converted expression */
+        public final IExpr value;
+        /** Whether or not any variable has been substituted */
+        public final boolean substitutionsMade;
+        
+        /** Constructor
+         * @param value The converted expression
+         * @param substitutionsMade Whether or not any variable has been substituted */
+        Conversion(IExpr value, boolean substitutionsMade)
+        {
+            this.value = value;
+            this.substitutionsMade = substitutionsMade;
+        }
+    }
     
-    /** Set to true when substitutions have been made (should be set to false manually before evaluating) */
-    public static boolean substitutionsMade = false;
+    /** The state of a conversion that is in progress */
+    private static final class ConversionState
+    {
+        /** The context the conversion is made in */
+        public final EvaluationContext context;
+        /** The keys of the (sub)expressions that are being converted */
+        public final IdentityHashMap<Expression, ExpressionKey> keys = new IdentityHashMap<Expression, ExpressionKey>();
+        /** Whether the value of the substitution of a variable is being converted (used to detect cycles) */
+        public final boolean[] substituting = new boolean[EvaluationContext.VAR_COUNT];
+        /** Set to <tt>true</tt> when a substitution has been made */
+        public boolean substitutionsMade = false;
+        
+        /** Constructor
+         * @param context The context the conversion is made in */
+        public ConversionState(EvaluationContext context)
+        { this.context = context; }
+    }
 
     /**
-     * Convert the mathematical expression to a symja compatible expression.
+     * Convert the mathematical expression to a symja compatible expression, without making any substitutions.
      * Never returns <tt>null</tt>. On failure, a {@link MathException} is
      * thrown.
+     * Conversions of subtrees are cached by their structure, so converting an
+     * expression that only differs slightly from an earlier one is cheap.
      * 
      * @param expr
      *        The mathematical expression. May not be <tt>null</tt>.
@@ -57,74 +95,354 @@ public class EvalHelper
      *         Thrown when it could not be converted.
      */
     public static IExpr eval(Expression expr) throws MathException
+    { return convert(expr, EvaluationContext.NO_SUBSTITUTIONS).value; }
+    
+    /**
+     * Convert the mathematical expression to a symja compatible expression,
+     * making the substitutions of the given context.
+     * Never returns <tt>null</tt>. On failure, a {@link MathException} is
+     * thrown.
+     * 
+     * @param expr
+     *        The mathematical expression. May not be <tt>null</tt>.
+     * @param context
+     *        The context to convert the expression in. May not be <tt>null</tt>.
+     * @return The mathematical expression returned by symja, together with whether or not substitutions have been made.
+     * @throws MathException
+     *         Thrown when it could not be converted.
+     */
+    public static Conversion convert(Expression expr, EvaluationContext context) throws MathException
     {
         if(expr == null)
             throw new NullPointerException("expr");
-        if (expr instanceof Operation)
-            return operation((Operation) expr);
-        if(expr instanceof Function)
-            return function((Function) expr);
-        if(expr instanceof Symbol)
-            return symbol((Symbol) expr);
-        if(expr instanceof Parentheses)
-            return eval(expr.getChild(0));
-        if(expr instanceof Empty)
-            throw new EmptyChildException();
+        if(context == null)
+            throw new NullPointerException("context");
+        
+        ConversionState state = new ConversionState(context);
+        IExpr value = cachedConvert(expr, state);
+        return new Conversion(value, state.substitutionsMade);
+    }
+    
+    /** The maximum number of converted subtrees that is remembered per cache */
+    private static final int CACHE_SIZE = 1024;
+    
+    /** A bounded map that forgets the least recently used conversions (not synchronized) */
+    static class ConversionCache<V> extends LinkedHashMap<ExpressionKey, V>
+    {
+        private static final long serialVersionUID = 2389570324957201346L;
 
-        throw new ParseException(expr.toString());
+        public ConversionCache()
+        { super(16, 0.75f, true); }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ExpressionKey, V> eldest)
+        { return size() > CACHE_SIZE; }
+    }
+    
+    /** A conversion that was made while substituting, together with whether or not it contains substitutions */
+    static class SubstitutedConversion
+    {
+        public final IExpr value;
+        public final boolean substitutionsMade;
+        
+        public SubstitutedConversion(IExpr value, boolean substitutionsMade)
+        {
+            this.value = value;
+            this.substitutionsMade = substitutionsMade;
+        }
+    }
+    
+    /** Conversions that were made without substituting (conversions made while substituting are cached in the {@link EvaluationContext}) */
+    private static final ConversionCache<IExpr> cache = new ConversionCache<IExpr>();
+    
+    /** A conversion that is in progress in {@link EvalHelper#cachedConvert(Expression, ConversionState)} */
+    private static final class Frame
+    {
+        /** The expression that is being converted */
+        public final Expression expr;
+        /** The key of the expression */
+        public final ExpressionKey key;
+        /** The subexpressions that have to be converted before the expression itself can be converted */
+        public final Expression[] operands;
+        /** The conversions of the operands */
+        public final IExpr[] converted;
+        /** The index of the next operand that is to be converted */
+        public int next = 0;
+        /** Whether or not substitutions had been made before the conversion of this expression began */
+        public final boolean madeBefore;
+        
+        /** Constructor
+         * @param expr The expression that is to be converted
+         * @param key The key of the expression
+         * @param state The state of the conversion
+         * @throws MathException Thrown when the expression can't be converted (e.g. when it has an empty child) */
+        public Frame(Expression expr, ExpressionKey key, ConversionState state) throws MathException
+        {
+            this.expr = expr;
+            this.key = key;
+            operands = operands(expr);
+            converted = new IExpr[operands.length];
+            
+            // Keep track of whether substitutions are made in this subtree
+            madeBefore = state.substitutionsMade;
+            state.substitutionsMade = false;
+        }
     }
     
     /**
-     * Convert the mathematical operation to a symja compatible expression.
+     * Converts the mathematical expression to a symja compatible expression,
+     * reusing a previous conversion of a structurally equal expression if possible.
+     * The tree is traversed with an explicit stack, so deep expressions can't overflow the call stack.
      * 
-     * @param op
-     *        The mathematical operation
-     * @return A mathematical operation returned by symja.
+     * @param expr
+     *        The mathematical expression
+     * @param state
+     *        The state of the conversion
+     * @return The mathematical expression returned by symja.
      * @throws MathException
      *         Thrown when it could not be converted.
      */
-    static IExpr operation(Operation op) throws MathException
+    private static IExpr cachedConvert(Expression expr, ConversionState state) throws MathException
+    {
+        // Check if we've converted this expression before
+        ExpressionKey key = ExpressionKey.of(expr, state.keys);
+        IExpr result = lookUp(key, state);
+        if(result != null)
+            return result;
+        
+        // Convert the expression, every frame on the stack waits for the conversions of its operands
+        ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+        stack.push(new Frame(expr, key, state));
+        while(true)
+        {
+            Frame frame = stack.peek();
+            if(frame.next < frame.operands.length)
+            {
+                // Convert the next operand, unless we've converted it before
+                Expression operand = frame.operands[frame.next];
+                key = ExpressionKey.of(operand, state.keys);
+                result = lookUp(key, state);
+                if(result != null)
+                    frame.converted[frame.next++] = result;
+                else
+                    stack.push(new Frame(operand, key, state));
+                continue;
+            }
+            
+            // All operands have been converted, so we can convert the expression itself
+            result = build(frame.expr, frame.converted, state);
+            store(frame, result, state);
+            stack.pop();
+            if(stack.isEmpty())
+                return result;
+            frame = stack.peek();
+            frame.converted[frame.next++] = result;
+        }
+    }
+    
+    /**
+     * Looks up the conversion of an expression in the cache.
+     * 
+     * @param key
+     *        The key of the expression
+     * @param state
+     *        The state of the conversion
+     * @return The cached conversion, or <tt>null</tt> if the expression hasn't been converted before
+     */
+    private static IExpr lookUp(ExpressionKey key, ConversionState state)
     {
-        if(op instanceof Binary)
-            return binary((Binary) op);
-        if(op instanceof Limit)
-            return limit((Limit) op);
-        if(op instanceof Integral)
-            return integral((Integral) op);
-        if(op instanceof Negate)
-            return negate((Negate) op);
-        throw new MathException(op.toString());
+        // Without substitutions the conversion only depends on the expression itself
+        if(!state.context.hasSubstitutions())
+        {
+            synchronized(cache)
+            {
+                return cache.get(key);
+            }
+        }
+        
+        // Check if we've converted this expression before while substituting
+        final ConversionCache<SubstitutedConversion> substitutedCache = state.context.cache;
+        SubstitutedConversion cached;
+        synchronized(substitutedCache)
+        {
+            cached = substitutedCache.get(key);
+        }
+        if(cached == null)
+            return null;
+        if(cached.substitutionsMade)
+            state.substitutionsMade = true;
+        return cached.value;
     }
+    
+    /**
+     * Stores the conversion of an expression in the cache.
+     * 
+     * @param frame
+     *        The frame in which the expression was converted
+     * @param result
+     *        The conversion of the expression
+     * @param state
+     *        The state of the conversion
+     */
+    private static void store(Frame frame, IExpr result, ConversionState state)
+    {
+        if(!state.context.hasSubstitutions())
+        {
+            synchronized(cache)
+            {
+                cache.put(frame.key, result);
+            }
+        }
+        else
+        {
+            final ConversionCache<SubstitutedConversion> substitutedCache = state.context.cache;
+            synchronized(substitutedCache)
+            {
+                substitutedCache.put(frame.key, new SubstitutedConversion(result, state.substitutionsMade));
+            }
+        }
+        state.substitutionsMade |= frame.madeBefore;
+    }
+    
+    /**
+     * Returns the subexpressions that have to be converted before the given expression can be converted, in the order they should be converted.
+     * This also checks whether the expression can be converted at all.
+     * 
+     * @param expr
+     *        The mathematical expression
+     * @return The subexpressions that are to be converted
+     * @throws MathException
+     *         Thrown when the expression could not be converted.
+     */
+    private static Expression[] operands(Expression expr) throws MathException
+    {
+        if(expr instanceof Add || expr instanceof Subtract || expr instanceof Multiply || expr instanceof Divide || expr instanceof Power || expr instanceof Derivative)
+        {
+            Binary bin = (Binary) expr;
+            checkChildren(bin);
+            return new Expression[] {bin.getLeft(), bin.getRight()};
+        }
+        if(expr instanceof Root)
+        {
+            Root root = (Root) expr;
+            if(!root.isCompleted())
+                throw new EmptyChildException(1);
+            if(root.getExponent() instanceof Empty)
+                return new Expression[] {root.getBase()};
+            return new Expression[] {root.getBase(), root.getExponent()};
+        }
+        if(expr instanceof Log)
+        {
+            Log log = (Log) expr;
+            if(!log.isCompleted())
+                throw new EmptyChildException(1);
+            if(log.getLeft() instanceof Empty)
+                return new Expression[] {log.getRight()};
+            return new Expression[] {log.getRight(), log.getLeft()};
+        }
+        if(expr instanceof Binary)
+            throw new MathException(expr.toString());
+        if(expr instanceof Limit)
+        {
+            Limit lim = (Limit) expr;
+            checkChildren(lim);
+            return new Expression[] {lim.getExpression(), lim.getStart(), lim.getEnd()};
+        }
+        if(expr instanceof Integral)
+        {
+            // Check for empty children that are never allowed to be empty
+            Integral i = (Integral) expr;
+            if(i.getIntegratePart() instanceof Empty)
+                throw new EmptyChildException(0);
+            else if(i.getIntegrateOver() instanceof Empty)
+                throw new EmptyChildException(1);
+            
+            // Whether or not a 'from' and 'to' value are given
+            if(i.getIntegrateFrom() instanceof Empty && i.getIntegrateTo() instanceof Empty)
+                return new Expression[] {i.getIntegratePart(), i.getIntegrateOver()};
+            if(i.getIntegrateFrom() instanceof Empty)
+                throw new EmptyChildException(2);
+            else if(i.getIntegrateTo() instanceof Empty)
+                throw new EmptyChildException(3);
+            return new Expression[] {i.getIntegratePart(), i.getIntegrateOver(), i.getIntegrateFrom(), i.getIntegrateTo()};
+        }
+        if(expr instanceof Negate)
+        {
+            if(expr.getChild(0) instanceof Empty)
+                throw new EmptyChildException(0);
+            return new Expression[] {expr.getChild(0)};
+        }
+        if(expr instanceof Operation)
+            throw new MathException(expr.toString());
+        if(expr instanceof Function)
+        {
+            switch(((Function) expr).getType())
+            {
+                case ARCCOS: case ARCSIN: case ARCTAN: case COS: case COSH: case LN: case SIN: case SINH: case TAN:
+                    return new Expression[] {expr.getChild(0)};
+                default: /* To prevent warnings */ break;
+            }
+            throw new ParseException(expr.toString());
+        }
+        if(expr instanceof Symbol)
+            return new Expression[0];
+        if(expr instanceof Parentheses)
+            return new Expression[] {expr.getChild(0)};
+        if(expr instanceof Empty)
+            throw new EmptyChildException();
 
+        throw new ParseException(expr.toString());
+    }
+    
     /**
-     * Convert the binary mathematical operation to a symja compatible
-     * expression.
+     * Converts the mathematical expression to a symja compatible expression, given the conversions of its operands.
      * 
-     * @param bin
-     *        The binary mathematical operation
-     * @return A binary mathematical operation returned by symja.
+     * @param expr
+     *        The mathematical expression
+     * @param ops
+     *        The conversions of the subexpressions returned by {@link EvalHelper#operands(Expression)}
+     * @param state
+     *        The state of the conversion
+     * @return The mathematical expression returned by symja.
      * @throws MathException
      *         Thrown when it could not be converted.
      */
-    static IExpr binary(Binary bin) throws MathException
+    private static IExpr build(Expression expr, IExpr[] ops, ConversionState state) throws MathException
     {
-        if(bin instanceof Add)
-            return add((Add) bin);
-        if(bin instanceof Subtract)
-            return sub((Subtract) bin);
-        if(bin instanceof Multiply)
-            return mul((Multiply) bin);
-        if(bin instanceof Divide)
-            return div((Divide) bin);
-        if(bin instanceof Power)
-            return pow((Power) bin);
-        if(bin instanceof Root)
-            return root((Root) bin);
-        if(bin instanceof Derivative)
-            return derivative((Derivative) bin);
-        if(bin instanceof Log)
-            return log((Log) bin);
-        throw new MathException(bin.toString());
+        if(expr instanceof Add)
+            return F.Plus(ops[0], ops[1]);
+        if(expr instanceof Subtract)
+            return F.Subtract(ops[0], ops[1]);
+        if(expr instanceof Multiply)
+            return F.Times(ops[0], ops[1]);
+        if(expr instanceof Divide)
+            return F.Divide(ops[0], ops[1]);
+        if(expr instanceof Power)
+            return F.Power(ops[0], ops[1]);
+        if(expr instanceof Derivative)
+            return F.D(ops[0], ops[1]);
+        if(expr instanceof Root)
+            return F.Power(ops[0], F.Divide(F.ZZ(1), ops.length == 1 ? F.ZZ(2) : ops[1]));
+        if(expr instanceof Log)
+            return F.Divide(F.Log(ops[0]), F.Log(ops.length == 1 ? F.ZZ(10) : ops[1]));
+        if(expr instanceof Limit)
+            return F.Limit(ops[0], F.Rule(ops[1], ops[2]));
+        if(expr instanceof Integral)
+        {
+            if(ops.length == 2)
+                return F.Integrate(ops[0], ops[1]);
+            return F.Integrate(ops[0], F.List(ops[1], ops[2], ops[3]));
+        }
+        if(expr instanceof Negate)
+            return F.Negate(ops[0]);
+        if(expr instanceof Function)
+            return function((Function) expr, ops[0]);
+        if(expr instanceof Symbol)
+            return symbol((Symbol) expr, state);
+        if(expr instanceof Parentheses)
+            return ops[0];
+
+        throw new ParseException(expr.toString());
     }
 
     /**
@@ -167,7 +485,7 @@ public class EvalHelper
             F.e, F.f, F.g, F.h, F.i, F.j, F.k, F.l, F.m, F.n, F.o, F.p, F.q,
             F.r, F.s, F.t, F.u, F.v, F.w, F.x, F.y, F.z};
 
-    public static IExpr symbol(Symbol symbol) throws MathException
+    private static IExpr symbol(Symbol symbol, ConversionState state) throws MathException
     {
         if(symbol == null)
             throw new NullPointerException("symbol");
@@ -196,232 +514,77 @@ public class EvalHelper
         for(int i = 0; i < symbol.varPowCount(); i++)
         {
             if(symbol.getVarPow(i) != 0)
-                result = F.Times(result, F.Power(getVarSymbol((char) ('a' + i)), symbol.getVarPow(i)));
+                result = F.Times(result, F.Power(getVarSymbol((char) ('a' + i), state), symbol.getVarPow(i)));
         }
 
         // Return the result
         return result;
     }
     
-    /** Returns the symbol for the given variable (this will substitute the variable when necessary)
-     * @param var The variable name 
-     * @throws MathException Thrown when the conversion fails */
-    private static IExpr getVarSymbol(char varName) throws MathException
+    /** Returns the symbol for the given variable (this will substitute the variable when necessary).
+     * The value of a substitution is only converted once per {@link EvaluationContext}.
+     * @param varName The variable name
+     * @param state The state of the conversion
+     * @throws MathException Thrown when the conversion fails
+     * @throws CyclicSubstitutionException Thrown when the substitution of the variable depends on the variable itself */
+    private static IExpr getVarSymbol(char varName, ConversionState state) throws MathException
     {
         // Check if we have to substitute the variable
-        if(substitute && substitutions != null)
+        final int index = varName - 'a';
+        final Expression value = state.context.getValue(index);
+        if(value != null)
         {
-            for(Database.Substitution sub : substitutions)
+            state.substitutionsMade = true;
+            
+            // Convert the value if we haven't done so yet
+            IExpr result = state.context.getResult(index);
+            if(result == null)
             {
-                if(sub.name == varName && sub.value != null)
+                if(state.substituting[index])
+                    throw new CyclicSubstitutionException(varName);
+                state.substituting[index] = true;
+                try
+                {
+                    result = cachedConvert(value, state);
+                    state.context.setResult(index, result);
+                }
+                finally
                 {
-                    substitutionsMade = true;
-                    return eval(sub.value);
+                    state.substituting[index] = false;
                 }
             }
+            return result;
         }
         
         // Return the Symja variable symbol
-        return SYMBOLS[varName - 'a'];
-    }
-
-    /**
-     * Evaluate mathematical addition using specified argument.
-     * 
-     * @param add
-     *        The mathematical addition.
-     * @return Converted mathematical unary addition for Symja.
-     * @throws MathException
-     *         Thrown when <tt>add</tt> contains invalid children.
-     */
-    public static IExpr add(Add add) throws MathException
-    {
-        checkChildren(add);
-        return F.Plus(eval(add.getLeft()), eval(add.getRight()));
-    }
-
-    /**
-     * Evaluate mathematical division using specified argument.
-     * 
-     * @param div
-     *        The mathematical division.
-     * @return Converted mathematical unary division for Symja.
-     * @throws MathException
-     *         Thrown when <tt>div</tt> contains invalid children.
-     */
-    public static IExpr div(Divide div) throws MathException
-    {
-        checkChildren(div);
-        return F.Divide(eval(div.getLeft()), eval(div.getRight()));
-    }
-
-    /**
-     * Evaluate mathematical multiplication using specified argument.
-     * 
-     * @param mul
-     *        The mathematical multiplication.
-     * @return Converted mathematical unary multiplication for Symja.
-     * @throws MathException
-     *         Thrown when <tt>mul</tt> contains invalid children.
-     */
-    public static IExpr mul(Multiply mul) throws MathException
-    {
-        checkChildren(mul);
-        return F.Times(eval(mul.getLeft()), eval(mul.getRight()));
-    }
-
-    /**
-     * Evaluate mathematical power using specified argument.
-     * 
-     * @param pow
-     *        The mathematical power.
-     * @return Converted mathematical unary power for Symja.
-     * @throws MathException
-     *         Thrown when <tt>pow</tt> contains invalid children.
-     */
-    public static IExpr pow(Power pow) throws MathException
-    {
-        checkChildren(pow);
-        return F.Power(eval(pow.getBase()), eval(pow.getExponent()));
-    }
-
-    /**
-     * Evaluate mathematical root using specified argument.
-     * 
-     * @param root
-     *        The mathematical root.
-     * @return Converted mathematical unary root for Symja.
-     * @throws MathException
-     *         Thrown when <tt>root</tt> contains invalid children.
-     */
-    public static IExpr root(Root root) throws MathException
-    {
-        if (!root.isCompleted())
-            throw new EmptyChildException(1);
-        return F.Power(eval(root.getBase()), F.Divide(F.ZZ(1), root.getExponent() instanceof Empty ? F.ZZ(2) : eval(root.getExponent())));
-    }
-
-    /**
-     * Evaluate mathematical unary subtraction using specified argument.
-     * 
-     * @param sub
-     *        The mathematical unary subtraction.
-     * @return Converted mathematical unary subtraction for Symja.
-     * @throws MathException
-     *         Thrown when <tt>sub</tt> contains invalid children.
-     */
-    public static IExpr sub(Subtract sub) throws MathException
-    {
-        checkChildren(sub);
-        return F.Subtract(eval(sub.getLeft()), eval(sub.getRight()));
-    }
-
-    /**
-     * Evaluate mathematical derivation using specified argument.
-     * 
-     * @param ddx
-     *        The mathematical derivation.
-     * @return Converted mathematical derivation for Symja.
-     * @throws MathException
-     *         Thrown when <tt>ddx</tt> contains invalid children.
-     */
-    public static IExpr derivative(Derivative ddx) throws MathException
-    {
-        checkChildren(ddx);
-        return F.D(eval(ddx.getLeft()), eval(ddx.getRight()));
-    }
-    
-    /**
-     * Evaluate mathematical logarithm using specified argument.
-     * 
-     * @param log
-     *        The mathematical logarithm.
-     * @return Converted mathematical logarithm for Symja.
-     * @throws MathException
-     *         Thrown when <tt>log</tt> contains invalid children.
-     */
-    public static IExpr log(Log log) throws MathException
-    {
-        if (!log.isCompleted())
-            throw new EmptyChildException(1);
-        return F.Divide(F.Log(eval(log.getRight())), F.Log(log.getLeft() instanceof Empty ? F.ZZ(10) : eval(log.getLeft())));
+        return SYMBOLS[index];
     }
 
     /**
      * Evaluate mathematical function using specified argument.
      * 
      * @param f The mathematical function.
+     * @param arg The converted argument of the function.
      * @return Converted mathematical function for Symja
      * @throws MathException
-     *         Thrown when <tt>f</tt> contains invalid children
+     *         Thrown when <tt>f</tt> is of an unknown type
      */
-    public static IExpr function(Function f) throws MathException
+    private static IExpr function(Function f, IExpr arg) throws MathException
     {
         switch(f.getType())
         {
-            case ARCCOS:    return F.ArcCos(eval(f.getChild(0)));
-            case ARCSIN:    return F.ArcSin(eval(f.getChild(0)));
-            case ARCTAN:    return F.ArcTan(eval(f.getChild(0)));
-            case COS:       return F.Cos(eval(f.getChild(0)));
-            case COSH:      return F.Cosh(eval(f.getChild(0)));
-            case LN:        return F.Log(eval(f.getChild(0)));
-            case SIN:       return F.Sin(eval(f.getChild(0)));
-            case SINH:      return F.Sinh(eval(f.getChild(0)));
-            case TAN:       return F.Tan(eval(f.getChild(0)));
+            case ARCCOS:    return F.ArcCos(arg);
+            case ARCSIN:    return F.ArcSin(arg);
+            case ARCTAN:    return F.ArcTan(arg);
+            case COS:       return F.Cos(arg);
+            case COSH:      return F.Cosh(arg);
+            case LN:        return F.Log(arg);
+            case SIN:       return F.Sin(arg);
+            case SINH:      return F.Sinh(arg);
+            case TAN:       return F.Tan(arg);
             default: /* To prevent warnings */ break;
         }
 
         throw new ParseException(f.toString());
     }
-    
-    public static IExpr limit(Limit lim) throws MathException
-    {
-        checkChildren(lim);
-        return F.Limit(eval(lim.getExpression()), F.Rule(eval(lim.getStart()), eval(lim.getEnd())));
-    }
-    
-    /**
-     * Evaluate mathematical integral using specified argument.
-     * 
-     * @param i The mathematical integral.
-     * @return Converted mathematical integral for Symja
-     * @throws MathException
-     *         Thrown when <tt>i</tt> contains invalid children
-     */
-    public static IExpr integral(Integral i) throws MathException
-    {
-        // Check for empty children that are never allowed to be empty
-        if(i.getIntegratePart() instanceof Empty)
-            throw new EmptyChildException(0);
-        else if(i.getIntegrateOver() instanceof Empty)
-            throw new EmptyChildException(1);
-        
-        // Evaluate depending on whether or not a 'from' and 'to' value are given
-        if(i.getIntegrateFrom() instanceof Empty && i.getIntegrateTo() instanceof Empty)
-            return F.Integrate(eval(i.getIntegratePart()), eval(i.getIntegrateOver()));
-        else
-        {
-            if(i.getIntegrateFrom() instanceof Empty)
-                throw new EmptyChildException(2);
-            else if(i.getIntegrateTo() instanceof Empty)
-                throw new EmptyChildException(3);
-            
-            return F.Integrate( eval(i.getIntegratePart()), F.List(eval(i.getIntegrateOver()), eval(i.getIntegrateFrom()), eval(i.getIntegrateTo())) );
-        }
-    }
-
-    /**
-     * Simply negates the child.
-     * 
-     * @param neg The negate operation
-     * @return Converted negated expression for Symja
-     * @throws MathException
-     *         Thrown when <tt>neg</tt> contains invalid children
-     */
-    private static IExpr negate(Negate neg) throws MathException
-    {
-        if(neg.getChild(0) instanceof Empty)
-            throw new EmptyChildException(0);
-        return F.Negate(eval(neg.getChild(0)));
-    }
 }
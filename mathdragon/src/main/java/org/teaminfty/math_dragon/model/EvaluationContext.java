@@ -0,0 +1,121 @@
+package org.teaminfty.math_dragon.model;
+
+import java.util.IdentityHashMap;
+
+import org.matheclipse.core.interfaces.IExpr;
+import org.teaminfty.math_dragon.view.math.Expression;
+
+/**
+ * The context in which {@link EvalHelper} converts {@link Expression}s: the substitutions that are made.
+ * <p>
+ * A context never changes after it's created, so several evaluations can use the same context at the same time (e.g. on a thread pool).
+ * Conversions that are made with a context are cached in that context, so reusing a context (see {@link #of(Database.Substitution[])})
+ * makes converting the same or similar expressions again cheap.
+ */
+public final class EvaluationContext
+{
+    /** The number of variables that can be substituted (<tt>a</tt> to <tt>z</tt>) */
+    static final int VAR_COUNT = 26;
+
+    /** A context in which no substitutions are made */
+    public static final EvaluationContext NO_SUBSTITUTIONS = new EvaluationContext(null);
+
+    /** The context that was returned the last time {@link #of(Database.Substitution[])} was called */
+    private static EvaluationContext last = null;
+
+    /** The substitutions */
+    private final Database.Substitution[] substitutions;
+
+    /** The value of the substitution of every variable (indexed by <tt>varName - 'a'</tt>), <tt>null</tt> if a variable isn't substituted */
+    private final Expression[] values = new Expression[VAR_COUNT];
+
+    /** The keys of the {@link EvaluationContext#values values}, used to compare contexts */
+    private final ExpressionKey[] keys = new ExpressionKey[VAR_COUNT];
+
+    /** Whether or not any variable is substituted */
+    private final boolean substitutes;
+
+    /** The converted {@link EvaluationContext#values values}, <tt>null</tt> if a value hasn't been converted yet */
+    private final IExpr[] results = new IExpr[VAR_COUNT];
+
+    /** Conversions that were made in this context (only used if variables are substituted) */
+    final EvalHelper.ConversionCache<EvalHelper.SubstitutedConversion> cache = new EvalHelper.ConversionCache<EvalHelper.SubstitutedConversion>();
+
+    /** Constructor
+     * @param subs The substitutions (may be <tt>null</tt>) */
+    private EvaluationContext(Database.Substitution[] subs)
+    {
+        substitutions = subs == null ? new Database.Substitution[0] : subs.clone();
+
+        boolean substitutes = false;
+        for(Database.Substitution sub : substitutions)
+        {
+            if(sub.value == null)
+                continue;
+            values[sub.name - 'a'] = sub.value;
+            keys[sub.name - 'a'] = ExpressionKey.of(sub.value, new IdentityHashMap<Expression, ExpressionKey>());
+            substitutes = true;
+        }
+        this.substitutes = substitutes;
+    }
+
+    /**
+     * Returns a context with the given substitutions.
+     * If the substitutions are equal to the substitutions of the previous call, the previous context is returned
+     * so that the conversions that were cached in that context can be reused.
+     *
+     * @param subs
+     *        The substitutions (may be <tt>null</tt>)
+     * @return The context
+     */
+    public static synchronized EvaluationContext of(Database.Substitution[] subs)
+    {
+        EvaluationContext context = new EvaluationContext(subs);
+        if(!context.substitutes)
+            return NO_SUBSTITUTIONS;
+        if(last != null && last.sameValues(context))
+            return last;
+        return last = context;
+    }
+
+    /** Returns whether this context substitutes the same values for the same variables as the given context
+     * @param other The context to compare with
+     * @return <tt>true</tt> if the substituted values are equal, <tt>false</tt> otherwise */
+    private boolean sameValues(EvaluationContext other)
+    {
+        for(int i = 0; i < VAR_COUNT; ++i)
+        {
+            if(keys[i] == null ? other.keys[i] != null : !keys[i].equals(other.keys[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /** Returns the substitutions of this context
+     * @return A copy of the substitutions */
+    public Database.Substitution[] getSubstitutions()
+    { return substitutions.clone(); }
+
+    /** Returns whether or not any variable is substituted in this context
+     * @return <tt>true</tt> if at least one variable is substituted, <tt>false</tt> otherwise */
+    public boolean hasSubstitutions()
+    { return substitutes; }
+
+    /** Returns the value that is substituted for the variable with the given index
+     * @param index The index of the variable (<tt>varName - 'a'</tt>)
+     * @return The value, or <tt>null</tt> if the variable isn't substituted */
+    Expression getValue(int index)
+    { return values[index]; }
+
+    /** Returns the converted value that is substituted for the variable with the given index
+     * @param index The index of the variable (<tt>varName - 'a'</tt>)
+     * @return The converted value, or <tt>null</tt> if it hasn't been converted yet */
+    synchronized IExpr getResult(int index)
+    { return results[index]; }
+
+    /** Stores the converted value that is substituted for the variable with the given index
+     * @param index The index of the variable (<tt>varName - 'a'</tt>)
+     * @param result The converted value */
+    synchronized void setResult(int index, IExpr result)
+    { results[index] = result; }
+}
@@ -1,8 +1,10 @@
 package org.teaminfty.math_dragon.model;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
 import org.teaminfty.math_dragon.view.math.Expression;
 import org.teaminfty.math_dragon.view.math.Function;
-import org.teaminfty.math_dragon.view.math.Operation;
 import org.teaminfty.math_dragon.view.math.Symbol;
 import org.teaminfty.math_dragon.view.math.operation.Binary;
 import org.teaminfty.math_dragon.view.math.operation.Negate;
@@ -30,6 +32,10 @@ public class ExpressionBeautifier
      * Simplify and beautify the specified mathematical expression as far as
      * possible such that the expression remains as simple as possible to be
      * read by users.
+     * <p>
+     * The children of an expression are beautified before the expression
+     * itself, the tree is traversed with an explicit stack so deep expressions
+     * can't overflow the call stack.
      * 
      * @param expr
      *        The mathematical expression. If it could not be simplified or
@@ -39,12 +45,142 @@ public class ExpressionBeautifier
      */
     public static Expression parse(Expression expr)
     {
-        if (expr instanceof Symbol)
+        // Every frame on the stack waits for its operands to be beautified
+        ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+        stack.push(new Frame(expr));
+        while(true)
+        {
+            Frame frame = stack.peek();
+            if(frame.next < frame.operands.length)
+            {
+                stack.push(new Frame(frame.operands[frame.next]));
+                continue;
+            }
+            
+            // All operands have been beautified, so we can beautify the expression itself
+            Expression result = beautify(frame.expr, frame.parsed);
+            stack.pop();
+            if(stack.isEmpty())
+                return result;
+            frame = stack.peek();
+            frame.parsed[frame.next++] = result;
+        }
+    }
+    
+    /** The beautification of an expression that is in progress */
+    private static final class Frame
+    {
+        /** The expression that is being beautified */
+        public final Expression expr;
+        /** The operands of the expression that have to be beautified before the expression itself */
+        public final Expression[] operands;
+        /** The beautified operands */
+        public final Expression[] parsed;
+        /** The index of the next operand that is to be beautified */
+        public int next = 0;
+        
+        /** Constructor
+         * @param expr The expression that is to be beautified */
+        public Frame(Expression expr)
+        {
+            this.expr = expr;
+            operands = operands(expr);
+            parsed = new Expression[operands.length];
+        }
+    }
+    
+    /**
+     * Returns the operands of the specified mathematical expression that have
+     * to be beautified before the expression itself can be beautified.
+     * The terms of nested additions (and the factors of nested multiplications)
+     * are the operands of the outermost addition (multiplication), so that
+     * they're handled from left to right.
+     * 
+     * @param expr
+     *        The mathematical expression.
+     * @return The operands that are to be beautified.
+     */
+    private static Expression[] operands(Expression expr)
+    {
+        if(expr instanceof Add || expr instanceof Multiply)
+            return terms((Binary) expr);
+        if(expr instanceof Subtract)
+            return new Expression[] {expr.getChild(0), expr.getChild(1)};
+        if(expr instanceof Divide)
+            return isSimpleFraction((Divide) expr) ? new Expression[0] : new Expression[] {expr.getChild(0), expr.getChild(1)};
+        if(expr instanceof Power)
+            return new Expression[] {((Power) expr).getExponent(), ((Power) expr).getBase()};
+        if(expr instanceof Function)
+            return new Expression[] {expr.getChild(0)};
+        return new Expression[0];
+    }
+    
+    /**
+     * Returns the terms of an addition or the factors of a multiplication:
+     * its left operand followed by the operands of its right operand, where
+     * nested operations of the same type are split.
+     * 
+     * @param bin
+     *        The addition or multiplication.
+     * @return The terms or factors from left to right.
+     */
+    private static Expression[] terms(Binary bin)
+    {
+        ArrayList<Expression> terms = new ArrayList<Expression>();
+        terms.add(bin.getLeft());
+        ArrayDeque<Expression> stack = new ArrayDeque<Expression>();
+        stack.push(bin.getRight());
+        while(!stack.isEmpty())
+        {
+            Expression expr = stack.pop();
+            if(expr.getClass() == bin.getClass())
+            {
+                stack.push(expr.getChild(1));
+                stack.push(expr.getChild(0));
+            }
+            else
+                terms.add(expr);
+        }
+        return terms.toArray(new Expression[terms.size()]);
+    }
+    
+    /**
+     * Simplify and beautify the specified mathematical expression, given its
+     * beautified operands.
+     * 
+     * @param expr
+     *        The mathematical expression.
+     * @param parsed
+     *        The beautified operands returned by
+     *        {@link ExpressionBeautifier#operands(Expression)}.
+     * @return Usually a simplified and beautified expression. <tt>expr</tt>
+     *         otherwise.
+     */
+    private static Expression beautify(Expression expr, Expression[] parsed)
+    {
+        if(expr instanceof Symbol)
             return symbol((Symbol) expr);
-        if (expr instanceof Operation)
-            return operation((Operation) expr);
-        if (expr instanceof Function)
-            return function((Function) expr);
+        if(expr instanceof Add)
+            return add((Add) expr, parsed);
+        if(expr instanceof Subtract)
+            return subtract((Subtract) expr, parsed[0], parsed[1]);
+        if(expr instanceof Multiply)
+            return mul((Multiply) expr, parsed);
+        if(expr instanceof Divide)
+            return parsed.length == 0 ? fraction((Divide) expr) : div((Divide) expr, parsed[0], parsed[1]);
+        if(expr instanceof Power)
+        {
+            Power pow = (Power) expr;
+            if(pow.getBase() != parsed[1])
+                pow.setBase(parsed[1]);
+            return pow(pow, pow.getExponent(), parsed[0]);
+        }
+        if(expr instanceof Function)
+        {
+            if(expr.getChild(0) != parsed[0])
+                expr.setChild(0, parsed[0]);
+            return expr;
+        }
         return expr;
     }
     
@@ -91,89 +227,54 @@ public class ExpressionBeautifier
     }
     
     /**
-     * Simplify and beautify the specified mathematical operation as far as
+     * Simplify and beautify the specified mathematical addition as far as
      * possible such that the expression remains as simple as possible to be
-     * read by users.
-     * 
-     * @param op
-     *        The mathematical operation. If it could not be simplified or
-     *        beautified, {@code op} is returned.
-     * @return Usually a simplified and beautified expression. <tt>this</tt>
-     *         otherwise.
-     */
-    static Expression operation(Operation op)
-    {
-        if (op instanceof Binary)
-            return binary((Binary) op);
-        return op;
-    }
-    
-    /**
-     * Simplify and beautify the specified mathematical binary operation as far
-     * as possible such that the expression remains as simple as possible to be
-     * read by users.
+     * read by users. The operands of the addition should be beautified already.
      * 
-     * @param bin
-     *        The mathematical binary operation. If it could not be simplified
-     *        or beautified, {@code bin} is returned.
+     * @param add
+     *        The mathematical addition. If it could not be simplified or
+     *        beautified, {@code expr} is returned.
      * @return Usually a simplified and beautified expression. <tt>this</tt>
      *         otherwise.
      */
-    static Expression binary(Binary bin)
-    {
-        if (bin instanceof Add)
-            return add((Add) bin);
-        if (bin instanceof Subtract)
-            return subtract((Subtract) bin);
-        if (bin instanceof Multiply)
-            return mul((Multiply) bin);
-        if (bin instanceof Divide)
-            return div((Divide) bin);
-        if (bin instanceof Power)
-            return pow((Power) bin);
-        return bin;
-    }
+    static Expression add(Add add)
+    { return add(add, terms(add)); }
     
     /**
-     * Simplify and beautify the specified mathematical unary function as far as
-     * possible such that the expression remains as simple as possible to be
-     * read by users.
+     * Simplify and beautify the specified mathematical addition, given its
+     * beautified terms. The terms are added from left to right.
      * 
-     * @param func
-     *        The mathematical unary function. If it could not be simplified or
-     *        beautified, {@code bin} is returned.
-     * @return Usually a simplified and beautified expression. <tt>this</tt>
-     *         otherwise.
+     * @param add
+     *        The mathematical addition.
+     * @param terms
+     *        The beautified terms, as returned by
+     *        {@link ExpressionBeautifier#terms(Binary)}.
+     * @return Usually a simplified and beautified expression.
      */
-    static Expression function(Function func)
+    private static Expression add(Add add, Expression[] terms)
     {
-        func.setChild(0, parse(func.getChild(0)));
-        return func;
+        if(terms.length == 2)
+            return add(add, terms[0], terms[1]);
+        Expression result = terms[0];
+        for(int i = 1; i < terms.length; ++i)
+            result = add(new Add(), result, terms[i]);
+        return result;
     }
     
     /**
-     * Simplify and beautify the specified mathematical addition as far as
-     * possible such that the expression remains as simple as possible to be
-     * read by users.
+     * Simplify and beautify the specified mathematical addition of two
+     * beautified operands.
      * 
      * @param add
-     *        The mathematical addition. If it could not be simplified or
-     *        beautified, {@code expr} is returned.
-     * @return Usually a simplified and beautified expression. <tt>this</tt>
-     *         otherwise.
+     *        The mathematical addition.
+     * @param left
+     *        The beautified left operand.
+     * @param right
+     *        The beautified right operand.
+     * @return Usually a simplified and beautified expression.
      */
-    static Expression add(Add add)
+    private static Expression add(Add add, Expression left, Expression right)
     {
-        // Make sure we handle additions from left to right
-        if(add.getRight() instanceof Add)
-        {
-            Add radd = (Add) add.getRight();
-            Expression lexpr = add(new Add(add.getLeft(), radd.getLeft()));
-            return add(new Add(lexpr, radd.getRight()));
-        }
-        
-        Expression left = parse(add.getLeft());
-        Expression right = parse(add.getRight());
         if(isSymbol(right) && !isSymbol(left) && !(left instanceof  Add))
         {
             add.set(right, left); // swap
@@ -204,7 +305,8 @@ public class ExpressionBeautifier
     /**
      * Simplify and beautify the specified mathematical subtraction as far as
      * possible such that the expression remains as simple as possible to be
-     * read by users.
+     * read by users. The operands of the subtraction should be beautified
+     * already.
      * 
      * @param sub
      *        The mathematical subtraction. If it could not be simplified or
@@ -213,9 +315,22 @@ public class ExpressionBeautifier
      *         otherwise.
      */
     static Expression subtract(Subtract sub)
+    { return subtract(sub, sub.getLeft(), sub.getRight()); }
+    
+    /**
+     * Simplify and beautify the specified mathematical subtraction of two
+     * beautified operands.
+     * 
+     * @param sub
+     *        The mathematical subtraction.
+     * @param left
+     *        The beautified left operand.
+     * @param right
+     *        The beautified right operand.
+     * @return Usually a simplified and beautified expression.
+     */
+    private static Expression subtract(Subtract sub, Expression left, Expression right)
     {
-        Expression left = parse(sub.getLeft());
-        Expression right = parse(sub.getRight());
         if (left.equals(Symbol.ZERO))
             return new Negate(right);
         if (right.equals(Symbol.ZERO))
@@ -239,7 +354,8 @@ public class ExpressionBeautifier
     /**
      * Simplify and beautify the specified mathematical multiplication as far as
      * possible such that the expression remains as simple as possible to be
-     * read by users.
+     * read by users. The operands of the multiplication should be beautified
+     * already.
      * 
      * @param mul
      *        The mathematical multiplication. If it could not be simplified or
@@ -248,18 +364,43 @@ public class ExpressionBeautifier
      *         otherwise.
      */
     static Expression mul(Multiply mul)
+    { return mul(mul, terms(mul)); }
+    
+    /**
+     * Simplify and beautify the specified mathematical multiplication, given
+     * its beautified factors. The factors are multiplied from left to right.
+     * 
+     * @param mul
+     *        The mathematical multiplication.
+     * @param factors
+     *        The beautified factors, as returned by
+     *        {@link ExpressionBeautifier#terms(Binary)}.
+     * @return Usually a simplified and beautified expression.
+     */
+    private static Expression mul(Multiply mul, Expression[] factors)
+    {
+        if(factors.length == 2)
+            return mul(mul, factors[0], factors[1]);
+        Expression result = factors[0];
+        for(int i = 1; i < factors.length; ++i)
+            result = mul(new Multiply(), result, factors[i]);
+        return result;
+    }
+    
+    /**
+     * Simplify and beautify the specified mathematical multiplication of two
+     * beautified operands.
+     * 
+     * @param mul
+     *        The mathematical multiplication.
+     * @param left
+     *        The beautified left operand.
+     * @param right
+     *        The beautified right operand.
+     * @return Usually a simplified and beautified expression.
+     */
+    private static Expression mul(Multiply mul, Expression left, Expression right)
     {
-        // Make sure we handle multiplications from left to right
-        if(mul.getRight() instanceof Multiply)
-        {
-            Multiply rmul = (Multiply) mul.getRight();
-            Expression lexpr = mul(new Multiply(mul.getLeft(), rmul.getLeft()));
-            return mul(new Multiply(lexpr, rmul.getRight()));
-        }
-        
-        Expression left = parse(mul.getLeft());
-        Expression right = parse(mul.getRight());
-        
         // move symbolic constants to left if not already done
         if(isSymbol(right) && !isSymbol(left))
         {
@@ -353,7 +494,8 @@ public class ExpressionBeautifier
     /**
      * Simplify and beautify the specified mathematical division as far as
      * possible such that the expression remains as simple as possible to be
-     * read by users.
+     * read by users. The operands of the division should be beautified
+     * already.
      * 
      * @param div
      *        The mathematical division. If it could not be simplified or
@@ -363,100 +505,129 @@ public class ExpressionBeautifier
      */
     static Expression div(Divide div)
     {
-        // Simplify fractions
-        if(div.getNumerator() instanceof Symbol && div.getDenominator() instanceof Symbol && ((Symbol) div.getNumerator()).isFactorOnly() && ((Symbol) div.getDenominator()).isFactorOnly())
+        if(isSimpleFraction(div))
+            return fraction(div);
+        return div(div, div.getNumerator(), div.getDenominator());
+    }
+    
+    /** Whether or not the given division is a fraction of two numbers (i.e. a Divide with two factor-only symbols as operands) */
+    private static boolean isSimpleFraction(Divide div)
+    {
+        return div.getNumerator() instanceof Symbol && div.getDenominator() instanceof Symbol && ((Symbol) div.getNumerator()).isFactorOnly() && ((Symbol) div.getDenominator()).isFactorOnly();
+    }
+    
+    /**
+     * Simplify the specified fraction of two numbers.
+     * 
+     * @param div
+     *        The fraction, see {@link ExpressionBeautifier#isSimpleFraction(Divide)}.
+     * @return The simplified fraction.
+     */
+    private static Expression fraction(Divide div)
+    {
+        // Get the numerator, denominator and integer part
+        double num = ((Symbol) div.getNumerator()).getFactor();
+        double denom = ((Symbol) div.getDenominator()).getFactor();
+        final boolean negative = num < 0 ^ denom < 0;
+        num = Math.abs(num);
+        denom = Math.abs(denom);
+        double intPart =  Math.floor(num / denom);
+        num -= intPart * denom;
+        
+        // If the numerator is zero, we're done
+        if(num == 0)
+            return new Symbol(negative ? -intPart : intPart);
+        
+        // Check if the denominator only contains the prime factors 2 and 5
+        int exp2 = 0;
+        int exp5 = 0;
+        long denomInt = (long) denom;
+        boolean validDenom = true;
+        while(validDenom && denomInt != 1)
         {
-            // Get the numerator, denominator and integer part
-            double num = ((Symbol) div.getNumerator()).getFactor();
-            double denom = ((Symbol) div.getDenominator()).getFactor();
-            final boolean negative = num < 0 ^ denom < 0;
-            num = Math.abs(num);
-            denom = Math.abs(denom);
-            double intPart =  Math.floor(num / denom);
-            num -= intPart * denom;
-            
-            // If the numerator is zero, we're done
-            if(num == 0)
-                return new Symbol(negative ? -intPart : intPart);
-            
-            // Check if the denominator only contains the prime factors 2 and 5
-            int exp2 = 0;
-            int exp5 = 0;
-            long denomInt = (long) denom;
-            boolean validDenom = true;
-            while(validDenom && denomInt != 1)
+            if(denomInt % 2 == 0)
             {
-                if(denomInt % 2 == 0)
-                {
-                    denomInt /= 2;
-                    ++exp2;
-                }
-                else if(denomInt % 5 == 0)
+                denomInt /= 2;
+                ++exp2;
+            }
+            else if(denomInt % 5 == 0)
+            {
+                denomInt /= 5;
+                ++exp5;
+            }
+            else
+                validDenom = false;
+        }
+
+        // We leave fractions that have a smaller denominator than 10
+        // Also if our denominator contains other factors besides 2 and 5, we stop here
+        // Also if our numerator or denominator isn't an integer, we stop here
+        if(denom < 10 || !validDenom || num != Math.round(num) || denom != Math.round(denom))
+        {
+            Expression lexpr, rexpr;
+            lexpr = new Symbol(num);
+            rexpr = new Symbol(denom);
+            Expression divide = new Divide(lexpr, rexpr);
+            if(negative)
+            {
+                if(intPart != 0)
                 {
-                    denomInt /= 5;
-                    ++exp5;
+                    return new Subtract(new Negate(new Symbol(intPart)), divide);
                 }
                 else
-                    validDenom = false;
+                    return new Negate(divide);
             }
-
-            // We leave fractions that have a smaller denominator than 10
-            // Also if our denominator contains other factors besides 2 and 5, we stop here
-            // Also if our numerator or denominator isn't an integer, we stop here
-            if(denom < 10 || !validDenom || num != Math.round(num) || denom != Math.round(denom))
+            else
             {
-                Expression lexpr, rexpr;
-                lexpr = new Symbol(num);
-                rexpr = new Symbol(denom);
-                Expression divide = new Divide(lexpr, rexpr);
-                if(negative)
+                if(intPart != 0)
                 {
-                    if(intPart != 0)
-                    {
-                        return new Subtract(new Negate(new Symbol(intPart)), divide);
-                    }
-                    else
-                        return new Negate(divide);
+                    return new Add(new Symbol(intPart), divide);
                 }
                 else
                 {
-                    if(intPart != 0)
-                    {
-                        return new Add(new Symbol(intPart), divide);
-                    }
-                    else
-                    {
-                        return divide;
-                    }
+                    return divide;
                 }
             }
-            
-            // If the denominator is smaller than or equal to 1 000 000, we're done
-            if(denom <= 1000000)
-                return symbol(new Symbol((negative ? -1 : 1) * (intPart + num / denom)));
-            
-            // Create a denominator that's a power of 10
-            int exp = Math.max(exp2, exp5);
-            
-            // Create a numerator for the new denominator
-            double newNum = num + intPart * denom;
-            if(exp2 < exp5)
-                newNum *= Math.pow(2, exp5 - exp2);
-            else if(exp5 < exp2)
-                newNum *= Math.pow(5, exp2 - exp5);
-            
-            // Determine by which 10-power we'll divide the numerator
-            int usedExp = Math.min((int) Math.floor(Math.log10(newNum)), 6);
-            
-            // Return the result
-            if(negative)
-                return new Multiply(new Negate(new Symbol(newNum / Math.pow(10, usedExp))), new Power(new Symbol(10), new Symbol(usedExp - exp)));
-            else
-                return new Multiply(new Symbol(newNum / Math.pow(10, usedExp)), new Power(new Symbol(10), new Symbol(usedExp - exp)));
         }
         
-        Expression num = parse(div.getNumerator());
-        Expression denom = parse(div.getDenominator());
+        // If the denominator is smaller than or equal to 1 000 000, we're done
+        if(denom <= 1000000)
+            return symbol(new Symbol((negative ? -1 : 1) * (intPart + num / denom)));
+        
+        // Create a denominator that's a power of 10
+        int exp = Math.max(exp2, exp5);
+        
+        // Create a numerator for the new denominator
+        double newNum = num + intPart * denom;
+        if(exp2 < exp5)
+            newNum *= Math.pow(2, exp5 - exp2);
+        else if(exp5 < exp2)
+            newNum *= Math.pow(5, exp2 - exp5);
+        
+        // Determine by which 10-power we'll divide the numerator
+        int usedExp = Math.min((int) Math.floor(Math.log10(newNum)), 6);
+        
+        // Return the result
+        if(negative)
+            return new Multiply(new Negate(new Symbol(newNum / Math.pow(10, usedExp))), new Power(new Symbol(10), new Symbol(usedExp - exp)));
+        else
+            return new Multiply(new Symbol(newNum / Math.pow(10, usedExp)), new Power(new Symbol(10), new Symbol(usedExp - exp)));
+    }
+    
+    /**
+     * Simplify and beautify the specified mathematical division of two
+     * beautified operands.
+     * 
+     * @param div
+     *        The mathematical division.
+     * @param num
+     *        The beautified numerator.
+     * @param denom
+     *        The beautified denominator.
+     * @return Usually a simplified and beautified expression.
+     */
+    private static Expression div(Divide div, Expression num, Expression denom)
+    {
         Expression result = div;
         // x/1 -> x
         if (denom.equals(Symbol.ONE))
@@ -524,7 +695,7 @@ public class ExpressionBeautifier
     /**
      * Simplify and beautify the specified mathematical power as far as possible
      * such that the expression remains as simple as possible to be read by
-     * users.
+     * users. The operands of the power should be beautified already.
      * 
      * @param pow
      *        The mathematical power. If it could not be simplified or
@@ -533,15 +704,28 @@ public class ExpressionBeautifier
      *         otherwise.
      */
     static Expression pow(Power pow)
+    { return pow(pow, pow.getExponent(), pow.getExponent()); }
+    
+    /**
+     * Simplify and beautify the specified mathematical power, of which the
+     * base has been beautified already.
+     * 
+     * @param pow
+     *        The mathematical power.
+     * @param rawExponent
+     *        The exponent before it was beautified.
+     * @param exponent
+     *        The beautified exponent.
+     * @return Usually a simplified and beautified expression.
+     */
+    private static Expression pow(Power pow, Expression rawExponent, Expression exponent)
     {
-        Expression rawExponent = pow.getExponent();
-        Expression exponent = parse(rawExponent);
         if(exponent instanceof Symbol)
         {
             Symbol symexp = (Symbol) exponent;
             // x^1 -> x
             if(symexp.equals(Symbol.ONE))
-                return parse(pow.getBase());
+                return pow.getBase();
             if(symexp.isFactorOnly())
             {
                 double value = symexp.getFactor();
@@ -557,7 +741,7 @@ public class ExpressionBeautifier
                 {
                     // explicit (symbol) ^ (n) -> implicit symbol^n
                     // i.e.: Power -> Symbol
-                    Expression base = parse(pow.getBase());
+                    Expression base = pow.getBase();
                     if (base instanceof Symbol && symexp.isFactorOnly())
                     {
                         if(((Symbol) base).tryRaisePower(symexp.getFactor()))
@@ -576,8 +760,8 @@ public class ExpressionBeautifier
             
             // x^(a/b) -> root(b,x^a): b > 0
             Divide div = (Divide) exponent;
-            Expression dividend = parse(div.getNumerator());
-            Expression divisor = parse(div.getDenominator());
+            Expression dividend = div.getNumerator();
+            Expression divisor = div.getDenominator();
             if(divisor instanceof Symbol)
             {
                 Symbol symdenom = (Symbol) divisor;
@@ -0,0 +1,159 @@
+package org.teaminfty.math_dragon.model;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.Function;
+import org.teaminfty.math_dragon.view.math.Symbol;
+
+/**
+ * An immutable, structural description of an {@link Expression} subtree.
+ * Two keys are equal if and only if the subtrees they were built from are of the same types,
+ * have the same {@link Symbol} values and {@link Function} types and have equal children.
+ * The hash is computed once, bottom-up, so looking up a key is cheap.
+ *
+ * @see EvalHelper
+ */
+final class ExpressionKey
+{
+    /** The type of the expression */
+    private final Class<?> type;
+
+    /** The values of the expression itself (e.g. the powers of a {@link Symbol}) */
+    private final long[] values;
+
+    /** The keys of the children of the expression */
+    private final ExpressionKey[] children;
+
+    /** The precomputed hash */
+    private final int hash;
+
+    /** Constructor
+     * @param type The type of the expression
+     * @param values The values of the expression itself
+     * @param children The keys of the children of the expression */
+    private ExpressionKey(Class<?> type, long[] values, ExpressionKey[] children)
+    {
+        this.type = type;
+        this.values = values;
+        this.children = children;
+
+        int h = type.getName().hashCode();
+        h = 31 * h + Arrays.hashCode(values);
+        for(ExpressionKey child : children)
+            h = 31 * h + child.hash;
+        hash = h;
+    }
+
+    /**
+     * Returns the key for the given expression.
+     * The keys for the expression and all of its descendants are stored in <tt>keys</tt>,
+     * keys that are already in <tt>keys</tt> are reused.
+     *
+     * @param expr
+     *        The expression to get the key for
+     * @param keys
+     *        The keys that have already been built
+     * @return The key for <tt>expr</tt>
+     */
+    public static ExpressionKey of(Expression expr, IdentityHashMap<Expression, ExpressionKey> keys)
+    {
+        // Check if we've already built the key
+        ExpressionKey key = keys.get(expr);
+        if(key != null)
+            return key;
+
+        // Build the keys bottom-up, using an explicit stack so deep expressions can't overflow the call stack
+        // An expression stays on the stack until the keys for all of its children have been built
+        ArrayDeque<Expression> stack = new ArrayDeque<Expression>();
+        stack.push(expr);
+        while(!stack.isEmpty())
+        {
+            Expression top = stack.peek();
+            if(keys.containsKey(top))
+            {
+                // Already built (the expression occurs more than once in the tree)
+                stack.pop();
+                continue;
+            }
+
+            // Push the children whose keys haven't been built yet
+            boolean childrenDone = true;
+            for(int i = top.getChildCount() - 1; i >= 0; --i)
+            {
+                if(!keys.containsKey(top.getChild(i)))
+                {
+                    stack.push(top.getChild(i));
+                    childrenDone = false;
+                }
+            }
+            if(!childrenDone)
+                continue;
+
+            // Build the key
+            ExpressionKey[] children = new ExpressionKey[top.getChildCount()];
+            for(int i = 0; i < children.length; ++i)
+                children[i] = keys.get(top.getChild(i));
+            keys.put(top, new ExpressionKey(top.getClass(), valuesOf(top), children));
+            stack.pop();
+        }
+        return keys.get(expr);
+    }
+
+    /** Collects the values that describe the given expression itself (not its children)
+     * @param expr The expression to collect the values for
+     * @return The values */
+    private static long[] valuesOf(Expression expr)
+    {
+        if(expr instanceof Symbol)
+        {
+            Symbol symbol = (Symbol) expr;
+            long[] values = new long[4 + symbol.varPowCount()];
+            values[0] = Double.doubleToLongBits(symbol.getFactor());
+            values[1] = symbol.getEPow();
+            values[2] = symbol.getPiPow();
+            values[3] = symbol.getIPow();
+            for(int i = 0; i < symbol.varPowCount(); ++i)
+                values[4 + i] = symbol.getVarPow(i);
+            return values;
+        }
+        if(expr instanceof Function)
+            return new long[] {((Function) expr).getType().ordinal()};
+        return new long[0];
+    }
+
+    @Override
+    public int hashCode()
+    { return hash; }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(o == this)
+            return true;
+        if(!(o instanceof ExpressionKey))
+            return false;
+
+        // Compare the keys pairwise, using an explicit stack so deep keys can't overflow the call stack
+        ArrayDeque<ExpressionKey> stack = new ArrayDeque<ExpressionKey>();
+        stack.push(this);
+        stack.push((ExpressionKey) o);
+        while(!stack.isEmpty())
+        {
+            ExpressionKey other = stack.pop();
+            ExpressionKey key = stack.pop();
+            if(key == other)
+                continue;
+            if(key.hash != other.hash || key.type != other.type || !Arrays.equals(key.values, other.values) || key.children.length != other.children.length)
+                return false;
+            for(int i = 0; i < key.children.length; ++i)
+            {
+                stack.push(key.children[i]);
+                stack.push(other.children[i]);
+            }
+        }
+        return true;
+    }
+}
@@ -11,6 +11,7 @@ import static org.teaminfty.math_dragon.view.math.Function.FunctionType.SINH;
 import static org.teaminfty.math_dragon.view.math.Function.FunctionType.TAN;
 
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.Locale;
 
 import org.matheclipse.core.expression.F;
@@ -58,6 +59,24 @@ public final class ModelHelper
     {
         if(expr == null)
             throw new NullPointerException("expr");
+        Expression atom = atom(expr);
+        return atom != null ? atom : toExpression((IAST) expr);
+    }
+
+    /**
+     * Convert a mathematical expression from symja that isn't an abstract
+     * syntax tree (e.g. a symbol or a number) to a graphical viewer that
+     * contains the mathematical expression.
+     * 
+     * @param expr
+     *        The mathematical expression from symja.
+     * @return A viewer that contains expr, or <tt>null</tt> if expr is an
+     *         abstract syntax tree.
+     * @throws ParseException
+     *         Thrown when conversion is impossible.
+     */
+    private static Expression atom(IExpr expr) throws ParseException
+    {
         if(expr.isSymbol())
             return symbol((Symbol) expr);
         if(expr.isInteger())
@@ -74,7 +93,7 @@ public final class ModelHelper
                 return complexNum((IComplexNum) expr);
         }
         if(expr.isAST())
-            return toExpression((IAST) expr);
+            return null;
         throw new ParseException(expr);
     }
 
@@ -218,99 +237,143 @@ public final class ModelHelper
     {
         if(ast == null)
             throw new NullPointerException("ast");
-        if(ast.isPlus())
-            return add(ast);
-        if(ast.isTimes())
-            return mul(ast);
-        if(ast.isPower())
-            return pow(ast);
-        return unary(ast);
+
+        // Convert the tree with an explicit stack, so deep expressions can't overflow the call stack
+        // Every frame on the stack waits for the conversions of its operands
+        ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+        stack.push(new Frame(ast));
+        while(true)
+        {
+            Frame frame = stack.peek();
+            if(frame.next < frame.operands.length)
+            {
+                // Convert the next operand, atoms are converted right away
+                IExpr operand = frame.operands[frame.next];
+                if(operand == null)
+                    throw new NullPointerException("expr");
+                Expression atom = atom(operand);
+                if(atom != null)
+                    frame.converted[frame.next++] = atom;
+                else
+                    stack.push(new Frame((IAST) operand));
+                continue;
+            }
+
+            // All operands have been converted, so we can convert the tree itself
+            Expression result = build(frame.ast, frame.converted);
+            stack.pop();
+            if(stack.isEmpty())
+                return result;
+            frame = stack.peek();
+            frame.converted[frame.next++] = result;
+        }
+    }
+
+    /** The conversion of an abstract syntax tree that is in progress */
+    private static final class Frame
+    {
+        /** The tree that is being converted */
+        public final IAST ast;
+        /** The operands of the tree that have to be converted before the tree itself can be converted */
+        public final IExpr[] operands;
+        /** The conversions of the operands */
+        public final Expression[] converted;
+        /** The index of the next operand that is to be converted */
+        public int next = 0;
+
+        /** Constructor
+         * @param ast The tree that is to be converted */
+        public Frame(IAST ast)
+        {
+            this.ast = ast;
+            operands = operands(ast);
+            converted = new Expression[operands.length];
+        }
     }
 
     /**
-     * Convert a mathematical binary addition from symja's expression to a
-     * graphical viewer that contains the mathematical expression. Unknown or
-     * unimplemented mathematical expressions result in a {@link ParseException}
-     * .
+     * Returns the operands of an abstract syntax tree that have to be
+     * converted before the tree itself can be converted.
      * 
-     * @param add
-     *        Symja's abstract syntax tree holding the current binary addition.
-     *        Usually obtained from EvalHelper.eval().
-     * @return A graphical viewer that contains add
-     * @throws ParseException
-     *         Throw when conversion is impossible
+     * @param ast
+     *        Symja's abstract syntax tree.
+     * @return The operands that are to be converted.
      */
-    static Add add(IAST add) throws ParseException
+    private static IExpr[] operands(IAST ast)
     {
-        // If we have combined/multiple additions, we need to split them
-        if(add.size() > 3)
+        // Combined/multiple additions or multiplications have more than two operands
+        if((ast.isPlus() || ast.isTimes()) && ast.size() > 3)
         {
-            int operandIndex = add.size() - 1;
-            Add child = new Add(toExpression(add.get(operandIndex - 1)), toExpression(add.get(operandIndex)));
-            for(operandIndex -= 2; operandIndex > 0; --operandIndex)
-            {
-                // Navigate to root element
-                child = new Add(toExpression(add.get(operandIndex)), child);
-            }
-            return child;
+            IExpr[] operands = new IExpr[ast.size() - 1];
+            for(int i = 0; i < operands.length; ++i)
+                operands[i] = ast.get(i + 1);
+            return operands;
         }
-        // Just two operands, convert them directly.
-        Expression left = toExpression(add.get(1));
-        Expression right = toExpression(add.get(2));
-        return new Add(left, right);
+        if(ast.isPlus() || ast.isTimes() || ast.isPower())
+            return new IExpr[] {ast.get(1), ast.get(2)};
+        return new IExpr[] {ast.get(1)};
     }
 
     /**
-     * Convert a mathematical binary multiplication from symja's expression to a
-     * graphical viewer that contains the mathematical expression. Unknown or
-     * unimplemented mathematical expressions result in a {@link ParseException}
-     * .
+     * Convert an abstract syntax tree from symja to a graphical viewer, given
+     * the conversions of its operands. Unknown or unimplemented mathematical
+     * expressions result in a {@link ParseException}.
      * 
-     * @param mul
-     *        Symja's abstract syntax tree holding the current binary
-     *        multiplication. Usually obtained from EvalHelper.eval().
-     * @return A graphical viewer that contains mul
+     * @param ast
+     *        Symja's abstract syntax tree.
+     * @param operands
+     *        The conversions of the operands returned by
+     *        {@link ModelHelper#operands(IAST)}.
+     * @return A graphical viewer that contains ast.
      * @throws ParseException
-     *         Throw when conversion is impossible
+     *         Thrown when conversion is impossible.
      */
-    static Multiply mul(IAST mul) throws ParseException
+    private static Expression build(IAST ast, Expression[] operands) throws ParseException
     {
-        // If we have combined/multiple additions, we need to split them
-        if(mul.size() > 3)
-        {
-            int operandIndex = mul.size() - 1;
-            Multiply child = new Multiply(toExpression(mul.get(operandIndex - 1)), toExpression(mul.get(operandIndex)));
-            for(operandIndex -= 2; operandIndex > 0; --operandIndex)
-            {
-                // Navigate to root element
-                child = new Multiply(toExpression(mul.get(operandIndex)), child);
-            }
-            return child;
-        }
-        // Just two operands, convert them directly.
-        Expression multiplicand = toExpression(mul.get(1));
-        Expression multiplier = toExpression(mul.get(2));
-        return new Multiply(multiplicand, multiplier);
+        if(ast.isPlus())
+            return add(operands);
+        if(ast.isTimes())
+            return mul(operands);
+        if(ast.isPower())
+            return new Power(operands[0], operands[1]);
+        return unary(ast, operands[0]);
     }
 
     /**
-     * Convert a mathematical binary power from symja's expression to a
-     * graphical viewer that contains the mathematical expression. Unknown or
-     * unimplemented mathematical expressions result in a {@link ParseException}
-     * .
+     * Convert a mathematical addition from symja's expression to a graphical
+     * viewer that contains the mathematical expression. Combined/multiple
+     * additions are split into a chain of binary additions.
      * 
-     * @param pow
-     *        Symja's abstract syntax tree holding the current binary power.
-     *        Usually obtained from EvalHelper.eval().
-     * @return A graphical viewer that contains pow
-     * @throws ParseException
-     *         Throw when conversion is impossible
+     * @param terms
+     *        The converted terms of the addition (at least two).
+     * @return A graphical viewer that contains the addition
      */
-    static Power pow(IAST pow) throws ParseException
+    static Add add(Expression[] terms)
     {
-        Expression base = toExpression(pow.get(1));
-        Expression exponent = toExpression(pow.get(2));
-        return new Power(base, exponent);
+        // Build the chain from the last two terms to the root element
+        Add child = new Add(terms[terms.length - 2], terms[terms.length - 1]);
+        for(int i = terms.length - 3; i >= 0; --i)
+            child = new Add(terms[i], child);
+        return child;
+    }
+
+    /**
+     * Convert a mathematical multiplication from symja's expression to a
+     * graphical viewer that contains the mathematical expression.
+     * Combined/multiple multiplications are split into a chain of binary
+     * multiplications.
+     * 
+     * @param factors
+     *        The converted factors of the multiplication (at least two).
+     * @return A graphical viewer that contains the multiplication
+     */
+    static Multiply mul(Expression[] factors)
+    {
+        // Build the chain from the last two factors to the root element
+        Multiply child = new Multiply(factors[factors.length - 2], factors[factors.length - 1]);
+        for(int i = factors.length - 3; i >= 0; --i)
+            child = new Multiply(factors[i], child);
+        return child;
     }
 
     /**
@@ -322,13 +385,14 @@ public final class ModelHelper
      * @param func
      *        Symja's abstract syntax tree holding the current unary function.
      *        Usually obtained from EvalHelper.eval().
-     * @return A graphical viewer that contains pow
+     * @param expr
+     *        The converted argument of the function.
+     * @return A graphical viewer that contains func
      * @throws ParseException
      *         Throw when conversion is impossible
      */
-    static Expression unary(IAST func) throws ParseException
+    static Expression unary(IAST func, Expression expr) throws ParseException
     {
-        Expression expr = toExpression(func.get(1));
         if(func.isSin())
             return new Function(SIN, expr);
         if(func.isCos())
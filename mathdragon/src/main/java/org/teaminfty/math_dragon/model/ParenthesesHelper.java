@@ -1,5 +1,8 @@
 package org.teaminfty.math_dragon.model;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
 import org.teaminfty.math_dragon.view.math.Expression;
 import org.teaminfty.math_dragon.view.math.Function;
 import org.teaminfty.math_dragon.view.math.Parentheses;
@@ -22,17 +25,45 @@ public class ParenthesesHelper
     public static Expression setParentheses(Expression expr)
     {
         // The root never is enclosed in parentheses
-        if(expr instanceof Parentheses)
-            return setParentheses(expr.getChild(0));
+        expr = withoutParentheses(expr);
         
-        // Recursively set the parentheses correctly for all children of the expression
-        for(int i = expr.getChildCount(); i > 0; --i)
-            makeChild(expr, setParentheses(expr.getChild(i - 1)), i - 1);
+        // Collect the expression and all of its descendants (without their parentheses) in pre-order
+        // We use an explicit stack, so deep expressions can't overflow the call stack
+        ArrayList<Expression> exprs = new ArrayList<Expression>();
+        ArrayDeque<Expression> stack = new ArrayDeque<Expression>();
+        stack.push(expr);
+        while(!stack.isEmpty())
+        {
+            Expression current = stack.pop();
+            exprs.add(current);
+            for(int i = 0; i < current.getChildCount(); ++i)
+                stack.push(withoutParentheses(current.getChild(i)));
+        }
+        
+        // Set the parentheses correctly for all children of every expression
+        // In reverse pre-order the children of an expression are done before the expression itself
+        // The children are passed with their parentheses, so that parentheses that should stay are reused
+        for(int j = exprs.size() - 1; j >= 0; --j)
+        {
+            Expression current = exprs.get(j);
+            for(int i = current.getChildCount(); i > 0; --i)
+                makeChild(current, current.getChild(i - 1), i - 1);
+        }
         
         // Return the result
         return expr;
     }
     
+    /** Returns the given {@link Expression} without the parentheses it's enclosed in
+     * @param expr The {@link Expression}
+     * @return The first descendant of <tt>expr</tt> (or <tt>expr</tt> itself) that isn't a {@link Parentheses} object */
+    private static Expression withoutParentheses(Expression expr)
+    {
+        while(expr instanceof Parentheses)
+            expr = expr.getChild(0);
+        return expr;
+    }
+    
     /** Makes a {@link Expression} the child of another {@link Expression}, while correctly placing / removing parentheses
      * @param parent The {@link Expression} that is to become the parent
      * @param child The {@link Expression} that is to become the child
@@ -40,25 +71,14 @@ public class ParenthesesHelper
      */
     private static void makeChild(Expression parent, Expression child, int index)
     {
-        // The children, one with parentheses, the other one without them
+        // The child without parentheses, and the innermost parentheses around it (null if there are none)
+        // New parentheses are only created once we know they're needed, since creating them takes over the child
         Expression withParentheses = null;
-        Expression withoutParentheses = null;
-        
-        // Set the children (one with and one without parentheses)
-        if(child instanceof Parentheses)
-        {
-            withParentheses = child;
-            withoutParentheses = child.getChild(0);
-            while(withoutParentheses instanceof Parentheses)
-            {
-                withParentheses = withoutParentheses;
-                withoutParentheses = withoutParentheses.getChild(0);
-            }
-        }
-        else
+        Expression withoutParentheses = child;
+        while(withoutParentheses instanceof Parentheses)
         {
-            withParentheses = new Parentheses(child);
-            withoutParentheses = child;
+            withParentheses = withoutParentheses;
+            withoutParentheses = withoutParentheses.getChild(0);
         }
 
         // Whether or not parentheses should be placed
@@ -135,11 +155,18 @@ public class ParenthesesHelper
                 placeParentheses = true;
         }
 
-        // Set the child
+        // Determine the new child, creating parentheses if they're needed and there aren't any
         if(placeParentheses)
-            parent.setChild(index, withParentheses);
+            child = withParentheses == null ? new Parentheses(withoutParentheses) : withParentheses;
         else
-            parent.setChild(index, withoutParentheses);
+            child = withoutParentheses;
+        
+        // Set the child (unless it's already there, since setting a child refreshes its whole subtree)
+        // If it's already there we still make sure it points to its parent, the parent is what incremental layout and snapshots rely on
+        if(parent.getChild(index) != child)
+            parent.setChild(index, child);
+        else if(child.getParent() != parent)
+            parent.setChildWithoutRefresh(index, child);
     }
     
     /** Returns whether multiple symbols are visible in the given {@link Symbol}
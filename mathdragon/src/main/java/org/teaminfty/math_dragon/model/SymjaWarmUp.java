@@ -0,0 +1,193 @@
+package org.teaminfty.math_dragon.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.teaminfty.math_dragon.StartupTrace;
+import org.teaminfty.math_dragon.exceptions.MathException;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.Function;
+import org.teaminfty.math_dragon.view.math.Symbol;
+import org.teaminfty.math_dragon.view.math.operation.Integral;
+import org.teaminfty.math_dragon.view.math.operation.Limit;
+import org.teaminfty.math_dragon.view.math.operation.Negate;
+import org.teaminfty.math_dragon.view.math.operation.binary.Add;
+import org.teaminfty.math_dragon.view.math.operation.binary.Derivative;
+import org.teaminfty.math_dragon.view.math.operation.binary.Divide;
+import org.teaminfty.math_dragon.view.math.operation.binary.Log;
+import org.teaminfty.math_dragon.view.math.operation.binary.Multiply;
+import org.teaminfty.math_dragon.view.math.operation.binary.Power;
+import org.teaminfty.math_dragon.view.math.operation.binary.Root;
+import org.teaminfty.math_dragon.view.math.operation.binary.Subtract;
+
+import android.os.AsyncTask;
+
+/**
+ * Warms up Symja in the background by evaluating a plan of {@link Expression}s.
+ * <p>
+ * Symja loads its classes and initialises the rules of an operation the first time that operation is evaluated,
+ * which makes the first evaluation that uses an operation slow. The default plan contains every operation
+ * {@link EvalHelper} can produce, so after the warm-up every evaluation of the user is fast.
+ * The rules are shared by all {@link org.matheclipse.core.eval.EvalEngine EvalEngine}s, so the engines of all evaluating threads are ready after the warm-up.
+ * <p>
+ * The progress of the warm-up can be queried with {@link #isFinished()} and {@link #getProgress()},
+ * or followed with an {@link OnWarmUpProgressListener}.
+ */
+public class SymjaWarmUp
+{
+    /** The time budget (in milliseconds) of a single step of the warm-up */
+    private static final long STEP_TIME_BUDGET = 5000;
+
+    /** The only instance of this class */
+    private static SymjaWarmUp instance = null;
+
+    /** Listener that is notified of the progress of the warm-up (on the main thread) */
+    public interface OnWarmUpProgressListener
+    {
+        /** Called when a step of the warm-up is finished
+         * @param done The number of steps that are finished
+         * @param total The total number of steps */
+        public void progress(int done, int total);
+    }
+
+    /** The listeners (only accessed on the main thread) */
+    private final List<OnWarmUpProgressListener> listeners = new ArrayList<OnWarmUpProgressListener>();
+
+    /** Whether or not the warm-up has been started */
+    private boolean started = false;
+
+    /** The number of steps that are finished */
+    private volatile int done = 0;
+
+    /** The total number of steps, <tt>0</tt> if the warm-up hasn't started yet */
+    private volatile int total = 0;
+
+    /** Whether or not the warm-up is finished */
+    private volatile boolean finished = false;
+
+    /** Constructor, use {@link SymjaWarmUp#getInstance()} to obtain an instance */
+    private SymjaWarmUp()
+    {}
+
+    /** Returns the instance of this class
+     * @return The instance */
+    public static synchronized SymjaWarmUp getInstance()
+    {
+        if(instance == null)
+            instance = new SymjaWarmUp();
+        return instance;
+    }
+
+    /**
+     * Creates the default warm-up plan, which contains every operation {@link EvalHelper} can produce
+     * (sums, products, powers, roots, logarithms, all functions, derivatives, limits and integrals with and without bounds).
+     *
+     * @return The default plan
+     */
+    public static Expression[] createDefaultPlan()
+    {
+        List<Expression> plan = new ArrayList<Expression>();
+
+        // The simple (yet beautiful :D) calculation that loads the basics of Symja: 1 + e^(pi i)
+        plan.add(new Add(new Symbol(1), new Power(new Symbol(1, 1, 0, 0), new Symbol(1, 0, 1, 1))));
+
+        // The arithmetic operations
+        plan.add(new Subtract(new Multiply(new Symbol(2), Symbol.createVarSymbol('x')), new Divide(Symbol.createVarSymbol('x'), new Symbol(3))));
+        plan.add(new Root(new Power(Symbol.createVarSymbol('x'), new Symbol(2)), new Symbol(3)));
+        plan.add(new Negate(new Log(new Symbol(2), Symbol.createVarSymbol('x'))));
+
+        // All functions
+        for(Function.FunctionType type : Function.FunctionType.values())
+            plan.add(new Function(type, Symbol.createVarSymbol('x')));
+
+        // Derivatives, limits and integrals
+        plan.add(new Derivative(new Multiply(Symbol.createVarSymbol('x'), new Function(Function.FunctionType.SIN, Symbol.createVarSymbol('x'))), Symbol.createVarSymbol('x')));
+        plan.add(new Limit(Symbol.createVarSymbol('x'), new Symbol(0), new Divide(new Function(Function.FunctionType.SIN, Symbol.createVarSymbol('x')), Symbol.createVarSymbol('x'))));
+        plan.add(new Integral(new Multiply(Symbol.createVarSymbol('x'), new Function(Function.FunctionType.SIN, Symbol.createVarSymbol('x'))), Symbol.createVarSymbol('x')));
+        plan.add(new Integral(new Power(Symbol.createVarSymbol('x'), new Symbol(2)), Symbol.createVarSymbol('x'), new Symbol(0), new Symbol(1)));
+
+        return plan.toArray(new Expression[plan.size()]);
+    }
+
+    /** Starts the warm-up with the {@link SymjaWarmUp#createDefaultPlan() default plan}, does nothing if the warm-up has already been started.
+     * Should be called on the main thread. */
+    public void start()
+    { start(null); }
+
+    /** Starts the warm-up with the given plan, does nothing if the warm-up has already been started.
+     * Should be called on the main thread.
+     * @param plan The expressions to evaluate, or <tt>null</tt> for the {@link SymjaWarmUp#createDefaultPlan() default plan} */
+    public void start(Expression[] plan)
+    {
+        if(started)
+            return;
+        started = true;
+        new WarmUpTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, plan);
+    }
+
+    /** Returns whether or not the warm-up is finished
+     * @return <tt>true</tt> if the warm-up is finished, <tt>false</tt> otherwise */
+    public boolean isFinished()
+    { return finished; }
+
+    /** Returns the progress of the warm-up
+     * @return The fraction of the steps that are finished (between <tt>0</tt> and <tt>1</tt>) */
+    public float getProgress()
+    { return finished ? 1.0f : (total == 0 ? 0.0f : (float) done / total); }
+
+    /** Adds a listener that is notified of the progress of the warm-up, should be called on the main thread
+     * @param listener The listener */
+    public void addOnWarmUpProgressListener(OnWarmUpProgressListener listener)
+    { listeners.add(listener); }
+
+    /** Removes a listener, should be called on the main thread
+     * @param listener The listener */
+    public void removeOnWarmUpProgressListener(OnWarmUpProgressListener listener)
+    { listeners.remove(listener); }
+
+    /** Evaluates the steps of the warm-up plan in a separate thread */
+    private class WarmUpTask extends AsyncTask<Expression[], Integer, Void>
+    {
+        @Override
+        protected Void doInBackground(Expression[]... args)
+        {
+            final long phase = StartupTrace.beginPhase("warm up Symja");
+            Expression[] plan = args[0] == null ? createDefaultPlan() : args[0];
+            total = plan.length;
+            for(Expression step : plan)
+            {
+                // Evaluate the step both exactly and approximately, since those use different rules
+                BudgetedEvaluation evaluation = new BudgetedEvaluation(STEP_TIME_BUDGET);
+                evaluation.start();
+                try
+                {
+                    evaluation.evaln(evaluation.eval(EvalHelper.eval(step)));
+                }
+                catch(MathException e)
+                { /* Ignore, the step is warmed up as far as it goes */ }
+                catch(RuntimeException e)
+                { /* Ignore, the step is warmed up as far as it goes */ }
+                catch(StackOverflowError e)
+                { /* Ignore, the step is warmed up as far as it goes */ }
+                finally
+                {
+                    evaluation.finish();
+                }
+
+                // Report the progress
+                ++done;
+                publishProgress(done);
+            }
+            finished = true;
+            StartupTrace.endPhase("warm up Symja", phase);
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... progress)
+        {
+            for(OnWarmUpProgressListener listener : new ArrayList<OnWarmUpProgressListener>(listeners))
+                listener.progress(progress[0], total);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package org.teaminfty.math_dragon.view;
+
+import org.teaminfty.math_dragon.view.math.Empty;
+import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.operation.Integral;
+import org.teaminfty.math_dragon.view.math.operation.binary.Derivative;
+
+import android.graphics.Rect;
+
+/**
+ * A flattened index of the bounding boxes in an {@link Expression} tree, used to determine where a dragged {@link Expression} is hovering over.
+ * The index stores the tree in pre-order in plain arrays that are reused between builds, so querying it doesn't allocate any memory.
+ * The {@link Empty} slots are kept sorted on their left edge, so that the slots containing a point can be found without visiting the whole tree.
+ * <p>
+ * All coordinates are relative to the coordinate system in which the root {@link Expression} is drawn.
+ * The index has to be rebuilt whenever the {@link Expression} tree or its layout changes.
+ */
+class HitTestIndex
+{
+    /** The number of nodes in the index */
+    private int nodeCount = 0;
+
+    /** The {@link Expression}s in the index, in pre-order */
+    private Expression[] nodes = new Expression[16];
+
+    /** The parents of the nodes (<tt>null</tt> for the root) */
+    private Expression[] parents = new Expression[16];
+
+    /** The child index of every node in its parent */
+    private int[] childIndices = new int[16];
+
+    /** The bounding boxes of the nodes (left, top, right and bottom for every node) */
+    private int[] boxes = new int[4 * 16];
+
+    /** For every node, the index of the first node after it that is not one of its descendants */
+    private int[] subtreeEnds = new int[16];
+
+    /** For every node, the index of its first operator bounding box in {@link HitTestIndex#operatorBoxes operatorBoxes}
+     * (contains one extra element, so that the number of operator bounding boxes of node <tt>i</tt> is <tt>operatorStarts[i + 1] - operatorStarts[i]</tt>) */
+    private int[] operatorStarts = new int[17];
+
+    /** The number of operator bounding boxes in the index */
+    private int operatorCount = 0;
+
+    /** The operator bounding boxes (left, top, right and bottom for every box) */
+    private int[] operatorBoxes = new int[4 * 16];
+
+    /** The number of {@link Empty} slots in the index */
+    private int emptyCount = 0;
+
+    /** The node indices of the {@link Empty} slots, sorted on the left edge of their bounding boxes */
+    private int[] emptySlots = new int[16];
+
+    /** The width of the widest {@link Empty} slot */
+    private int maxEmptyWidth = 0;
+
+    /** Whether or not the index is up to date */
+    private boolean valid = false;
+
+    /** The aim points of the empty children of the dragged {@link Expression} (x and y for every child) */
+    private int[] childAimPoints = new int[8];
+
+    /** Whether or not the children of the dragged {@link Expression} have an aim point */
+    private boolean[] childAimValid = new boolean[4];
+
+    /** A rectangle that is used for temporary calculations */
+    private final Rect tmpRect = new Rect();
+
+    /** The node index of the result of the last query (-1 if nothing was hit) */
+    private int hitNode = -1;
+
+    /** The source child of the result of the last query (-1 means the complete dragged {@link Expression}) */
+    private int hitSourceChild = -1;
+
+    /** Marks the index as out of date */
+    public void invalidate()
+    { valid = false; }
+
+    /** Whether or not the index is up to date
+     * @return <tt>true</tt> if the index is up to date, <tt>false</tt> otherwise */
+    public boolean isValid()
+    { return valid; }
+
+    /** Rebuilds the index for the given {@link Expression} tree
+     * @param root The root of the {@link Expression} tree */
+    public void build(Expression root)
+    {
+        // Clear the index
+        nodeCount = 0;
+        operatorCount = 0;
+        emptyCount = 0;
+        maxEmptyWidth = 0;
+
+        // Add all nodes
+        root.getBoundingBox(tmpRect);
+        addNode(root, null, 0, tmpRect.left, tmpRect.top, tmpRect.right, tmpRect.bottom);
+        operatorStarts[nodeCount] = operatorCount;
+
+        // Sort the empty slots on their left edge (insertion sort, there are only a few of them)
+        for(int i = 1; i < emptyCount; ++i)
+        {
+            final int slot = emptySlots[i];
+            int j = i - 1;
+            for(; j >= 0 && boxes[4 * emptySlots[j]] > boxes[4 * slot]; --j)
+                emptySlots[j + 1] = emptySlots[j];
+            emptySlots[j + 1] = slot;
+        }
+
+        // Clear the references to nodes that are no longer in the tree
+        for(int i = nodeCount; i < nodes.length && nodes[i] != null; ++i)
+        {
+            nodes[i] = null;
+            parents[i] = null;
+        }
+
+        // The index is now up to date
+        valid = true;
+    }
+
+    /** Adds the given {@link Expression} and all of its descendants to the index
+     * @param expr The {@link Expression} to add
+     * @param parent The parent of the {@link Expression}
+     * @param childIndex The child index of the {@link Expression} in its parent
+     * @param left The left edge of the bounding box of the {@link Expression}
+     * @param top The top edge of the bounding box of the {@link Expression}
+     * @param right The right edge of the bounding box of the {@link Expression}
+     * @param bottom The bottom edge of the bounding box of the {@link Expression} */
+    private void addNode(Expression expr, Expression parent, int childIndex, int left, int top, int right, int bottom)
+    {
+        // Make sure there's enough room
+        final int node = nodeCount++;
+        ensureNodeCapacity(nodeCount);
+
+        // Store the node
+        nodes[node] = expr;
+        parents[node] = parent;
+        childIndices[node] = childIndex;
+        boxes[4 * node] = left;
+        boxes[4 * node + 1] = top;
+        boxes[4 * node + 2] = right;
+        boxes[4 * node + 3] = bottom;
+        operatorStarts[node] = operatorCount;
+
+        if(expr instanceof Empty)
+        {
+            // Remember the empty slot
+            if(emptyCount == emptySlots.length)
+                emptySlots = grow(emptySlots, 2 * emptySlots.length);
+            emptySlots[emptyCount++] = node;
+            maxEmptyWidth = Math.max(maxEmptyWidth, right - left);
+        }
+        else
+        {
+            // Store the operator bounding boxes
+            final int count = expr.getOperatorBoundingBoxCount();
+            if(4 * (operatorCount + count) > operatorBoxes.length)
+                operatorBoxes = grow(operatorBoxes, Math.max(2 * operatorBoxes.length, 4 * (operatorCount + count)));
+            for(int i = 0; i < count; ++i)
+            {
+                expr.getOperatorBoundingBox(i, tmpRect);
+                operatorBoxes[4 * operatorCount] = tmpRect.left + left;
+                operatorBoxes[4 * operatorCount + 1] = tmpRect.top + top;
+                operatorBoxes[4 * operatorCount + 2] = tmpRect.right + left;
+                operatorBoxes[4 * operatorCount + 3] = tmpRect.bottom + top;
+                ++operatorCount;
+            }
+
+            // Add the children
+            for(int i = 0; i < expr.getChildCount(); ++i)
+            {
+                // Ignore the 'integrate over' and 'differentiate over' children
+                if((expr instanceof Integral && i == 1) || (expr instanceof Derivative && i == 1))
+                    continue;
+
+                expr.getChildBoundingBox(i, tmpRect);
+                addNode(expr.getChild(i), expr, i, tmpRect.left + left, tmpRect.top + top, tmpRect.right + left, tmpRect.bottom + top);
+            }
+        }
+
+        // All descendants have been added
+        subtreeEnds[node] = nodeCount;
+    }
+
+    /** Makes sure the node arrays can hold at least the given number of nodes
+     * @param capacity The number of nodes */
+    private void ensureNodeCapacity(int capacity)
+    {
+        if(capacity <= nodes.length)
+            return;
+
+        final int newCapacity = Math.max(2 * nodes.length, capacity);
+        Expression[] newNodes = new Expression[newCapacity];
+        System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+        nodes = newNodes;
+        Expression[] newParents = new Expression[newCapacity];
+        System.arraycopy(parents, 0, newParents, 0, parents.length);
+        parents = newParents;
+        childIndices = grow(childIndices, newCapacity);
+        boxes = grow(boxes, 4 * newCapacity);
+        subtreeEnds = grow(subtreeEnds, newCapacity);
+        operatorStarts = grow(operatorStarts, newCapacity + 1);
+    }
+
+    /** Returns a copy of the given array with the given length
+     * @param array The array to copy
+     * @param length The length of the new array
+     * @return The copy */
+    private static int[] grow(int[] array, int length)
+    {
+        int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /**
+     * Determines where the given dragged {@link Expression} is hovering over.
+     * The result can be obtained through {@link HitTestIndex#getHitNode() getHitNode()} and {@link HitTestIndex#getHitSourceChild() getHitSourceChild()}.
+     * @param dragExpr The {@link Expression} that is being dragged
+     * @param dragBoundingBox The bounding box of the dragged {@link Expression}, in the coordinate system of the index
+     * @return <tt>true</tt> if the dragged {@link Expression} is hovering over something, <tt>false</tt> otherwise
+     */
+    public boolean query(Expression dragExpr, Rect dragBoundingBox)
+    {
+        // Reset the result
+        hitNode = -1;
+        hitSourceChild = -1;
+        if(nodeCount == 0 || !intersects(boxes, 0, dragBoundingBox))
+            return false;
+
+        // The best distance (squared) we've found so far (-1 means that no hover has been found yet)
+        long dst = -1;
+
+        // The aiming point of the Expression that is being dragged (the main aiming point)
+        final int aimX = dragBoundingBox.centerX();
+        final int aimY = dragBoundingBox.centerY();
+
+        // Find the empty slots that contain the main aiming point
+        // Only slots with their left edge in [aimX - maxEmptyWidth, aimX] can contain it
+        int i = upperBound(aimX) - 1;
+        for(; i >= 0 && boxes[4 * emptySlots[i]] >= aimX - maxEmptyWidth; --i)
+        {
+            final int node = emptySlots[i];
+            if(!contains(boxes, node, aimX, aimY))
+                continue;
+
+            // Check if the distance is smaller than what we've found so far
+            final long tmpDst = distance(boxes, node, aimX, aimY);
+            if(dst == -1 || tmpDst < dst)
+            {
+                hitNode = node;
+                hitSourceChild = -1;
+                dst = tmpDst;
+            }
+        }
+
+        // Determine the aiming points of the children of the Expression that is being dragged
+        // But only if they are empty children (otherwise they aren't interesting)
+        final int childCount = dragExpr.getChildCount();
+        if(childAimValid.length < childCount)
+        {
+            childAimValid = new boolean[childCount];
+            childAimPoints = new int[2 * childCount];
+        }
+        boolean anyChildAim = false;
+        for(i = 0; i < childCount; ++i)
+        {
+            if(childAimValid[i] = dragExpr.getChild(i) instanceof Empty)
+            {
+                dragExpr.getChildBoundingBox(i, tmpRect);
+                childAimPoints[2 * i] = dragBoundingBox.left + tmpRect.centerX();
+                childAimPoints[2 * i + 1] = dragBoundingBox.top + tmpRect.centerY();
+                anyChildAim = true;
+            }
+        }
+        if(!anyChildAim)
+            return hitNode != -1;
+
+        // Walk through all nodes we intersect with, skipping the subtrees we don't intersect with
+        int node = 0;
+        while(node < nodeCount)
+        {
+            // If we don't intersect with the bounding box at all, we're not interested in the node or its descendants
+            if(!intersects(boxes, node, dragBoundingBox))
+            {
+                node = subtreeEnds[node];
+                continue;
+            }
+
+            // Determine if we're aiming at this node itself
+            for(int box = operatorStarts[node]; box < operatorStarts[node + 1]; ++box)
+            {
+                for(int child = 0; child < childCount; ++child)
+                {
+                    // If the current child has no aim point, or the aim point is not in the box, we skip
+                    if(!childAimValid[child] || !contains(operatorBoxes, box, childAimPoints[2 * child], childAimPoints[2 * child + 1]))
+                        continue;
+
+                    // Check if the distance is smaller than what we've found so far
+                    final long tmpDst = distance(operatorBoxes, box, childAimPoints[2 * child], childAimPoints[2 * child + 1]);
+                    if(dst == -1 || tmpDst < dst)
+                    {
+                        hitNode = node;
+                        hitSourceChild = child;
+                        dst = tmpDst;
+                    }
+                }
+            }
+
+            // Continue with the next node in pre-order
+            ++node;
+        }
+
+        // Return whether we've found something
+        return hitNode != -1;
+    }
+
+    /** Returns the number of empty slots whose left edge is at most the given x-coordinate
+     * @param x The x-coordinate
+     * @return The index of the first empty slot in {@link HitTestIndex#emptySlots emptySlots} whose left edge is greater than <tt>x</tt> */
+    private int upperBound(int x)
+    {
+        int lo = 0;
+        int hi = emptyCount;
+        while(lo < hi)
+        {
+            final int mid = (lo + hi) >>> 1;
+            if(boxes[4 * emptySlots[mid]] <= x)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** Whether or not the box with the given index intersects with the given rectangle */
+    private static boolean intersects(int[] array, int index, Rect r)
+    { return array[4 * index] < r.right && r.left < array[4 * index + 2] && array[4 * index + 1] < r.bottom && r.top < array[4 * index + 3]; }
+
+    /** Whether or not the box with the given index contains the given point */
+    private static boolean contains(int[] array, int index, int x, int y)
+    { return array[4 * index] < array[4 * index + 2] && array[4 * index + 1] < array[4 * index + 3] && x >= array[4 * index] && x < array[4 * index + 2] && y >= array[4 * index + 1] && y < array[4 * index + 3]; }
+
+    /** Calculates the square of the distance from the given point to the centre of the box with the given index */
+    private static long distance(int[] array, int index, int x, int y)
+    {
+        final long dx = ((array[4 * index] + array[4 * index + 2]) >> 1) - x;
+        final long dy = ((array[4 * index + 1] + array[4 * index + 3]) >> 1) - y;
+        return dx * dx + dy * dy;
+    }
+
+    /** The node index of the result of the last query (-1 if nothing was hit) */
+    public int getHitNode()
+    { return hitNode; }
+
+    /** The source child of the result of the last query (-1 means the complete dragged {@link Expression}) */
+    public int getHitSourceChild()
+    { return hitSourceChild; }
+
+    /** Returns the {@link Expression} with the given node index
+     * @param node The node index
+     * @return The {@link Expression} */
+    public Expression getNode(int node)
+    { return nodes[node]; }
+
+    /** Returns the parent of the {@link Expression} with the given node index
+     * @param node The node index
+     * @return The parent (<tt>null</tt> for the root) */
+    public Expression getParent(int node)
+    { return parents[node]; }
+
+    /** Returns the child index of the {@link Expression} with the given node index in its parent
+     * @param node The node index
+     * @return The child index */
+    public int getChildIndex(int node)
+    { return childIndices[node]; }
+}
@@ -53,6 +53,17 @@ public class MathShadow extends DragShadowBuilder
         return boundingBox;
     }
     
+    /** Calculates the bounding box of the {@link Expression} relative to the touch point, without allocating a new {@link Rect}
+     * @param out The {@link Rect} to store the bounding box in */
+    public void getExpressionBounding(Rect out)
+    {
+        // Calculate the bounding box
+        mathObject.getBoundingBox(out);
+        
+        // Translate the bounding, so that our touch point becomes the origin
+        out.offset(-out.width() / 2, -out.height() - 64);
+    }
+    
     @Override
     public void onProvideShadowMetrics(Point shadowSize, Point shadowTouchPoint)
     {
@@ -4,6 +4,7 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 
+import org.teaminfty.math_dragon.Metrics;
 import org.teaminfty.math_dragon.R;
 import org.teaminfty.math_dragon.model.ParenthesesHelper;
 import org.teaminfty.math_dragon.view.fragments.FragmentKeyboard;
@@ -62,6 +63,18 @@ public class MathView extends View
     /** The paint that's used to draw the cache */
     private Paint cachePaint = new Paint();
     
+    /** The time it takes to lay out the {@link Expression} (in microseconds) */
+    private static final Metrics.Timer layoutTimer = Metrics.timer("view.layout");
+    
+    /** The time it takes to draw the {@link Expression}, including the drawing of the cache (in microseconds) */
+    private static final Metrics.Timer drawTimer = Metrics.timer("view.draw");
+    
+    /** The number of times the {@link Expression} is drawn from the cache */
+    private static final Metrics.Counter cacheHits = Metrics.counter("view.cache_hits");
+    
+    /** The number of times the {@link Expression} has to be drawn to the cache */
+    private static final Metrics.Counter cacheMisses = Metrics.counter("view.cache_misses");
+    
     public MathView(Context context)
     {
         super(context);
@@ -134,8 +147,9 @@ public class MathView extends View
         expression.setDefaultHeight((int) expressionDefaultHeight);
         expression.setLevel(0);
         
-        // Invalidate the cache
+        // Invalidate the cache and the hit test index
         cache = null;
+        hitTestIndex.invalidate();
         
         // Redraw
         invalidate();
@@ -148,8 +162,9 @@ public class MathView extends View
         // Set the default height
         expression.setDefaultHeight((int) (expressionDefaultHeight = height));
 
-        // Invalidate the cache
+        // Invalidate the cache and the hit test index
         cache = null;
+        hitTestIndex.invalidate();
 
         // Redraw
         invalidate();
@@ -217,6 +232,9 @@ public class MathView extends View
     /** Call {@link OnEventListener#change() change()} on the current {@link OnEventListener} */
     protected void expressionChanged()
     {
+        // The structure of the expression has changed, so the hit test index has to be rebuilt
+        hitTestIndex.invalidate();
+        
         if(onEventListener != null)
             onEventListener.changed(expression);
     }
@@ -249,14 +267,23 @@ public class MathView extends View
     @Override
     protected void onDraw(Canvas canvas)
     {
+        // Recalculate the bounding boxes of the parts of the expression that have changed
+        final long layoutBegin = layoutTimer.begin();
+        expression.layout();
+        layoutTimer.end(layoutBegin);
+        
         // If the expression isn't in the cache yet, cache it
+        final long drawBegin = drawTimer.begin();
         if(cacheEnabled && (cache == null || cachedForSize != expression.getDefaultHeight()))
         {
+            cacheMisses.inc();
             Rect boundingBox = expression.getBoundingBox();
             cache = Bitmap.createBitmap(boundingBox.width(), boundingBox.height(), Bitmap.Config.ARGB_8888);
             expression.draw(new Canvas(cache));
             cachedForSize = expression.getDefaultHeight();
         }
+        else if(cacheEnabled)
+            cacheHits.inc();
         
         // Save the canvas
         canvas.save();
@@ -276,6 +303,7 @@ public class MathView extends View
         
         // Restore the canvas
         canvas.restore();
+        drawTimer.end(drawBegin);
     }
     
     /** Bounds the scrolling translation to make sure there is always a part of the current {@link Expression} visible
@@ -521,11 +549,9 @@ public class MathView extends View
         expressionDefaultHeight = getResources().getDimensionPixelSize(R.dimen.math_object_default_size);
         expression.setDefaultHeight((int) expressionDefaultHeight);
         
-        // Reset all the bounding boxes
-        expression.invalidateBoundingBoxCache();
-        
-        // Invalidate the cache
+        // Invalidate the cache and the hit test index
         cache = null;
+        hitTestIndex.invalidate();
         
         // Redraw
         invalidate();
@@ -543,9 +569,7 @@ public class MathView extends View
             expressionDefaultHeight = Math.min(getResources().getDimensionPixelSize(R.dimen.math_object_max_default_size),
                     Math.max(expressionDefaultHeight * detector.getScaleFactor(), getResources().getDimensionPixelSize(R.dimen.math_object_min_default_size)));
             expression.setDefaultHeight((int) expressionDefaultHeight);
-            
-            // Reset all the bounding boxes
-            expression.invalidateBoundingBoxCache();
+            hitTestIndex.invalidate();
             
             // Redraw
             invalidate();
@@ -589,13 +613,14 @@ public class MathView extends View
             case DragEvent.ACTION_DRAG_STARTED:
                 cacheEnabled = false;
                 cache = null;
+                hitTestIndex.invalidate();
             return true;
             
             case DragEvent.ACTION_DRAG_ENTERED:
             case DragEvent.ACTION_DRAG_LOCATION:
             {
                 // Calculate the coordinates of the top-left corner of the Expression
-                Rect dragBoundingBox = mathShadow.getExpressionBounding();
+                mathShadow.getExpressionBounding(dragBoundingBox);
                 dragBoundingBox.offset((int) event.getX(), (int) event.getY());
                 
                 // Show where we're hovering above
@@ -605,14 +630,14 @@ public class MathView extends View
             return true;
             
             case DragEvent.ACTION_DRAG_EXITED:
-                setHoverState(expression, HoverState.NONE);
+                clearHover();
                 invalidate();
             return true;
             
             case DragEvent.ACTION_DROP:
             {
                 // Calculate the coordinates of the top-left corner of the Expression
-                Rect dragBoundingBox = mathShadow.getExpressionBounding();
+                mathShadow.getExpressionBounding(dragBoundingBox);
                 dragBoundingBox.offset((int) event.getX(), (int) event.getY());
                 
                 // Show where we're hovering above
@@ -660,14 +685,29 @@ public class MathView extends View
         public int childIndex = 0;
     }
 
-    /** Calculates the square of the distance from the given point to the centre of the given rectangle
-     * @param p The point
-     * @param r The rectangle
-     * @return The square of the distance from the given point to the centre of the given rectangle
-     */
-    private int getDst(Point p, Rect r)
+    /** The index that is used to determine where a dragged {@link Expression} is hovering over */
+    private final HitTestIndex hitTestIndex = new HitTestIndex();
+    
+    /** The {@link Expression} that is currently in the {@link HoverState#HOVER HOVER} state (<tt>null</tt> if there is none) */
+    private Expression hoveredExpression = null;
+    
+    /** The bounding box of the {@link Expression} that is being dragged (reused for every drag event) */
+    private final Rect dragBoundingBox = new Rect();
+    
+    /** The bounding box of the current {@link Expression} (reused for every drag event) */
+    private final Rect hoverBoundingBox = new Rect();
+    
+    /** Resets the state of the {@link Expression} we're hovering over (if any) */
+    private void clearHover()
     {
-        return (r.centerX() - p.x) * (r.centerX() - p.x) + (r.centerY() - p.y) * (r.centerY() - p.y);
+        if(hoveredExpression != null)
+        {
+            hoveredExpression.setState(HoverState.NONE);
+            hoveredExpression = null;
+            
+            // Invalidate the cache
+            cache = null;
+        }
     }
     
     /** Reorders the expression tree so that the {@link Expression} in <tt>info.expression</tt> becomes free.
@@ -746,174 +786,93 @@ public class MathView extends View
      */
     private void respondToDrag(Expression dragExpr, Rect dragBoundingBox, boolean dropped)
     {
-        // Reset the state of the current Expression and all of its descendants
-        setHoverState(expression, HoverState.NONE);
-        
-        // The aiming point of the Expression that is being dragged (the main aiming point)
-        Point aimPoint = new Point(dragBoundingBox.centerX(), dragBoundingBox.centerY());
-        
-        // Determine the aiming points of the children of the Expression that is being dragged
-        // But only if they are empty children (otherwise they aren't interesting, so we set their aiming points to null)
-        Point[] childAimPoints = new Point[dragExpr.getChildCount()];
-        for(int i = 0; i < childAimPoints.length; ++i)
-        {
-            if(dragExpr.getChild(i) instanceof Empty)
-            {
-                Rect rect = dragExpr.getChildBoundingBox(i);
-                childAimPoints[i] = new Point(dragBoundingBox.left + rect.centerX(), dragBoundingBox.top + rect.centerY());
-            }
-            else
-                childAimPoints[i] = null;
-        }
+        // Reset the state of the Expression we were hovering over
+        clearHover();
         
         // Determine how the canvas will be translated when drawing the current Expression
-        Rect boundingBox = expression.getBoundingBox();
-        boundingBox.offset(scrollTranslate.x, scrollTranslate.y);
-        boundingBox.offset((getWidth() - boundingBox.width()) / 2, (getHeight() - boundingBox.height()) / 2);
+        expression.getBoundingBox(hoverBoundingBox);
+        final int translateX = scrollTranslate.x + (getWidth() - hoverBoundingBox.width()) / 2;
+        final int translateY = scrollTranslate.y + (getHeight() - hoverBoundingBox.height()) / 2;
         
         // Some variables that will keep track of where we're hovering above
         int sourceChild = -1;                   // The source child that's causing the hover (-1 means the complete expression)
-        int dst = -1;                           // The best distance (squared) we've found so far (-1 means that no hover has been found yet)
-        HoverInformation currHover = null;      // The hover information of the Expression we're currently hovering over
+        Expression hoverExpr = null;            // The Expression we're currently hovering over
+        Expression hoverParent = null;          // The parent of the Expression we're hovering over
+        int hoverChildIndex = 0;                // The child index of the Expression we're hovering over
         
         // If we've only one empty box, the drag and drop should always succeed
         if(expression instanceof Empty)
-            currHover = new HoverInformation(expression, boundingBox, null, 0);
+            hoverExpr = expression;
         else
         {
-            // If we don't intersect with the bounding box at all, we can stop here
-            if(!Rect.intersects(dragBoundingBox, boundingBox))
-                return;
-            
-            // Keep track of which objects still need to be checked
-            ArrayDeque<HoverInformation> queue = new ArrayDeque<HoverInformation>();
-            queue.addLast(new HoverInformation(expression, boundingBox, null, 0));
-            
-            // Keep going until the queue is empty
-            while(!queue.isEmpty())
+            // Make sure the hit test index is up to date
+            if(!hitTestIndex.isValid())
             {
-                // Pop off an element of the queue
-                HoverInformation info = queue.pollFirst();
-                
-                // If the Expression is Empty, we check the distance to the main aiming point
-                if(info.expression instanceof Empty)
-                {
-                    // If the aim point is not in the rectangle at all, we've nothing to do
-                    if(!info.boundingBox.contains(aimPoint.x, aimPoint.y))
-                        continue;
-                    
-                    // Check if the distance is smaller than what we've found so far
-                    final int tmpDst = getDst(aimPoint, info.boundingBox);
-                    if(dst == -1 || tmpDst < dst)
-                    {
-                        sourceChild = -1;
-                        dst = tmpDst;
-                        currHover = info;
-                    }
-                }
-                else
-                {
-                    // Determine if we're aiming at this object itself
-                    Rect[] operatorBounds = info.expression.getOperatorBoundingBoxes();
-                    for(Rect rect : operatorBounds)
-                        rect.offset(info.boundingBox.left, info.boundingBox.top);
-                    for(int i = 0; i < childAimPoints.length; ++i)
-                    {
-                        // If the current child has no aim point, we skip
-                        if(childAimPoints[i] == null) continue;
-                        
-                        // Determine the distance to the centre of every operator bounding box
-                        for(Rect rect : operatorBounds)
-                        {
-                            // If the aim point is not in the rectangle at all, we've nothing to do
-                            if(!rect.contains(childAimPoints[i].x, childAimPoints[i].y))
-                                continue;
-                            
-                            // Check if the distance is smaller than what we've found so far
-                            final int tmpDst = getDst(childAimPoints[i], rect);
-                            if(dst == -1 || tmpDst < dst)
-                            {
-                                sourceChild = i;
-                                dst = tmpDst;
-                                currHover = info;
-                            }
-                        }
-                    }
-                    
-                    // Add the children we intersect with to the queue
-                    for(int i = 0; i < info.expression.getChildCount(); ++i)
-                    {
-                        // Ignore the 'integrate over' and 'differentiate over' children
-                        if((info.expression instanceof Integral && i == 1) || (info.expression instanceof Derivative && i == 1))
-                            continue;
-                        
-                        // Get the bounding box for the child
-                        Rect childBoundingBox = info.expression.getChildBoundingBox(i);
-                        childBoundingBox.offset(info.boundingBox.left, info.boundingBox.top);
-                        
-                        // If we don't intersect with the bounding box at all, we're not interested
-                        if(!Rect.intersects(dragBoundingBox, childBoundingBox))
-                            continue;
-                        
-                        // Add the child to the queue
-                        queue.addLast(new HoverInformation(info.expression.getChild(i), childBoundingBox, info.expression, i));
-                    }
-                }
+                expression.layout();
+                hitTestIndex.build(expression);
             }
+            
+            // Query the index in the coordinate system of the current Expression
+            dragBoundingBox.offset(-translateX, -translateY);
+            final boolean hit = hitTestIndex.query(dragExpr, dragBoundingBox);
+            dragBoundingBox.offset(translateX, translateY);
+            if(!hit)
+                return;
+            
+            final int node = hitTestIndex.getHitNode();
+            sourceChild = hitTestIndex.getHitSourceChild();
+            hoverExpr = hitTestIndex.getNode(node);
+            hoverParent = hitTestIndex.getParent(node);
+            hoverChildIndex = hitTestIndex.getChildIndex(node);
         }
         
-        // If we've found a Expression we're hovering over, do the right thing with it
-        if(currHover != null)
+        // Do the right thing with the Expression we're hovering over
+        // If we're not dropping, just light up the part we're hovering over
+        // Otherwise we insert the Expression that's being dragged at the right point in current Expression
+        if(!dropped)
         {
-            // If we're not dropping, just light up the part we're hovering over
-            // Otherwise we insert the Expression that's being dragged at the right point in current Expression
-            if(!dropped)
-            {
-                currHover.expression.setState(HoverState.HOVER);
-                
-                // Invalidate the cache
-                cache = null;
-            }
-            else
+            (hoveredExpression = hoverExpr).setState(HoverState.HOVER);
+            
+            // Invalidate the cache
+            cache = null;
+        }
+        else
+        {
+            // Determine whether or not we're dropping the whole thing in an empty box
+            if(sourceChild == -1)
             {
-                // Determine whether or not we're dropping the whole thing in an empty box
-                if(sourceChild == -1)
-                {
-                    if(currHover.parent == null)
-                        setExpressionHelper(dragExpr);
-                    else
-                    {
-                        currHover.parent.setChild(currHover.childIndex, dragExpr);
-                        ParenthesesHelper.setParentheses(expression);
-                    }
-                }
+                if(hoverParent == null)
+                    setExpressionHelper(dragExpr);
                 else
                 {
-                    // In case the target is a linear binary operation, we only want the operands directly next to it
-                    // So we rearrange the Expression tree to make that happen
-                    freeExpression(currHover);
-                    
-                    // Insert the Expression into to Expression tree
-                    dragExpr.setChild(sourceChild, currHover.expression);
-                    if(currHover.parent == null)
-                        setExpressionHelper(dragExpr);
-                    else
-                        currHover.parent.setChild(currHover.childIndex, dragExpr);
+                    hoverParent.setChild(hoverChildIndex, dragExpr);
                     ParenthesesHelper.setParentheses(expression);
                 }
+            }
+            else
+            {
+                // In case the target is a linear binary operation, we only want the operands directly next to it
+                // So we rearrange the Expression tree to make that happen
+                HoverInformation currHover = new HoverInformation(hoverExpr, null, hoverParent, hoverChildIndex);
+                freeExpression(currHover);
                 
-                // Make sure the Expression and all of its descendants have the right state
-                setHoverState(expression, HoverState.NONE);
-                
-                // Make sure every Expression has the right level
-                expression.setLevel(0);
-                
-                // Notify the listener of the change
-                expressionChanged();
-                
-                // Invalidate all bounding boxes of all expressions
-                expression.invalidateBoundingBoxCache();
+                // Insert the Expression into to Expression tree
+                dragExpr.setChild(sourceChild, currHover.expression);
+                if(currHover.parent == null)
+                    setExpressionHelper(dragExpr);
+                else
+                    currHover.parent.setChild(currHover.childIndex, dragExpr);
+                ParenthesesHelper.setParentheses(expression);
             }
+            
+            // Make sure the Expression and all of its descendants have the right state
+            setHoverState(expression, HoverState.NONE);
+            
+            // Make sure every Expression has the right level
+            expression.setLevel(0);
+            
+            // Notify the listener of the change
+            expressionChanged();
         }
     }
     
@@ -1025,9 +984,6 @@ public class MathView extends View
                 {
                     expressionInfo.parent.setChild(expressionInfo.childIndex, input);
                     expression = ParenthesesHelper.setParentheses(expression);
-                    
-                    // Invalidate the cache
-                    expression.invalidateBoundingBoxCache();
                 }
             }
             
@@ -1111,9 +1067,6 @@ public class MathView extends View
             {
                 info.parent.setChild(info.childIndex, null);
                 ParenthesesHelper.setParentheses(expression);
-                
-                // Invalidate the cache
-                expression.invalidateBoundingBoxCache();
             }
 
             // Invalidate cache and redraw
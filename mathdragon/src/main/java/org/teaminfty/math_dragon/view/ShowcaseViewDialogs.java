@@ -80,12 +80,11 @@ public class ShowcaseViewDialogs
      */
     public void show()
     {
-        Database db = new Database(tutorial.getActivity());
+        Database db = Database.getInstance(tutorial.getActivity());
         if (db.getTutorialState(tutorial.getTutorialId()).tutInProg == false)
         {
-            db.close(); return;
+            return;
         }
-        db.close();
         if(!(dialogs.size() > 0)) 
         {
             if(onShowcaseAcknowledged != null) onShowcaseAcknowledged.acknowledge(); 
@@ -103,11 +102,10 @@ public class ShowcaseViewDialogs
             {
                 if (onShowcaseAcknowledged != null) onShowcaseAcknowledged.acknowledge();    
                 
-                Database db = new Database(tutorial.getActivity());
+                Database db = Database.getInstance(tutorial.getActivity());
                 Database.TutorialState state = db.getTutorialState(tutorial.getTutorialId());
                 state.tutInProg = false;
                 db.saveTutorialState(state);
-                db.close();
             }
             
             @Override
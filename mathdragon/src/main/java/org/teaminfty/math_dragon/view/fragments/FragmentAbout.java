@@ -14,6 +14,8 @@ import android.view.WindowManager;
 
 public class FragmentAbout extends DialogFragment
 {
+    /** The tag of the hidden {@link FragmentMetrics} dialog */
+    public static final String METRICS_TAG = "metrics";
     
     private View.OnClickListener listener;
 
@@ -35,6 +37,9 @@ public class FragmentAbout extends DialogFragment
         if(listener != null)
             view.findViewById(R.id.btn_start_tutorial).setOnClickListener(listener);
         
+        // Long clicking the version opens the (hidden) metrics screen
+        view.findViewById(R.id.text_version).setOnLongClickListener(new OnVersionLongClicked());
+        
         // Return the content view
         return view;
     }
@@ -86,4 +91,17 @@ public class FragmentAbout extends DialogFragment
             dismiss();
         }
     }
+    
+    /** Listens for long click events of the version, which open the metrics screen */
+    private class OnVersionLongClicked implements View.OnLongClickListener
+    {
+        @Override
+        public boolean onLongClick(View v)
+        {
+            // If the metrics screen is already shown, there's nothing to do
+            if(getFragmentManager().findFragmentByTag(METRICS_TAG) == null)
+                new FragmentMetrics().show(getFragmentManager(), METRICS_TAG);
+            return true;
+        }
+    }
 }
@@ -1,6 +1,17 @@
 package org.teaminfty.math_dragon.view.fragments;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
@@ -11,23 +22,33 @@ import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
-import org.matheclipse.core.eval.EvalEngine;
 import org.matheclipse.core.expression.F;
 import org.matheclipse.core.interfaces.IExpr;
+import org.teaminfty.math_dragon.Metrics;
 import org.teaminfty.math_dragon.R;
+import org.teaminfty.math_dragon.exceptions.EvaluationStoppedException;
 import org.teaminfty.math_dragon.exceptions.MathException;
 import org.teaminfty.math_dragon.exceptions.ParseException;
 import org.teaminfty.math_dragon.exceptions.TooBigValueException;
+import org.teaminfty.math_dragon.model.AppSettings;
+import org.teaminfty.math_dragon.model.BudgetedEvaluation;
+import org.teaminfty.math_dragon.model.Database;
 import org.teaminfty.math_dragon.model.EvalHelper;
+import org.teaminfty.math_dragon.model.EvaluationContext;
 import org.teaminfty.math_dragon.model.ExpressionBeautifier;
 import org.teaminfty.math_dragon.model.ModelHelper;
 import org.teaminfty.math_dragon.model.ParenthesesHelper;
 import org.teaminfty.math_dragon.view.MathView;
 import org.teaminfty.math_dragon.view.math.Expression;
+import org.teaminfty.math_dragon.view.math.ExpressionDuplicator;
 import org.teaminfty.math_dragon.view.math.ExpressionXMLReader;
+import org.teaminfty.math_dragon.view.math.operation.Negate;
+import org.teaminfty.math_dragon.view.math.operation.binary.Add;
+import org.teaminfty.math_dragon.view.math.operation.binary.Subtract;
 import org.w3c.dom.Document;
 
 import android.app.DialogFragment;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.res.Configuration;
 import android.os.AsyncTask;
@@ -48,30 +69,46 @@ public class FragmentEvaluation extends DialogFragment
     /** The {@link MathView} in this fragment */
     private MathView mathView = null;
     
-    /** The {@link Expression} to show when the {@link MathView} is created */
-    private Expression showExpression = null;
-    
     /** The evaluation type, <tt>true</tt> if an exact evaluation is shown, <tt>false</tt> for an approximation */
     private boolean exactEvaluation = true;
 
     
-    /** The current evaluator (or <tt>null</tt> if there is none) */
-    private Evaluator evaluator = null;
+    /** The context that is used to access the results database */
+    private Context context = null;
+    
+    /** The evaluator that evaluates exactly (or <tt>null</tt> if there is none) */
+    private Evaluator exactEvaluator = null;
+    
+    /** The evaluator that approximates (or <tt>null</tt> if there is none) */
+    private Evaluator approxEvaluator = null;
+    
+    /** The context the expression is evaluated in (i.e. the substitutions that are made) */
+    private EvaluationContext evalContext = EvaluationContext.NO_SUBSTITUTIONS;
+    
+    /** The number of threads that evaluate the terms of a sum, the terms are split in at most this many groups */
+    private static final int TERM_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    
+    /** The threads that evaluate the terms of a sum.
+     * This is a separate pool because the evaluators wait for their terms, which could use up all threads of the {@link AsyncTask} pool. */
+    private static final ExecutorService termExecutor = Executors.newFixedThreadPool(TERM_THREADS);
+    
+    /** The minimum time (in milliseconds) between two partial answers, since showing a partial answer lays out the whole answer */
+    private static final long PARTIAL_ANSWER_INTERVAL = 100;
     
-    /** The timer to timeout the evaluator (or <tt>null</tt> if there is none) */
-    private Handler timerHandler = null;
+    /** The alpha of a partial answer, to show that it's not the final answer */
+    private static final float PARTIAL_ANSWER_ALPHA = 0.5f;
     
-    /** Whether or not the timer is cancelled */
-    private boolean timerCancelled = false;
+    /** The time it takes to convert an {@link Expression} to Symja (in microseconds) */
+    private static final Metrics.Timer conversionTimer = Metrics.timer("evaluation.conversion");
     
-    /** Whether or not we were unable to evaluate the expression */
-    private boolean unableToEval = false;
+    /** The time Symja takes to evaluate or approximate an expression (in microseconds) */
+    private static final Metrics.Timer symjaTimer = Metrics.timer("evaluation.symja");
     
-    /** The ID of the message to the user when we're unable to evaluate an expression */
-    private int unableToEvalMsgId = R.string.unable_to_eval;
+    /** The number of evaluations that used up their time budget */
+    private static final Metrics.Counter timeouts = Metrics.counter("evaluation.timeouts");
     
-    /** Whether or not variables have been substituted */
-    private boolean varsSubstituted = false;
+    /** The number of Symja results that couldn't be converted back to an {@link Expression} */
+    private static final Metrics.Counter parseErrors = Metrics.counter("evaluation.parse_errors");
     
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState)
@@ -90,13 +127,7 @@ public class FragmentEvaluation extends DialogFragment
             mathView.setDefaultHeight(savedInstanceState.getInt(BUNDLE_MATH_VIEW_DEFAULT_HEIGHT));
         else
             mathView.setDefaultHeight(getResources().getDimensionPixelSize(R.dimen.math_object_eval_default_size));
-        if(showExpression != null)
-        {
-            mathView.setExpression(showExpression);
-            view.findViewById(R.id.progressBar).setVisibility(View.GONE);
-            view.findViewById(R.id.mathView).setVisibility(View.VISIBLE);
-        }
-        else if(savedInstanceState != null && savedInstanceState.getString(BUNDLE_MATH_EXPRESSION) != null)
+        if(getEvaluator() == null && savedInstanceState != null && savedInstanceState.getString(BUNDLE_MATH_EXPRESSION) != null)
         {
             try
             {
@@ -115,21 +146,14 @@ public class FragmentEvaluation extends DialogFragment
         // The close button
         ((ImageButton) view.findViewById(R.id.btn_close)).setOnClickListener(new OnCloseBtnClickListener());
         
-        // The title
+        // The title, which switches between the exact evaluation and the approximation when it's clicked
         ((TextView) view.findViewById(R.id.textViewEvalType)).setText(exactEvaluation ? R.string.evaluate_exact : R.string.evaluate_approximate);
-        if(savedInstanceState != null && savedInstanceState.getString(BUNDLE_TITLE) != null)
+        if(getEvaluator() == null && savedInstanceState != null && savedInstanceState.getString(BUNDLE_TITLE) != null)
             ((TextView) view.findViewById(R.id.textViewEvalType)).setText(savedInstanceState.getString(BUNDLE_TITLE));
+        view.findViewById(R.id.textViewEvalType).setOnClickListener(new OnEvalTypeClickListener());
 
-        // If an error occurred, show the error
-        if(unableToEval)
-        {
-            ((TextView) view.findViewById(R.id.text_unable_to_eval)).setText(unableToEvalMsgId);
-            view.findViewById(R.id.progressBar).setVisibility(View.GONE);
-            view.findViewById(R.id.unableToEvalLayout).setVisibility(View.VISIBLE);
-        }
-        
-        // Show a warning iff variables have been substituted
-        view.findViewById(R.id.text_warning_substitutions_used).setVisibility(varsSubstituted ? View.VISIBLE : View.GONE);
+        // Show the state of the evaluation
+        showEvaluation(view);
         
         // Return the content view
         return view;
@@ -182,18 +206,47 @@ public class FragmentEvaluation extends DialogFragment
         }
     }
     
-    /** Sets the {@link Expression} that is to be shown
-     * @param expr The {@link Expression} that is to be shown */
-    public void showExpression(Expression expr)
+    /** Returns the evaluator of the evaluation type that is shown
+     * @return The evaluator, or <tt>null</tt> if there is none */
+    private Evaluator getEvaluator()
+    { return exactEvaluation ? exactEvaluator : approxEvaluator; }
+    
+    /** Shows the state of the evaluator of the evaluation type that is shown (i.e. its progress, its result or its error)
+     * @param view The content view of this fragment (may be <tt>null</tt>) */
+    private void showEvaluation(View view)
     {
-    	if(mathView == null)
-    	    showExpression = expr;
-    	else
-    	{
-    	    mathView.setExpression(expr);
-            getView().findViewById(R.id.progressBar).setVisibility(View.GONE);
-    	    getView().findViewById(R.id.mathView).setVisibility(View.VISIBLE);
-    	}
+        // If there is no view or no evaluator, there is nothing to show
+        Evaluator evaluator = getEvaluator();
+        if(view == null || evaluator == null)
+            return;
+        
+        // Show the progress bar, the result or the error
+        ((TextView) view.findViewById(R.id.textViewEvalType)).setText(exactEvaluation ? R.string.evaluate_exact : R.string.evaluate_approximate);
+        view.findViewById(R.id.progressBar).setVisibility(evaluator.finished ? View.GONE : View.VISIBLE);
+        if(evaluator.result != null)
+        {
+            mathView.setExpression(evaluator.result);
+            mathView.setAlpha(1.0f);
+            view.findViewById(R.id.mathView).setVisibility(View.VISIBLE);
+        }
+        else if(evaluator.partialResult != null && !evaluator.finished)
+        {
+            mathView.setExpression(evaluator.partialResult);
+            mathView.setAlpha(PARTIAL_ANSWER_ALPHA);
+            view.findViewById(R.id.mathView).setVisibility(View.VISIBLE);
+        }
+        else
+            view.findViewById(R.id.mathView).setVisibility(View.GONE);
+        if(evaluator.unableToEval)
+        {
+            ((TextView) view.findViewById(R.id.text_unable_to_eval)).setText(evaluator.unableToEvalMsgId);
+            view.findViewById(R.id.unableToEvalLayout).setVisibility(View.VISIBLE);
+        }
+        else
+            view.findViewById(R.id.unableToEvalLayout).setVisibility(View.GONE);
+        
+        // Show a warning iff variables have been substituted
+        view.findViewById(R.id.text_warning_substitutions_used).setVisibility(evaluator.varsSubstituted ? View.VISIBLE : View.GONE);
     }
 
     /** Sets whether an approximation or exact evaluation is shown.
@@ -202,18 +255,22 @@ public class FragmentEvaluation extends DialogFragment
     public void setEvalType(boolean exact)
     { exactEvaluation = exact; }
     
-    /** Evaluates the given expression
-     * @param expr The expression to evaluate */
-    public void evaluate(Expression expr)
+    /** Evaluates the given expression.
+     * The exact evaluation and the approximation are calculated at the same time, each is shown as soon as it's finished.
+     * @param ctx The context that is used to look up and store results
+     * @param expr The expression to evaluate
+     * @param evalCtx The context to evaluate the expression in */
+    public void evaluate(Context ctx, Expression expr, EvaluationContext evalCtx)
     {
-        // Start the evaluator
-        evaluator = new Evaluator();
-        evaluator.execute(expr);
-        
-        // Set and start the timer
-        timerCancelled = false;
-        timerHandler = new Handler();
-        timerHandler.postDelayed(new EvaluatorTimeout(), 5000);
+        // Remember the contexts
+        context = ctx.getApplicationContext();
+        evalContext = evalCtx;
+        
+        // Start the evaluators
+        exactEvaluator = new Evaluator(true);
+        approxEvaluator = new Evaluator(false);
+        exactEvaluator.start(expr);
+        approxEvaluator.start(expr);
     }
 
     @Override
@@ -248,14 +305,10 @@ public class FragmentEvaluation extends DialogFragment
     public void onDismiss(DialogInterface dialog)
     {
         mathView = null;
-        if(evaluator != null)
-        {
-            timerCancelled = true;
-            synchronized(evaluator)
-            {
-                evaluator.cancel(true);
-            }
-        }
+        if(exactEvaluator != null)
+            exactEvaluator.stop();
+        if(approxEvaluator != null)
+            approxEvaluator.stop();
     }
     
     private class OnCloseBtnClickListener implements View.OnClickListener
@@ -265,147 +318,574 @@ public class FragmentEvaluation extends DialogFragment
         { dismiss(); }
     }
     
-    /** Runnable that is executed when the evaluation times out */
+    /** Switches between the exact evaluation and the approximation */
+    private class OnEvalTypeClickListener implements View.OnClickListener
+    {
+        @Override
+        public void onClick(View title)
+        {
+            // We can only switch if both evaluations have been started
+            if(exactEvaluator == null || approxEvaluator == null)
+                return;
+            
+            exactEvaluation = !exactEvaluation;
+            showEvaluation(getView());
+        }
+    }
+    
+    /** Runnable that is executed when an evaluation times out */
     private class EvaluatorTimeout implements Runnable
     {
+        /** The evaluator that times out */
+        private final Evaluator evaluator;
+        
+        /** Constructor
+         * @param evaluator The evaluator that times out */
+        public EvaluatorTimeout(Evaluator evaluator)
+        { this.evaluator = evaluator; }
+        
         @Override
         public void run()
         {
             // Check before synchronising if the timer was cancelled
             // because we may have cancelled it from our ui thread
-            if(timerCancelled) return;
+            if(evaluator.timerCancelled) return;
             
-            synchronized(timerHandler)
+            synchronized(evaluator.timerHandler)
             {
                 // Check after synchronising if the timer was cancelled
                 // because we may have cancelled it from the evaluation thread
-                if(timerCancelled) return;
+                if(evaluator.timerCancelled) return;
                 
-                // Cancel the evaluator (interrupt)
+                // Stop the evaluator
+                evaluator.evaluation.stop();
                 evaluator.cancel(true);
                 
                 // Show that we were unable to evaluate the expression
-                unableToEval = true;
-                unableToEvalMsgId = R.string.unable_to_eval_timeout;
-                if(getView() != null)
-                {
-                    ((TextView) getView().findViewById(R.id.text_unable_to_eval)).setText(unableToEvalMsgId);
-                    getView().findViewById(R.id.progressBar).setVisibility(View.GONE);
-                    getView().findViewById(R.id.unableToEvalLayout).setVisibility(View.VISIBLE);
-                }
+                evaluator.finished = true;
+                evaluator.unableToEval = true;
+                evaluator.unableToEvalMsgId = R.string.unable_to_eval_timeout;
+                if(evaluator == getEvaluator())
+                    showEvaluation(getView());
             }
         }
     }
 
-    /** Class that evaluates the expression in a separate thread */
-    private class Evaluator extends AsyncTask<Expression, Void, Expression>
+    /** The answer to (a part of) an evaluation */
+    private static class Answer
+    {
+        /** The answer as Symja expression */
+        public final IExpr value;
+        /** The answer as {@link Expression} that can be shown */
+        public final Expression expr;
+        /** Whether or not variables have been substituted */
+        public final boolean substitutionsMade;
+        
+        public Answer(IExpr value, Expression expr, boolean substitutionsMade)
+        {
+            this.value = value;
+            this.expr = expr;
+            this.substitutionsMade = substitutionsMade;
+        }
+    }
+
+    /** A term of a sum, i.e. an operand of the sums and differences at the top of an expression */
+    private static class Term
+    {
+        /** The term itself */
+        public final Expression expr;
+        /** Whether or not the term is subtracted */
+        public final boolean negative;
+        
+        public Term(Expression expr, boolean negative)
+        {
+            this.expr = expr;
+            this.negative = negative;
+        }
+    }
+
+    /** Class that evaluates the expression in a separate thread, either exactly or approximately.
+     * The terms of a sum are evaluated in parallel, the partial answer is published every time a term is finished. */
+    private class Evaluator extends AsyncTask<Expression, Expression, Expression>
     {
+        /** Whether this evaluator evaluates exactly (<tt>true</tt>) or approximates (<tt>false</tt>) */
+        private final boolean exact;
+        
+        /** The timer to timeout this evaluator */
+        private final Handler timerHandler = new Handler();
+        
+        /** Whether or not the timer is cancelled */
+        private boolean timerCancelled = false;
+        
+        /** The evaluation, which stops when its time budget is used up */
+        private BudgetedEvaluation evaluation = null;
+        
+        /** Whether or not the evaluation has finished (successfully or not) */
+        private boolean finished = false;
+        
+        /** The result of the evaluation (or <tt>null</tt> if there is none (yet)) */
+        private Expression result = null;
+        
+        /** The partial result of the evaluation (or <tt>null</tt> if there is none (yet)) */
+        private Expression partialResult = null;
+        
+        /** Whether or not we were unable to evaluate the expression */
+        private boolean unableToEval = false;
+        
+        /** The ID of the message to the user when we're unable to evaluate an expression */
+        private int unableToEvalMsgId = R.string.unable_to_eval;
+        
+        /** Whether or not variables have been substituted */
+        private boolean varsSubstituted = false;
+        
+        /** Constructor
+         * @param exact <tt>true</tt> to evaluate exactly, <tt>false</tt> to approximate */
+        public Evaluator(boolean exact)
+        { this.exact = exact; }
+        
+        /** Starts evaluating the given expression on the thread pool (so that it runs in parallel with other evaluators) and starts the timer.
+         * The time budget of the evaluation depends on the complexity of the expression.
+         * @param expr The expression to evaluate */
+        public void start(Expression expr)
+        {
+            evaluation = new BudgetedEvaluation(BudgetedEvaluation.getTimeBudget(AppSettings.getEvaluationTimeBudget(context), expr));
+            executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, expr);
+            timerHandler.postDelayed(new EvaluatorTimeout(this), evaluation.getTimeBudget());
+        }
+        
+        /** Stops the evaluation and its timer */
+        public void stop()
+        {
+            cancelTimer();
+            evaluation.stop();
+            cancel(true);
+        }
+        
+        /** Cancels the timer */
+        private void cancelTimer()
+        {
+            synchronized(timerHandler)
+            {
+                timerCancelled = true;
+            }
+        }
+        
         @Override
         protected Expression doInBackground(Expression... args)
         {
-            synchronized(evaluator)
+            if(!isCancelled())
             {
-                if(!isCancelled())
+                try
                 {
-                    try
-                    {
-                        // We always evaluate the answer exactly first (without substitutions)
-                        EvalHelper.substitute = false;
-                        EvalHelper.substitutionsMade = false;
-                        IExpr result = EvalEngine.eval(EvalHelper.eval(args[0]));
-                        
-                        // Now we calculate the answer (with substitutions, if there are any)
-                        if(EvalHelper.substitutions != null && EvalHelper.substitutions.length != 0)
-                        {
-                            Expression resultExpr = ModelHelper.toExpression(result);
-                            EvalHelper.substitute = true;
-                            if(exactEvaluation)
-                                result = EvalEngine.eval(EvalHelper.eval(resultExpr));
-                            else
-                                result = F.evaln(EvalHelper.eval(resultExpr));
-                                
-                        }
-                        // We still might need to approximate the answer
-                        else if(!exactEvaluation)
-                            result = F.evaln(result);
-                        
-                        // Note that we always approximate after exact evaluation because for some reason
-                        // integrals like integrate(x*sin(x), {x, 0, pi}) wouldn't work in approximation mode otherwise
-                        
-                        // Parse the expression, beautify it and place parentheses
-                        Expression resultExpr = ParenthesesHelper.setParentheses(ExpressionBeautifier.parse(ModelHelper.toExpression(result)));
-                        
-                        // Cancel the timer
-                        synchronized(timerHandler)
-                        {
-                            timerCancelled = true;
-                        }
-                        
-                        // Remember whether or not substitutions have been made
-                        varsSubstituted = EvalHelper.substitutionsMade;
-                        
-                        // Return the result
-                        return resultExpr;
-                    }
-                    catch(TooBigValueException e)
+                    // Start the evaluation on this thread
+                    evaluation.start();
+                    
+                    // Determine the canonical form of the input, which includes the substituted input if substitutions are made
+                    IExpr input = convert(args[0]);
+                    String canonicalInput = input.toString();
+                    EvalHelper.Conversion substitutedInput = null;
+                    if(evalContext.hasSubstitutions())
                     {
-                        unableToEval = true;
-                        unableToEvalMsgId = e.valTooBig ? R.string.unable_to_eval_too_big : R.string.unable_to_eval_too_small;
+                        substitutedInput = convertSubstituted(args[0]);
+                        if(substitutedInput.substitutionsMade)
+                            canonicalInput += " /. " + substitutedInput.value.toString();
                     }
-                    catch(MathException e)
+                    
+                    // Check if we've evaluated the same input before
+                    evaluation.checkpoint();
+                    Database db = Database.getInstance(context);
+                    Database.Result stored = db.getResult(canonicalInput);
+                    Expression storedExpr = stored == null ? null : (exact ? stored.exact : stored.approximate);
+                    if(storedExpr != null)
                     {
-                        // Apparently we were unable to correctly parse the calculation
-                        unableToEval = true;
-                        unableToEvalMsgId = R.string.unable_to_eval;
-                        e.printStackTrace();
-                    }
-                    catch(RuntimeException e)
-                    {
-                        // This occurs for impossible to solve expression (e.g. integrate(x^x, x))
-                        unableToEval = true;
-                        unableToEvalMsgId = R.string.unable_to_eval;
+                        // Cancel the timer
+                        cancelTimer();
+                        
+                        // Return the stored result
+                        varsSubstituted = stored.substituted;
+                        return storedExpr;
                     }
-                    catch(StackOverflowError e)
+                    
+                    // Evaluate the expression (the terms of a sum are evaluated separately, so we can show them as soon as they're ready)
+                    List<Term> terms = collectTerms(args[0]);
+                    Answer answer = terms.size() > 1 ? evaluateTerms(terms) : evaluate(input, substitutedInput);
+                    Expression resultExpr = answer.expr;
+                    boolean substitutionsMade = answer.substitutionsMade;
+                    
+                    // Cancel the timer
+                    // A result that went over its budget is kept, the timer and the checkpoints during the evaluation stop it on time
+                    // If the timer has fired already, the timeout is shown and the result is only stored
+                    cancelTimer();
+                    
+                    // Remember whether or not substitutions have been made
+                    varsSubstituted = substitutionsMade;
+                    
+                    // Store the result so we won't have to evaluate the same input again
+                    db.saveResult(canonicalInput, exact, resultExpr, varsSubstituted);
+                    
+                    // Return the result
+                    return resultExpr;
+                }
+                catch(EvaluationStoppedException e)
+                {
+                    // The evaluation used up its time budget (or was stopped, in which case the timer has been cancelled)
+                    synchronized(timerHandler)
                     {
-                        // This occurs for impossible to solve expression (e.g. integrate(x*(x*x)^x, x))
-                        unableToEval = true;
-                        unableToEvalMsgId = R.string.unable_to_eval;
+                        if(!timerCancelled)
+                            timeouts.inc();
                     }
+                    unableToEval = true;
+                    unableToEvalMsgId = R.string.unable_to_eval_timeout;
+                }
+                catch(TooBigValueException e)
+                {
+                    unableToEval = true;
+                    unableToEvalMsgId = e.valTooBig ? R.string.unable_to_eval_too_big : R.string.unable_to_eval_too_small;
+                }
+                catch(MathException e)
+                {
+                    // Apparently we were unable to correctly parse the calculation
+                    unableToEval = true;
+                    unableToEvalMsgId = R.string.unable_to_eval;
+                    e.printStackTrace();
+                }
+                catch(RuntimeException e)
+                {
+                    // This occurs for impossible to solve expression (e.g. integrate(x^x, x)),
+                    // or when the recursion or iteration limit of the evaluation is exceeded
+                    unableToEval = true;
+                    unableToEvalMsgId = R.string.unable_to_eval;
+                }
+                catch(StackOverflowError e)
+                {
+                    // This occurs for impossible to solve expression (e.g. integrate(x*(x*x)^x, x))
+                    unableToEval = true;
+                    unableToEvalMsgId = R.string.unable_to_eval;
+                }
+                finally
+                {
+                    evaluation.finish();
                 }
             }
             
             // Cancel the timer
-            synchronized(timerHandler)
-            {
-                timerCancelled = true;
-            }
+            cancelTimer();
             
             // Something went wrong, return null
             return null;
         }
         
-        @Override
-        protected void onPostExecute(Expression result)
+        /** Evaluates the given (converted) expression
+         * @param input The expression, converted without substitutions
+         * @param substitutedInput The expression, converted with substitutions (or <tt>null</tt> if there are no substitutions)
+         * @return The answer
+         * @throws MathException Thrown when the expression couldn't be evaluated */
+        private Answer evaluate(IExpr input, EvalHelper.Conversion substitutedInput) throws MathException
         {
-            if(result != null)
-                showExpression(result);
-            if(getView() != null)
+            // Most expressions can be approximated directly, which is a lot faster than evaluating them exactly first
+            if(!exact)
             {
-                // We'll want to hide the progressbar anyway
-                getView().findViewById(R.id.progressBar).setVisibility(View.GONE);
-                
-                // Show an error if we were unable to evaluate
-                if(unableToEval)
+                try
                 {
-                    ((TextView) getView().findViewById(R.id.text_unable_to_eval)).setText(unableToEvalMsgId);
-                    getView().findViewById(R.id.unableToEvalLayout).setVisibility(View.VISIBLE);
+                    IExpr result = evaln(substitutedInput != null ? substitutedInput.value : input);
+                    return new Answer(result, toResultExpression(result), substitutedInput != null && substitutedInput.substitutionsMade);
                 }
-                
-                // Show a warning iff variables have been substituted
-                getView().findViewById(R.id.text_warning_substitutions_used).setVisibility(varsSubstituted ? View.VISIBLE : View.GONE);
+                catch(ParseException e)
+                { /* The approximation contains something we can't show, approximate the exact answer instead */ }
+            }
+            
+            // We evaluate the answer exactly first (without substitutions)
+            IExpr result = eval(input);
+            
+            // Now we calculate the answer (with substitutions, if there are any)
+            boolean substitutionsMade = false;
+            if(evalContext.hasSubstitutions())
+            {
+                EvalHelper.Conversion substituted = convertSubstituted(toExpression(result));
+                substitutionsMade = substituted.substitutionsMade;
+                if(exact)
+                    result = eval(substituted.value);
+                else
+                    result = evaln(substituted.value);
+            }
+            // We still might need to approximate the answer
+            else if(!exact)
+                result = evaln(result);
+            
+            // Note that we approximate after exact evaluation here because for some reason
+            // integrals like integrate(x*sin(x), {x, 0, pi}) wouldn't work in approximation mode otherwise
+            
+            return new Answer(result, toResultExpression(result), substitutionsMade);
+        }
+        
+        /** Collects the terms of the given expression (i.e. the operands of the sums and differences at the top of the expression)
+         * @param expr The expression
+         * @return The terms, from left to right */
+        private List<Term> collectTerms(Expression expr)
+        {
+            // We use an explicit stack, since long sums (like series expansions) would overflow the call stack
+            List<Term> terms = new ArrayList<Term>();
+            ArrayDeque<Term> stack = new ArrayDeque<Term>();
+            stack.push(new Term(expr, false));
+            while(!stack.isEmpty())
+            {
+                Term term = stack.pop();
+                if(term.expr instanceof Add || term.expr instanceof Subtract)
+                {
+                    // The right operand is pushed first so the left operand is collected first, subtracting flips its sign
+                    stack.push(new Term(term.expr.getChild(1), term.negative ^ (term.expr instanceof Subtract)));
+                    stack.push(new Term(term.expr.getChild(0), term.negative));
+                }
+                else
+                    terms.add(term);
+            }
+            return terms;
+        }
+        
+        /** Evaluates the terms of an expression in parallel and combines their answers.
+         * The terms are split in at most {@link FragmentEvaluation#TERM_THREADS TERM_THREADS} groups of consecutive terms, which are evaluated separately.
+         * When a group is finished, the partial answer is published (at most once every {@link FragmentEvaluation#PARTIAL_ANSWER_INTERVAL PARTIAL_ANSWER_INTERVAL}).
+         * @param terms The terms of the expression (as collected by {@link Evaluator#collectTerms(Expression) collectTerms()})
+         * @return The answer
+         * @throws MathException Thrown when the expression couldn't be evaluated */
+        private Answer evaluateTerms(List<Term> terms) throws MathException
+        {
+            // Split the terms in groups and start evaluating every group
+            // The groups are evaluated as copies, since the terms are still part of the expression that is shown
+            final int groupCount = Math.min(terms.size(), TERM_THREADS);
+            List<List<Term>> groups = new ArrayList<List<Term>>(groupCount);
+            CompletionService<Answer> completionService = new ExecutorCompletionService<Answer>(termExecutor);
+            HashMap<Future<Answer>, Integer> futures = new HashMap<Future<Answer>, Integer>();
+            for(int i = 0; i < groupCount; ++i)
+            {
+                List<Term> group = terms.subList(i * terms.size() / groupCount, (i + 1) * terms.size() / groupCount);
+                groups.add(group);
+                Expression sum = null;
+                for(Term term : group)
+                    sum = append(sum, term.expr, term.negative);
+                futures.put(completionService.submit(new TermEvaluator(sum)), i);
+            }
+            
+            // Collect the answers, publishing the partial answer when a group is finished
+            Answer[] answers = new Answer[groupCount];
+            int finished = 0;
+            long lastPublished = 0;
+            try
+            {
+                while(finished < groupCount)
+                {
+                    Future<Answer> future = completionService.take();
+                    answers[futures.get(future)] = future.get();
+                    ++finished;
+                    final long now = System.currentTimeMillis();
+                    if(finished < groupCount && now - lastPublished >= PARTIAL_ANSWER_INTERVAL)
+                    {
+                        publishProgress(ParenthesesHelper.setParentheses(partialAnswer(groups, answers)));
+                        lastPublished = now;
+                    }
+                }
+            }
+            catch(InterruptedException e)
+            { throw new EvaluationStoppedException(e); }
+            catch(ExecutionException e)
+            {
+                if(e.getCause() instanceof MathException)
+                    throw (MathException) e.getCause();
+                if(e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if(e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw new MathException(e.getCause());
+            }
+            finally
+            {
+                // If something went wrong, stop the groups that are still being evaluated
+                if(finished < groupCount)
+                    evaluation.stop();
+            }
+            
+            // Combine the answers
+            boolean substitutionsMade = false;
+            IExpr result = null;
+            for(Answer answer : answers)
+            {
+                substitutionsMade |= answer.substitutionsMade;
+                result = result == null ? answer.value : F.Plus(result, answer.value);
+            }
+            result = exact ? eval(result) : evaln(result);
+            return new Answer(result, toResultExpression(result), substitutionsMade);
+        }
+        
+        /** Creates the partial answer, in which the groups of terms that have been evaluated are replaced by their answers
+         * @param groups The groups of terms
+         * @param answers The answers of the groups (<tt>null</tt> for groups that haven't been evaluated yet)
+         * @return The partial answer */
+        private Expression partialAnswer(List<List<Term>> groups, Answer[] answers)
+        {
+            Expression out = null;
+            for(int i = 0; i < answers.length; ++i)
+            {
+                if(answers[i] != null)
+                    out = append(out, answers[i].expr, false);
+                else
+                {
+                    for(Term term : groups.get(i))
+                        out = append(out, term.expr, term.negative);
+                }
+            }
+            return out;
+        }
+        
+        /** Adds a copy of a term to a sum
+         * @param sum The sum (or <tt>null</tt> if it doesn't have any terms yet)
+         * @param term The term
+         * @param negative Whether or not the term should be subtracted
+         * @return The new sum */
+        private Expression append(Expression sum, Expression term, boolean negative)
+        {
+            Expression copy = ExpressionDuplicator.deepCopy(term);
+            if(sum == null)
+                return negative ? new Negate(copy) : copy;
+            return negative ? new Subtract(sum, copy) : new Add(sum, copy);
+        }
+        
+        /** Evaluates a group of terms of a sum */
+        private class TermEvaluator implements Callable<Answer>
+        {
+            /** The terms to evaluate (as a sum) */
+            private final Expression term;
+            
+            /** Constructor
+             * @param term The terms to evaluate (as a sum) */
+            public TermEvaluator(Expression term)
+            { this.term = term; }
+            
+            @Override
+            public Answer call() throws MathException
+            {
+                evaluation.start();
+                try
+                {
+                    EvalHelper.Conversion substitutedTerm = evalContext.hasSubstitutions() ? convertSubstituted(term) : null;
+                    return evaluate(convert(term), substitutedTerm);
+                }
+                finally
+                {
+                    evaluation.finish();
+                }
+            }
+        }
+        
+        /** Converts the result of an evaluation to an {@link Expression} that can be shown
+         * @param result The result of the evaluation
+         * @return The beautified {@link Expression} with parentheses
+         * @throws ParseException Thrown when the result couldn't be converted */
+        private Expression toResultExpression(IExpr result) throws ParseException
+        { return ParenthesesHelper.setParentheses(ExpressionBeautifier.parse(toExpression(result))); }
+        
+        /** Converts the given {@link Expression} to Symja, without substitutions
+         * @param expr The {@link Expression}
+         * @return The Symja expression
+         * @throws MathException Thrown when the {@link Expression} couldn't be converted */
+        private IExpr convert(Expression expr) throws MathException
+        {
+            final long begin = conversionTimer.begin();
+            try
+            {
+                return EvalHelper.eval(expr);
+            }
+            finally
+            {
+                conversionTimer.end(begin);
+            }
+        }
+        
+        /** Converts the given {@link Expression} to Symja, substituting the variables of the evaluation context
+         * @param expr The {@link Expression}
+         * @return The conversion
+         * @throws MathException Thrown when the {@link Expression} couldn't be converted */
+        private EvalHelper.Conversion convertSubstituted(Expression expr) throws MathException
+        {
+            final long begin = conversionTimer.begin();
+            try
+            {
+                return EvalHelper.convert(expr, evalContext);
+            }
+            finally
+            {
+                conversionTimer.end(begin);
+            }
+        }
+        
+        /** Converts the given Symja expression to an {@link Expression}
+         * @param expr The Symja expression
+         * @return The {@link Expression}
+         * @throws ParseException Thrown when the Symja expression couldn't be converted */
+        private Expression toExpression(IExpr expr) throws ParseException
+        {
+            try
+            {
+                return ModelHelper.toExpression(expr);
+            }
+            catch(ParseException e)
+            {
+                parseErrors.inc();
+                throw e;
+            }
+        }
+        
+        /** Evaluates the given Symja expression exactly within the time budget of the evaluation
+         * @param expr The Symja expression
+         * @return The result
+         * @throws EvaluationStoppedException Thrown if the evaluation has been stopped or has used up its time budget */
+        private IExpr eval(IExpr expr) throws EvaluationStoppedException
+        {
+            final long begin = symjaTimer.begin();
+            try
+            {
+                return evaluation.eval(expr);
+            }
+            finally
+            {
+                symjaTimer.end(begin);
+            }
+        }
+        
+        /** Approximates the given Symja expression within the time budget of the evaluation
+         * @param expr The Symja expression
+         * @return The result
+         * @throws EvaluationStoppedException Thrown if the evaluation has been stopped or has used up its time budget */
+        private IExpr evaln(IExpr expr) throws EvaluationStoppedException
+        {
+            final long begin = symjaTimer.begin();
+            try
+            {
+                return evaluation.evaln(expr);
+            }
+            finally
+            {
+                symjaTimer.end(begin);
             }
         }
+        
+        @Override
+        protected void onProgressUpdate(Expression... partial)
+        {
+            // Remember the partial result and show it if this evaluation type is shown
+            partialResult = partial[0];
+            if(this == getEvaluator())
+                showEvaluation(getView());
+        }
+        
+        @Override
+        protected void onPostExecute(Expression result)
+        {
+            // Remember the result and show it if this evaluation type is shown
+            this.result = result;
+            finished = true;
+            if(this == getEvaluator())
+                showEvaluation(getView());
+        }
     }
    
 }
-
@@ -2,20 +2,11 @@ package org.teaminfty.math_dragon.view.fragments;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
 import org.teaminfty.math_dragon.R;
 import org.teaminfty.math_dragon.exceptions.ParseException;
 import org.teaminfty.math_dragon.model.Database;
@@ -26,14 +17,16 @@ import org.teaminfty.math_dragon.view.ShowcaseViewDialogs;
 import org.teaminfty.math_dragon.view.fragments.FragmentKeyboard.OnConfirmListener;
 import org.teaminfty.math_dragon.view.math.Empty;
 import org.teaminfty.math_dragon.view.math.Expression;
-import org.teaminfty.math_dragon.view.math.ExpressionXMLReader;
+import org.teaminfty.math_dragon.view.math.ExpressionBinaryReader;
+import org.teaminfty.math_dragon.view.math.ExpressionBinaryWriter;
+import org.teaminfty.math_dragon.view.math.ExpressionSnapshot;
 import org.teaminfty.math_dragon.view.math.Symbol;
 import org.teaminfty.math_dragon.view.math.operation.Integral;
 import org.teaminfty.math_dragon.view.math.operation.binary.Derivative;
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
 import android.app.Fragment;
+import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.widget.DrawerLayout;
 import android.view.Gravity;
@@ -54,8 +47,8 @@ public class FragmentMainScreen extends Fragment implements Tutorial
     /** The {@link MathView} in this fragment */
     private MathView mathView = null;
 
-    /** The undo/redo history, each state is stored as a XML document */
-    private ArrayList<Document> history = new ArrayList<Document>();
+    /** The undo/redo history, consecutive states share all parts of the expression that haven't changed */
+    private ArrayList<ExpressionSnapshot> history = new ArrayList<ExpressionSnapshot>();
 
     /** The current position in the history */
     private int historyPos = 0;
@@ -68,12 +61,37 @@ public class FragmentMainScreen extends Fragment implements Tutorial
 
     public static final String TUTORIAL_TAG = "tut_dlg";
 
-    private void tutorial()
+    /** Loads the tutorial state (or <tt>null</tt> if it isn't being loaded) */
+    private TutorialStateLoader tutorialStateLoader = null;
+
+    /** Loads the state of the tutorial in the background (which opens the database, so we don't want to do that on the ui thread) */
+    private class TutorialStateLoader extends AsyncTask<Void, Void, Database.TutorialState>
     {
-        // TODO werken met savedInstanceState
-        final Database db = new Database(getActivity());
-        Database.TutorialState state = db.getTutorialState(FragmentMainScreen.TUTORIAL_ID);
+        /** The context that is used to access the database */
+        private final Context context;
+        
+        /** Constructor
+         * @param ctx The context that is used to access the database */
+        public TutorialStateLoader(Context ctx)
+        { context = ctx.getApplicationContext(); }
+        
+        @Override
+        protected Database.TutorialState doInBackground(Void... args)
+        { return Database.getInstance(context).getTutorialState(FragmentMainScreen.TUTORIAL_ID); }
         
+        @Override
+        protected void onPostExecute(Database.TutorialState state)
+        {
+            tutorialStateLoader = null;
+            tutorial(state);
+        }
+    }
+
+    /** Shows the tutorial dialog or continues the tutorial, depending on the given state
+     * @param state The state of the tutorial */
+    private void tutorial(Database.TutorialState state)
+    {
+        // TODO werken met savedInstanceState
         System.out.println("tutInProg:"+state.tutInProg);
         System.out.println("showTutDlg:"+state.showTutDlg);
         if(!state.tutInProg && state.showTutDlg && !isShowingDialog)
@@ -89,7 +107,6 @@ public class FragmentMainScreen extends Fragment implements Tutorial
         {
             continueTutorial();
         }
-        db.close();
     }
 
     final class OnTutorialConfirmListener implements FragmentTutorialDialog.OnConfirmListener
@@ -103,25 +120,19 @@ public class FragmentMainScreen extends Fragment implements Tutorial
 
     private void continueTutorial()
     {
-        final Database db = new Database(getActivity());
+        final Database db = Database.getInstance(getActivity());
 
-        Database.TutorialState state = db.getTutorialState(TUTORIAL_ID);
-        state.tutInProg = true;
-        db.saveTutorialState(state);
-
-        
-        // set the correct states for all the other tutorials
+        // set the correct states for this and all the other tutorials
         Database.TutorialState[] states = new Database.TutorialState[] {
+                db.getTutorialState(TUTORIAL_ID),
                 db.getTutorialState(FragmentSubstitute.TUTORIAL_ID),
                 db.getTutorialState(FragmentSubstitutionEditor.TUTORIAL_ID),
                 db.getTutorialState(FragmentKeyboard.TUTORIAL_ID),
                 db.getTutorialState(FragmentSaveLoad.TUTORIAL_ID)};
 
         for(Database.TutorialState s : states)
-        {
             s.tutInProg = true;
-            db.saveTutorialState(s);
-        }
+        db.saveTutorialStates(states);
         
         
         // we programatically open and close the drawer for demonstration, so we're going to need it here.
@@ -206,7 +217,6 @@ public class FragmentMainScreen extends Fragment implements Tutorial
                 state.showTutDlg = false;
                 db.saveTutorialState(state);
 
-                db.close();
             }
 
         });
@@ -237,41 +247,33 @@ public class FragmentMainScreen extends Fragment implements Tutorial
         {
 
             // Load the history from the bundle
-            ArrayList<String> historyStrings = savedInstanceState
-                    .getStringArrayList(BUNDLE_HISTORY);
-            for(String xml : historyStrings)
+            byte[] historyBytes = savedInstanceState.getByteArray(BUNDLE_HISTORY);
+            if(historyBytes != null)
             {
                 try
                 {
-                    InputStream in = new ByteArrayInputStream(xml.getBytes());
-                    Document doc = DocumentBuilderFactory.newInstance()
-                            .newDocumentBuilder().parse(in);
-                    history.add(doc);
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(historyBytes));
+                    final int count = in.readInt();
+                    for(int i = 0; i < count; ++i)
+                    {
+                        byte[] entry = new byte[in.readInt()];
+                        in.readFully(entry);
+                        history.add(ExpressionSnapshot.of(ExpressionBinaryReader.fromBytes(entry)));
+                    }
                 }
-                catch(SAXException e)
-                { /* Ignore */}
                 catch(IOException e)
                 { /* Ignore */}
-                catch(ParserConfigurationException e)
+                catch(ParseException e)
                 { /* Ignore */}
             }
 
             // Set the history position (and load the MathObject)
-            try
-            {
-                historyPos = Math.min(history.size() - 1,
-                        savedInstanceState.getInt(BUNDLE_HISTORY_POS));
-                mathView.setExpressionSilent(ExpressionXMLReader
-                        .fromXML(history.get(historyPos)));
+            historyPos = Math.min(history.size() - 1,
+                    savedInstanceState.getInt(BUNDLE_HISTORY_POS));
+            mathView.setExpressionSilent(history.get(historyPos).toExpression());
 
-                // Enable the evaluate buttons (if necessary)
-                enableDisableEvalButtons(view, mathView.getExpression());
-            }
-            catch(ParseException e)
-            {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
+            // Enable the evaluate buttons (if necessary)
+            enableDisableEvalButtons(view, mathView.getExpression());
 
             // Set the keyboard listener
             if(getFragmentManager().findFragmentByTag(KEYBOARD_TAG) != null
@@ -292,16 +294,8 @@ public class FragmentMainScreen extends Fragment implements Tutorial
         else
         {
             // Set the first history entry (i.e. an empty element)
-            try
-            {
-                Document doc = Expression.createXMLDocument();
-                mathView.getExpression().writeToXML(doc,
-                        doc.getDocumentElement());
-                history.add(doc);
-                historyPos = history.size() - 1;
-            }
-            catch(ParserConfigurationException e)
-            { /* Ignore */}
+            history.add(ExpressionSnapshot.of(mathView.getExpression()));
+            historyPos = history.size() - 1;
         }
 
         // Disable the undo and redo buttons and set their click listeners
@@ -332,12 +326,11 @@ public class FragmentMainScreen extends Fragment implements Tutorial
                     @Override
                     public void onClick(View v)
                     {
-                        Database db = new Database(getActivity());
+                        Database db = Database.getInstance(getActivity());
                         Database.TutorialState state = db.getTutorialState(getTutorialId());
                         state.showTutDlg = true;
                         state.tutInProg = false;
                         db.saveTutorialState(state);
-                        db.close();
                         fragmentAbout.dismiss();
                         continueTutorial();
                     }
@@ -381,7 +374,8 @@ public class FragmentMainScreen extends Fragment implements Tutorial
     public void onStart()
     {
         super.onStart();
-        tutorial();
+        tutorialStateLoader = new TutorialStateLoader(getActivity());
+        tutorialStateLoader.execute();
     }
     
     @Override
@@ -389,6 +383,11 @@ public class FragmentMainScreen extends Fragment implements Tutorial
     {
         System.out.println("onStop");
         super.onStop();
+        if(tutorialStateLoader != null)
+        {
+            tutorialStateLoader.cancel(false);
+            tutorialStateLoader = null;
+        }
         if (getCurrentShowcaseDialog() != null)
         {
             getCurrentShowcaseDialog().dismiss();
@@ -401,7 +400,7 @@ public class FragmentMainScreen extends Fragment implements Tutorial
      */
     private static final String BUNDLE_HISTORY_POS = "history_pos";
 
-    /** An ArrayList of strings containing all expressions in the history */
+    /** A byte array containing all expressions in the history */
     private static final String BUNDLE_HISTORY = "history";
 
     /**
@@ -418,28 +417,23 @@ public class FragmentMainScreen extends Fragment implements Tutorial
     {
 
         outState.putBoolean("isShowingDialog", isShowingDialog);
-        // Save the history
-        ArrayList<String> historyStrings = new ArrayList<String>();
-        for(Document doc : history)
+        // Save the history (all entries are packed into a single byte array, each prefixed with its length)
+        try
         {
-            try
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(byteStream);
+            out.writeInt(history.size());
+            for(ExpressionSnapshot snapshot : history)
             {
-                // Convert the XML document to a string and add it to the list
-                Transformer transformer = TransformerFactory.newInstance()
-                        .newTransformer();
-                ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-                transformer.transform(new DOMSource(doc), new StreamResult(
-                        byteStream));
-                historyStrings.add(byteStream.toString());
+                byte[] entry = ExpressionBinaryWriter.toBytes(snapshot);
+                out.writeInt(entry.length);
+                out.write(entry);
             }
-            catch(TransformerConfigurationException e)
-            { /* Never thrown, ignore */}
-            catch(TransformerFactoryConfigurationError e)
-            { /* Ignore */}
-            catch(TransformerException e)
-            { /* Ignore */}
+            out.flush();
+            outState.putByteArray(BUNDLE_HISTORY, byteStream.toByteArray());
         }
-        outState.putStringArrayList(BUNDLE_HISTORY, historyStrings);
+        catch(IOException e)
+        { /* Never thrown, ignore */}
 
         // Save the history position
         outState.putInt(BUNDLE_HISTORY_POS, historyPos);
@@ -502,19 +496,11 @@ public class FragmentMainScreen extends Fragment implements Tutorial
             return;
 
         // Get the MathObject at the given history position
-        try
-        {
-            mathView.setExpressionSilent(ExpressionXMLReader.fromXML(history
-                    .get(pos)));
-            historyPos = pos;
+        mathView.setExpressionSilent(history.get(pos).toExpression());
+        historyPos = pos;
 
-            // Enable / disable the evaluate buttons
-            enableDisableEvalButtons(getView(), mathView.getExpression());
-        }
-        catch(ParseException e)
-        {
-            e.printStackTrace();
-        }
+        // Enable / disable the evaluate buttons
+        enableDisableEvalButtons(getView(), mathView.getExpression());
 
         // Refresh the state of the undo/redo buttons
         refreshUndoRedoButtons();
@@ -582,18 +568,8 @@ public class FragmentMainScreen extends Fragment implements Tutorial
                 history.subList(historyPos + 1, history.size()).clear();
 
             // Add the current MathObject to the history
-            try
-            {
-                Document doc = Expression.createXMLDocument();
-                expression.writeToXML(doc, doc.getDocumentElement());
-                history.add(doc);
-                historyPos = history.size() - 1;
-            }
-            catch(ParserConfigurationException e)
-            {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
+            history.add(ExpressionSnapshot.of(expression));
+            historyPos = history.size() - 1;
 
             // Refresh the state of the undo/redo buttons
             refreshUndoRedoButtons();
@@ -0,0 +1,132 @@
+package org.teaminfty.math_dragon.view.fragments;
+
+import org.json.JSONException;
+import org.teaminfty.math_dragon.Metrics;
+import org.teaminfty.math_dragon.R;
+
+import android.app.DialogFragment;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.res.Configuration;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.view.WindowManager;
+import android.widget.TextView;
+
+/** A hidden debug screen that shows the {@link Metrics} as JSON, which can be shared (e.g. by mail) or reset */
+public class FragmentMetrics extends DialogFragment
+{
+    /** The number of spaces the JSON is indented with */
+    private static final int INDENT = 2;
+
+    /** The {@link TextView} that shows the metrics */
+    private TextView textMetrics = null;
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState)
+    {
+        // Some dialog settings
+        getDialog().getWindow().requestFeature(Window.FEATURE_NO_TITLE);
+        getDialog().setCanceledOnTouchOutside(true);
+
+        // Inflate the layout for this fragment
+        View view = inflater.inflate(R.layout.fragment_metrics, container, false);
+
+        // Set the click listeners
+        view.findViewById(R.id.btn_close).setOnClickListener(new OnCloseClicked());
+        view.findViewById(R.id.btn_share).setOnClickListener(new OnShareClicked());
+        view.findViewById(R.id.btn_reset).setOnClickListener(new OnResetClicked());
+
+        // Show the metrics
+        textMetrics = (TextView) view.findViewById(R.id.text_metrics);
+        showMetrics();
+
+        // Return the content view
+        return view;
+    }
+
+    @Override
+    public void onResume()
+    {
+        super.onResume();
+
+        // Set the right size for the dialog
+        Configuration resConfig = getResources().getConfiguration();
+        WindowManager.LayoutParams params = getDialog().getWindow().getAttributes();
+        if((resConfig.screenLayout & Configuration.SCREENLAYOUT_SIZE_MASK) == Configuration.SCREENLAYOUT_SIZE_LARGE ||
+           (resConfig.screenLayout & Configuration.SCREENLAYOUT_SIZE_MASK) == Configuration.SCREENLAYOUT_SIZE_XLARGE)
+        {
+            // Set the size of the dialog
+            params.width = getResources().getDimensionPixelSize(R.dimen.keyboard_dlg_width);
+            params.height = getResources().getDimensionPixelSize(R.dimen.keyboard_dlg_height);
+        }
+        else
+        {
+            // Make sure the dialog takes up all width and height it can take up
+            params.width = WindowManager.LayoutParams.MATCH_PARENT;
+            params.height = WindowManager.LayoutParams.MATCH_PARENT;
+        }
+        getDialog().getWindow().setAttributes(params);
+    }
+
+    @Override
+    public void onCancel(DialogInterface dialog)
+    { dismiss(); }
+
+    /** Shows the current metrics */
+    private void showMetrics()
+    { textMetrics.setText(metricsToString()); }
+
+    /** Dumps the current metrics as indented JSON
+     * @return The JSON string */
+    private static String metricsToString()
+    {
+        try
+        {
+            return Metrics.toJSON().toString(INDENT);
+        }
+        catch(JSONException e)
+        {
+            // Can't happen, the metrics only contain valid JSON values
+            return Metrics.toJSON().toString();
+        }
+    }
+
+    /** Listens for click events of the close button */
+    private class OnCloseClicked implements View.OnClickListener
+    {
+        @Override
+        public void onClick(View v)
+        {
+            dismiss();
+        }
+    }
+
+    /** Listens for click events of the share button */
+    private class OnShareClicked implements View.OnClickListener
+    {
+        @Override
+        public void onClick(View v)
+        {
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType("text/plain");
+            intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.app_name) + " " + getString(R.string.metrics));
+            intent.putExtra(Intent.EXTRA_TEXT, metricsToString());
+            startActivity(Intent.createChooser(intent, getString(R.string.metrics_share)));
+        }
+    }
+
+    /** Listens for click events of the reset button */
+    private class OnResetClicked implements View.OnClickListener
+    {
+        @Override
+        public void onClick(View v)
+        {
+            Metrics.reset();
+            showMetrics();
+        }
+    }
+}
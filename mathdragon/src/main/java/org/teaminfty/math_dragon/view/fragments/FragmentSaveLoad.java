@@ -2,6 +2,7 @@ package org.teaminfty.math_dragon.view.fragments;
 
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
@@ -26,13 +27,19 @@ import org.w3c.dom.Document;
 
 import android.app.Activity;
 import android.app.DialogFragment;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.support.v4.util.LruCache;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.view.WindowManager;
 import android.widget.ImageButton;
@@ -44,6 +51,38 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
     /** The current expression */
     private Expression currExpr = null;
     
+    /** The number of formulas that are loaded at once */
+    private static final int PAGE_SIZE = 20;
+    
+    /** The maximum size of all thumbnails in the {@link FragmentSaveLoad#thumbnailCache thumbnail cache} (in bytes) */
+    private static final int THUMBNAIL_CACHE_SIZE = 2 * 1024 * 1024;
+    
+    /** The thumbnails of the formulas, mapped on the ID of the formula and the size of the thumbnail (see {@link FragmentSaveLoad#thumbnailKey(int, int) thumbnailKey()}) */
+    private static final LruCache<String, Bitmap> thumbnailCache = new LruCache<String, Bitmap>(THUMBNAIL_CACHE_SIZE)
+    {
+        @Override
+        protected int sizeOf(String key, Bitmap bmp)
+        { return bmp.getRowBytes() * bmp.getHeight(); }
+    };
+    
+    /** The size of the thumbnails (in pixels) */
+    private int thumbnailSize = 0;
+    
+    /** The task that loads the formulas (<tt>null</tt> if no formulas are being loaded) */
+    private FormulaLoader formulaLoader = null;
+    
+    /** The tasks that are loading thumbnails */
+    private ArrayList<ThumbnailLoader> thumbnailLoaders = new ArrayList<ThumbnailLoader>();
+    
+    /** The IDs of the formulas whose thumbnail is shown or being loaded */
+    private HashSet<Integer> requestedThumbnails = new HashSet<Integer>();
+    
+    /** Used to determine which rows are visible */
+    private Rect visibleRect = new Rect();
+    
+    /** Loads the thumbnails of the visible rows whenever the list is scrolled or laid out */
+    private ThumbnailListener thumbnailListener = new ThumbnailListener();
+    
     
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState)
@@ -55,12 +94,13 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
         // Inflate the layout for this fragment
         View view = inflater.inflate(R.layout.fragment_save_load, container, false);
         
-        // Load the formulas
-        ViewGroup formulasLayout = (ViewGroup) view.findViewById(R.id.layout_formula_list);
-        Database db = new Database(getActivity());
-        ArrayList<Formula> forms = db.getAllFormulas();
-        for(Database.Formula form : forms)
-            setFormula(form, formulasLayout);
+        // Load the formulas in the background, the thumbnails are loaded once the rows become visible
+        thumbnailSize = getResources().getDimensionPixelSize(R.dimen.formula_thumb_size);
+        requestedThumbnails.clear();
+        formulaLoader = new FormulaLoader(getActivity());
+        formulaLoader.execute();
+        view.getViewTreeObserver().addOnGlobalLayoutListener(thumbnailListener);
+        view.getViewTreeObserver().addOnScrollChangedListener(thumbnailListener);
         
         // The close button
         ((ImageButton) view.findViewById(R.id.btn_close)).setOnClickListener(new OnCloseBtnClickListener());
@@ -104,6 +144,29 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
         return view;
     }
 
+    @SuppressWarnings("deprecation")
+    @Override
+    public void onDestroyView()
+    {
+        // Stop loading formulas and thumbnails
+        if(formulaLoader != null)
+            formulaLoader.cancel(false);
+        formulaLoader = null;
+        for(ThumbnailLoader loader : thumbnailLoaders)
+            loader.cancel(false);
+        thumbnailLoaders.clear();
+        
+        // Stop listening for scroll and layout events
+        ViewTreeObserver observer = getView().getViewTreeObserver();
+        if(observer.isAlive())
+        {
+            observer.removeGlobalOnLayoutListener(thumbnailListener);
+            observer.removeOnScrollChangedListener(thumbnailListener);
+        }
+        
+        super.onDestroyView();
+    }
+
     @Override
     public void onStart()
     {
@@ -229,9 +292,184 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
         textName.setText(formula.name);
         textName.setTypeface(TypefaceHolder.dejavuSans);
 
-        // Set the thumbnail
-        ImageView imgThumb = (ImageView) row.findViewById(R.id.img_thumb);
-        imgThumb.setImageBitmap(formula.bmp);
+        // Set the thumbnail (if we don't have it yet, it's loaded once the row becomes visible)
+        Bitmap bmp = thumbnailCache.get(thumbnailKey(formula.id, thumbnailSize));
+        if(bmp != null)
+            requestedThumbnails.add(formula.id);
+        else
+            requestedThumbnails.remove(formula.id);
+        ((ImageView) row.findViewById(R.id.img_thumb)).setImageBitmap(bmp);
+    }
+    
+    /** Returns the key for the thumbnail of the given formula in the {@link FragmentSaveLoad#thumbnailCache thumbnail cache}
+     * @param id The ID of the formula
+     * @param size The size of the thumbnail
+     * @return The key */
+    private static String thumbnailKey(int id, int size)
+    { return Integer.toString(id) + "@" + Integer.toString(size); }
+    
+    /** Removes all thumbnails (of any size) of the given formula from the {@link FragmentSaveLoad#thumbnailCache thumbnail cache}
+     * @param id The ID of the formula */
+    private void removeThumbnails(int id)
+    {
+        final String prefix = Integer.toString(id) + "@";
+        for(String key : thumbnailCache.snapshot().keySet())
+        {
+            if(key.startsWith(prefix))
+                thumbnailCache.remove(key);
+        }
+        requestedThumbnails.remove(id);
+    }
+    
+    /** Returns the ID of the formula that is shown in the given row
+     * @param row The row
+     * @return The ID of the formula */
+    private static int getFormulaId(View row)
+    { return Integer.parseInt(((String) row.getTag()).substring(FORMULA_TAG_PREFIX.length())); }
+    
+    /** Starts loading the thumbnails of all visible rows whose thumbnail hasn't been loaded yet */
+    private void loadVisibleThumbnails()
+    {
+        // Collect the IDs of the formulas whose thumbnail should be loaded
+        ViewGroup formulasLayout = (ViewGroup) getView().findViewById(R.id.layout_formula_list);
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for(int i = 0; i < formulasLayout.getChildCount(); ++i)
+        {
+            View row = formulasLayout.getChildAt(i);
+            final int id = getFormulaId(row);
+            if(requestedThumbnails.contains(id) || !row.getLocalVisibleRect(visibleRect))
+                continue;
+            requestedThumbnails.add(id);
+            
+            // Use the cached thumbnail if we have one
+            Bitmap bmp = thumbnailCache.get(thumbnailKey(id, thumbnailSize));
+            if(bmp != null)
+                ((ImageView) row.findViewById(R.id.img_thumb)).setImageBitmap(bmp);
+            else
+                ids.add(id);
+        }
+        
+        // Load the thumbnails in the background
+        if(!ids.isEmpty())
+        {
+            ThumbnailLoader loader = new ThumbnailLoader(getActivity(), thumbnailSize);
+            thumbnailLoaders.add(loader);
+            loader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, ids.toArray(new Integer[ids.size()]));
+        }
+    }
+    
+    /** Loads the thumbnails of the visible rows whenever the list is scrolled or laid out */
+    private class ThumbnailListener implements ViewTreeObserver.OnGlobalLayoutListener, ViewTreeObserver.OnScrollChangedListener
+    {
+        @Override
+        public void onGlobalLayout()
+        {
+            if(getView() != null)
+                loadVisibleThumbnails();
+        }
+
+        @Override
+        public void onScrollChanged()
+        {
+            if(getView() != null)
+                loadVisibleThumbnails();
+        }
+    }
+    
+    /** Loads all formulas (without their thumbnails) in pages, most recently changed formulas first.
+     * Every page is added to the list as soon as it's loaded. */
+    private class FormulaLoader extends AsyncTask<Void, Formula, Void>
+    {
+        /** The context that is used to open the database */
+        private Context context;
+        
+        /** Constructor
+         * @param ctx The context that is used to open the database */
+        public FormulaLoader(Context ctx)
+        { context = ctx.getApplicationContext(); }
+
+        @Override
+        protected Void doInBackground(Void... params)
+        {
+            Database db = Database.getInstance(context);
+            Formula last = null;
+            while(!isCancelled())
+            {
+                ArrayList<Formula> page = db.getFormulas(last, PAGE_SIZE);
+                publishProgress(page.toArray(new Formula[page.size()]));
+                if(page.size() < PAGE_SIZE)
+                    break;
+                last = page.get(page.size() - 1);
+            }
+            return null;
+        }
+        
+        @Override
+        protected void onProgressUpdate(Formula... forms)
+        {
+            // Ignore the formulas if we've been cancelled (the progress is still delivered after cancelling)
+            if(formulaLoader != this || getView() == null)
+                return;
+            ViewGroup formulasLayout = (ViewGroup) getView().findViewById(R.id.layout_formula_list);
+            for(Formula form : forms)
+                setFormula(form, formulasLayout);
+        }
+        
+        @Override
+        protected void onPostExecute(Void result)
+        {
+            if(formulaLoader == this)
+                formulaLoader = null;
+        }
+    }
+    
+    /** Draws the thumbnails of the formulas with the given IDs and shows them in the list */
+    private class ThumbnailLoader extends AsyncTask<Integer, Formula, Void>
+    {
+        /** The context that is used to open the database */
+        private Context context;
+        
+        /** The size of the thumbnails */
+        private int size;
+        
+        /** Constructor
+         * @param ctx The context that is used to open the database
+         * @param size The size of the thumbnails (in pixels) */
+        public ThumbnailLoader(Context ctx, int size)
+        {
+            context = ctx.getApplicationContext();
+            this.size = size;
+        }
+
+        @Override
+        protected Void doInBackground(Integer... ids)
+        {
+            Database db = Database.getInstance(context);
+            for(int i = 0; i < ids.length && !isCancelled(); ++i)
+                publishProgress(new Formula(ids[i], null, 0, db.getFormulaThumbnail(ids[i], size), null));
+            return null;
+        }
+        
+        @Override
+        protected void onProgressUpdate(Formula... forms)
+        {
+            for(Formula form : forms)
+            {
+                // Cache the thumbnail
+                if(form.bmp == null)
+                    continue;
+                thumbnailCache.put(thumbnailKey(form.id, size), form.bmp);
+                
+                // Show the thumbnail (if the row is still there)
+                View row = getView() == null ? null : getView().findViewWithTag(FORMULA_TAG_PREFIX + Integer.toString(form.id));
+                if(row != null)
+                    ((ImageView) row.findViewById(R.id.img_thumb)).setImageBitmap(form.bmp);
+            }
+        }
+        
+        @Override
+        protected void onPostExecute(Void result)
+        { thumbnailLoaders.remove(this); }
     }
     
     /** Refreshes the formula with the given ID
@@ -239,19 +477,25 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
     private void refreshFormula(int id)
     {
         // Get the formula from the database
-        Database db = new Database(getActivity());
+        Database db = Database.getInstance(getActivity());
         Database.Formula formula = db.getFormulaByID(id);
-        db.close();
         
-        // Update the formula's view
+        // The old thumbnails are outdated
+        removeThumbnails(id);
+        
+        // Update the formula's view and draw its new thumbnail
         if(formula != null)
             setFormula(formula, (ViewGroup) getView().findViewById(R.id.layout_formula_list));
+        loadVisibleThumbnails();
     }
     
     /** Removes the formula with the given ID from the View's hierarchy
      * @param id The ID of the formula to remove */
     private void removeFormula(int id)
     {
+        // The thumbnails are no longer needed
+        removeThumbnails(id);
+        
         // Check if there is a View for the given ID
         if(getView().findViewWithTag(FORMULA_TAG_PREFIX + Integer.toString(id)) != null)
             ((ViewGroup) getView().findViewById(R.id.layout_formula_list)).removeView(getView().findViewWithTag(FORMULA_TAG_PREFIX + Integer.toString(id)));
@@ -296,9 +540,8 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
         public void onClick(View v)
         {
             // Save the current expression
-            Database db = new Database(getActivity());
-            db.saveFormula(Database.INSERT_ID, ((TextView) getView().findViewById(R.id.edit_name)).getText().toString(), currExpr);
-            db.close();
+            Database db = Database.getInstance(getActivity());
+            db.saveFormulaAsync(Database.INSERT_ID, ((TextView) getView().findViewById(R.id.edit_name)).getText().toString(), currExpr, null);
             
             // Close the dialog
             dismiss();
@@ -312,9 +555,8 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
         public boolean onEditorAction(TextView view, int actionID, KeyEvent event)
         {
             // Save the current expression
-            Database db = new Database(getActivity());
-            db.saveFormula(Database.INSERT_ID, ((TextView) getView().findViewById(R.id.edit_name)).getText().toString(), currExpr);
-            db.close();
+            Database db = Database.getInstance(getActivity());
+            db.saveFormulaAsync(Database.INSERT_ID, ((TextView) getView().findViewById(R.id.edit_name)).getText().toString(), currExpr, null);
             
             // Close the dialog
             dismiss();
@@ -353,7 +595,7 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
     }
     
     /** Listens for a confirmation to overwrite a certain formula */
-    private class ConfirmOverwriteListener implements FragmentWarningDialog.OnConfirmListener
+    private class ConfirmOverwriteListener implements FragmentWarningDialog.OnConfirmListener, Database.OnFormulaSavedListener
     {
         /** The id of the formula */
         public int id;
@@ -367,12 +609,16 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
         public void confirm()
         {
             // Save the current expression
-            Database db = new Database(getActivity());
-            db.saveFormula(id, null, currExpr);
-            db.close();
-            
-            // Refresh the formula with given id
-            refreshFormula(id);
+            Database db = Database.getInstance(getActivity());
+            db.saveFormulaAsync(id, null, currExpr, this);
+        }
+        
+        @Override
+        public void saved(int savedId)
+        {
+            // Refresh the formula with given id (if the dialog is still shown)
+            if(savedId != -1 && getView() != null)
+                refreshFormula(savedId);
         }
     }
     
@@ -391,9 +637,8 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
         public void onClick(View v)
         {
             // Load the formula
-            Database db = new Database(getActivity());
+            Database db = Database.getInstance(getActivity());
             Database.Formula form = db.getFormulaByID(id);
-            db.close();
             
             // Notify any listeners of the loaded formula
             formulaLoaded(form.expression);
@@ -436,9 +681,8 @@ public class FragmentSaveLoad extends DialogFragment implements Tutorial
         public void confirm()
         {
             // Save the current expression
-            Database db = new Database(getActivity());
+            Database db = Database.getInstance(getActivity());
             db.deleteFormula(id);
-            db.close();
             
             // Remove the formula with given id
             removeFormula(id);
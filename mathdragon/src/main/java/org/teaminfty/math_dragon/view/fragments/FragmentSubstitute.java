@@ -35,7 +35,7 @@ public class FragmentSubstitute extends DialogFragment implements Tutorial
         
         // Load the substitutions
         ViewGroup subsLayout = (ViewGroup) view.findViewById(R.id.layout_substitute_list);
-        Database db = new Database(getActivity());
+        Database db = Database.getInstance(getActivity());
         Database.Substitution[] substitutions = db.getAllSubstitutions();
         for(Database.Substitution sub : substitutions)
             setSubstitution(sub.name, sub.value, subsLayout);
@@ -229,9 +229,8 @@ public class FragmentSubstitute extends DialogFragment implements Tutorial
         public void confirmed(char varName, Expression expr)
         {
             // Save the substitution to the database
-            Database db = new Database(getActivity());
+            Database db = Database.getInstance(getActivity());
             db.saveSubstitution(new Database.Substitution(varName, expr));
-            db.close();
             
             // Update the interface
             setSubstitution(varName, expr, (ViewGroup) getView().findViewById(R.id.layout_substitute_list));
@@ -252,9 +251,8 @@ public class FragmentSubstitute extends DialogFragment implements Tutorial
         public void confirm()
         {
             // Delete the substitution from the database
-            Database db = new Database(getActivity());
+            Database db = Database.getInstance(getActivity());
             db.saveSubstitution(new Database.Substitution(varName));
-            db.close();
             
             // Update the interface
             setSubstitution(varName, null, (ViewGroup) getView().findViewById(R.id.layout_substitute_list));
@@ -297,11 +295,10 @@ public class FragmentSubstitute extends DialogFragment implements Tutorial
             editor.setOnConfirmListener(new SetSubstitutionListener());
             
             // Set the initial value
-            Database db = new Database(getActivity());
+            Database db = Database.getInstance(getActivity());
             editor.initVarName(varName);
             if(db.substitutionExists(varName))
                 editor.initValue(db.getSubstitution(varName).value);
-            db.close();
             
             // Show the editor
             editor.show(getFragmentManager(), EDITOR_TAG);
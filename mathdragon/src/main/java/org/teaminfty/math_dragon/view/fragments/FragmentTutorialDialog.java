@@ -97,11 +97,10 @@ public class FragmentTutorialDialog extends DialogFragment
             {
                 if(((CheckBox)view.findViewById(R.id.check_dont_show)).isChecked())
                 {
-                    Database db = new Database(getActivity());
+                    Database db = Database.getInstance(getActivity());
                     Database.TutorialState state = db.getTutorialState(FragmentMainScreen.TUTORIAL_ID);
                     state.showTutDlg = false;
                     db.saveTutorialState(state);
-                    db.close();
                 }
                 dismiss();
                 
@@ -1,5 +1,6 @@
 package org.teaminfty.math_dragon.view.math;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -25,6 +26,13 @@ public abstract class Expression
     
     /** The children of this {@link Expression} */
     protected ArrayList<Expression> children = new ArrayList<Expression>();
+    
+    /** The {@link Expression} this {@link Expression} is a child of (or <tt>null</tt> if it has no parent) */
+    protected Expression parent = null;
+    
+    /** The cached immutable snapshot of this {@link Expression} (<tt>null</tt> if it has to be rebuilt)
+     * @see ExpressionSnapshot#of(Expression) */
+    ExpressionSnapshot snapshot = null;
 
     /** The center of this object */
     protected Point center;
@@ -103,10 +111,12 @@ public abstract class Expression
         
         // Set the child
         children.set(index, child);
+        child.parent = this;
+        invalidateSnapshot();
 
-        // Refresh all levels and default heights
-        // Also reset the bounding box cache
-        setAll(level, defaultHeight, false);
+        // Refresh the level and default height of the new child and reset its bounding box cache
+        // This also resets the bounding box cache of this expression and all of its ancestors
+        child.setAll(getChildLevel(index), defaultHeight, false);
     }
 
     /** Sets the child at the given index without refreshing the level, default height or bounding box cache.
@@ -130,8 +140,25 @@ public abstract class Expression
         
         // Set the child
         children.set(index, child);
+        child.parent = this;
+        invalidateSnapshot();
+    }
+    
+    /** Discards the cached {@link ExpressionSnapshot} of this {@link Expression} and of all of its ancestors.
+     * This should be called whenever the value or the structure of this {@link Expression} changes. */
+    protected void invalidateSnapshot()
+    {
+        // If a snapshot is cached, the snapshots of all descendants are cached as well
+        // So we can stop as soon as we find an expression without a cached snapshot
+        for(Expression expr = this; expr != null && expr.snapshot != null; expr = expr.parent)
+            expr.snapshot = null;
     }
     
+    /** Returns the {@link Expression} this {@link Expression} is a child of
+     * @return The parent, or <tt>null</tt> if this {@link Expression} has no parent */
+    public Expression getParent()
+    { return parent; }
+    
     /** Returns the default height for this {@link Expression}
      * @return The default height for this {@link Expression} */
     public int getDefaultHeight()
@@ -153,7 +180,8 @@ public abstract class Expression
             child.setDefaultHeight(defaultHeight);
     }
     
-    /** Invalidate or validate all bounding boxes in the cache (for this expression and all of its children) */
+    /** Invalidate all bounding boxes in the cache (for this expression and all of its children).
+     * The bounding boxes of all ancestors are invalidated as well, since they depend on this expression. */
     public void invalidateBoundingBoxCache()
     {
         // Invalidate the whole cache
@@ -164,7 +192,8 @@ public abstract class Expression
             child.invalidateBoundingBoxCache();
     }
 
-    /** Invalidate or validate all bounding boxes in the cache (only for this expression) */
+    /** Invalidate all bounding boxes in the cache for this expression (but not for its children).
+     * The bounding boxes of all ancestors are invalidated as well, since they depend on this expression. */
     public void invalidateBoundingBoxCacheForSelf()
     {
         // Invalidate the whole cache
@@ -172,6 +201,82 @@ public abstract class Expression
         childrenBoundingBoxValid = false;
         totalBoundingBoxValid = false;
         centerValid = false;
+        
+        // Invalidate the path up to the root
+        invalidateAncestors();
+    }
+    
+    /** Invalidates the bounding box cache of all ancestors of this expression.
+     * We stop at the first ancestor whose cache is completely invalid already, since its ancestors will be invalid as well. */
+    protected final void invalidateAncestors()
+    {
+        for(Expression ancestor = parent; ancestor != null && !ancestor.isLayoutCompletelyInvalid(); ancestor = ancestor.parent)
+        {
+            ancestor.operatorBoundingBoxValid = false;
+            ancestor.childrenBoundingBoxValid = false;
+            ancestor.totalBoundingBoxValid = false;
+            ancestor.centerValid = false;
+        }
+    }
+    
+    /** Whether or not none of the cached values of this expression are valid */
+    private boolean isLayoutCompletelyInvalid()
+    { return !operatorBoundingBoxValid && !childrenBoundingBoxValid && !totalBoundingBoxValid && !centerValid; }
+    
+    /** Whether or not all bounding boxes of this expression and all of its descendants are valid.
+     * Only the flags of this expression are read: invalidating an expression invalidates all of its ancestors,
+     * so this relies on every descendant pointing to its real parent (see {@link Expression#getParent() getParent()}).
+     * @return <tt>true</tt> if the layout is valid, <tt>false</tt> if {@link Expression#layout() layout()} has work to do */
+    public boolean isLayoutValid()
+    { return operatorBoundingBoxValid && childrenBoundingBoxValid && totalBoundingBoxValid && centerValid; }
+    
+    /** Calculates all bounding boxes that are invalid, for this expression and all of its descendants.
+     * Since invalidating an expression also invalidates all of its ancestors, only the paths to the changed expressions are visited.
+     * After this, reading the bounding boxes won't calculate anything.
+     * <p>
+     * When assertions are enabled, this first checks that every descendant points to its real parent.
+     * Otherwise a broken parent would silently leave stale bounding boxes, since the changes below it wouldn't invalidate us. */
+    public void layout()
+    {
+        assert descendantsPointToParents() : "A descendant of this " + getClass().getSimpleName() + " doesn't point to its parent";
+        layoutInvalidated();
+    }
+    
+    /** Calculates all bounding boxes that are invalid, see {@link Expression#layout() layout()} */
+    private void layoutInvalidated()
+    {
+        // Nothing to do if everything is valid
+        if(isLayoutValid())
+            return;
+        
+        // Lay out the children first, we depend on them
+        for(Expression child : children)
+            child.layoutInvalidated();
+        
+        // Calculate our own bounding boxes
+        validateOperatorBoundingBoxes();
+        validateChildrenBoundingBoxes();
+        validateTotalBoundingBox();
+        getCenter();
+    }
+    
+    /** Whether or not every descendant of this expression points to its real parent (this visits the whole tree, so it's only used in assertions)
+     * @return <tt>true</tt> if they all do, <tt>false</tt> otherwise */
+    private boolean descendantsPointToParents()
+    {
+        ArrayDeque<Expression> stack = new ArrayDeque<Expression>();
+        stack.push(this);
+        while(!stack.isEmpty())
+        {
+            Expression expr = stack.pop();
+            for(Expression child : expr.children)
+            {
+                if(child.parent != expr)
+                    return false;
+                stack.push(child);
+            }
+        }
+        return true;
     }
     
     /** Get the state of the bounding box cache */
@@ -201,10 +306,11 @@ public abstract class Expression
      */
     public abstract Rect[] calculateOperatorBoundingBoxes();
 
-    public Rect[] getOperatorBoundingBoxes()
-    {    	
-        // If the cache is invalid or there are no bounding boxes in the current cache, recalculate them
-        if( !getOperatorBoundingBoxValid() || operatorBoundingBoxes.isEmpty())
+    /** Recalculates the operator bounding boxes if the cache is invalid */
+    private void validateOperatorBoundingBoxes()
+    {
+        // If the cache is invalid, recalculate the bounding boxes
+        if(!getOperatorBoundingBoxValid())
         {
             // First clear the current list
             operatorBoundingBoxes.clear();
@@ -218,6 +324,14 @@ public abstract class Expression
             // Set the cache to valid
             operatorBoundingBoxValid = true;
         }
+    }
+    
+    /** Returns a copy of the bounding boxes of the operator of this {@link Expression}
+     * @return An array containing the requested bounding boxes */
+    public Rect[] getOperatorBoundingBoxes()
+    {
+        // Make sure the cache is valid
+        validateOperatorBoundingBoxes();
         
         // Create a new array and get a copy of all the bounding boxes
         Rect[] result = new Rect[ operatorBoundingBoxes.size()];
@@ -228,6 +342,23 @@ public abstract class Expression
         // Return the array with the rectangles
         return result;
     }
+    
+    /** Returns the number of operator bounding boxes of this {@link Expression}
+     * @return The number of operator bounding boxes */
+    public int getOperatorBoundingBoxCount()
+    {
+        validateOperatorBoundingBoxes();
+        return operatorBoundingBoxes.size();
+    }
+    
+    /** Copies the operator bounding box with the given index into <tt>out</tt>, without allocating anything
+     * @param index The index of the operator bounding box
+     * @param out The {@link Rect} the bounding box is copied into */
+    public void getOperatorBoundingBox(int index, Rect out)
+    {
+        validateOperatorBoundingBoxes();
+        out.set(operatorBoundingBoxes.get(index));
+    }
     /**
      * Returns the bounding box of the child at the given index.
      * The aspect ratio of the box should always be the same.
@@ -240,8 +371,9 @@ public abstract class Expression
      */
     public abstract Rect calculateChildBoundingBox(int index) throws IndexOutOfBoundsException;
 
-    public Rect getChildBoundingBox(int index) throws IndexOutOfBoundsException
-    {    	
+    /** Recalculates the bounding boxes of the children if the cache is invalid */
+    private void validateChildrenBoundingBoxes()
+    {
         // If the cache is invalid or the amount of bounding boxes isn't the amount of children, recalculate them
         if( !getChildrenBoundingBoxValid() || (getChildCount() != childrenBoundingBoxes.size()))
         {
@@ -251,11 +383,31 @@ public abstract class Expression
              
             childrenBoundingBoxValid = true;
         }
+    }
+
+    /** Returns a copy of the bounding box of the child at the given index
+     * @param index The index of the child
+     * @return The bounding box of the child
+     * @throws IndexOutOfBoundsException If an invalid child index is given */
+    public Rect getChildBoundingBox(int index) throws IndexOutOfBoundsException
+    {
+        // Make sure the cache is valid
+        validateChildrenBoundingBoxes();
         
         // Return a copy of the requested bounding box
         return new Rect(childrenBoundingBoxes.get(index));
     }
     
+    /** Copies the bounding box of the child at the given index into <tt>out</tt>, without allocating anything
+     * @param index The index of the child
+     * @param out The {@link Rect} the bounding box is copied into
+     * @throws IndexOutOfBoundsException If an invalid child index is given */
+    public void getChildBoundingBox(int index, Rect out) throws IndexOutOfBoundsException
+    {
+        validateChildrenBoundingBoxes();
+        out.set(childrenBoundingBoxes.get(index));
+    }
+    
     /** Calculate all the children's bounding boxes and add them to the children arraylist */
     public void calculateAllChildBoundingBox()
     {
@@ -291,7 +443,8 @@ public abstract class Expression
         return new Rect(0,0,width, height);
     }
     
-    public Rect getBoundingBox()
+    /** Recalculates the total bounding box if the cache is invalid */
+    private void validateTotalBoundingBox()
     {
         // If the cache is invalid or there is no bounding box in the cache, recalculate
         if( !getTotalBoundingBoxValid() || totalBoundingBox == null)
@@ -299,11 +452,27 @@ public abstract class Expression
             totalBoundingBox = calculateBoundingBox();
             totalBoundingBoxValid = true;
         }
+    }
+    
+    /** Returns a copy of the bounding box for the entire {@link Expression}
+     * @return The bounding box */
+    public Rect getBoundingBox()
+    {
+        // Make sure the cache is valid
+        validateTotalBoundingBox();
         
         // Return a copy of the bounding box
         return new Rect(totalBoundingBox);
     }
     
+    /** Copies the bounding box for the entire {@link Expression} into <tt>out</tt>, without allocating anything
+     * @param out The {@link Rect} the bounding box is copied into */
+    public void getBoundingBox(Rect out)
+    {
+        validateTotalBoundingBox();
+        out.set(totalBoundingBox);
+    }
+    
     /**
      * Retrieve the current hover state.
      * @return {@link #state}
@@ -362,8 +531,14 @@ public abstract class Expression
     {
         // Loop through all children and draw them
         for(int i = 0; i < children.size(); ++i)
-            drawChild(i, canvas, getChildBoundingBox(i));
+        {
+            getChildBoundingBox(i, childDrawBox);
+            drawChild(i, canvas, childDrawBox);
+        }
     }
+    
+    /** The {@link Rect} that {@link Expression#drawChildren(Canvas) drawChildren()} reuses for the child bounding boxes */
+    private final Rect childDrawBox = new Rect();
 
     /**
      * Checks if the given child index is valid, and throws an exception if it
@@ -442,6 +617,16 @@ public abstract class Expression
     /** The deltas that should be added to the level for each corresponding child */
     protected int[] levelDeltas = null;
     
+    /** Returns the level the child at the given index should have
+     * @param index The index of the child
+     * @return The level for the child */
+    protected int getChildLevel(int index)
+    {
+        if(levelDeltas != null && index < levelDeltas.length)
+            return level + levelDeltas[index];
+        return level;
+    }
+    
     /** Sets the new level for this {@link Expression} and all of its children
      * @param l The new level */
     public void setLevel(int l)
@@ -455,12 +640,7 @@ public abstract class Expression
         
         // Set the level every child
         for(int i = 0; i < getChildCount(); ++i)
-        {
-            if(levelDeltas != null && i < levelDeltas.length)
-                getChild(i).setLevel(l + levelDeltas[i]);
-            else
-                getChild(i).setLevel(l);
-        }
+            getChild(i).setLevel(getChildLevel(i));
     }
     
     /** Sets the level, bounding boxes validation and default height for this expression and all of it's children at once
@@ -469,24 +649,70 @@ public abstract class Expression
      * @param valid Whether or not the bounding boxes should be valid */
     public void setAll(int lvl, int defHeight, boolean valid)
     {
-        // Set the values
+        // The ancestors depend on our bounding boxes
         level = lvl;
-        defaultHeight = defHeight;
-        operatorBoundingBoxValid = valid;
-        childrenBoundingBoxValid = valid;
-        totalBoundingBoxValid = valid;
-        centerValid = valid;
+        if(!valid)
+            invalidateAncestors();
         
-        // Set the values for all children
-        for(int i = 0; i < getChildCount(); ++i)
+        // Set the values for this expression and all of its descendants
+        // We use an explicit stack since this is called for every new child, so deep trees shouldn't overflow the call stack
+        // The level of an expression is set when it's pushed, since it depends on the level of its parent
+        ArrayDeque<Expression> stack = new ArrayDeque<Expression>();
+        stack.push(this);
+        while(!stack.isEmpty())
         {
-            if(levelDeltas != null && i < levelDeltas.length)
-                getChild(i).setAll(lvl + levelDeltas[i], defHeight, valid);
-            else
-                getChild(i).setAll(lvl, defHeight, valid);
+            Expression expr = stack.pop();
+            expr.defaultHeight = defHeight;
+            expr.operatorBoundingBoxValid = valid;
+            expr.childrenBoundingBoxValid = valid;
+            expr.totalBoundingBoxValid = valid;
+            expr.centerValid = valid;
+            for(int i = expr.getChildCount() - 1; i >= 0; --i)
+            {
+                // A child that already has the right level and default height and is completely invalid can be skipped,
+                // its descendants got their level and default height from it (and their bounding boxes don't depend on it)
+                // This relies on operations knowing the levels of their children before the children are set (see Binary)
+                // This keeps building a tree bottom-up (which sets every subtree as a child) linear in its size
+                Expression child = expr.getChild(i);
+                final int childLevel = expr.getChildLevel(i);
+                if(!valid && child.level == childLevel && child.defaultHeight == defHeight && child.isLayoutCompletelyInvalid())
+                    continue;
+                child.level = childLevel;
+                stack.push(child);
+            }
         }
     }
     
+    /** Copies the cached layout of this {@link Expression} (but not that of its children) to the given copy.
+     * The copy then doesn't need to calculate its bounding boxes again.
+     * @param copy A copy of this {@link Expression} with the same structure and values
+     * @see ExpressionDuplicator#deepCopy(Expression) */
+    void copyLayoutTo(Expression copy)
+    {
+        // Copy the level and the default height
+        copy.level = level;
+        copy.defaultHeight = defaultHeight;
+        
+        // Copy the bounding boxes
+        copy.operatorBoundingBoxes.clear();
+        for(Rect rect : operatorBoundingBoxes)
+            copy.operatorBoundingBoxes.add(new Rect(rect));
+        copy.childrenBoundingBoxes.clear();
+        for(Rect rect : childrenBoundingBoxes)
+            copy.childrenBoundingBoxes.add(new Rect(rect));
+        copy.totalBoundingBox = totalBoundingBox == null ? null : new Rect(totalBoundingBox);
+        copy.center = center == null ? null : new Point(center.x, center.y);
+        
+        // Copy which parts of the cache are valid
+        copy.operatorBoundingBoxValid = operatorBoundingBoxValid;
+        copy.childrenBoundingBoxValid = childrenBoundingBoxValid;
+        copy.totalBoundingBoxValid = totalBoundingBoxValid;
+        copy.centerValid = centerValid;
+        
+        // The copy is described by the same (immutable) snapshot
+        copy.snapshot = snapshot;
+    }
+    
     /** Whether or not to draw the bounding boxes */
     private final static boolean DRAW_BOUNDING = false;
     
@@ -501,11 +727,16 @@ public abstract class Expression
 
         // Draw the bounding boxes
         Paint paint = new Paint();
+        Rect box = new Rect();
         paint.setColor(0x4400ff00);
-        canvas.drawRect(getBoundingBox(), paint);
+        getBoundingBox(box);
+        canvas.drawRect(box, paint);
         paint.setColor(0x44ff0000);
         for(int i = 0; i < getChildCount(); ++i)
-            canvas.drawRect(getChildBoundingBox(i), paint);
+        {
+            getChildBoundingBox(i, box);
+            canvas.drawRect(box, paint);
+        }
     }
     
     /** The name of the XML root element */
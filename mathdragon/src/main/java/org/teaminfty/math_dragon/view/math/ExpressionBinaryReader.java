@@ -0,0 +1,171 @@
+package org.teaminfty.math_dragon.view.math;
+
+import static org.teaminfty.math_dragon.view.math.ExpressionBinaryWriter.*;
+
+import org.teaminfty.math_dragon.exceptions.ParseException;
+import org.teaminfty.math_dragon.view.math.operation.Integral;
+import org.teaminfty.math_dragon.view.math.operation.Limit;
+import org.teaminfty.math_dragon.view.math.operation.Negate;
+import org.teaminfty.math_dragon.view.math.operation.binary.Add;
+import org.teaminfty.math_dragon.view.math.operation.binary.Derivative;
+import org.teaminfty.math_dragon.view.math.operation.binary.Divide;
+import org.teaminfty.math_dragon.view.math.operation.binary.Log;
+import org.teaminfty.math_dragon.view.math.operation.binary.Multiply;
+import org.teaminfty.math_dragon.view.math.operation.binary.Power;
+import org.teaminfty.math_dragon.view.math.operation.binary.Root;
+import org.teaminfty.math_dragon.view.math.operation.binary.Subtract;
+
+/**
+ * Factory for creating {@link Expression}s from the binary format written by {@link ExpressionBinaryWriter}.
+ *
+ * @see #fromBytes(byte[])
+ */
+public final class ExpressionBinaryReader
+{
+    /** The data that is being read */
+    private final byte[] data;
+
+    /** The current position in {@link ExpressionBinaryReader#data data} */
+    private int pos = 0;
+
+    /** Constructor
+     * @param data The data to read */
+    private ExpressionBinaryReader(byte[] data)
+    {
+        this.data = data;
+    }
+
+    /**
+     * Construct {@link Expression} from its binary encoding. If anything fails
+     * while decoding, a {@link ParseException} is thrown.
+     *
+     * @param data
+     *        The binary encoding, as returned by {@link ExpressionBinaryWriter#toBytes(Expression)}
+     * @return The constructed mathematical object. Never returns <tt>null</tt>
+     * @throws ParseException
+     *         Thrown if anything couldn't be decoded.
+     */
+    public static Expression fromBytes(byte[] data) throws ParseException
+    {
+        ExpressionBinaryReader reader = new ExpressionBinaryReader(data);
+        try
+        {
+            final int version = reader.readByte();
+            if(version != FORMAT_VERSION)
+                throw new ParseException("Unsupported binary format version " + version);
+
+            Expression out = reader.read();
+            if(reader.pos != data.length)
+                throw new ParseException("Unexpected data after the expression");
+            return out;
+        }
+        catch(RuntimeException e)
+        { throw new ParseException(e); }
+    }
+
+    /** Reads an {@link Expression} and all of its descendants
+     * @return The {@link Expression}
+     * @throws ParseException Thrown if the data is invalid */
+    private Expression read() throws ParseException
+    {
+        final int tag = readByte();
+        switch(tag)
+        {
+            case TAG_EMPTY:         return new Empty();
+            case TAG_SYMBOL:        return readSymbol();
+            case TAG_PARENTHESES:   return new Parentheses(read());
+            case TAG_FUNCTION:
+            {
+                final int type = (int) readVarLong();
+                if(type < 0 || type >= Function.FunctionType.values().length)
+                    throw new ParseException("Unknown function type " + type);
+                Function f = new Function(Function.FunctionType.values()[type]);
+                f.setChild(0, read());
+                return f;
+            }
+            case TAG_NEGATE:        return new Negate(read());
+            case TAG_ADD:           return new Add(read(), read());
+            case TAG_SUBTRACT:      return new Subtract(read(), read());
+            case TAG_MULTIPLY:      return new Multiply(read(), read());
+            case TAG_DIVIDE:        return new Divide(read(), read());
+            case TAG_POWER:         return new Power(read(), read());
+            case TAG_ROOT:
+            {
+                // The exponent is the first child of a root
+                Expression exponent = read();
+                return new Root(read(), exponent);
+            }
+            case TAG_DERIVATIVE:    return new Derivative(read(), read());
+            case TAG_LOG:           return new Log(read(), read());
+            case TAG_INTEGRAL:      return new Integral(read(), read(), read(), read());
+            case TAG_LIMIT:         return new Limit(read(), read(), read());
+        }
+        throw new ParseException("Unknown tag " + tag);
+    }
+
+    /** Reads the values of a {@link Symbol}
+     * @return The {@link Symbol}
+     * @throws ParseException Thrown if the data is invalid */
+    private Symbol readSymbol() throws ParseException
+    {
+        // The factor
+        final int flags = readByte();
+        final double factor = (flags & SYMBOL_INTEGER_FACTOR) != 0 ? readVarLong() : readDouble();
+
+        // The powers of the constants
+        final long ePow = readVarLong();
+        final long piPow = readVarLong();
+        final long iPow = readVarLong();
+
+        // The powers of the variables
+        final long mask = readVarLong();
+        if(mask < 0 || mask >= (1L << Symbol.VAR_POWS_LENGTH))
+            throw new ParseException("Invalid variable mask");
+        long[] varPows = new long[Symbol.VAR_POWS_LENGTH];
+        for(int i = 0; i < varPows.length; ++i)
+        {
+            if((mask & (1L << i)) != 0)
+                varPows[i] = readVarLong();
+        }
+
+        // Create and return the symbol
+        return new Symbol(factor, ePow, piPow, iPow, varPows);
+    }
+
+    /** Reads a single unsigned byte
+     * @return The byte
+     * @throws ParseException Thrown if there's no more data */
+    private int readByte() throws ParseException
+    {
+        if(pos >= data.length)
+            throw new ParseException("Unexpected end of data");
+        return data[pos++] & 0xFF;
+    }
+
+    /** Reads a zigzag-encoded variable length integer
+     * @return The value
+     * @throws ParseException Thrown if the data is invalid */
+    private long readVarLong() throws ParseException
+    {
+        long zigzag = 0;
+        for(int shift = 0; shift < 64; shift += 7)
+        {
+            final int b = readByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        throw new ParseException("Variable length integer is too long");
+    }
+
+    /** Reads the raw bits of a <tt>double</tt> (big-endian)
+     * @return The value
+     * @throws ParseException Thrown if there's no more data */
+    private double readDouble() throws ParseException
+    {
+        long bits = 0;
+        for(int i = 0; i < 8; ++i)
+            bits = (bits << 8) | readByte();
+        return Double.longBitsToDouble(bits);
+    }
+}
@@ -0,0 +1,195 @@
+package org.teaminfty.math_dragon.view.math;
+
+import org.teaminfty.math_dragon.view.math.operation.Integral;
+import org.teaminfty.math_dragon.view.math.operation.Limit;
+import org.teaminfty.math_dragon.view.math.operation.Negate;
+import org.teaminfty.math_dragon.view.math.operation.binary.Add;
+import org.teaminfty.math_dragon.view.math.operation.binary.Derivative;
+import org.teaminfty.math_dragon.view.math.operation.binary.Divide;
+import org.teaminfty.math_dragon.view.math.operation.binary.Log;
+import org.teaminfty.math_dragon.view.math.operation.binary.Multiply;
+import org.teaminfty.math_dragon.view.math.operation.binary.Power;
+import org.teaminfty.math_dragon.view.math.operation.binary.Root;
+import org.teaminfty.math_dragon.view.math.operation.binary.Subtract;
+
+/**
+ * Encodes {@link Expression}s in a compact binary format, which is a lot cheaper to create and store than an XML document.
+ * Use {@link ExpressionBinaryReader} to decode the result.
+ * <p>
+ * The format starts with a version byte, followed by the nodes of the expression tree in pre-order.
+ * Every node starts with a tag byte that identifies its type, followed by the values of the node itself
+ * (for example the powers of a {@link Symbol}) and then its children, in the order of their child indices.
+ * Integers are written as zigzag-encoded variable length integers, so small powers only take a single byte.
+ *
+ * @see ExpressionBinaryReader
+ */
+public final class ExpressionBinaryWriter
+{
+    /** The version of the binary format */
+    static final int FORMAT_VERSION = 1;
+
+    /** The tag for {@link Empty} */
+    static final int TAG_EMPTY = 0;
+    /** The tag for {@link Symbol} */
+    static final int TAG_SYMBOL = 1;
+    /** The tag for {@link Parentheses} */
+    static final int TAG_PARENTHESES = 2;
+    /** The tag for {@link Function}, followed by the ordinal of its type */
+    static final int TAG_FUNCTION = 3;
+    /** The tag for {@link Negate} */
+    static final int TAG_NEGATE = 4;
+    /** The tag for {@link Add} */
+    static final int TAG_ADD = 5;
+    /** The tag for {@link Subtract} */
+    static final int TAG_SUBTRACT = 6;
+    /** The tag for {@link Multiply} */
+    static final int TAG_MULTIPLY = 7;
+    /** The tag for {@link Divide} */
+    static final int TAG_DIVIDE = 8;
+    /** The tag for {@link Power} */
+    static final int TAG_POWER = 9;
+    /** The tag for {@link Root} */
+    static final int TAG_ROOT = 10;
+    /** The tag for {@link Derivative} */
+    static final int TAG_DERIVATIVE = 11;
+    /** The tag for {@link Log} */
+    static final int TAG_LOG = 12;
+    /** The tag for {@link Integral} */
+    static final int TAG_INTEGRAL = 13;
+    /** The tag for {@link Limit} */
+    static final int TAG_LIMIT = 14;
+
+    /** Flag for a {@link Symbol} whose factor is stored as a variable length integer instead of the raw bits of the <tt>double</tt> */
+    static final int SYMBOL_INTEGER_FACTOR = 0x01;
+
+    /** The buffer that is being written to */
+    private byte[] buffer = new byte[64];
+
+    /** The number of bytes that have been written */
+    private int length = 0;
+
+    private ExpressionBinaryWriter()
+    {}
+
+    /**
+     * Encodes the given {@link Expression} in the binary format
+     *
+     * @param expr
+     *        The {@link Expression} to encode
+     * @return The encoded {@link Expression}
+     */
+    public static byte[] toBytes(Expression expr)
+    {
+        return toBytes(ExpressionSnapshot.of(expr));
+    }
+
+    /**
+     * Encodes the given {@link ExpressionSnapshot} in the binary format
+     *
+     * @param snapshot
+     *        The {@link ExpressionSnapshot} to encode
+     * @return The encoded {@link ExpressionSnapshot}
+     */
+    public static byte[] toBytes(ExpressionSnapshot snapshot)
+    {
+        ExpressionBinaryWriter writer = new ExpressionBinaryWriter();
+        writer.writeByte(FORMAT_VERSION);
+        writer.write(snapshot);
+
+        byte[] out = new byte[writer.length];
+        System.arraycopy(writer.buffer, 0, out, 0, writer.length);
+        return out;
+    }
+
+    /** Writes the given {@link ExpressionSnapshot} and all of its descendants
+     * @param snapshot The {@link ExpressionSnapshot} to write */
+    private void write(ExpressionSnapshot snapshot)
+    {
+        // Write the tag and the values of the expression itself
+        writeByte(snapshot.tag);
+        if(snapshot.tag == TAG_SYMBOL)
+            writeSymbol(snapshot);
+        else if(snapshot.tag == TAG_FUNCTION)
+            writeVarLong(snapshot.values[0]);
+
+        // Write the children
+        for(ExpressionSnapshot child : snapshot.children)
+            write(child);
+    }
+
+    /** Writes the values of a {@link Symbol}
+     * @param symbol The snapshot of the {@link Symbol} to write */
+    private void writeSymbol(ExpressionSnapshot symbol)
+    {
+        // Integer factors (the most common case by far) are written as a variable length integer
+        final double factor = symbol.factor;
+        final boolean integerFactor = factor == Math.rint(factor) && Math.abs(factor) < (1L << 53) && Double.doubleToLongBits(factor) != Double.doubleToLongBits(-0.0);
+        writeByte(integerFactor ? SYMBOL_INTEGER_FACTOR : 0);
+        if(integerFactor)
+            writeVarLong((long) factor);
+        else
+            writeDouble(factor);
+
+        // The powers of the constants (e, pi and i)
+        writeVarLong(symbol.values[0]);
+        writeVarLong(symbol.values[1]);
+        writeVarLong(symbol.values[2]);
+
+        // Write a mask of the variables that have a non-zero power, followed by those powers
+        int mask = 0;
+        for(int i = 3; i < symbol.values.length; ++i)
+        {
+            if(symbol.values[i] != 0)
+                mask |= 1 << (i - 3);
+        }
+        writeVarLong(mask);
+        for(int i = 3; i < symbol.values.length; ++i)
+        {
+            if(symbol.values[i] != 0)
+                writeVarLong(symbol.values[i]);
+        }
+    }
+
+    /** Makes sure there's room for the given number of bytes
+     * @param count The number of bytes */
+    private void ensureCapacity(int count)
+    {
+        if(length + count <= buffer.length)
+            return;
+        byte[] newBuffer = new byte[Math.max(2 * buffer.length, length + count)];
+        System.arraycopy(buffer, 0, newBuffer, 0, length);
+        buffer = newBuffer;
+    }
+
+    /** Writes a single byte
+     * @param b The byte to write */
+    private void writeByte(int b)
+    {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    /** Writes a zigzag-encoded variable length integer
+     * @param value The value to write */
+    private void writeVarLong(long value)
+    {
+        ensureCapacity(10);
+        long zigzag = (value << 1) ^ (value >> 63);
+        while((zigzag & ~0x7FL) != 0)
+        {
+            buffer[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        buffer[length++] = (byte) zigzag;
+    }
+
+    /** Writes the raw bits of a <tt>double</tt> (big-endian)
+     * @param value The value to write */
+    private void writeDouble(double value)
+    {
+        ensureCapacity(8);
+        final long bits = Double.doubleToRawLongBits(value);
+        for(int shift = 56; shift >= 0; shift -= 8)
+            buffer[length++] = (byte) (bits >>> shift);
+    }
+}
@@ -1,35 +1,95 @@
 package org.teaminfty.math_dragon.view.math;
 
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.teaminfty.math_dragon.exceptions.ParseException;
-import org.w3c.dom.Document;
+import org.teaminfty.math_dragon.view.math.operation.Integral;
+import org.teaminfty.math_dragon.view.math.operation.Limit;
+import org.teaminfty.math_dragon.view.math.operation.Negate;
+import org.teaminfty.math_dragon.view.math.operation.binary.Add;
+import org.teaminfty.math_dragon.view.math.operation.binary.Derivative;
+import org.teaminfty.math_dragon.view.math.operation.binary.Divide;
+import org.teaminfty.math_dragon.view.math.operation.binary.Log;
+import org.teaminfty.math_dragon.view.math.operation.binary.Multiply;
+import org.teaminfty.math_dragon.view.math.operation.binary.Power;
+import org.teaminfty.math_dragon.view.math.operation.binary.Root;
+import org.teaminfty.math_dragon.view.math.operation.binary.Subtract;
 
 public final class ExpressionDuplicator
 {
-    /** Creates a deep copy of the given {@link Expression}
+    private ExpressionDuplicator()
+    {}
+
+    /** Creates a deep copy of the given {@link Expression}.
+     * The cached bounding boxes are copied as well, so the copy doesn't have to calculate them again.
      * @param src The {@link Expression} to copy
-     * @return The copy of the given {@link Expression} (returns <tt>null</tt> if the function somehow fails) */
+     * @return The copy of the given {@link Expression} */
     public static Expression deepCopy(Expression src)
     {
-        try
-        {
-            // Create a XML document of the source object
-            Document doc = Expression.createXMLDocument();
-            src.writeToXML(doc, doc.getDocumentElement());
-            
-            // Create a new object from the XML and return that object
-            return ExpressionXMLReader.fromXML(doc);
-        }
-        catch(ParserConfigurationException e)
+        // First create the structure, then copy the layout (creating the structure invalidates the layout)
+        Expression copy = copyStructure(src);
+        copyLayout(src, copy);
+        return copy;
+    }
+
+    /** Creates a copy of the given {@link Expression} and all of its descendants, without copying the layout
+     * @param src The {@link Expression} to copy
+     * @return The copy */
+    private static Expression copyStructure(Expression src)
+    {
+        // Copy the children
+        Expression[] c = new Expression[src.getChildCount()];
+        for(int i = 0; i < c.length; ++i)
+            c[i] = copyStructure(src.getChild(i));
+
+        // Copy the expression itself
+        if(src instanceof Symbol)
         {
-            e.printStackTrace();
-            return null;
+            Symbol symbol = (Symbol) src;
+            long[] varPows = new long[symbol.varPowCount()];
+            for(int i = 0; i < varPows.length; ++i)
+                varPows[i] = symbol.getVarPow(i);
+            return new Symbol(symbol.getFactor(), symbol.getEPow(), symbol.getPiPow(), symbol.getIPow(), varPows);
         }
-        catch(ParseException e)
+        if(src instanceof Function)
         {
-            e.printStackTrace();
-            return null;
+            Function f = new Function(((Function) src).getType());
+            f.setChild(0, c[0]);
+            return f;
         }
+        if(src instanceof Empty)
+            return new Empty();
+        if(src instanceof Parentheses)
+            return new Parentheses(c[0]);
+        if(src instanceof Negate)
+            return new Negate(c[0]);
+        if(src instanceof Add)
+            return new Add(c[0], c[1]);
+        if(src instanceof Subtract)
+            return new Subtract(c[0], c[1]);
+        if(src instanceof Multiply)
+            return new Multiply(c[0], c[1]);
+        if(src instanceof Divide)
+            return new Divide(c[0], c[1]);
+        if(src instanceof Power)
+            return new Power(c[0], c[1]);
+        if(src instanceof Root)
+            return new Root(c[1], c[0]);
+        if(src instanceof Derivative)
+            return new Derivative(c[0], c[1]);
+        if(src instanceof Log)
+            return new Log(c[0], c[1]);
+        if(src instanceof Integral)
+            return new Integral(c[0], c[1], c[2], c[3]);
+        if(src instanceof Limit)
+            return new Limit(c[0], c[1], c[2]);
+        throw new IllegalArgumentException("Can't copy " + src.getClass().getName());
+    }
+
+    /** Copies the cached layout of the given {@link Expression} and all of its descendants to the given copy
+     * @param src The {@link Expression} to copy the layout from
+     * @param copy The copy of <tt>src</tt> */
+    private static void copyLayout(Expression src, Expression copy)
+    {
+        src.copyLayoutTo(copy);
+        for(int i = 0; i < src.getChildCount(); ++i)
+            copyLayout(src.getChild(i), copy.getChild(i));
     }
 }
@@ -0,0 +1,187 @@
+package org.teaminfty.math_dragon.view.math;
+
+import static org.teaminfty.math_dragon.view.math.ExpressionBinaryWriter.*;
+
+import org.teaminfty.math_dragon.view.math.operation.Integral;
+import org.teaminfty.math_dragon.view.math.operation.Limit;
+import org.teaminfty.math_dragon.view.math.operation.Negate;
+import org.teaminfty.math_dragon.view.math.operation.binary.Add;
+import org.teaminfty.math_dragon.view.math.operation.binary.Derivative;
+import org.teaminfty.math_dragon.view.math.operation.binary.Divide;
+import org.teaminfty.math_dragon.view.math.operation.binary.Log;
+import org.teaminfty.math_dragon.view.math.operation.binary.Multiply;
+import org.teaminfty.math_dragon.view.math.operation.binary.Power;
+import org.teaminfty.math_dragon.view.math.operation.binary.Root;
+import org.teaminfty.math_dragon.view.math.operation.binary.Subtract;
+
+/**
+ * An immutable snapshot of an {@link Expression} tree.
+ * <p>
+ * Snapshots share structure: every {@link Expression} caches its snapshot until it or one of its descendants changes.
+ * Taking a snapshot after an edit therefore only creates new nodes for the path from the edited {@link Expression} to the root,
+ * all other subtrees are shared with the previous snapshot.
+ * This makes snapshots cheap enough to take one after every edit (e.g. for the undo/redo history).
+ */
+public final class ExpressionSnapshot
+{
+    /** The type of the expression, one of the tags in {@link ExpressionBinaryWriter} */
+    final int tag;
+
+    /** The factor of a {@link Symbol} (unused for other types) */
+    final double factor;
+
+    /** The values of the expression itself: the powers of a {@link Symbol} (e, pi, i and the variables)
+     * or the ordinal of the type of a {@link Function} */
+    final long[] values;
+
+    /** The snapshots of the children */
+    final ExpressionSnapshot[] children;
+
+    /** Constructor
+     * @param tag The type of the expression
+     * @param factor The factor of a {@link Symbol}
+     * @param values The values of the expression itself
+     * @param children The snapshots of the children */
+    private ExpressionSnapshot(int tag, double factor, long[] values, ExpressionSnapshot[] children)
+    {
+        this.tag = tag;
+        this.factor = factor;
+        this.values = values;
+        this.children = children;
+    }
+
+    /**
+     * Returns the snapshot of the given {@link Expression}.
+     * Subtrees that haven't changed since the last snapshot was taken are reused.
+     *
+     * @param expr
+     *        The {@link Expression} to take a snapshot of
+     * @return The snapshot
+     */
+    public static ExpressionSnapshot of(Expression expr)
+    {
+        // Reuse the cached snapshot if nothing has changed
+        if(expr.snapshot != null)
+            return expr.snapshot;
+
+        // Take snapshots of the children
+        ExpressionSnapshot[] children = new ExpressionSnapshot[expr.getChildCount()];
+        for(int i = 0; i < children.length; ++i)
+            children[i] = of(expr.getChild(i));
+
+        // Take the snapshot
+        ExpressionSnapshot out;
+        if(expr instanceof Symbol)
+        {
+            Symbol symbol = (Symbol) expr;
+            long[] values = new long[3 + symbol.varPowCount()];
+            values[0] = symbol.getEPow();
+            values[1] = symbol.getPiPow();
+            values[2] = symbol.getIPow();
+            for(int i = 0; i < symbol.varPowCount(); ++i)
+                values[3 + i] = symbol.getVarPow(i);
+            out = new ExpressionSnapshot(TAG_SYMBOL, symbol.getFactor(), values, children);
+        }
+        else if(expr instanceof Function)
+            out = new ExpressionSnapshot(TAG_FUNCTION, 0, new long[] {((Function) expr).getType().ordinal()}, children);
+        else
+            out = new ExpressionSnapshot(tagOf(expr), 0, null, children);
+
+        // Cache and return the snapshot
+        return expr.snapshot = out;
+    }
+
+    /** Returns the tag for the given {@link Expression} (only for expressions without values of their own)
+     * @param expr The {@link Expression} to return the tag for
+     * @return The tag */
+    private static int tagOf(Expression expr)
+    {
+        if(expr instanceof Empty)
+            return TAG_EMPTY;
+        if(expr instanceof Parentheses)
+            return TAG_PARENTHESES;
+        if(expr instanceof Negate)
+            return TAG_NEGATE;
+        if(expr instanceof Add)
+            return TAG_ADD;
+        if(expr instanceof Subtract)
+            return TAG_SUBTRACT;
+        if(expr instanceof Multiply)
+            return TAG_MULTIPLY;
+        if(expr instanceof Divide)
+            return TAG_DIVIDE;
+        if(expr instanceof Power)
+            return TAG_POWER;
+        if(expr instanceof Root)
+            return TAG_ROOT;
+        if(expr instanceof Derivative)
+            return TAG_DERIVATIVE;
+        if(expr instanceof Log)
+            return TAG_LOG;
+        if(expr instanceof Integral)
+            return TAG_INTEGRAL;
+        if(expr instanceof Limit)
+            return TAG_LIMIT;
+        throw new IllegalArgumentException("Can't take a snapshot of " + expr.getClass().getName());
+    }
+
+    /**
+     * Creates a new, mutable {@link Expression} tree from this snapshot.
+     * The created expressions remember the snapshots they were created from,
+     * so taking a snapshot of the result only creates new nodes for the parts that are changed afterwards.
+     *
+     * @return The new {@link Expression}
+     */
+    public Expression toExpression()
+    {
+        // Create the children
+        Expression[] c = new Expression[children.length];
+        for(int i = 0; i < c.length; ++i)
+            c[i] = children[i].toExpression();
+
+        // Create the expression itself
+        Expression out = null;
+        switch(tag)
+        {
+            case TAG_EMPTY:         out = new Empty();                              break;
+            case TAG_SYMBOL:
+            {
+                long[] varPows = new long[values.length - 3];
+                System.arraycopy(values, 3, varPows, 0, varPows.length);
+                out = new Symbol(factor, values[0], values[1], values[2], varPows);
+            }
+            break;
+            case TAG_PARENTHESES:   out = new Parentheses(c[0]);                    break;
+            case TAG_FUNCTION:
+                out = new Function(Function.FunctionType.values()[(int) values[0]]);
+                out.setChild(0, c[0]);
+            break;
+            case TAG_NEGATE:        out = new Negate(c[0]);                         break;
+            case TAG_ADD:           out = new Add(c[0], c[1]);                      break;
+            case TAG_SUBTRACT:      out = new Subtract(c[0], c[1]);                 break;
+            case TAG_MULTIPLY:      out = new Multiply(c[0], c[1]);                 break;
+            case TAG_DIVIDE:        out = new Divide(c[0], c[1]);                   break;
+            case TAG_POWER:         out = new Power(c[0], c[1]);                    break;
+            case TAG_ROOT:          out = new Root(c[1], c[0]);                     break;
+            case TAG_DERIVATIVE:    out = new Derivative(c[0], c[1]);               break;
+            case TAG_LOG:           out = new Log(c[0], c[1]);                      break;
+            case TAG_INTEGRAL:      out = new Integral(c[0], c[1], c[2], c[3]);     break;
+            case TAG_LIMIT:         out = new Limit(c[0], c[1], c[2]);              break;
+        }
+
+        // The new expression is described by this snapshot
+        out.snapshot = this;
+        return out;
+    }
+
+    /** Returns the number of children of the expression
+     * @return The number of children */
+    public int getChildCount()
+    { return children.length; }
+
+    /** Returns the snapshot of the child with the given index
+     * @param index The index of the child
+     * @return The snapshot of the child */
+    public ExpressionSnapshot getChild(int index)
+    { return children[index]; }
+}
@@ -2,14 +2,12 @@ package org.teaminfty.math_dragon.view.math;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import java.io.Reader;
+import java.io.StringReader;
 
 import org.teaminfty.math_dragon.exceptions.ParseException;
-import org.teaminfty.math_dragon.view.math.operation.Binary;
 import org.teaminfty.math_dragon.view.math.operation.Integral;
+import org.teaminfty.math_dragon.view.math.operation.Limit;
 import org.teaminfty.math_dragon.view.math.operation.Negate;
 import org.teaminfty.math_dragon.view.math.operation.binary.Add;
 import org.teaminfty.math_dragon.view.math.operation.binary.Derivative;
@@ -22,61 +20,133 @@ import org.teaminfty.math_dragon.view.math.operation.binary.Subtract;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
 
 /**
  * Factory for creating {@link Expression}s from XML documents.
- * 
+ * XML strings and byte arrays are read with a streaming pull parser, which builds the {@link Expression} tree in a single pass.
+ * Already parsed DOM documents are still supported through {@link #fromXML(Document)}.
+ *
  * @author Folkert van Verseveld
  * @see #fromXML(Document)
  */
 public final class ExpressionXMLReader
 {
+    /** The maximum number of children an {@link Expression} can have */
+    private static final int MAX_CHILDREN = 4;
+
+    /** The factory for pull parsers (creating a factory is relatively expensive, so we only do it once) */
+    private static XmlPullParserFactory parserFactory = null;
+
     private ExpressionXMLReader()
     {}
 
-    static Binary toOpBin(Element e) throws ParseException
+    /** Collects the values of a {@link Symbol} from its attributes */
+    private static final class SymbolValues
+    {
+        /** The factor */
+        private double factor = 0;
+        /** The power of e */
+        private long ePow = 0;
+        /** The power of pi */
+        private long piPow = 0;
+        /** The power of i */
+        private long iPow = 0;
+        /** The powers of the variables */
+        private final long[] varPows = new long[Symbol.VAR_POWS_LENGTH];
+
+        /** Reads the value of the attribute with the given name
+         * @param name The name of the attribute
+         * @param value The value of the attribute */
+        public void set(String name, String value)
+        {
+            if(name.equals(Symbol.ATTR_FACTOR))
+                factor = Double.parseDouble(value);
+            else if(name.equals(Symbol.ATTR_E))
+                ePow = Long.parseLong(value);
+            else if(name.equals(Symbol.ATTR_PI))
+                piPow = Long.parseLong(value);
+            else if(name.equals(Symbol.ATTR_I))
+                iPow = Long.parseLong(value);
+            else if(name.startsWith(Symbol.ATTR_VAR))
+                varPows[name.charAt(Symbol.ATTR_VAR.length()) - 'a'] = Long.parseLong(value);
+        }
+
+        /** Creates the {@link Symbol}
+         * @return The {@link Symbol} with the collected values */
+        public Symbol create()
+        { return new Symbol(factor, ePow, piPow, iPow, varPows); }
+    }
+
+    /**
+     * Creates an {@link Expression} (other than a {@link Symbol}) from its XML tag, its type attribute and its children.
+     *
+     * @param tag The XML tag
+     * @param type The value of the type attribute (may be <tt>null</tt> if there is no such attribute)
+     * @param c The children
+     * @param n The number of children
+     * @return The {@link Expression}
+     * @throws ParseException Thrown if the {@link Expression} couldn't be created
+     */
+    private static Expression create(String tag, String type, Expression[] c, int n) throws ParseException
     {
-        final String type = e.getAttribute("type");
         try
         {
-            if(type.equals(Add.TYPE))
+            if(tag.equals(Operation.NAME))
             {
-                return new Add(toMath((Element) e.getFirstChild()), toMath((Element) e.getLastChild()));
-            }
-            else if(type.equals(Multiply.TYPE))
-            {
-                return new Multiply(toMath((Element) e.getFirstChild()), toMath((Element) e.getLastChild()));
-            }
-            else if(type.equals(Divide.TYPE))
-            {
-                return new Divide(toMath((Element) e.getFirstChild()), toMath((Element) e.getLastChild()));
-            }
-            else if(type.equals(Subtract.TYPE))
-            {
-                return new Subtract(toMath((Element) e.getFirstChild()), toMath((Element) e.getLastChild()));
-            }
-            else if(type.equals(Power.TYPE))
-            {
-                return new Power(toMath((Element) e.getFirstChild()), toMath((Element) e.getLastChild()));
-            }
-            else if(type.equals(Root.TYPE))
-            {
-                return new Root(toMath((Element) e.getLastChild()), toMath((Element) e.getFirstChild()));
-            }
-            else if(type.equals(Derivative.TYPE))
-            {
-                return new Derivative(toMath((Element) e.getFirstChild()), toMath((Element) e.getLastChild()));
+                switch(n)
+                {
+                    case 1:
+                        if(Negate.TYPE.equals(type))
+                            return new Negate(c[0]);
+                    break;
+                    case 2:
+                        if(Add.TYPE.equals(type))
+                            return new Add(c[0], c[1]);
+                        else if(Multiply.TYPE.equals(type))
+                            return new Multiply(c[0], c[1]);
+                        else if(Divide.TYPE.equals(type))
+                            return new Divide(c[0], c[1]);
+                        else if(Subtract.TYPE.equals(type))
+                            return new Subtract(c[0], c[1]);
+                        else if(Power.TYPE.equals(type))
+                            return new Power(c[0], c[1]);
+                        else if(Root.TYPE.equals(type))
+                            return new Root(c[1], c[0]);
+                        else if(Derivative.TYPE.equals(type))
+                            return new Derivative(c[0], c[1]);
+                        else if(Log.TYPE.equals(type))
+                            return new Log(c[0], c[1]);
+                    break;
+                    case 3:
+                        if(Limit.TYPE.equals(type))
+                            return new Limit(c[0], c[1], c[2]);
+                    break;
+                    case 4:
+                        if(Integral.TYPE.equals(type))
+                            return new Integral(c[0], c[1], c[2], c[3]);
+                    break;
+                }
+                throw new ParseException(tag + "." + type);
             }
-            else if(type.equals(Log.TYPE))
+            else if(tag.equals(Function.NAME))
             {
-                return new Log(toMath((Element) e.getFirstChild()), toMath((Element) e.getLastChild()));
+                Function f = new Function(Function.FunctionType.getByXmlName(type));
+                f.setChild(0, c[0]);
+                return f;
             }
+            else if(tag.equals(Parentheses.NAME))
+                return new Parentheses(c[0]);
+            else if(tag.equals(Empty.NAME))
+                return new Empty();
         }
         catch(RuntimeException ex)
         {}
-        throw new ParseException(e.getTagName() + "." + type);
+        throw new ParseException(tag);
     }
 
     static Expression toMath(Element e) throws ParseException
@@ -84,66 +154,72 @@ public final class ExpressionXMLReader
         String tag = e.getTagName();
         try
         {
+            // Symbols don't have children, their values are stored in the attributes
             if(tag.equals(Symbol.NAME))
             {
-                // The values of the powers
-                double factor = 0;
-                long ePow = 0;
-                long piPow = 0;
-                long iPow = 0;
-                long[] varPows = new long[26];
-                
-                // Loop through all attributes
+                SymbolValues values = new SymbolValues();
                 NamedNodeMap attrMap = e.getAttributes();
                 for(int i = 0; i < attrMap.getLength(); ++i)
-                {
-                    final String name = attrMap.item(i).getNodeName();
-                    if(name.equals(Symbol.ATTR_FACTOR))
-                        factor = Double.parseDouble(attrMap.item(i).getNodeValue());
-                    else if(name.equals(Symbol.ATTR_E))
-                        ePow = Long.parseLong(attrMap.item(i).getNodeValue());
-                    else if(name.equals(Symbol.ATTR_PI))
-                        piPow = Long.parseLong(attrMap.item(i).getNodeValue());
-                    else if(name.equals(Symbol.ATTR_I))
-                        iPow = Long.parseLong(attrMap.item(i).getNodeValue());
-                    else if(name.startsWith(Symbol.ATTR_VAR))
-                        varPows[name.charAt(Symbol.ATTR_VAR.length()) - 'a'] = Long.parseLong(attrMap.item(i).getNodeValue());
-                }
-                
-                // Create and return the symbol
-                return new Symbol(factor, ePow, piPow, iPow, varPows);
+                    values.set(attrMap.item(i).getNodeName(), attrMap.item(i).getNodeValue());
+                return values.create();
             }
-            else if(tag.equals(Operation.NAME))
+
+            // Read the children
+            Expression[] c = new Expression[MAX_CHILDREN];
+            int n = 0;
+            NodeList childNodes = e.getChildNodes();
+            for(int i = 0; i < childNodes.getLength(); ++i)
             {
-                switch(Integer.parseInt(e.getAttribute(Operation.ATTR_OPERANDS)))
-                {
-                    case 1:
-                        if(e.getAttribute("type").equals(Negate.TYPE))
-                            return new Negate(toMath((Element) e.getFirstChild()));
-                    case 2: return toOpBin(e);
-                    case 4:
-                        if(e.getAttribute("type").equals(Integral.TYPE))
-                        {
-                            Integral integral = new Integral();
-                            NodeList childNodes = e.getChildNodes();
-                            for(int i = 0; i < childNodes.getLength(); ++i)
-                                integral.setChild(i, toMath((Element) childNodes.item(i)));
-                            return integral;
-                        }
-                    break;
-                }
+                if(childNodes.item(i).getNodeType() == Node.ELEMENT_NODE)
+                    c[n++] = toMath((Element) childNodes.item(i));
             }
-            else if(tag.equals(Function.NAME))
+
+            // Create the expression
+            return create(tag, e.hasAttribute(Operation.ATTR_TYPE) ? e.getAttribute(Operation.ATTR_TYPE) : null, c, n);
+        }
+        catch(RuntimeException ex)
+        {}
+        throw new ParseException(tag);
+    }
+
+    /** Reads the {@link Expression} the given parser is positioned at (i.e. the parser should be at its start tag).
+     * After this method returns, the parser is positioned at the end tag of the {@link Expression}.
+     * @param parser The parser
+     * @return The {@link Expression}
+     * @throws ParseException Thrown if anything couldn't be parsed
+     * @throws XmlPullParserException Thrown if the XML is invalid
+     * @throws IOException Thrown if the XML couldn't be read */
+    private static Expression toMath(XmlPullParser parser) throws ParseException, XmlPullParserException, IOException
+    {
+        final String tag = parser.getName();
+        try
+        {
+            // Symbols don't have children, their values are stored in the attributes
+            if(tag.equals(Symbol.NAME))
             {
-                Function.FunctionType type = Function.FunctionType.getByXmlName(e.getAttribute(Function.ATTR_TYPE));
-                Function f = new Function(type);
-                f.setChild(0, toMath((Element) e.getFirstChild()));
-                return f;
+                SymbolValues values = new SymbolValues();
+                for(int i = 0; i < parser.getAttributeCount(); ++i)
+                    values.set(parser.getAttributeName(i), parser.getAttributeValue(i));
+                if(parser.nextTag() != XmlPullParser.END_TAG)
+                    throw new ParseException(tag);
+                return values.create();
             }
-            else if(tag.equals(Parentheses.NAME))
-                return new Parentheses(toMath((Element) e.getFirstChild()));
-            else if(tag.equals(Empty.NAME))
-                return new Empty();
+
+            // The attributes have to be read before we move on to the children
+            final String type = parser.getAttributeValue(null, Operation.ATTR_TYPE);
+
+            // Read the children
+            Expression[] c = new Expression[MAX_CHILDREN];
+            int n = 0;
+            while(parser.nextTag() == XmlPullParser.START_TAG)
+            {
+                if(n == MAX_CHILDREN)
+                    throw new ParseException(tag);
+                c[n++] = toMath(parser);
+            }
+
+            // Create the expression
+            return create(tag, type, c, n);
         }
         catch(RuntimeException ex)
         {}
@@ -153,7 +229,7 @@ public final class ExpressionXMLReader
     /**
      * Construct {@link Expression} from an XML document. If anything fails
      * while parsing the document, a {@link ParseException} is thrown.
-     * 
+     *
      * @param doc
      *        The XML document.
      * @return The constructed mathematical object. Never returns <tt>null</tt>
@@ -165,11 +241,66 @@ public final class ExpressionXMLReader
         Element root = doc.getDocumentElement();
         return toMath((Element) root.getFirstChild());
     }
-    
+
+    /** Creates a new pull parser
+     * @return The new pull parser
+     * @throws XmlPullParserException Thrown if no parser could be created */
+    private static synchronized XmlPullParser newPullParser() throws XmlPullParserException
+    {
+        if(parserFactory == null)
+            parserFactory = XmlPullParserFactory.newInstance();
+        return parserFactory.newPullParser();
+    }
+
+    /**
+     * Construct {@link Expression} from XML that is read by the given pull parser.
+     *
+     * @param parser The parser, its input should already be set
+     * @return The constructed mathematical object. Never returns <tt>null</tt>
+     * @throws ParseException
+     *         Thrown if anything couldn't be parsed.
+     */
+    private static Expression fromXML(XmlPullParser parser) throws ParseException
+    {
+        try
+        {
+            // Skip the root element and read its first child
+            if(parser.nextTag() != XmlPullParser.START_TAG || !Expression.XML_ROOT.equals(parser.getName()))
+                throw new ParseException("Missing root element");
+            if(parser.nextTag() != XmlPullParser.START_TAG)
+                throw new ParseException("Missing expression");
+            return toMath(parser);
+        }
+        catch(XmlPullParserException e)
+        { throw new ParseException(e); }
+        catch(IOException e)
+        { throw new ParseException(e); }
+    }
+
+    /**
+     * Construct {@link Expression} from a XML reader.
+     *
+     * @param in The reader containing the XML
+     * @return The constructed mathematical object. Never returns <tt>null</tt>
+     * @throws ParseException
+     *         Thrown if anything couldn't be parsed.
+     */
+    private static Expression fromXML(Reader in) throws ParseException
+    {
+        try
+        {
+            XmlPullParser parser = newPullParser();
+            parser.setInput(in);
+            return fromXML(parser);
+        }
+        catch(XmlPullParserException e)
+        { throw new ParseException(e); }
+    }
+
     /**
      * Construct {@link Expression} from an XML string (as a byte array). If anything fails
      * while parsing the document, a {@link ParseException} is thrown.
-     * 
+     *
      * @param xml The XML byte array
      * @return The constructed mathematical object. Never returns <tt>null</tt>
      * @throws ParseException
@@ -179,27 +310,23 @@ public final class ExpressionXMLReader
     {
         try
         {
-            InputStream in = new ByteArrayInputStream(xml);
-            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
-            return fromXML(doc);
+            XmlPullParser parser = newPullParser();
+            parser.setInput(new ByteArrayInputStream(xml), null);
+            return fromXML(parser);
         }
-        catch(SAXException e)
-        { throw new ParseException(e); }
-        catch(IOException e)
-        { throw new ParseException(e); }
-        catch(ParserConfigurationException e)
+        catch(XmlPullParserException e)
         { throw new ParseException(e); }
     }
 
     /**
      * Construct {@link Expression} from an XML string. If anything fails
      * while parsing the document, a {@link ParseException} is thrown.
-     * 
+     *
      * @param xml The XML string
      * @return The constructed mathematical object. Never returns <tt>null</tt>
      * @throws ParseException
      *         Thrown if anything couldn't be parsed.
      */
     public static Expression fromXML(String xml) throws ParseException
-    { return fromXML(xml.getBytes()); }
+    { return fromXML(new StringReader(xml)); }
 }
@@ -138,6 +138,7 @@ public class Function extends Expression
     {
         type = t;
         children.add(value != null ? value : new Empty());
+        getChild(0).parent = this;
         operatorPaint.setAntiAlias(true);
         operatorPaint.setStrokeWidth(Expression.lineWidth);
         operatorPaint.setTypeface(TypefaceHolder.dejavuSans);
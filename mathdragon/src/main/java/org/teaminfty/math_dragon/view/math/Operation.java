@@ -65,7 +65,9 @@ public abstract class Operation extends Expression
         {
             if(children.get(i) == null)
                 children.set(i, new Empty());
+            children.get(i).parent = this;
         }
+        invalidateSnapshot();
     }
     
     protected abstract String getType();
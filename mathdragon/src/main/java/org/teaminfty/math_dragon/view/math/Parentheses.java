@@ -33,6 +33,7 @@ public class Parentheses extends Expression
     {
         // We have one child
         children.add(child == null ? new Empty() : child);
+        getChild(0).parent = this;
         
         // Initialise the paint
         paint.setStyle(Paint.Style.STROKE);
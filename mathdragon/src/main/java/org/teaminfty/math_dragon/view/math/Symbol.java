@@ -60,6 +60,15 @@ public class Symbol extends Expression
     /** The paint that is used to draw the factor and the constants */
     protected Paint paint = new Paint();
     
+    /** The text that is drawn for this symbol (<tt>null</tt> if it has to be rebuilt) */
+    private String text = null;
+    
+    /** The text size {@link Symbol#textBounds textBounds} was measured for (<tt>-1</tt> if it hasn't been measured yet) */
+    private float measuredTextSize = -1;
+    
+    /** The bounds of {@link Symbol#text text}, as measured by {@link TextMeasureCache} */
+    private final Rect textBounds = new Rect();
+    
     /** Superscript character lookup table */
     private final static char[] SUPERSCRIPT = new char[] {'\u2070', '\u00b9', '\u00b2', '\u00b3','\u2074','\u2075','\u2076','\u2077', '\u2078', '\u2079'};
 
@@ -163,18 +172,44 @@ public class Symbol extends Expression
      */
     protected Rect getSize(float fontSize)
     {
-        // Set the text size
-        paint.setTextSize(fontSize);
+        // Measure the text and return its size
+        measureText(fontSize);
+        return new Rect(0, 0, textBounds.width(), textBounds.height());
+    }
+    
+    /** Makes sure {@link Symbol#textBounds textBounds} contains the bounds of the text for the given font size
+     * @param fontSize The font size (this should be rounded by {@link TextMeasureCache#bucket(float)}) */
+    private void measureText(float fontSize)
+    {
+        // Nothing to do if we've already measured the text for this font size
+        if(measuredTextSize == fontSize)
+            return;
         
-        // Calculate the total width and the height of the text
-        Rect out = new Rect(0, 0, 0, 0);
-        Rect bounds = new Rect();
-        String str = toString();
-        str = str.substring(1, str.length() - 1);
-        paint.getTextBounds(str, 0, str.length(), bounds);      
-        out.right = bounds.width();
-        out.bottom = bounds.height();
-        return out;
+        // Measure the text
+        TextMeasureCache.getTextBounds(getText(), fontSize, textBounds);
+        measuredTextSize = fontSize;
+    }
+    
+    @Override
+    void copyLayoutTo(Expression copy)
+    {
+        super.copyLayoutTo(copy);
+        
+        // Copy the text and its measured bounds as well
+        Symbol symbol = (Symbol) copy;
+        symbol.text = text;
+        symbol.measuredTextSize = measuredTextSize;
+        symbol.textBounds.set(textBounds);
+    }
+    
+    /** Called whenever the value of this symbol changes */
+    private void contentChanged()
+    {
+        // Our text and therefore our size may have changed
+        text = null;
+        measuredTextSize = -1;
+        invalidateBoundingBoxCacheForSelf();
+        invalidateSnapshot();
     }
 
     /** Adds padding to the given size rectangle
@@ -199,7 +234,7 @@ public class Symbol extends Expression
      * @return The right text size for the given level */
     protected float findTextSize(int lvl)
     {
-        return defaultHeight * (float) Math.pow(2.0 / 3.0, Math.min(lvl, MAX_LEVEL));
+        return TextMeasureCache.bucket(defaultHeight * (float) Math.pow(2.0 / 3.0, Math.min(lvl, MAX_LEVEL)));
     }
 
     @Override
@@ -222,24 +257,21 @@ public class Symbol extends Expression
         // Draw the bounding boxes
         drawBoundingBoxes(canvas);
         
-        // Get the text size and the bounding box
+        // Get the text size and the bounds of the text
         final float textSize = findTextSize(level);
-        Rect textBounding = getSize(textSize);
-        Rect totalBounding = sizeAddPadding(textBounding);
+        measureText(textSize);
 
         // Set the text size and colour
         paint.setTextSize(textSize);
         paint.setColor(getColor());
         
-        // Translate the canvas
+        // Translate the canvas (the padding is the same on all sides, see sizeAddPadding())
+        final int padding = (int) (Expression.lineWidth * 2.5);
         canvas.save();
-        canvas.translate((totalBounding.width() - textBounding.width()) / 2, (totalBounding.height() - textBounding.height()) / 2);
+        canvas.translate(padding, padding);
 
-        String str = toString();
-        str = str.substring(1, str.length() - 1);
-        Rect bounds = new Rect();
-        paint.getTextBounds(str, 0, str.length(), bounds);
-        canvas.drawText(str, -bounds.left, textBounding.height() - bounds.height() - bounds.top, paint);
+        // Draw the text
+        canvas.drawText(getText(), -textBounds.left, -textBounds.top, paint);
         
         // Restore the canvas translation
         canvas.restore();
@@ -266,6 +298,23 @@ public class Symbol extends Expression
      */
     @Override
     public String toString()
+    {
+        return "(" + getText() + ")";
+    }
+    
+    /** Returns the text that is drawn for this symbol (i.e. {@link Symbol#toString() toString()} without the parentheses).
+     * The text is only rebuilt after the symbol has changed.
+     * @return The text for this symbol */
+    private String getText()
+    {
+        if(text == null)
+            text = buildText();
+        return text;
+    }
+    
+    /** Builds the text that is drawn for this symbol
+     * @return The text for this symbol */
+    private String buildText()
     {
         StringBuilder sb = new StringBuilder();
 
@@ -282,7 +331,7 @@ public class Symbol extends Expression
             for(int i = 0; i < varPows.length; i++)
                 appendLit(sb, (char) (i + 'a'), varPows[i]);
         }
-        return "(" + sb.toString() + ")";
+        return sb.toString();
     }
     
     /** Converts a <tt>double</tt> to a string, dropping <tt>".0"</tt> if necessary.
@@ -384,6 +433,9 @@ public class Symbol extends Expression
         
         // Set the factor
         this.factor = (factor > 0 ? Math.floor(factor) : Math.ceil(factor)) + decimals;
+        
+        // Our size may have changed
+        contentChanged();
     }
     
     /**
@@ -392,6 +444,7 @@ public class Symbol extends Expression
      */
     public double invertFactor()
     {
+        contentChanged();
         return this.factor = -factor;
     }
 
@@ -403,7 +456,10 @@ public class Symbol extends Expression
     /** Set the new power for <tt>pi</tt>
      * @param piPow the new power for <tt>pi</tt> */
     public void setPiPow(long piPow)
-    { this.piPow = piPow; }
+    {
+        this.piPow = piPow;
+        contentChanged();
+    }
 
     /** Get the current power for <tt>e</tt>
      * @return The current power for <tt>e</tt> */
@@ -413,7 +469,10 @@ public class Symbol extends Expression
     /** Set the new power for <tt>e</tt>
      * @param ePow the new power for <tt>e</tt> */
     public void setEPow(long ePow)
-    { this.ePow = ePow; }
+    {
+        this.ePow = ePow;
+        contentChanged();
+    }
 
     /** Get the current power for <tt>i</tt>
      * @return The current power for <tt>i</tt> */
@@ -423,7 +482,10 @@ public class Symbol extends Expression
     /** Set the new power for <tt>i</tt>
      * @param iPow the new power for <tt>i</tt> */
     public void setIPow(long iPow)
-    { this.iPow = iPow; }
+    {
+        this.iPow = iPow;
+        contentChanged();
+    }
 
     /** Get the current power for the given variable
      * @param index The variable index
@@ -435,7 +497,10 @@ public class Symbol extends Expression
      * @param index The variable index
      * @param pow the new power for the variable */
     public void setVarPow(int index, long pow)
-    { varPows[index] = pow; }
+    {
+        varPows[index] = pow;
+        contentChanged();
+    }
     
     public void setVarPow(char index, long pow)
     { setVarPow(index > 'Z' ? index - 'a' : index - 'A', pow); }
@@ -479,6 +544,7 @@ public class Symbol extends Expression
             ePow = newEPow;
             iPow = newIPow;
             varPows = newVarPows;
+            contentChanged();
 
             // We have successfully raised the symbol to a power
             return true;
@@ -0,0 +1,113 @@
+package org.teaminfty.math_dragon.view.math;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.teaminfty.math_dragon.view.TypefaceHolder;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * A cache for the bounds of text drawn in the {@link TypefaceHolder#dejavuSans DejaVu sans} font, shared by all {@link Symbol}s.
+ * Text sizes are rounded to buckets of {@link TextMeasureCache#BUCKET_SIZE BUCKET_SIZE} pixels,
+ * so that the cache can still be used while the text size changes continuously (e.g. while zooming).
+ * Text that is measured with this cache should also be drawn at the rounded text size (see {@link TextMeasureCache#bucket(float) bucket()}).
+ */
+final class TextMeasureCache
+{
+    /** The size of the text size buckets (in pixels) */
+    public static final float BUCKET_SIZE = 0.25f;
+
+    /** The maximum number of measurements that are kept in the cache */
+    private static final int CACHE_SIZE = 512;
+
+    /** The key for a measurement in the cache */
+    private static final class Key
+    {
+        /** The text that was measured */
+        private final String text;
+
+        /** The (rounded) text size that was used */
+        private final float textSize;
+
+        /** Constructor
+         * @param text The text that was measured
+         * @param textSize The (rounded) text size that was used */
+        public Key(String text, float textSize)
+        {
+            this.text = text;
+            this.textSize = textSize;
+        }
+
+        @Override
+        public int hashCode()
+        { return 31 * text.hashCode() + Float.floatToIntBits(textSize); }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return textSize == other.textSize && text.equals(other.text);
+        }
+    }
+
+    /** The cached measurements, in access order so that the least recently used measurement is removed first */
+    private static final Map<Key, Rect> cache = new LinkedHashMap<Key, Rect>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 2146370512237624187L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Rect> eldest)
+        { return size() > CACHE_SIZE; }
+    };
+
+    /** The paint that is used to measure the text */
+    private static final Paint paint = new Paint();
+
+    /** The typeface the measurements in the cache were made with */
+    private static Typeface cachedTypeface = null;
+
+    /** This class only contains static methods */
+    private TextMeasureCache()
+    {}
+
+    /** Rounds the given text size to its bucket
+     * @param textSize The text size
+     * @return The rounded text size */
+    public static float bucket(float textSize)
+    {
+        return Math.round(textSize / BUCKET_SIZE) * BUCKET_SIZE;
+    }
+
+    /** Measures the bounds of the given text (like {@link Paint#getTextBounds(String, int, int, Rect) Paint.getTextBounds()})
+     * @param text The text to measure
+     * @param textSize The text size, this should already be rounded by {@link TextMeasureCache#bucket(float) bucket()}
+     * @param out The {@link Rect} to store the bounds in */
+    public static synchronized void getTextBounds(String text, float textSize, Rect out)
+    {
+        // The measurements are no longer valid if the font has been (re)loaded
+        if(cachedTypeface != TypefaceHolder.dejavuSans)
+        {
+            cache.clear();
+            paint.setAntiAlias(true);
+            paint.setTypeface(cachedTypeface = TypefaceHolder.dejavuSans);
+        }
+
+        // Check if we've measured the text before
+        Key key = new Key(text, textSize);
+        Rect bounds = cache.get(key);
+        if(bounds == null)
+        {
+            // Measure the text
+            bounds = new Rect();
+            paint.setTextSize(textSize);
+            paint.getTextBounds(text, 0, text.length(), bounds);
+            cache.put(key, bounds);
+        }
+        out.set(bounds);
+    }
+}
@@ -25,10 +25,27 @@ public abstract class Binary extends Operation
     }
 
     public Binary(Expression left, Expression right)
+    {
+        this(left, right, null);
+    }
+
+    /**
+     * Constructor for binary operations whose children have a different level than the operation itself.
+     * The level deltas are needed before the children are set, since setting them sets their level.
+     * 
+     * @param left
+     *        The mathematical expression to the left.
+     * @param right
+     *        The mathematical expression to the right.
+     * @param deltas
+     *        The deltas that are added to the level for the left and the right child.
+     */
+    protected Binary(Expression left, Expression right, int[] deltas)
     {
         // We have two children
         children.add(new Empty());
         children.add(new Empty());
+        levelDeltas = deltas;
         
         // Set the left and right child
         set(left, right);
@@ -341,57 +341,13 @@ public class Integral extends Operation
     { return getChild(3); }
 	
 	@Override
-  	public void setLevel(int l)
-  	{
-        // Invalidate the cache (if necessary)
-        if(l != level)
-            invalidateBoundingBoxCacheForSelf();
-        
-        // Set the level
-        level = l;
-        
-        // Special treatment for the integrate part
-        if(getIntegratePart() instanceof Integral)
-            getChild(0).setLevel(level);
-        else
-            getChild(0).setLevel(level + 1);
-        
-        // Set the level every child
-        for(int i = 1; i < getChildCount(); ++i)
-        {
-            if(levelDeltas != null && i < levelDeltas.length)
-                getChild(i).setLevel(l + levelDeltas[i]);
-            else
-                getChild(i).setLevel(l);
-        }
-  	}
-
-    @Override
-	public void setAll(int lvl, int defHeight, boolean valid)
-    {
-        // Set the values
-        level = lvl;
-        defaultHeight = defHeight;
-        operatorBoundingBoxValid = valid;
-        childrenBoundingBoxValid = valid;
-        totalBoundingBoxValid = valid;
-        centerValid = valid;
-        
+	protected int getChildLevel(int index)
+	{
         // Special treatment for the integrate part
-        if(getIntegratePart() instanceof Integral)
-            getChild(0).setAll(lvl, defHeight, valid);
-        else
-            getChild(0).setAll(lvl + 1, defHeight, valid);
-        
-        // Set the values for all children
-        for(int i = 1; i < getChildCount(); ++i)
-        {
-            if(levelDeltas != null && i < levelDeltas.length)
-                getChild(i).setAll(lvl + levelDeltas[i], defHeight, valid);
-            else
-                getChild(i).setAll(lvl, defHeight, valid);
-        }
-    }
+	    if(index == 0)
+	        return getIntegratePart() instanceof Integral ? level : level + 1;
+	    return super.getChildLevel(index);
+	}
 	
 	@Override
 	protected String getType()
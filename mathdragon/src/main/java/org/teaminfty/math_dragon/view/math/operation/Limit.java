@@ -1,5 +1,6 @@
 package org.teaminfty.math_dragon.view.math.operation;
 
+import org.teaminfty.math_dragon.view.math.Empty;
 import org.teaminfty.math_dragon.view.math.Expression;
 import org.teaminfty.math_dragon.view.math.Operation;
 import org.teaminfty.math_dragon.view.math.Symbol;
@@ -39,12 +40,16 @@ public class Limit extends Operation
     {
         super(3);
         
+        children.add(new Empty());
+        children.add(new Empty());
+        children.add(new Empty());
+        
+        levelDeltas = new int[] {2, 2, 0};
+        
         setChildWithoutRefresh(0, start);
         setChildWithoutRefresh(1, end);
         setChildWithoutRefresh(2, expression);
         setAll(level, defaultHeight, false);
-        
-        levelDeltas = new int[] {2, 2, 0};
     }
     
     /** Default constructor */
@@ -138,7 +143,7 @@ public class Limit extends Operation
     
     //Complete bounding box
     @Override
-    public Rect getBoundingBox()
+    public Rect calculateBoundingBox()
     {
         Rect[] operatorSizes = getOperatorBoundingBoxes();
         Rect[] child = this.getChildrenSize();
@@ -26,6 +26,7 @@ public class Negate extends Operation
     {
         super(1);
         children.add(new Empty());
+        setChildWithoutRefresh(0, null);
         
         initPaint();
     }
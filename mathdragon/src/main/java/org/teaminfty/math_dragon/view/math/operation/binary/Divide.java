@@ -25,9 +25,7 @@ public class Divide extends Binary
     
     public Divide(Expression left, Expression right)
     {
-    	super(left, right);
-        
-        levelDeltas = new int[] {1, 1};
+    	super(left, right, new int[] {1, 1});
     }
     
     public String toString()
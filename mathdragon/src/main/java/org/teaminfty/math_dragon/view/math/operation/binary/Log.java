@@ -54,11 +54,9 @@ public class Log extends Binary
     /** Constructor */
     public Log(Expression base, Expression parameter)
     {
-        super(base, parameter);
+        super(base, parameter, new int[] {2, 0});
         this.name = "log";
         
-        levelDeltas = new int[] {2, 0};
-        
         initPaint();
     }
     
@@ -22,9 +22,7 @@ public class Power extends Binary
     
     public Power(Expression base, Expression power)
     {
-        super(base, power);
-        
-        levelDeltas = new int[] {0, 1};
+        super(base, power, new int[] {0, 1});
         
         // Initialise the paint
         operatorPaint.setColor(0xcc4444ff);
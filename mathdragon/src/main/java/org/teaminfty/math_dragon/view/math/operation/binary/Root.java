@@ -19,9 +19,7 @@ public class Root extends Binary
 
     public Root(Expression base, Expression exponent)
     {
-        super(exponent, base);
-        
-        levelDeltas = new int[] {1, 0};
+        super(exponent, base, new int[] {1, 0});
 
         // Initialise the paint
         operatorPaint.setAntiAlias(true);